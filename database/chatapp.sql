@@ -1,3 +1,9 @@
+-- Lược đồ tham khảo. Server không đọc file này khi khởi động: lược đồ được tạo và
+-- nâng cấp bởi các migration trong DatabaseManager, phiên bản lưu ở bảng schema_version.
+CREATE TABLE IF NOT EXISTS schema_version (
+    version INTEGER NOT NULL
+);
+
 -- Tạo bảng messages để lưu tin nhắn
 CREATE TABLE IF NOT EXISTS messages (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
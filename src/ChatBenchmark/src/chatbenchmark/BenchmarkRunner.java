@@ -0,0 +1,42 @@
+package chatbenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Chạy các benchmark JMH và ghi kết quả JSON vào build/jmh/&lt;tag&gt;.json để so sánh giữa
+ * các commit, ví dụ {@code -Dbench.tag=$(git rev-parse --short HEAD)}. Nhận mọi tham số
+ * dòng lệnh của JMH ({@code -l}, {@code -h}, bộ lọc tên...); {@code -rf} và {@code -rff}
+ * ghi đè mặc định.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!cli.getResultFormat().hasValue()) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!cli.getResult().hasValue()) {
+            String tag = System.getProperty("bench.tag",
+                    new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()));
+            File dir = new File("build/jmh");
+            dir.mkdirs();
+            jmhArgs.add("-rff");
+            jmhArgs.add(new File(dir, tag + ".json").getPath());
+        }
+        Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,58 @@
+package chatclient;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JLabel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Ngắt dòng tin nhắn theo chiều rộng bong bóng chat, phần layout tốn nhất của khung chat. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WrapMessageBenchmark {
+
+    @Param({"40", "400", "4000"})
+    public int length;
+
+    /** Tỉ lệ từ dài hơn một dòng, ví dụ URL hoặc chuỗi đã mã hóa. */
+    @Param({"0", "10"})
+    public int longWordPercent;
+
+    private final FontMetrics fm = new JLabel().getFontMetrics(new Font("Segoe UI", Font.PLAIN, 14));
+    private String message;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int wordLength = random.nextInt(100) < longWordPercent ? 90 + random.nextInt(60) : 2 + random.nextInt(8);
+            for (int i = 0; i < wordLength; i++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            sb.append(' ');
+        }
+        message = sb.substring(0, length);
+    }
+
+    @Benchmark
+    public List<String> wrapMessage() {
+        return TranscriptEntry.wrap(message, fm, 520);
+    }
+}
@@ -0,0 +1,106 @@
+package chatcommon;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mã hóa và giải mã nội dung tin nhắn theo từng suite. VigenereCipher cũ nay là
+ * {@link VigenereCodec}; các suite AEAD dùng cặp khóa cố định, bên nhận đảo chiều khóa.
+ *
+ * Giải mã xoay vòng qua nhiều bản mã khác nhau: ChaCha20-Poly1305 của JDK từ chối khởi tạo
+ * lại với đúng khóa và nonce vừa dùng, kể cả khi giải mã. Bên nhận AEAD từ chối bản mã đã
+ * nhận, nên mỗi vòng dùng một codec nhận mới; chi phí tạo codec chia đều cho ENCODED_COUNT lần.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"PLAIN", "VIGENERE", "AES_GCM", "CHACHA20_POLY1305"})
+    public String suite;
+
+    @Param({"32", "512", "4096"})
+    public int length;
+
+    private CipherSuite cipherSuite;
+    private SessionKeys receiverKeys;
+    private MessageCodec sender;
+    private MessageCodec receiver;
+    private byte[] plain;
+    private static final int ENCODED_COUNT = 1024;
+    private byte[][] encoded;
+    private int[] encodedLength;
+    private int next;
+    private byte[] output;
+    private String text;
+
+    @Setup
+    public void setup() {
+        cipherSuite = CipherSuite.valueOf(suite);
+        Random random = new Random(42);
+        if (cipherSuite.isKeyed()) {
+            byte[] a = new byte[32];
+            byte[] b = new byte[32];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            sender = cipherSuite.newCodec(new SessionKeys(a, b));
+            receiverKeys = new SessionKeys(b, a);
+            receiver = cipherSuite.newCodec(receiverKeys);
+        } else {
+            sender = cipherSuite.newCodec();
+            receiver = sender;
+        }
+
+        // Chữ thường, chữ hoa, số và dấu tiếng Việt, giống tin nhắn chat thật
+        String alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 àáạảãâầấậẩẫăằắặẳẵêềếệểễđ";
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        text = sb.toString();
+        plain = text.getBytes(StandardCharsets.UTF_8);
+        int maxLength = sender.maxEncodedLength(plain.length);
+        encoded = new byte[ENCODED_COUNT][maxLength];
+        encodedLength = new int[ENCODED_COUNT];
+        for (int i = 0; i < ENCODED_COUNT; i++) {
+            encodedLength[i] = sender.encode(plain, 0, plain.length, encoded[i], 0);
+        }
+        output = new byte[Math.max(maxLength, plain.length)];
+    }
+
+    @Benchmark
+    public int encode() {
+        return sender.encode(plain, 0, plain.length, output, 0);
+    }
+
+    @Benchmark
+    public int decode() {
+        int i = next;
+        next = (i + 1) % ENCODED_COUNT;
+        if (i == 0 && receiverKeys != null) {
+            receiver = cipherSuite.newCodec(receiverKeys);
+        }
+        return receiver.decode(encoded[i], 0, encodedLength[i], output, 0);
+    }
+
+    /** Đường đi của tin chat: chuỗi vào, chuỗi ra, gồm cả chuyển đổi UTF-8. */
+    @Benchmark
+    public String encodeText() {
+        return sender.encodeText(text);
+    }
+}
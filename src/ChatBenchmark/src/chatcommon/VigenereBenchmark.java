@@ -0,0 +1,95 @@
+package chatcommon;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vigenère trên tin nhắn từ 16 ký tự tới 64K, gồm cả tin dài như nội dung dán vào. Đường
+ * chuỗi (encodeText/decodeText) là đường của tin chat; encode và encodeChars ghi vào mảng có
+ * sẵn, theo byte UTF-8 và theo char.
+ *
+ * Xoay vòng qua MESSAGE_COUNT tin khác nhau: lặp lại đúng một tin thì bộ dự đoán rẽ nhánh của
+ * CPU học thuộc vị trí chữ cái và kết quả đẹp hơn thực tế.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VigenereBenchmark {
+
+    @Param({"16", "256", "4096", "65536"})
+    public int length;
+
+    private static final int MESSAGE_COUNT = 64;
+    private final VigenereCodec codec = new VigenereCodec();
+    private final String[] texts = new String[MESSAGE_COUNT];
+    private final String[] encrypted = new String[MESSAGE_COUNT];
+    private final byte[][] plain = new byte[MESSAGE_COUNT][];
+    private final char[][] chars = new char[MESSAGE_COUNT][];
+    private byte[] output;
+    private char[] charOutput;
+    private int next;
+
+    @Setup
+    public void setup() {
+        // Cùng bảng ký tự với CodecBenchmark: chữ thường, chữ hoa, số và dấu tiếng Việt
+        String alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 àáạảãâầấậẩẫăằắặẳẵêềếệểễđ";
+        Random random = new Random(42);
+        int maxBytes = 0;
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            StringBuilder sb = new StringBuilder(length);
+            while (sb.length() < length) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            texts[i] = sb.toString();
+            encrypted[i] = codec.encodeText(texts[i]);
+            plain[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+            chars[i] = texts[i].toCharArray();
+            maxBytes = Math.max(maxBytes, plain[i].length);
+        }
+        output = new byte[codec.maxEncodedLength(maxBytes)];
+        charOutput = new char[length];
+    }
+
+    private int nextMessage() {
+        int i = next;
+        next = (i + 1) % MESSAGE_COUNT;
+        return i;
+    }
+
+    @Benchmark
+    public String encodeText() {
+        return codec.encodeText(texts[nextMessage()]);
+    }
+
+    @Benchmark
+    public String decodeText() {
+        return codec.decodeText(encrypted[nextMessage()]);
+    }
+
+    @Benchmark
+    public int encode() {
+        byte[] message = plain[nextMessage()];
+        return codec.encode(message, 0, message.length, output, 0);
+    }
+
+    @Benchmark
+    public int encodeChars() {
+        char[] message = chars[nextMessage()];
+        return codec.encode(message, 0, message.length, charOutput, 0);
+    }
+}
@@ -0,0 +1,40 @@
+package chatserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Kho lưu trữ tạm cho benchmark, xóa sạch khi đóng. */
+final class BenchmarkStorage {
+    final Path dir;
+    final ChatStorage storage;
+
+    private BenchmarkStorage(Path dir, ChatStorage storage) {
+        this.dir = dir;
+        this.storage = storage;
+    }
+
+    /**
+     * @param backend "sqlite" hoặc "log", giống khóa storage.backend
+     */
+    static BenchmarkStorage open(String backend, boolean fsync) throws IOException {
+        Path dir = Files.createTempDirectory("chat-bench-");
+        ChatStorage storage = "sqlite".equals(backend)
+                ? new DatabaseManager(new File(dir.toFile(), "chatapp.db"))
+                : new LogStructuredStore(dir.toFile(), LogStructuredStore.DEFAULT_SEGMENT_BYTES, fsync);
+        if (!storage.connect()) {
+            throw new IllegalStateException("Không mở được backend " + backend);
+        }
+        return new BenchmarkStorage(dir, storage);
+    }
+
+    void close() throws IOException {
+        storage.disconnect();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package chatserver;
+
+import chatcommon.CipherSuite;
+import chatcommon.MessageCodec;
+import chatcommon.SessionKeys;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ChatServer#broadcastMessage} tới N client giả, mỗi client ghi vào một sink bỏ dữ
+ * liệu. Tin chat gồm giải mã một lần, mã hóa lại cho từng người nhận và một lần ghi vào
+ * backend log (không fsync); tin hệ thống chỉ là phần phát tán. Server từ chối bản mã AEAD đã
+ * nhận, nên mỗi lần đo client của alice mã hóa một tin mới như khi chat thật.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int recipients;
+
+    @Param({"VIGENERE", "AES_GCM"})
+    public String suite;
+
+    private BenchmarkStorage store;
+    private ChatServer server;
+    private ClientHandler sender;
+    private MessageCodec senderClient;
+    private static final String TEXT = "Xin chào mọi người, tối nay họp lúc 8 giờ nhé!";
+
+    private static final ServerView NO_VIEW = new ServerView() {
+        @Override
+        public void logMessage(String message) {
+        }
+
+        @Override
+        public void logCompareMessage(String username, String encryptedContent, String originalContent) {
+        }
+
+        @Override
+        public void updateClientCount(int count) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        store = BenchmarkStorage.open("log", false);
+        Properties properties = new Properties();
+        properties.setProperty("log.file", store.dir.resolve("chatserver.%g.log").toString());
+        server = new ChatServer(NO_VIEW, new ServerConfig(properties), store.storage);
+
+        CipherSuite cipherSuite = CipherSuite.valueOf(suite);
+        Random random = new Random(42);
+        MessageCodec[] senderPair = codecPair(cipherSuite, random);
+        sender = new ClientHandler(server, store.storage, "alice", senderPair[0], OutputStream.nullOutputStream());
+        server.clients.add(sender);
+        for (int i = 0; i < recipients; i++) {
+            MessageCodec codec = codecPair(cipherSuite, random)[0];
+            server.clients.add(new ClientHandler(server, store.storage, "user" + i, codec,
+                    OutputStream.nullOutputStream()));
+        }
+        // Nội dung do client của alice mã hóa, server giải mã bằng codec phiên của alice
+        senderClient = senderPair[1];
+    }
+
+    // [0] là codec phía server, [1] là codec phía client của cùng phiên
+    private static MessageCodec[] codecPair(CipherSuite suite, Random random) {
+        if (!suite.isKeyed()) {
+            MessageCodec codec = suite.newCodec();
+            return new MessageCodec[]{codec, codec};
+        }
+        byte[] a = new byte[32];
+        byte[] b = new byte[32];
+        random.nextBytes(a);
+        random.nextBytes(b);
+        return new MessageCodec[]{suite.newCodec(new SessionKeys(a, b)), suite.newCodec(new SessionKeys(b, a))};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.clients.clear();
+        store.close();
+    }
+
+    @Benchmark
+    public void chatMessage() {
+        server.broadcastMessage("alice: " + senderClient.encodeText(TEXT), sender);
+    }
+
+    @Benchmark
+    public void systemMessage() {
+        server.broadcastMessage("alice đã tham gia chat!", sender);
+    }
+}
@@ -0,0 +1,52 @@
+package chatserver;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Ghi một tin nhắn vào kho lưu trữ, như sau mỗi lần broadcast tin chat. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({"sqlite", "log"})
+    public String backend;
+
+    /** Chỉ áp dụng cho backend log; SQLite dùng cấu hình đồng bộ mặc định của driver. */
+    @Param({"false"})
+    public boolean fsync;
+
+    private BenchmarkStorage store;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        store = BenchmarkStorage.open(backend, fsync);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Benchmark
+    public long saveMessageWithEncryption() {
+        return store.storage.saveMessageWithEncryption("bench-host", "127.0.0.1", "alice",
+                "alice: Xin chào, đây là tin nhắn benchmark", "alice: WGluIGNow6BvLCDEkcOieSBsw6A=", 9000);
+    }
+}
@@ -0,0 +1,53 @@
+package chatserver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Phân loại dòng lệnh trong vòng lặp của {@link ClientHandler#run()}: tìm lệnh và tách
+ * tham số, không gồm phần xử lý của từng lệnh (đã có benchmark riêng cho broadcast và lưu trữ).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolDispatchBenchmark {
+
+    // Tỉ lệ gần với phiên chat thật: phần lớn là MSG, thỉnh thoảng lệnh khác
+    private final String[] lines = {
+        "MSG:dGluIG5oYW4gZGEgbWEgaG9hIGJhbmcgQUVTLUdDTQ==",
+        "MSG:Xin chào mọi người",
+        "MSG:aGVsbG8gd29ybGQ=",
+        "MSG:QUFBQUFBQUFBQUFBQUFBQUFBQUFBQUFBQUFB",
+        "GET_ONLINE_USERS",
+        "MSG:bWVzc2FnZQ==",
+        "FILE_HEADER:report.pdf:application/pdf:1048576:all",
+        "REQUEST_FILE:report.pdf",
+        "FILE_RECEIVED:report.pdf",
+        "REQUEST_CHAT_HISTORY",
+        "tin nhắn từ client cũ không có tiền tố",
+        "MSG:b2s="
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void dispatch(Blackhole bh) {
+        for (String line : lines) {
+            ProtocolCommand command = ProtocolCommand.of(line);
+            bh.consume(command);
+            bh.consume(command.argument(line));
+        }
+    }
+}
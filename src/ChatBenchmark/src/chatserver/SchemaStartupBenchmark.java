@@ -0,0 +1,121 @@
+package chatserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mở database SQLite lớn như lúc server khởi động. {@code schema=current}: database đã ở phiên
+ * bản mới nhất (khởi động bình thường); {@code schema=legacy}: database tạo bởi phiên bản chưa có
+ * schema_version, còn hai chỉ mục nội dung (lần khởi động đầu sau khi nâng cấp). Mỗi lần đo mở
+ * một bản sao mới của database mẫu.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchemaStartupBenchmark {
+
+    @Param({"1000000"})
+    public int messages;
+
+    @Param({"current", "legacy"})
+    public String schema;
+
+    private Path dir;
+    private File template;
+    private File database;
+    private DatabaseManager manager;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException, SQLException {
+        dir = Files.createTempDirectory("chat-startup-");
+        template = new File(dir.toFile(), "template.db");
+        database = new File(dir.toFile(), "chatapp.db");
+
+        DatabaseManager seed = new DatabaseManager(template);
+        if (!seed.connect()) {
+            throw new IllegalStateException("Không tạo được database " + template);
+        }
+        seed.disconnect();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + template.getAbsolutePath())) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO messages (hostname, ip_address, "
+                    + "username, message, original_message, encrypted_message, server_port) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < messages; i++) {
+                    String text = "user" + (i % 50) + ": Tin nhắn benchmark số " + i;
+                    insert.setString(1, "bench-host");
+                    insert.setString(2, "127.0.0.1");
+                    insert.setString(3, "user" + (i % 50));
+                    insert.setString(4, text);
+                    insert.setString(5, text);
+                    insert.setString(6, "user" + (i % 50) + ": VGluIG5o4bqvbiBiZW5jaG1hcmsgc+G7kSA=" + i);
+                    insert.setInt(7, 9000 + i % 4);
+                    insert.addBatch();
+                    if (i % 10_000 == 9_999) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            if ("legacy".equals(schema)) {
+                // Như database của phiên bản trước khi có migration
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("DROP TABLE IF EXISTS schema_version");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_original ON messages(original_message)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_encrypted ON messages(encrypted_message)");
+                }
+            }
+            connection.commit();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyDatabase() throws IOException {
+        Files.copy(template.toPath(), database.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        manager = new DatabaseManager(database);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disconnect() {
+        manager.disconnect();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDatabase() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean connect() {
+        return manager.connect();
+    }
+}
@@ -1,170 +1,368 @@
 package chatclient;
 
+import chatclient.ChatClientListener.DisconnectReason;
+import chatcommon.CipherSuite;
+import chatcommon.CodecException;
+import chatcommon.FileStreamCipher;
+import chatcommon.MessageCodec;
+import chatcommon.SessionHandshake;
+import chatcommon.StructuredLog;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Base64;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
 import java.util.logging.*;
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
-import java.awt.Desktop;
 
+/**
+ * Client giao thức chat, không phụ thuộc Swing hay AWT.
+ *
+ * Socket do một {@link ClientTransport} không chặn sở hữu, với một thread I/O duy nhất.
+ * Sự kiện từ server được báo qua {@link ChatClientListener} trên thread đó. Các thao tác
+ * gửi không chặn: chúng được xếp vào hàng đợi gửi của transport và trả về
+ * {@link CompletableFuture}, hoàn tất khi server xác nhận (lịch sử, file) hoặc khi đã ghi
+ * xong (tin nhắn). File đang gửi giữ hàng đợi lại nên tin chat không chen vào giữa dữ liệu.
+ *
+ * Khi mất kết nối, client tự kết nối lại với RESUME:token:id tin nhắn cuối đã thấy, và
+ * server gửi lại đúng những tin nhắn bị lỡ thay vì cả lịch sử.
+ */
 public class ChatClient {
-    private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private volatile ClientTransport transport;
     private String username;
-    private boolean connected = false;
-    private ChatClientGUI gui;
+    private volatile boolean connected = false;
+    private final ChatClientListener listener;
     private static final Logger logger = Logger.getLogger(ChatClient.class.getName());
-    private VigenereCipher cipher;
+    // Codec thỏa thuận với server khi kết nối
+    private volatile MessageCodec codec = CipherSuite.PLAIN.newCodec();
     private String serverAddress;
     private int serverPort;
-    private Queue<FileTransferRequest> fileTransferQueue = new ConcurrentLinkedQueue<>();
-    private boolean fileTransferInProgress = false;
-    
+    // Lý do mất kết nối, do dòng lệnh cuối cùng của server quyết định
+    private volatile DisconnectReason disconnectReason;
+    // Mã hóa và xếp hàng tin chat trong cùng khóa: server từ chối tin có bộ đếm nonce nhỏ hơn tin trước
+    private final Object sendOrder = new Object();
+    // Lập lịch gửi file của kết nối hiện tại
+    private volatile UploadScheduler uploads;
+    private volatile int maxConcurrentUploads = DEFAULT_CONCURRENT_UPLOADS;
+    // Server trả lịch sử theo thứ tự yêu cầu
+    private final Queue<CompletableFuture<List<HistoryEntry>>> pendingHistory = new ConcurrentLinkedQueue<>();
+    // File đang chờ tải về, theo tên file trên server
+    private final Map<String, PendingDownload> pendingDownloads = new ConcurrentHashMap<>();
+    // Ảnh xem trước đang chờ, theo tên file trên server
+    private final Map<String, PendingDownload> pendingPreviews = new ConcurrentHashMap<>();
+    // Server báo hỗ trợ REQUEST_PREVIEW trong RESUMED
+    private volatile boolean serverPreviews;
+    // Server gửi danh sách online dạng delta có phiên bản; giữ qua các lần tự kết nối lại để
+    // server chỉ gửi phần thay đổi, xóa khi đăng nhập mới
+    private volatile boolean serverPresence;
+    private volatile String presenceEpoch = "";
+    private volatile long presenceVersion = -1;
+    // Gửi kèm RESUME khi kết nối lại: token phiên server cấp và id tin nhắn cuối đã thấy
+    private volatile String sessionToken = "";
+    private volatile long lastMessageId = -1;
+    // true từ connect() tới khi disconnect() hoặc hết số lần kết nối lại
+    private volatile boolean wantConnection;
+    private volatile boolean autoReconnect = true;
+    private volatile int reconnectAttempt;
+    private volatile ScheduledFuture<?> reconnectTask;
+    // Lưu cục bộ tin nhắn đã nhận, null nếu không dùng
+    private volatile MessageCache cache;
+    // Nạp từ cache khi connect(), báo cho listener khi đã kết nối được
+    private List<HistoryEntry> cachedHistory = Collections.emptyList();
+
     // Thêm bộ theo dõi tin nhắn trùng lặp
-    private Set<String> recentConnectedUsers = new HashSet<>();
+    private final Set<String> recentConnectedUsers = ConcurrentHashMap.newKeySet();
     private static final long CONNECTION_MESSAGE_TIMEOUT = 5000; // 5 giây timeout
-    
+    // Một thread dùng chung cho mọi client để xóa mục trùng lặp và hết hạn chờ server,
+    // thay vì một Timer mỗi sự kiện
+    private static final ScheduledExecutorService TIMERS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chatclient-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     // Hằng số cho quá trình truyền file
-    private static final int BUFFER_SIZE = 8192;
     private static final int PROGRESS_UPDATE_INTERVAL = 5; // cập nhật tiến độ mỗi 5%
-    
-    public class FileTransferRequest {
-        private final File file;
-        private final String recipient;
-        
-        public FileTransferRequest(File file, String recipient) {
-            this.file = file;
-            this.recipient = recipient;
-        }
-        
-        public File getFile() {
-            return file;
-        }
-        
-        public String getRecipient() {
-            return recipient;
-        }
-    }
-    
-    public ChatClient(ChatClientGUI gui) {
-        this.gui = gui;
-        this.cipher = new VigenereCipher();
-        setupLogger();
-    }
-    
-    private void setupLogger() {
-        try {
-            File logsDir = new File("logs");
-            if (!logsDir.exists()) {
-                logsDir.mkdir();
-            }
-            
-            Handler fileHandler = new FileHandler("logs/chatclient.log", true);
-            fileHandler.setFormatter(new SimpleFormatter());
-            Logger.getLogger("").addHandler(fileHandler);
-            Logger.getLogger("").setLevel(Level.INFO);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    private static final int DEFAULT_CONCURRENT_UPLOADS = 2;
+    private static final long DISCONNECT_TIMEOUT = 1000;
+    private static final long RECONNECT_BASE_DELAY = 500;
+    private static final long RECONNECT_MAX_DELAY = 30000;
+    private static final int MAX_RECONNECT_ATTEMPTS = 10;
+    private static final int CACHED_HISTORY_SIZE = 50;
+    // Giống định dạng thời điểm server gửi trong lịch sử (UTC)
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final String NOT_CONNECTED = "Bạn chưa kết nối đến server!";
+    // Nơi đổ dữ liệu file khi không mở được file đích
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static final class PendingDownload {
+        private final String savePath;
+        private final CompletableFuture<File> future = new CompletableFuture<>();
+
+        PendingDownload(String savePath) {
+            this.savePath = savePath;
         }
     }
-    
-    public boolean connect(String serverAddress, int port, String username) {
-        try {
-            this.serverAddress = serverAddress;
-            this.serverPort = port;
-            this.username = username;
 
-            socket = new Socket(serverAddress, port);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+    public ChatClient(ChatClientListener listener) {
+        this.listener = listener;
+    }
 
-            // Gửi username đến server
-            writer.println(username);
+    /** Đăng nhập mới; các tin nhắn trước đó lấy bằng {@link #requestHistory()}. */
+    public boolean connect(String serverAddress, int port, String username) {
+        cancelReconnect();
+        this.serverAddress = serverAddress;
+        this.serverPort = port;
+        this.username = username;
+        sessionToken = "";
+        lastMessageId = -1;
+        // Danh sách online đã bị xóa khi ngắt kết nối: lần đăng nhập mới phải nhận snapshot
+        presenceEpoch = "";
+        presenceVersion = -1;
+        reconnectAttempt = 0;
+        // Tin đã lưu được hiển thị ngay; server chỉ gửi lại những tin sau tin mới nhất trong cache
+        MessageCache current = cache;
+        cachedHistory = current != null
+                ? current.recent(serverAddress, port, CACHED_HISTORY_SIZE)
+                : Collections.<HistoryEntry>emptyList();
+        if (!cachedHistory.isEmpty()) {
+            lastMessageId = cachedHistory.get(cachedHistory.size() - 1).getId();
+        }
+        wantConnection = true;
+        if (!openConnection(false)) {
+            wantConnection = false;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean openConnection(boolean resuming) {
+        SocketChannel channel = null;
+        ClientTransport opened = null;
+        try {
+            disconnectReason = null;
 
-            // Bắt đầu thread đọc tin nhắn từ server
-            new Thread(new MessageReader()).start();
+            channel = SocketChannel.open(new InetSocketAddress(serverAddress, serverPort));
+            ServerHandler handler = new ServerHandler(resuming);
+            opened = new ClientTransport(channel, handler, "chatclient-io-" + username);
+            transport = opened;
+            opened.start();
 
-            // Bắt đầu thread xử lý file
-            new Thread(new FileTransferProcessor()).start();
+            // Thỏa thuận bộ mã hóa và khóa phiên trước khi gửi username
+            negotiateCipher(handler);
+            uploads = new UploadScheduler(transport, codec.getFileCipher(), listener, maxConcurrentUploads);
+            transport.setBulkSource(uploads);
 
-            connected = true;
+            if (!resuming && cache != null) {
+                // Trước RESUME, để lịch sử đã lưu đến listener trước các tin server gửi bù
+                listener.onCachedHistory(cachedHistory);
+            }
+            // Server gửi lại các tin nhắn có id lớn hơn lastMessageId rồi trả lời RESUMED
+            transport.sendLine("RESUME:" + sessionToken + ":" + lastMessageId);
+            // Gửi username đến server
+            transport.sendLine(username);
+            synchronized (this) {
+                // disconnect() được gọi trong lúc đang kết nối lại
+                if (!wantConnection) {
+                    transport.close();
+                    return false;
+                }
+                connected = true;
+            }
 
-            // Yêu cầu danh sách người dùng ngay sau khi kết nối
-            requestOnlineUsers();
+            // Danh sách người dùng được yêu cầu khi nhận RESUMED, lúc đã biết server hỗ trợ gì
 
-            logger.info("Connected to server: " + serverAddress + ":" + port + " as " + username);
+            StructuredLog.info(logger, "connected", "server", serverAddress + ":" + serverPort, "user", username,
+                    "resume", resuming);
             return true;
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Could not connect to server", e);
+            if (resuming) {
+                logger.warning("Could not reconnect to server: " + e);
+            } else {
+                logger.log(Level.SEVERE, "Could not connect to server", e);
+            }
+            if (opened != null) {
+                opened.close();
+            } else if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Kết nối chưa dùng được, không còn gì để dọn
+                }
+            }
             return false;
         }
     }
 
+    private void negotiateCipher(ServerHandler handler) throws IOException {
+        SessionHandshake handshake;
+        try {
+            handshake = new SessionHandshake();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Không thể tạo khóa phiên", e);
+        }
+
+        transport.sendLine(CipherSuite.hello(handshake.getPublicKey(), CipherSuite.availableSuites()));
+        String reply;
+        try {
+            reply = handler.handshakeReply.get(HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Server không phản hồi thỏa thuận mã hóa", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Mất kết nối khi thỏa thuận mã hóa", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Bị ngắt khi thỏa thuận mã hóa");
+        }
+        if (!reply.startsWith(CipherSuite.SELECTED_PREFIX)) {
+            throw new IOException("Server không phản hồi thỏa thuận mã hóa: " + reply);
+        }
+
+        String[] parts = reply.substring(CipherSuite.SELECTED_PREFIX.length()).split(":", 2);
+        CipherSuite suite = CipherSuite.fromName(parts[0]);
+        if (suite == null || !suite.isAvailable() || (suite.isKeyed() && parts.length < 2)) {
+            throw new IOException("Server chọn bộ mã hóa không hỗ trợ: " + reply);
+        }
+
+        if (suite.isKeyed()) {
+            try {
+                codec = suite.newCodec(handshake.deriveKeys(parts[1], suite, true));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Không thể thỏa thuận khóa phiên", e);
+            }
+        } else {
+            codec = suite.newCodec();
+        }
+        StructuredLog.info(logger, "cipher negotiated", "suite", suite);
+    }
+
     public boolean isConnected() {
         return connected;
     }
-    
+
     public String getUsername() {
         return username;
     }
-    
-    public void sendMessage(String message) {
-        if (connected) {
+
+    private static <T> CompletableFuture<T> notConnected() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException(NOT_CONNECTED));
+        return future;
+    }
+
+    /**
+     * Lưu tin nhắn nhận được vào {@code cache} và dùng nó khi {@link #connect} để hiển thị ngay
+     * lịch sử (qua {@link ChatClientListener#onCachedHistory}) và chỉ xin server phần còn thiếu.
+     * Đặt trước khi connect; null để tắt.
+     */
+    public void setMessageCache(MessageCache cache) {
+        this.cache = cache;
+    }
+
+    /** Gửi một dòng lệnh thô đến server. */
+    public CompletableFuture<Void> sendMessage(String message) {
+        ClientTransport current = transport;
+        if (!connected || current == null) {
+            return notConnected();
+        }
+        logger.fine(() -> "Message queued: " + message);
+        return current.sendLine(message);
+    }
+
+    /**
+     * Gửi một tin nhắn chat; nội dung được mã hóa bằng codec đã thỏa thuận.
+     */
+    public CompletableFuture<Void> sendChatMessage(String text) {
+        synchronized (sendOrder) {
+            String encoded;
             try {
-                // Gửi tin nhắn thô đến server, không mã hóa
-                writer.println(message);
-                logger.info("Message sent: " + message);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error sending message", e);
-                gui.displaySystemMessage("Lỗi khi gửi tin nhắn: " + e.getMessage());
+                encoded = codec.encodeText(text);
+            } catch (CodecException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
             }
-        } else {
-            gui.displaySystemMessage("Bạn chưa kết nối đến server!");
+            return sendMessage("MSG:" + encoded);
         }
     }
-    
+
     public void requestOnlineUsers() {
         if (connected) {
-            writer.println("GET_ONLINE_USERS");
-            logger.info("Requested online users list");
+            sendMessage(onlineUsersRequest());
+            logger.fine("Requested online users list");
         }
     }
-    
-    public void sendFile(File file) {
-        // Add file to queue, with null recipient for broadcast
-        fileTransferQueue.add(new FileTransferRequest(file, null));
+
+    // Server hỗ trợ delta chỉ gửi phần thay đổi kể từ phiên bản client đang có
+    private String onlineUsersRequest() {
+        return serverPresence ? "PRESENCE_SYNC:" + presenceEpoch + ":" + presenceVersion : "GET_ONLINE_USERS";
+    }
+
+    /** Yêu cầu lịch sử chat gần đây; future hoàn tất khi đã nhận đủ. */
+    public CompletableFuture<List<HistoryEntry>> requestHistory() {
+        CompletableFuture<List<HistoryEntry>> history = new CompletableFuture<>();
+        pendingHistory.add(history);
+        sendMessage("REQUEST_CHAT_HISTORY").whenComplete((ignored, error) -> {
+            if (error != null && pendingHistory.remove(history)) {
+                history.completeExceptionally(error);
+            }
+        });
+        return history;
+    }
+
+    /**
+     * Gửi file cho mọi người. Future trả về tên file trên server (server có thể đổi tên để
+     * tránh trùng) sau khi server xác nhận đã nhận đủ.
+     */
+    public CompletableFuture<String> sendFile(File file) {
         logger.info("Added file to transfer queue: " + file.getName());
-        // Hiển thị thông báo đang chuẩn bị gửi file
-        gui.displaySystemMessage("Đang chuẩn bị gửi file: " + file.getName());
+        return uploadFile(file, null);
     }
-    
-    public void sendFileToUser(File file, String recipient) {
-        fileTransferQueue.add(new FileTransferRequest(file, recipient));
+
+    public CompletableFuture<String> sendFileToUser(File file, String recipient) {
         logger.info("Added file to transfer queue for " + recipient + ": " + file.getName());
-        // Hiển thị thông báo đang chuẩn bị gửi file
-        gui.displaySystemMessage("Đang chuẩn bị gửi file đến " + recipient + ": " + file.getName());
+        return uploadFile(file, recipient);
     }
-    
+
     public String getFileTypeFromExtension(String fileName) {
         String extension = "";
         int i = fileName.lastIndexOf('.');
         if (i > 0) {
             extension = fileName.substring(i + 1).toLowerCase();
         }
-        
+
         if (extension.matches("jpg|jpeg|png|gif|bmp|tiff|webp")) {
             return "image";
         } else if (extension.matches("mp3|wav|ogg|flac|aac|m4a|wma")) {
@@ -177,7 +375,7 @@ public class ChatClient {
             return "other";
         }
     }
-    
+
     private String getFileSizeFormat(long size) {
         if (size < 1024) {
             return size + " B";
@@ -189,452 +387,694 @@ public class ChatClient {
             return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
         }
     }
-    
-    private class FileTransferProcessor implements Runnable {
+
+    private CompletableFuture<String> uploadFile(File file, String recipient) {
+        ClientTransport current = transport;
+        UploadScheduler scheduler = uploads;
+        if (!connected || current == null || scheduler == null) {
+            return notConnected();
+        }
+        UploadScheduler.Upload upload;
+        try {
+            upload = new UploadScheduler.Upload(file, getFileTypeFromExtension(file.getName()), recipient);
+        } catch (IOException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (!current.execute(() -> scheduler.add(upload))) {
+            upload.fail(new IllegalStateException(NOT_CONNECTED));
+        }
+        return upload.future;
+    }
+
+    /**
+     * Số file được gửi song song trên một kết nối (mặc định 2). Các file còn lại chờ theo mức
+     * ưu tiên và được báo vị trí qua {@link ChatClientListener#onFileQueued}.
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        ClientTransport current = transport;
+        UploadScheduler scheduler = uploads;
+        if (current != null && scheduler != null) {
+            current.execute(() -> scheduler.setMaxActive(maxConcurrentUploads));
+        }
+    }
+
+    // Server đã nhận đủ file, có thể dưới tên khác
+    private void fileUploaded(UploadScheduler.Upload upload, String storedName) {
+        listener.onFileProgress(upload.fileName, 100);
+        listener.onFileShared(username, storedName, getFileTypeFromExtension(storedName), getFileSizeFormat(upload.fileSize));
+        StructuredLog.info(logger, "file sent", "file", storedName, "bytes", upload.fileSize);
+        upload.future.complete(storedName);
+    }
+
+    // Báo tiến độ truyền file, mỗi PROGRESS_UPDATE_INTERVAL phần trăm một lần
+    static LongConsumer progressReporter(ChatClientListener listener, String fileName, long fileSize) {
+        int[] lastProgressPercentage = {0};
+        return bytesDone -> {
+            int progressPercentage = fileSize == 0 ? 100 : (int) ((bytesDone * 100) / fileSize);
+            if (progressPercentage >= lastProgressPercentage[0] + PROGRESS_UPDATE_INTERVAL) {
+                lastProgressPercentage[0] = progressPercentage;
+                listener.onFileProgress(fileName, progressPercentage);
+            }
+        };
+    }
+
+    /**
+     * Tải một file từ server về {@code savePath}. Gọi lại khi file đang được tải thì nhận
+     * future của lần tải đó.
+     */
+    public CompletableFuture<File> requestFile(String fileName, String savePath) {
+        PendingDownload download = new PendingDownload(savePath);
+        PendingDownload previous = pendingDownloads.putIfAbsent(fileName, download);
+        if (previous != null) {
+            return previous.future;
+        }
+        sendMessage("REQUEST_FILE:" + fileName + ":" + savePath).whenComplete((ignored, error) -> {
+            if (error != null && pendingDownloads.remove(fileName, download)) {
+                download.future.completeExceptionally(error);
+            }
+        });
+        logger.info("Requested file: " + fileName + " to be saved at: " + savePath);
+        return download.future;
+    }
+
+    /** Server đang kết nối có tạo ảnh xem trước cho file ảnh hay không. */
+    public boolean supportsPreviews() {
+        return serverPreviews;
+    }
+
+    /**
+     * Tải ảnh thu nhỏ server đã tạo cho file {@code fileName} về {@code savePath}, thay vì cả
+     * file gốc. Hoàn thành với null nếu file không có ảnh xem trước hoặc server không hỗ trợ
+     * ({@link #supportsPreviews()}).
+     */
+    public CompletableFuture<File> requestPreview(String fileName, String savePath) {
+        if (!serverPreviews) {
+            return CompletableFuture.completedFuture(null);
+        }
+        PendingDownload download = new PendingDownload(savePath);
+        PendingDownload previous = pendingPreviews.putIfAbsent(fileName, download);
+        if (previous != null) {
+            return previous.future;
+        }
+        sendMessage("REQUEST_PREVIEW:" + fileName).whenComplete((ignored, error) -> {
+            if (error != null && pendingPreviews.remove(fileName, download)) {
+                download.future.completeExceptionally(error);
+            }
+        });
+        return download.future;
+    }
+
+    /** Xử lý các dòng server gửi, trên thread I/O của transport. */
+    private class ServerHandler implements ClientTransport.Handler {
+        private final CompletableFuture<String> handshakeReply = new CompletableFuture<>();
+        // Kết nối này là lần kết nối lại tự động
+        private final boolean resuming;
+        // Khác null khi đang nhận lịch sử chat
+        private List<HistoryEntry> history;
+        // Khác null khi đã nhận FILE_READY và đang chờ dòng FILE_SIZE
+        private String[] fileReady;
+
+        ServerHandler(boolean resuming) {
+            this.resuming = resuming;
+        }
+
         @Override
-        public void run() {
-            while (connected) {
+        public void onLine(String message) throws IOException {
+            if (!handshakeReply.isDone()) {
+                handshakeReply.complete(message);
+            } else if (history != null) {
+                receiveChatHistory(message);
+            } else if (fileReady != null) {
+                String[] ready = fileReady;
+                fileReady = null;
+                receiveFile(ready[1], ready[2], message);
+            } else if (message.equals("SERVER_SHUTDOWN")) {
+                disconnectReason = DisconnectReason.SERVER_SHUTDOWN;
+                transport.close();
+            } else if (message.equals("DISCONNECTED_BY_OTHER_SESSION")) {
+                disconnectReason = DisconnectReason.OTHER_SESSION;
+                transport.close();
+            } else if (message.startsWith("ACCOUNT_ALREADY_LOGGED_IN:")) {
+                listener.onSessionConflict(message.substring("ACCOUNT_ALREADY_LOGGED_IN:".length()));
+            } else if (message.startsWith("MSG:")) {
+                // FORMAT: MSG:id:người gửi: nội dung
+                String[] parts = message.split(":", 3);
+                if (parts.length == 3) {
+                    receiveChat(parts[1], TIMESTAMP_FORMAT.format(Instant.now()), parts[2]);
+                }
+            } else if (message.startsWith("REPLAY:")) {
+                // FORMAT: REPLAY:id|thời điểm|người gửi|nội dung, tin nhắn bỏ lỡ khi mất kết nối
+                String[] parts = message.substring("REPLAY:".length()).split("\\|", 4);
+                if (parts.length == 4) {
+                    receiveChat(parts[0], parts[1], parts[2] + ": " + parts[3]);
+                }
+            } else if (message.startsWith("RESUMED:")) {
+                resumed(message.substring("RESUMED:".length()).split(":"));
+            } else if (message.startsWith("CHAT_HISTORY_BEGIN")) {
+                history = new ArrayList<>();
+            } else if (message.startsWith("UPLOAD_ACCEPTED:")) {
+                // Phản hồi cho file mình đang gửi; scheduler bắt đầu gửi các khối của file này
+                uploads.accepted(message.substring("UPLOAD_ACCEPTED:".length()));
+            } else if (message.startsWith("UPLOAD_REJECTED:")) {
+                String[] parts = message.substring("UPLOAD_REJECTED:".length()).split(":", 2);
+                if (uploads.rejected(parts[0], parts.length > 1 ? parts[1] : "") != null) {
+                    logger.warning("File transfer rejected: " + message);
+                }
+            } else if (message.startsWith("UPLOAD_DONE:")) {
+                String[] parts = message.substring("UPLOAD_DONE:".length()).split(":", 2);
+                UploadScheduler.Upload upload = uploads.done(parts[0]);
+                if (upload != null && parts.length > 1) {
+                    fileUploaded(upload, parts[1]);
+                }
+            } else if (message.startsWith("FILE_HEADER:")) {
+                handleFileHeader(message);
+            } else if (message.startsWith("FILE_READY:")) {
+                String[] parts = message.split(":", 3);
+                if (parts.length >= 3) {
+                    fileReady = parts;
+                }
+            } else if (message.startsWith("PREVIEW:")) {
+                // FORMAT: PREVIEW:số byte:tên file, theo sau là dữ liệu ảnh đã mã hóa như file
+                String[] parts = message.substring("PREVIEW:".length()).split(":", 2);
+                if (parts.length == 2) {
+                    receivePreview(parts[1], Long.parseLong(parts[0]));
+                }
+            } else if (message.startsWith("PREVIEW_NONE:")) {
+                PendingDownload preview = pendingPreviews.remove(message.substring("PREVIEW_NONE:".length()));
+                if (preview != null) {
+                    preview.future.complete(null);
+                }
+            } else if (message.startsWith("FILE_NOT_FOUND:")) {
+                failDownload(message.substring("FILE_NOT_FOUND:".length()),
+                        new FileNotFoundException("Server không có file: " + message.substring("FILE_NOT_FOUND:".length())));
+            } else if (message.startsWith("FILE_SEND_ERROR:")) {
+                // Server không cho biết file nào lỗi
+                failAllDownloads(new IOException("Server không gửi được file: " + message.substring("FILE_SEND_ERROR:".length())));
+            } else if (message.startsWith("PRESENCE_DELTA:")) {
+                // FORMAT: PRESENCE_DELTA:epoch:từ phiên bản:đến phiên bản:+a,-b
+                String[] parts = message.substring("PRESENCE_DELTA:".length()).split(":", 4);
+                if (parts.length == 4) {
+                    applyPresenceDelta(parts);
+                }
+            } else if (message.startsWith("PRESENCE_SNAPSHOT:")) {
+                // FORMAT: PRESENCE_SNAPSHOT:epoch:phiên bản:a,b,c
+                String[] parts = message.substring("PRESENCE_SNAPSHOT:".length()).split(":", 3);
+                if (parts.length == 3) {
+                    presenceEpoch = parts[0];
+                    presenceVersion = Long.parseLong(parts[1]);
+                    listener.onUserList(otherUsers(parts[2]));
+                }
+            } else if (message.startsWith("USER_LIST:")) {
+                // Xử lý danh sách người dùng từ server
+                processUserList(message.substring("USER_LIST:".length()));
+            } else if (message.startsWith("USER_CONNECTED:")) {
+                // Người dùng mới kết nối
+                String newUser = message.substring("USER_CONNECTED:".length());
+                if (!newUser.equals(username) && firstSeen(newUser + "_connected")) {
+                    listener.onUserJoined(newUser);
+                }
+            } else if (message.startsWith("USER_DISCONNECTED:")) {
+                // Người dùng ngắt kết nối
+                String leftUser = message.substring("USER_DISCONNECTED:".length());
+                if (!leftUser.equals(username) && firstSeen(leftUser + "_disconnected")) {
+                    listener.onUserLeft(leftUser);
+                }
+            } else if (message.startsWith("FILE_MESSAGE:")) {
+                // Process file message from another user
+                String[] parts = message.split(":", 5);
+                if (parts.length >= 5) {
+                    listener.onFileShared(parts[1], parts[2], parts[3], parts[4]);
+                }
+            } else if (message.startsWith(username + ":")) {
+                // Tin nhắn từ chính mình - server echo lại
+                // Bỏ qua vì đã hiển thị khi gửi
+            } else if (message.contains(" đã tham gia chat!")) {
+                // Bỏ qua thông báo này vì đã được xử lý ở USER_CONNECTED
+                // Tránh hiển thị trùng lặp
+            } else if (message.contains(" đã rời chat!")) {
+                // Bỏ qua thông báo này vì đã được xử lý ở USER_DISCONNECTED
+                // Tránh hiển thị trùng lặp
+            } else if (message.contains(": ")) {
+                // Tin nhắn từ người khác - tách người gửi và giải mã nội dung
+                int separator = message.indexOf(": ");
                 try {
-                    // If a file transfer is in progress, wait
-                    if (fileTransferInProgress) {
-                        Thread.sleep(500);
-                        continue;
-                    }
-                    
-                    // Get next file from queue
-                    FileTransferRequest request = fileTransferQueue.poll();
-                    if (request == null) {
-                        Thread.sleep(500);
-                        continue;
-                    }
-                    
-                    fileTransferInProgress = true;
-                    File file = request.getFile();
-                    String recipient = request.getRecipient();
-                    
-                    try {
-                        // Get file information
-                        String fileName = file.getName();
-                        long fileSize = file.length();
-                        String fileType = getFileTypeFromExtension(fileName);
-                        String fileSizeDisplay = getFileSizeFormat(fileSize);
-                        
-                        // Notify server about the file
-                        String header = "FILE_HEADER:" + fileName + ":" + fileSize + ":" + fileType + ":" + fileSizeDisplay;
-                        if (recipient != null) {
-                            header += ":" + recipient;  // Add recipient if specified
-                        }
-                        writer.println(header);
-                        logger.info("Sent file header: " + header);
-                        
-                        // Wait for server acknowledgment
-                        String response = reader.readLine();
-                        if (response.startsWith("FILE_ACCEPTED:")) {
-                            // Server is ready to receive the file
-                            sendFileData(file);
-                        } else {
-                            logger.warning("File transfer rejected: " + response);
-                            gui.displaySystemMessage("Yêu cầu gửi file bị từ chối: " + response);
-                        }
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error initiating file transfer", e);
-                        gui.displaySystemMessage("Lỗi khi gửi file: " + e.getMessage());
-                    } finally {
-                        fileTransferInProgress = false;
-                    }
-                } catch (InterruptedException e) {
-                    logger.log(Level.WARNING, "File transfer processor interrupted", e);
-                    Thread.currentThread().interrupt();
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Unexpected error in file transfer processor", e);
+                    listener.onMessage(message.substring(0, separator),
+                            codec.decodeText(message.substring(separator + 2)));
+                } catch (CodecException e) {
+                    logger.warning("Dropped undecodable message: " + e.getMessage());
                 }
+            } else {
+                // Tin nhắn hệ thống khác
+                listener.onSystemMessage(message);
             }
         }
-        
-        private void sendFileData(File file) throws IOException {
-            FileInputStream fis = null;
-            OutputStream os = null;
-            
+
+        // Tin nhắn có id từ server hỗ trợ RESUME. Tin của chính mình cũng được gửi về để lưu
+        // vào cache, nhưng không báo listener vì đã hiển thị khi gửi
+        private void receiveChat(String id, String timestamp, String chat) {
+            long messageId;
             try {
-                fis = new FileInputStream(file);
-                os = socket.getOutputStream();
-                
-                // Send the file bytes
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                long totalBytesSent = 0;
-                long fileSize = file.length();
-                int lastProgressPercentage = 0;
-                
-                // Display file sending notification in chat
-                gui.displaySystemMessage("Đang gửi file: " + file.getName() + " (0%)");
-                
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
-                    totalBytesSent += bytesRead;
-                    
-                    // Update progress
-                    int progressPercentage = (int) ((totalBytesSent * 100) / fileSize);
-                    if (progressPercentage >= lastProgressPercentage + PROGRESS_UPDATE_INTERVAL) {
-                        lastProgressPercentage = progressPercentage;
-                        gui.updateFileProgress(file.getName(), progressPercentage);
-                    }
-                }
-                
-                os.flush();
-                
-                // Wait for confirmation from server
-                String confirmation = reader.readLine();
-                if (confirmation.startsWith("FILE_RECEIVED:")) {
-                    gui.updateFileProgress(file.getName(), 100);
-                    logger.info("File sent successfully: " + file.getName());
-                    gui.displaySystemMessage("File đã được gửi thành công: " + file.getName());
-                    
-                    // Extract file details from confirmation message
-                    String[] parts = confirmation.split(":", 3);
-                    if (parts.length >= 3) {
-                        String fileName = parts[1];
-                        String fileDetails = parts[2];
-                        // Trigger display of file in chat
-                        String fileType = getFileTypeFromExtension(fileName);
-                        gui.displayFileMessage(username, fileName, fileType, fileDetails);
-                    }
-                } else {
-                    logger.warning("Unexpected response after file transfer: " + confirmation);
-                    gui.displaySystemMessage("Có lỗi xảy ra khi gửi file: " + confirmation);
-                }
-            } finally {
-                if (fis != null) fis.close();
-                // Don't close os as it would close the socket
+                messageId = Long.parseLong(id);
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid message id from server: " + id);
+                return;
+            }
+            // Server gửi theo thứ tự id tăng dần và không dùng lại id; id không lớn hơn id cuối
+            // là tin đã nhận (hoặc id lỗi), không được kéo lastMessageId lùi lại
+            if (messageId <= lastMessageId) {
+                logger.fine(() -> "Ignored message id " + messageId + ", last is " + lastMessageId);
+                return;
+            }
+            lastMessageId = messageId;
+            int separator = chat.indexOf(": ");
+            if (separator < 0) {
+                return;
+            }
+            String sender = chat.substring(0, separator);
+            String text;
+            try {
+                text = codec.decodeText(chat.substring(separator + 2));
+            } catch (CodecException e) {
+                logger.warning("Dropped undecodable message: " + e.getMessage());
+                return;
+            }
+            cacheEntry(new HistoryEntry(messageId, timestamp, sender, text));
+            if (!sender.equals(username)) {
+                listener.onMessage(sender, text);
             }
         }
-    }
-    
-    public void requestFile(String fileName, String savePath) {
-        if (connected) {
+
+        private void cacheEntry(HistoryEntry entry) {
+            MessageCache current = cache;
+            if (current != null) {
+                current.add(serverAddress, serverPort, entry);
+            }
+        }
+
+        // FORMAT: RESUMED:token:id cuối:partial[:tính năng,...]
+        private void resumed(String[] parts) {
+            if (parts.length < 3) {
+                return;
+            }
+            sessionToken = parts[0];
+            List<String> features = parts.length > 3 ? Arrays.asList(parts[3].split(",")) : Collections.<String>emptyList();
+            serverPreviews = features.contains("preview");
+            serverPresence = features.contains("presence");
+            transport.sendLine(onlineUsersRequest());
             try {
-                writer.println("REQUEST_FILE:" + fileName + ":" + savePath);
-                logger.info("Requested file: " + fileName + " to be saved at: " + savePath);
-                gui.displaySystemMessage("Đã yêu cầu tải file: " + fileName);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error requesting file", e);
-                gui.displaySystemMessage("Lỗi khi yêu cầu file!");
+                lastMessageId = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid message id from server: " + parts[1]);
+            }
+            if (resuming) {
+                reconnectAttempt = 0;
+                boolean complete = !"1".equals(parts[2]);
+                StructuredLog.info(logger, "session resumed", "user", username, "lastId", lastMessageId,
+                        "complete", complete);
+                listener.onReconnected(complete);
             }
-        } else {
-            gui.displaySystemMessage("Bạn chưa kết nối đến server!");
         }
-    }
-    
-    private class MessageReader implements Runnable {
+
         @Override
-        public void run() {
-            try {
-                String message;
-                while ((message = reader.readLine()) != null) {
-                    if (message.equals("SERVER_SHUTDOWN")) {
-                        gui.displaySystemMessage("Server đã đóng kết nối. Bạn đã bị ngắt kết nối.");
-                        gui.handleServerShutdown();
-                        break;
-                    } else if (message.equals("DISCONNECTED_BY_OTHER_SESSION")) {
-                        gui.displaySystemMessage("Tài khoản của bạn đã đăng nhập ở nơi khác. Bạn đã bị ngắt kết nối.");
-                        gui.handleServerShutdown();
-                        break;
-                    } else if (message.startsWith("ACCOUNT_ALREADY_LOGGED_IN:")) {
-                        String username = message.substring("ACCOUNT_ALREADY_LOGGED_IN:".length());
-                        gui.handleExistingSession(username);
-                    } else if (message.startsWith("CHAT_HISTORY_BEGIN")) {
-                        receiveAndDisplayChatHistory();
-                    } else if (message.startsWith("FILE_HEADER:")) {
-                        handleFileHeader(message);
-                    } else if (message.startsWith("FILE_READY:")) {
-                        String[] parts = message.split(":", 3);
-                        if (parts.length >= 3) {
-                            String fileName = parts[1];
-                            String savePath = parts[2];
-                            receiveFile(fileName, savePath);
-                        }
-                    } else if (message.startsWith("USER_LIST:")) {
-                        // Xử lý danh sách người dùng từ server
-                        processUserList(message.substring("USER_LIST:".length()));
-                    } else if (message.startsWith("USER_CONNECTED:")) {
-                        // Người dùng mới kết nối
-                        String newUser = message.substring("USER_CONNECTED:".length());
-                        if (!newUser.equals(username)) {
-                            // Kiểm tra xem người dùng này đã hiển thị gần đây chưa
-                            String userKey = newUser + "_connected";
-                            if (!recentConnectedUsers.contains(userKey)) {
-                                gui.displaySystemMessage(newUser + " đã tham gia chat!");
-                                gui.updateUserList(newUser, true);
-                                
-                                // Thêm vào tập hợp người dùng gần đây và lên lịch xóa
-                                recentConnectedUsers.add(userKey);
-                                new Timer().schedule(new TimerTask() {
-                                    @Override
-                                    public void run() {
-                                        recentConnectedUsers.remove(userKey);
-                                    }
-                                }, CONNECTION_MESSAGE_TIMEOUT);
-                            }
-                        }
-                    } else if (message.startsWith("USER_DISCONNECTED:")) {
-                        // Người dùng ngắt kết nối
-                        String leftUser = message.substring("USER_DISCONNECTED:".length());
-                        if (!leftUser.equals(username)) {
-                            String userKey = leftUser + "_disconnected";
-                            if (!recentConnectedUsers.contains(userKey)) {
-                                gui.displaySystemMessage(leftUser + " đã rời chat!");
-                                gui.updateUserList(leftUser, false);
-                                
-                                // Thêm vào tập hợp người dùng gần đây và lên lịch xóa
-                                recentConnectedUsers.add(userKey);
-                                new Timer().schedule(new TimerTask() {
-                                    @Override
-                                    public void run() {
-                                        recentConnectedUsers.remove(userKey);
-                                    }
-                                }, CONNECTION_MESSAGE_TIMEOUT);
-                            }
-                        }
-                    } else if (message.startsWith("FILE_MESSAGE:")) {
-                        // Process file message from another user
-                        String[] parts = message.split(":", 5);
-                        if (parts.length >= 5) {
-                            String sender = parts[1];
-                            String fileName = parts[2];
-                            String fileType = parts[3];
-                            String fileDetails = parts[4];
-                            
-                            // Display the file notification in the chat window
-                            gui.displayFileMessage(sender, fileName, fileType, fileDetails);
-                        }
-                    } else if (message.startsWith(username + ":")) {
-                        // Tin nhắn từ chính mình - server echo lại
-                        // Bỏ qua vì đã hiển thị khi gửi
-                        continue;
-                    } else if (message.contains(" đã tham gia chat!")) {
-                        // Bỏ qua thông báo này vì đã được xử lý ở USER_CONNECTED
-                        // Tránh hiển thị trùng lặp
-                        continue;
-                    } else if (message.contains(" đã rời chat!")) {
-                        // Bỏ qua thông báo này vì đã được xử lý ở USER_DISCONNECTED
-                        // Tránh hiển thị trùng lặp
-                        continue;
-                    } else if (message.contains(": ")) {
-                        // Tin nhắn từ người khác - cần tách người gửi và nội dung đúng cách
-                        gui.displayReceivedMessage(message);
-                    } else {
-                        // Tin nhắn hệ thống khác
-                        gui.displaySystemMessage(message);
-                    }
+        public void onClosed(IOException cause) {
+            handshakeReply.completeExceptionally(cause != null ? cause : new EOFException("Kết nối đã đóng"));
+            boolean wasConnected = connected;
+            if (cause != null && wasConnected) {
+                logger.log(Level.SEVERE, "Lost connection to server", cause);
+            }
+            shutdown();
+            UploadScheduler scheduler = uploads;
+            if (scheduler != null) {
+                scheduler.failAll(cause != null ? cause : new IOException("Đã ngắt kết nối khỏi server"));
+            }
+            if (wasConnected) {
+                DisconnectReason reason = disconnectReason != null ? disconnectReason : DisconnectReason.CONNECTION_LOST;
+                // Phiên bị đẩy ra bởi lần đăng nhập khác thì không kết nối lại
+                if (reason == DisconnectReason.OTHER_SESSION || !scheduleReconnect(reason)) {
+                    listener.onDisconnected(reason);
                 }
-            } catch (IOException ex) {
-                if (connected) {
-                    logger.log(Level.SEVERE, "Lost connection to server", ex);
-                    gui.displaySystemMessage("Mất kết nối đến server!");
-                    gui.handleServerShutdown();
+            }
+        }
+
+        // Một người dùng vào/ra nhiều lần trong CONNECTION_MESSAGE_TIMEOUT chỉ báo một lần
+        private boolean firstSeen(String userKey) {
+            if (!recentConnectedUsers.add(userKey)) {
+                return false;
+            }
+            TIMERS.schedule(() -> recentConnectedUsers.remove(userKey),
+                    CONNECTION_MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        private void receiveChatHistory(String line) {
+            if (!line.equals("CHAT_HISTORY_END")) {
+                // Server gửi kèm id cho client đã gửi RESUME: ID|TIMESTAMP|AUTHOR|MESSAGE
+                long id = -1;
+                int idEnd = line.indexOf('|');
+                if (idEnd > 0 && isDigits(line, idEnd)) {
+                    id = Long.parseLong(line.substring(0, idEnd));
+                    line = line.substring(idEnd + 1);
                 }
-            } finally {
-                connected = false;
-                try {
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
+                String[] parts = line.split("\\|", 3);
+                if (parts.length == 3) {
+                    try {
+                        HistoryEntry entry = new HistoryEntry(id, parts[0], parts[1], codec.decodeText(parts[2]));
+                        history.add(entry);
+                        cacheEntry(entry);
+                    } catch (CodecException e) {
+                        logger.warning("Skipped undecodable history entry: " + e.getMessage());
                     }
-                } catch (IOException e) {
-                    logger.log(Level.SEVERE, "Error closing socket", e);
                 }
+                return;
+            }
+
+            List<HistoryEntry> entries = history;
+            history = null;
+            CompletableFuture<List<HistoryEntry>> pending = pendingHistory.poll();
+            if (pending != null) {
+                pending.complete(entries);
+            } else {
+                logger.fine("Chat history received without a pending request");
             }
+            logger.info("Received chat history with " + entries.size() + " messages");
         }
 
-        private void receiveAndDisplayChatHistory() throws IOException {
-            List<String> messages = new ArrayList<>();
-            List<String> authors = new ArrayList<>();
-            List<String> timestamps = new ArrayList<>();
-            
-            String line;
-            while (!(line = reader.readLine()).equals("CHAT_HISTORY_END")) {
-                String[] parts = line.split("\\|", 3);
-                if (parts.length == 3) {
-                    String timestamp = parts[0];
-                    String author = parts[1];
-                    String message = parts[2];
-                    
-                    timestamps.add(timestamp);
-                    authors.add(author);
-                    messages.add(message);
+        private boolean isDigits(String text, int end) {
+            for (int i = 0; i < end; i++) {
+                if (!Character.isDigit(text.charAt(i))) {
+                    return false;
                 }
             }
-            
-            // Send history to GUI for display
-            gui.displayChatHistory(messages, authors, timestamps);
-            logger.info("Received chat history with " + messages.size() + " messages");
+            return true;
         }
 
         private void handleFileHeader(String message) {
+            // FORMAT: FILE_HEADER:filename:filesize:filetype:sender
             String[] parts = message.split(":", 5);
             if (parts.length >= 5) {
                 String fileName = parts[1];
                 long fileSize = Long.parseLong(parts[2]);
                 String fileType = parts[3];
-                String fileDetails = parts[4];
-                
-                gui.displaySystemMessage("Đang nhận file: " + fileName + " (" + fileDetails + ")");
+                String sender = parts[4];
+
                 logger.info("Receiving file: " + fileName + ", size: " + fileSize + ", type: " + fileType);
-                
-                // Create default path to save file
-                String downloadsFolder = System.getProperty("user.home") + File.separator + "Downloads";
-                String savePath = downloadsFolder + File.separator + fileName;
-                
-                // Create Downloads folder if it doesn't exist
-                new File(downloadsFolder).mkdirs();
-                
-                // Accept file
-                writer.println("ACCEPT_FILE:" + fileName + ":" + savePath);
-                logger.info("Accepting file: " + fileName + " to be saved at: " + savePath);
+                // File chỉ được tải về khi gọi requestFile, không cần trả lời server
+                listener.onFileOffered(sender, fileName, fileType, fileSize);
             }
         }
 
-        private void receiveFile(String fileName, String savePath) {
+        private void receiveFile(String fileName, String serverPath, String fileSizeMessage) throws IOException {
+            PendingDownload download = pendingDownloads.remove(fileName);
+            String savePath = download != null ? download.savePath : serverPath;
+
+            // Get file size from server message
+            long fileSize = 0;
+            if (fileSizeMessage.startsWith("FILE_SIZE:")) {
+                fileSize = Long.parseLong(fileSizeMessage.substring("FILE_SIZE:".length()));
+            }
+
+            // Notify server we're ready
+            sendMessage("READY_TO_RECEIVE:" + fileName);
+
+            OutputStream target;
             try {
-                InputStream is = socket.getInputStream();
-                FileOutputStream fos = new FileOutputStream(savePath);
-                
-                // Get file size from server message
-                String fileSizeMessage = reader.readLine();
-                long fileSize = 0;
-                if (fileSizeMessage.startsWith("FILE_SIZE:")) {
-                    fileSize = Long.parseLong(fileSizeMessage.substring("FILE_SIZE:".length()));
-                }
-                
-                // Notify server we're ready
-                writer.println("READY_TO_RECEIVE:" + fileName);
-                
-                // Display receiving progress notification
-                gui.displaySystemMessage("Đang tải file: " + fileName + " (0%)");
-                
-                // Receive file data
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                long totalBytesReceived = 0;
-                int lastProgressPercentage = 0;
-                
-                while (totalBytesReceived < fileSize && (bytesRead = is.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                    totalBytesReceived += bytesRead;
-                    
-                    // Update progress
-                    int progressPercentage = (int) ((totalBytesReceived * 100) / fileSize);
-                    if (progressPercentage >= lastProgressPercentage + PROGRESS_UPDATE_INTERVAL) {
-                        lastProgressPercentage = progressPercentage;
-                        gui.updateFileProgress(fileName, progressPercentage);
-                    }
+                target = new FileOutputStream(savePath);
+            } catch (IOException e) {
+                // Vẫn phải nhận hết dữ liệu file để các dòng sau không bị lệch
+                logger.log(Level.SEVERE, "Cannot save file to " + savePath, e);
+                if (download != null) {
+                    download.future.completeExceptionally(e);
+                    download = null;
                 }
-                
-                fos.close();
-                
-                // Notify server file was received
-                writer.println("FILE_RECEIVED:" + fileName);
-                
-                gui.updateFileProgress(fileName, 100);
-                // Update UI when file download is complete
-                gui.fileDownloadComplete(fileName, savePath);
-                logger.info("File received successfully: " + fileName);
-                
-                // Copy the file to temp directory for preview
+                target = DISCARD;
+            }
+
+            // Dữ liệu file đến ngay sau dòng FILE_SIZE, được giải mã từng khối khi đến
+            FileStreamCipher.Opener opener = codec.getFileCipher().newOpener(fileSize);
+            transport.receiveRaw(opener.remaining(),
+                    new FileDownload(fileName, savePath, fileSize, target, opener, download, false));
+        }
+
+        private void receivePreview(String fileName, long size) throws IOException {
+            PendingDownload download = pendingPreviews.remove(fileName);
+            OutputStream target = DISCARD;
+            if (download != null) {
                 try {
-                    String tempPath = System.getProperty("java.io.tmpdir") + File.separator + 
-                                     "chatclient_" + System.currentTimeMillis() + "_" + fileName;
-                    Files.copy(Paths.get(savePath), Paths.get(tempPath));
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Error copying file to temp directory", e);
+                    target = new FileOutputStream(download.savePath);
+                } catch (IOException e) {
+                    // Vẫn phải nhận hết dữ liệu để các dòng sau không bị lệch
+                    logger.log(Level.WARNING, "Cannot save preview to " + download.savePath, e);
+                    download.future.completeExceptionally(e);
+                    download = null;
                 }
-                
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error receiving file", e);
-                gui.displaySystemMessage("Lỗi khi nhận file: " + e.getMessage());
             }
+            FileStreamCipher.Opener opener = codec.getFileCipher().newOpener(size);
+            transport.receiveRaw(opener.remaining(), new FileDownload(fileName,
+                    download != null ? download.savePath : fileName, size, target, opener, download, true));
+        }
+
+        private void applyPresenceDelta(String[] parts) {
+            if (!parts[0].equals(presenceEpoch) || Long.parseLong(parts[1]) != presenceVersion) {
+                // Lỡ một delta: xin lại phần còn thiếu
+                transport.sendLine(onlineUsersRequest());
+                return;
+            }
+            presenceVersion = Long.parseLong(parts[2]);
+            for (String change : parts[3].split(",")) {
+                if (change.length() < 2 || change.substring(1).equals(username)) {
+                    continue;
+                }
+                if (change.charAt(0) == '+') {
+                    listener.onUserJoined(change.substring(1));
+                } else {
+                    listener.onUserLeft(change.substring(1));
+                }
+            }
+        }
+
+        // Bỏ người dùng hiện tại
+        private List<String> otherUsers(String userListString) {
+            List<String> users = new ArrayList<>();
+            for (String user : userListString.split(",")) {
+                if (!user.isEmpty() && !user.equals(username)) {
+                    users.add(user);
+                }
+            }
+            return users;
         }
 
         private void processUserList(String userListString) {
             if (userListString.isEmpty()) return;
 
-            String[] users = userListString.split(",");
+            listener.onUserList(otherUsers(userListString));
+
+            // Ghi log
+            logger.fine(() -> "Received user list: " + userListString);
+        }
+    }
+
+    /**
+     * Nhận và giải mã dữ liệu một file đang tải về, trên thread I/O. Ảnh xem trước dùng cùng
+     * đường này nhưng không báo tiến độ và không báo server đã nhận file.
+     */
+    private final class FileDownload implements ClientTransport.RawSink {
+        private final String fileName;
+        private final String savePath;
+        private final OutputStream target;
+        private final FileStreamCipher.Opener opener;
+        private final PendingDownload download;
+        private final boolean preview;
+        private final LongConsumer progress;
 
-            // Xóa danh sách cũ
-            gui.clearUserList();
+        FileDownload(String fileName, String savePath, long fileSize, OutputStream target,
+                FileStreamCipher.Opener opener, PendingDownload download, boolean preview) {
+            this.fileName = fileName;
+            this.savePath = savePath;
+            this.target = target;
+            this.opener = opener;
+            this.download = download;
+            this.preview = preview;
+            this.progress = preview ? null : progressReporter(listener, fileName, fileSize);
+        }
 
-            // Thêm lại mỗi người dùng, loại bỏ người dùng hiện tại
-            for (String user : users) {
-                if (!user.isEmpty() && !user.equals(username)) {
-                    gui.updateUserList(user, true);
+        @Override
+        public void accept(ByteBuffer data) throws IOException {
+            try {
+                if (opener.update(data, target) && progress != null) {
+                    progress.accept(opener.processed());
                 }
+            } catch (IOException e) {
+                // Don't leave a truncated or tampered file behind
+                target.close();
+                if (target != DISCARD) {
+                    new File(savePath).delete();
+                }
+                logger.log(Level.SEVERE, "Error receiving file", e);
+                if (download != null) {
+                    download.future.completeExceptionally(e);
+                }
+                // Không biết khối lỗi kết thúc ở đâu, không thể đọc tiếp các dòng sau
+                throw e;
             }
+        }
 
-            // Ghi log
-            logger.info("Received user list: " + userListString);
+        @Override
+        public void complete() throws IOException {
+            target.close();
+            if (download == null && target == DISCARD) {
+                return;
+            }
+            if (preview) {
+                if (download != null) {
+                    download.future.complete(new File(savePath));
+                }
+                return;
+            }
+
+            // Notify server file was received
+            sendMessage("FILE_RECEIVED:" + fileName);
+
+            listener.onFileProgress(fileName, 100);
+            logger.info("File received successfully: " + fileName);
+
+            // Copy the file to temp directory for preview
+            try {
+                String tempPath = System.getProperty("java.io.tmpdir") + File.separator +
+                                 "chatclient_" + System.currentTimeMillis() + "_" + fileName;
+                Files.copy(Paths.get(savePath), Paths.get(tempPath));
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error copying file to temp directory", e);
+            }
+
+            if (download != null) {
+                download.future.complete(new File(savePath));
+            }
+        }
+    }
+
+    private void failDownload(String fileName, IOException error) {
+        // Server cũ trả về "tên:đường dẫn" như trong yêu cầu
+        PendingDownload download = pendingDownloads.remove(fileName.split(":", 2)[0]);
+        if (download != null) {
+            download.future.completeExceptionally(error);
+        }
+    }
+
+    private void failAllDownloads(IOException error) {
+        for (String fileName : new ArrayList<>(pendingDownloads.keySet())) {
+            PendingDownload download = pendingDownloads.remove(fileName);
+            if (download != null) {
+                download.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private void failAllPreviews(IOException error) {
+        for (String fileName : new ArrayList<>(pendingPreviews.keySet())) {
+            PendingDownload preview = pendingPreviews.remove(fileName);
+            if (preview != null) {
+                preview.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    // Dọn dẹp khi mất kết nối: đóng transport, hủy các yêu cầu đang chờ
+    private void shutdown() {
+        connected = false;
+        ClientTransport current = transport;
+        if (current != null) {
+            // Các mục chưa gửi (kể cả file đang gửi) được transport báo lỗi
+            current.close();
+        }
+        IOException closed = new IOException("Đã ngắt kết nối khỏi server");
+        CompletableFuture<List<HistoryEntry>> history;
+        while ((history = pendingHistory.poll()) != null) {
+            history.completeExceptionally(closed);
+        }
+        failAllDownloads(closed);
+        failAllPreviews(closed);
+    }
+
+    /**
+     * Bật/tắt tự kết nối lại khi mất kết nối hoặc server dừng (mặc định bật). Khi bật,
+     * {@link ChatClientListener#onDisconnected} chỉ được gọi khi đã hết số lần thử.
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    /**
+     * Lên lịch lần kết nối lại tiếp theo, chờ theo lũy thừa 2 từ RECONNECT_BASE_DELAY tới
+     * RECONNECT_MAX_DELAY. Thời gian chờ được lấy ngẫu nhiên trong nửa trên của khoảng đó để
+     * các client không cùng kết nối lại một lúc sau khi server khởi động lại.
+     * @return false nếu không kết nối lại nữa
+     */
+    private boolean scheduleReconnect(DisconnectReason reason) {
+        int attempt = reconnectAttempt + 1;
+        if (!autoReconnect || !wantConnection || attempt > MAX_RECONNECT_ATTEMPTS) {
+            wantConnection = false;
+            return false;
+        }
+        reconnectAttempt = attempt;
+        long ceiling = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << Math.min(attempt - 1, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        listener.onReconnecting(reason, attempt, delay);
+        // Kết nối có thể chờ thỏa thuận mã hóa tới HANDSHAKE_TIMEOUT, nên không chạy trên TIMERS
+        reconnectTask = TIMERS.schedule(() -> {
+            Thread thread = new Thread(this::reconnect, "chatclient-reconnect-" + username);
+            thread.setDaemon(true);
+            thread.start();
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void reconnect() {
+        // wantConnection thành false khi disconnect() được gọi trong lúc chờ hoặc đang kết nối
+        if (!wantConnection || openConnection(true) || !wantConnection) {
+            return;
+        }
+        if (!scheduleReconnect(DisconnectReason.CONNECTION_LOST)) {
+            listener.onDisconnected(DisconnectReason.CONNECTION_LOST);
+        }
+    }
+
+    private synchronized void cancelReconnect() {
+        wantConnection = false;
+        ScheduledFuture<?> task = reconnectTask;
+        if (task != null) {
+            task.cancel(false);
+            reconnectTask = null;
         }
     }
 
     public void disconnect() {
+        cancelReconnect();
         if (connected) {
+            ClientTransport current = transport;
             try {
-                writer.println("LOGOUT");
-                logger.info("Disconnected from server");
+                // Gửi LOGOUT sau các thao tác đã xếp hàng, chờ tối đa DISCONNECT_TIMEOUT.
+                // Bỏ cờ trước để server đóng socket không bị báo là mất kết nối
                 connected = false;
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error during disconnect", e);
+                CompletableFuture<Void> logout = current.sendLine("LOGOUT");
+                logout.get(DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+                logger.info("Disconnected from server");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                logger.log(Level.WARNING, "Could not send LOGOUT before disconnecting", e);
             } finally {
-                try {
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
-                    }
-                } catch (IOException e) {
-                    logger.log(Level.SEVERE, "Error closing socket", e);
-                }
+                shutdown();
             }
         }
     }
-    
+
     public void forceLogin() {
         if (connected) {
-            writer.println("FORCE_LOGIN");
+            sendMessage("FORCE_LOGIN");
             logger.info("Force login sent to server");
         }
     }
-    
-    // Để mở file với ứng dụng mặc định của hệ thống
-    public void openFile(String filePath) {
-        try {
-            File file = new File(filePath);
-            if (file.exists()) {
-                if (Desktop.isDesktopSupported()) {
-                    Desktop.getDesktop().open(file);
-                } else {
-                    gui.displaySystemMessage("Không hỗ trợ mở file tự động trên hệ thống này.");
-                }
-            } else {
-                gui.displaySystemMessage("File không tồn tại: " + filePath);
-            }
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error opening file", e);
-            gui.displaySystemMessage("Không thể mở file: " + e.getMessage());
-        }
-    }
-    
-    // Get file extension to determine how to handle it
-    public String getFileExtension(String filename) {
-        int lastDotIndex = filename.lastIndexOf('.');
-        if (lastDotIndex > 0) {
-            return filename.substring(lastDotIndex + 1).toLowerCase();
-        }
-        return "";
-    }
-    
-    // Create preview for different file types
-    public boolean canPreviewFile(String filename) {
-        String ext = getFileExtension(filename);
-        return ext.matches("jpg|jpeg|png|gif|bmp") || 
-               ext.matches("pdf") ||
-               ext.matches("mp3|wav|ogg") ||
-               ext.matches("mp4|webm");
-    }
-}
\ No newline at end of file
+}
@@ -1,14 +1,17 @@
 package chatclient;
 
+import chatclient.ChatClientListener.DisconnectReason;
+import chatcommon.AsyncLogHandler;
+import chatcommon.StructuredLog;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.plaf.basic.BasicSplitPaneDivider;
 import javax.swing.plaf.basic.BasicSplitPaneUI;
-import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
@@ -17,16 +20,18 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.*;
 import java.util.regex.Pattern;
 
-public class ChatClientGUI extends JFrame {
+public class ChatClientGUI extends JFrame implements ChatClientListener {
     private JTextField tfServerIP, tfPort;
     private JTextArea taMessage;
     private JTextField tfUsername;
     private JPasswordField pfPassword, pfPasswordConfirm;
-    private JTextPane tpChat;
+    private JList<TranscriptEntry> lstChat;
     private JButton btnLogin, btnRegister, btnSwitchToRegister, btnSwitchToLogin, btnDisconnect, btnSend;
     private JButton btnAttachment;
     private JToggleButton btnShowPassword, btnShowPasswordConfirm;
@@ -45,12 +50,20 @@ public class ChatClientGUI extends JFrame {
     private JLabel passwordStrengthLabel;
     private JProgressBar passwordStrengthBar;
     private Map<String, Integer> fileProgressMap = new HashMap<>();
-    private Map<String, Runnable> fileDownloadCallbacks = new ConcurrentHashMap<>();
-    private Map<String, Component> fileComponentMap = new ConcurrentHashMap<>();
     private long lastMessageTime = 0;
     
-    private StyledDocument chatDocument;
-    private Style systemStyle, myMessageStyle, otherMessageStyle, joinLeaveStyle;
+    // Khung chat là JList: chỉ vẽ các dòng đang hiện, layout từng dòng được giữ lại
+    private final TranscriptModel chatModel = new TranscriptModel();
+    private int transcriptWidth = -1;
+    private TranscriptEntry hoveredEntry;
+    private Rectangle hoveredButton;
+    // Các thread nhận tin chỉ xếp việc hiển thị vào hàng đợi; EDT dựng và chèn cả lô vào khung chat
+    // tối đa một lần mỗi khung hình, nên phòng chat đông không làm nghẽn EDT và gõ phím không bị trễ
+    private final ConcurrentLinkedQueue<Runnable> pendingDisplay = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean displayScheduled = new AtomicBoolean();
+    private Timer displayTimer;
+    private long lastDisplayDrain;
+    private List<TranscriptEntry> displayBatch;
 
     private final Color PRIMARY_COLOR = new Color(63, 81, 181);
     private final Color PRIMARY_DARK_COLOR = new Color(48, 63, 159);
@@ -100,21 +113,46 @@ public class ChatClientGUI extends JFrame {
     private final Pattern PASSWORD_PATTERN = Pattern.compile(
             "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[!@#$%^&*()\\-+=])(?=\\S+$).{8,}$");
     
-    private final int MAX_CHARS_PER_LINE = 70;
+    private final int MAX_BUBBLE_TEXT_WIDTH = 520;
+    private final int BUBBLE_PADDING_X = 10;
+    private final int BUBBLE_PADDING_Y = 5;
+    private final int ROW_GAP = 8;
+    private final int FILE_CARD_WIDTH = 380;
+    private final int MIN_FILE_CARD_WIDTH = 260;
+    private final int FILE_CARD_PADDING = 12;
+    private final int FILE_ICON_SIZE = 48;
+    private final int FILE_BUTTON_HEIGHT = 30;
+    private final int DISPLAY_FRAME_MS = 16;
+    private final int PREVIEW_MAX_WIDTH = 320;
+    private final int PREVIEW_MAX_HEIGHT = 220;
+    private final long THUMBNAIL_MEMORY_BYTES = 32L * 1024 * 1024;
+    private final long THUMBNAIL_DISK_BYTES = 128L * 1024 * 1024;
     private final int CHAT_PANEL_WIDTH = 650;
     private final int USER_PANEL_WIDTH = 300;
     private final int INPUT_PANEL_HEIGHT = 120;
     
     private String tempFilesDir;
+    private final MessageCache messageCache;
+    private final ThumbnailCache thumbnails;
+    // Lần đăng nhập gần nhất đã hiển thị lịch sử từ cache, không cần hỏi server
+    private volatile boolean historyFromCache;
 
     public ChatClientGUI() {
         client = new ChatClient(this);
+        // Lịch sử đã lưu hiển thị ngay khi đăng nhập, server chỉ gửi phần còn thiếu
+        messageCache = new MessageCache(new File("database", "client_data.db"));
+        if (messageCache.open()) {
+            client.setMessageCache(messageCache);
+        }
         loginManager = new LoginRegisterManager();
         fileHandler = new FileTransferHandler(this);
         clientCounter++;
         
         tempFilesDir = System.getProperty("java.io.tmpdir") + File.separator + "chatclient_" + System.currentTimeMillis() + "_" + clientCounter;
         createTempDirectory();
+        // Ảnh thu nhỏ trên đĩa dùng chung giữa các lần chạy, khác với thư mục tạm của từng phiên
+        thumbnails = new ThumbnailCache(new File(System.getProperty("java.io.tmpdir"), "chatclient_thumbnails"),
+                PREVIEW_MAX_WIDTH, PREVIEW_MAX_HEIGHT, THUMBNAIL_MEMORY_BYTES, THUMBNAIL_DISK_BYTES);
         
         loadIcons();
         setLookAndFeel();
@@ -514,19 +552,13 @@ public class ChatClientGUI extends JFrame {
         }
     }
 
+    // Mọi cửa sổ trong cùng JVM dùng chung một handler bất đồng bộ; %u tách file giữa các tiến trình
     private void setupLogger() {
         try {
-            File logsDir = new File("logs");
-            if (!logsDir.exists()) {
-                logsDir.mkdir();
-            }
-            
-            Handler fileHandler = new FileHandler("logs/chatclient_" + clientCounter + ".log", true);
-            fileHandler.setFormatter(new SimpleFormatter());
-            Logger.getLogger("").addHandler(fileHandler);
-            Logger.getLogger("").setLevel(Level.INFO);
-        } catch (Exception e) {
-            e.printStackTrace();
+            StructuredLog.install("logs/chatclient.%u.%g.log", 2 * 1024 * 1024, 3, 4096,
+                    AsyncLogHandler.OverflowPolicy.DROP_OLDEST);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not open log file", e);
         }
     }
 
@@ -722,6 +754,7 @@ public class ChatClientGUI extends JFrame {
                     "Bạn đang kết nối đến server. Bạn có chắc chắn muốn thoát?", 
                     "Xác nhận thoát")) {
                 client.disconnect();
+                messageCache.close();
                 dispose();
                 System.exit(0);
             }
@@ -729,6 +762,7 @@ public class ChatClientGUI extends JFrame {
             if (showConfirmDialog(
                     "Bạn có chắc chắn muốn thoát?", 
                     "Xác nhận thoát")) {
+                messageCache.close();
                 dispose();
                 System.exit(0);
             }
@@ -921,7 +955,9 @@ public class ChatClientGUI extends JFrame {
                             displaySystemMessage("Đã kết nối đến server " + serverIP + " qua port " + port + "!");
                             taMessage.requestFocus();
                             
-                            requestChatHistory();
+                            if (!historyFromCache) {
+                                requestChatHistory();
+                            }
                         } else {
                             showErrorMessage("Không thể kết nối đến server!");
                         }
@@ -1303,46 +1339,38 @@ public class ChatClientGUI extends JFrame {
         chatContainerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 5));
         chatContainerPanel.setBackground(CHAT_BG);
         
-        tpChat = new JTextPane();
-        tpChat.setEditable(false);
-        tpChat.setBackground(Color.WHITE);
-        tpChat.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        
-        chatDocument = tpChat.getStyledDocument();
-        
-        systemStyle = tpChat.addStyle("System", null);
-        StyleConstants.setForeground(systemStyle, SYSTEM_MESSAGE_COLOR);
-        StyleConstants.setFontFamily(systemStyle, "Segoe UI");
-        StyleConstants.setFontSize(systemStyle, 13);
-        StyleConstants.setAlignment(systemStyle, StyleConstants.ALIGN_CENTER);
-        StyleConstants.setItalic(systemStyle, true);
-        
-        joinLeaveStyle = tpChat.addStyle("JoinLeave", null);
-        StyleConstants.setForeground(joinLeaveStyle, JOIN_COLOR);
-        StyleConstants.setFontFamily(joinLeaveStyle, "Segoe UI");
-        StyleConstants.setFontSize(joinLeaveStyle, 13);
-        StyleConstants.setAlignment(joinLeaveStyle, StyleConstants.ALIGN_CENTER);
-        StyleConstants.setItalic(joinLeaveStyle, true);
-        
-        myMessageStyle = tpChat.addStyle("Me", null);
-        StyleConstants.setForeground(myMessageStyle, LIGHT_TEXT);
-        StyleConstants.setFontFamily(myMessageStyle, "Segoe UI");
-        StyleConstants.setFontSize(myMessageStyle, 14);
-        StyleConstants.setBold(myMessageStyle, true);
-        StyleConstants.setAlignment(myMessageStyle, StyleConstants.ALIGN_RIGHT);
-        
-        otherMessageStyle = tpChat.addStyle("Other", null);
-        StyleConstants.setForeground(otherMessageStyle, TEXT_COLOR);
-        StyleConstants.setFontFamily(otherMessageStyle, "Segoe UI");
-        StyleConstants.setFontSize(otherMessageStyle, 14);
-        StyleConstants.setAlignment(otherMessageStyle, StyleConstants.ALIGN_LEFT);
-        
-        JScrollPane chatScrollPane = new JScrollPane(tpChat);
+        lstChat = new JList<>(chatModel);
+        lstChat.setCellRenderer(new TranscriptRenderer());
+        lstChat.setBackground(Color.WHITE);
+        lstChat.setSelectionBackground(new Color(232, 234, 246));
+        lstChat.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        
+        MouseAdapter transcriptMouse = new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                handleTranscriptClick(e);
+            }
+            
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                updateTranscriptHover(e.getPoint());
+            }
+            
+            @Override
+            public void mouseExited(MouseEvent e) {
+                updateTranscriptHover(null);
+            }
+        };
+        lstChat.addMouseListener(transcriptMouse);
+        lstChat.addMouseMotionListener(transcriptMouse);
+        
+        JScrollPane chatScrollPane = new JScrollPane(lstChat);
         chatScrollPane.setBorder(BorderFactory.createEmptyBorder());
         chatScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         chatScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        chatScrollPane.getVerticalScrollBar().setUnitIncrement(16);
         
-        tpChat.addComponentListener(new ComponentAdapter() {
+        lstChat.addComponentListener(new ComponentAdapter() {
             @Override
             public void componentResized(ComponentEvent e) {
                 repaintChatAndAdjustWidths();
@@ -1428,7 +1456,15 @@ public class ChatClientGUI extends JFrame {
         btnAttachment.addActionListener(e -> {
             File selectedFile = fileHandler.selectFile("all");
             if (selectedFile != null) {
-                client.sendFile(selectedFile);
+                displaySystemMessage("Đang chuẩn bị gửi file: " + selectedFile.getName());
+                client.sendFile(selectedFile).whenComplete((storedName, error) -> {
+                    if (error != null) {
+                        logger.log(Level.SEVERE, "Error sending file", error);
+                        displaySystemMessage("Lỗi khi gửi file: " + errorMessage(error));
+                    } else {
+                        displaySystemMessage("File đã được gửi thành công: " + storedName);
+                    }
+                });
             }
         });
         
@@ -1479,73 +1515,125 @@ public class ChatClientGUI extends JFrame {
         return panel;
     }
     
+    // Chỉ tính lại layout khi chiều rộng đổi; khung chat cao thêm khi có tin mới thì bỏ qua
     private void repaintChatAndAdjustWidths() {
-        SwingUtilities.invokeLater(() -> {
-            int chatWidth = tpChat.getWidth();
-            if (chatWidth <= 0) return;
-        });
+        int chatWidth = lstChat.getWidth();
+        if (chatWidth <= 0 || chatWidth == transcriptWidth) return;
+        transcriptWidth = chatWidth;
+        chatModel.relayout();
     }
     
     private void displayCenterTime(String timeStamp) {
+        appendEntry(TranscriptEntry.timeSeparator(timeStamp));
+    }
+    
+    // Xếp một việc hiển thị vào hàng đợi; an toàn từ mọi thread, thứ tự được giữ nguyên
+    private void scheduleDisplay(Runnable task) {
+        pendingDisplay.add(task);
+        if (displayScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainDisplayQueue);
+        }
+    }
+    
+    // Chạy mọi việc đang chờ rồi chèn các dòng mới bằng một lần addAll: JList chỉ đo lại và cuộn một lần.
+    // Lần chạy trước chưa quá một khung hình thì hẹn lại bằng Timer thay vì chạy ngay
+    private void drainDisplayQueue() {
+        long wait = DISPLAY_FRAME_MS - (System.currentTimeMillis() - lastDisplayDrain);
+        if (wait > 0) {
+            if (displayTimer == null) {
+                displayTimer = new Timer(DISPLAY_FRAME_MS, e -> drainDisplayQueue());
+                displayTimer.setRepeats(false);
+            }
+            displayTimer.setInitialDelay((int) wait);
+            displayTimer.restart();
+            return;
+        }
+        lastDisplayDrain = System.currentTimeMillis();
+        // Việc xếp vào sau điểm này sẽ hẹn một lần chạy mới
+        displayScheduled.set(false);
+        
+        List<TranscriptEntry> batch = new ArrayList<>();
+        displayBatch = batch;
         try {
-            int start = chatDocument.getLength();
-            chatDocument.insertString(start, "\n", null);
-            
-            JPanel timePanel = new JPanel();
-            timePanel.setLayout(new BoxLayout(timePanel, BoxLayout.Y_AXIS));
-            timePanel.setOpaque(false);
-            
-            JLabel timeLabel = new JLabel("------------ " + timeStamp + " ------------");
-            timeLabel.setFont(new Font("Arial", Font.ITALIC, 12));
-            timeLabel.setForeground(Color.GRAY);
-            timeLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-            
-            timePanel.add(Box.createVerticalStrut(10));
-            timePanel.add(timeLabel);
-            timePanel.add(Box.createVerticalStrut(10));
-            
-            Style style = chatDocument.addStyle("CenterTimeStyle", null);
-            StyleConstants.setComponent(style, timePanel);
-            
-            start = chatDocument.getLength();
-            chatDocument.insertString(start, " ", style);
-            
-            SimpleAttributeSet center = new SimpleAttributeSet();
-            StyleConstants.setAlignment(center, StyleConstants.ALIGN_CENTER);
-            chatDocument.setParagraphAttributes(start, 1, center, false);
-            
-            chatDocument.insertString(start + 1, "\n", null);
-        } catch (BadLocationException e) {
-            logger.log(Level.WARNING, "Error displaying center time", e);
+            Runnable task;
+            while ((task = pendingDisplay.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Error displaying chat event", e);
+                }
+            }
+        } finally {
+            displayBatch = null;
+        }
+        
+        if (!batch.isEmpty()) {
+            chatModel.addAll(batch);
+            scrollTranscriptToEnd();
+        }
+    }
+    
+    // Thêm dòng vào lô đang dựng; ngoài lô thì chèn thẳng vào khung chat. Chạy trên EDT
+    private void appendEntry(TranscriptEntry entry) {
+        if (displayBatch != null) {
+            displayBatch.add(entry);
+        } else {
+            chatModel.add(entry);
+            scrollTranscriptToEnd();
+        }
+    }
+    
+    private void scrollTranscriptToEnd() {
+        int last = chatModel.getSize() - 1;
+        if (last >= 0) {
+            lstChat.ensureIndexIsVisible(last);
         }
     }
     
     public void updateFileProgress(String fileName, int progress) {
-        SwingUtilities.invokeLater(() -> {
+        scheduleDisplay(() -> {
             fileProgressMap.put(fileName, progress);
-            String progressText = "Đang gửi file: " + fileName + " (" + progress + "%)";
-            
-            try {
-                Document doc = tpChat.getDocument();
-                String text = doc.getText(0, doc.getLength());
-                String filePattern = "Đang gửi file: " + fileName;
-                
-                int lastIndex = text.lastIndexOf(filePattern);
-                if (lastIndex >= 0) {
-                    int endOfLine = text.indexOf("\n", lastIndex);
-                    if (endOfLine < 0) endOfLine = text.length();
-                    
-                    doc.remove(lastIndex, endOfLine - lastIndex);
-                    doc.insertString(lastIndex, progressText, null);
-                } else {
-                    displaySystemMessage(progressText);
-                }
-            } catch (BadLocationException e) {
-                logger.log(Level.WARNING, "Error updating file progress", e);
+            replaceStatusLine("Đang gửi file: " + fileName, " (" + progress + "%)");
+        });
+    }
+    
+    public void updateFileQueuePosition(String fileName, int position) {
+        scheduleDisplay(() -> {
+            if (position > 0) {
+                replaceStatusLine("Đang chờ gửi file: " + fileName, " (vị trí " + position + ")");
+            } else {
+                replaceStatusLine("Đang chờ gửi file: " + fileName, " (bắt đầu gửi)");
             }
         });
     }
     
+    // Cập nhật dòng trạng thái gần nhất bắt đầu bằng prefix, kể cả dòng còn trong lô chưa chèn,
+    // hoặc thêm dòng mới; chạy trên EDT
+    private void replaceStatusLine(String prefix, String suffix) {
+        if (displayBatch != null) {
+            for (int i = displayBatch.size() - 1; i >= 0; i--) {
+                TranscriptEntry entry = displayBatch.get(i);
+                if (isStatusLine(entry, prefix)) {
+                    entry.setText(prefix + suffix);
+                    return;
+                }
+            }
+        }
+        for (int i = chatModel.getSize() - 1; i >= 0; i--) {
+            TranscriptEntry entry = chatModel.getElementAt(i);
+            if (isStatusLine(entry, prefix)) {
+                entry.setText(prefix + suffix);
+                chatModel.update(entry);
+                return;
+            }
+        }
+        addSystemEntry(prefix + suffix);
+    }
+    
+    private boolean isStatusLine(TranscriptEntry entry, String prefix) {
+        return entry.kind == TranscriptEntry.Kind.SYSTEM && entry.getText().startsWith(prefix);
+    }
+    
     public void requestOnlineUsers() {
         if (client != null && client.isConnected()) {
             client.requestOnlineUsers();
@@ -1752,6 +1840,107 @@ public class ChatClientGUI extends JFrame {
         });
     }
 
+    // Các sự kiện của ChatClient đến từ thread đọc socket; các hàm hiển thị tự chuyển sang EDT
+
+    @Override
+    public void onMessage(String sender, String text) {
+        displayReceivedMessage(sender + ": " + text);
+    }
+
+    @Override
+    public void onCachedHistory(List<HistoryEntry> entries) {
+        historyFromCache = !entries.isEmpty();
+        if (historyFromCache) {
+            displayChatHistory(entries);
+        }
+    }
+
+    @Override
+    public void onSystemMessage(String message) {
+        displaySystemMessage(message);
+    }
+
+    @Override
+    public void onUserList(List<String> users) {
+        clearUserList();
+        for (String user : users) {
+            updateUserList(user, true);
+        }
+    }
+
+    @Override
+    public void onUserJoined(String username) {
+        // displaySystemMessage cũng thêm người dùng vào danh sách
+        displaySystemMessage(username + " đã tham gia chat!");
+    }
+
+    @Override
+    public void onUserLeft(String username) {
+        displaySystemMessage(username + " đã rời chat!");
+    }
+
+    @Override
+    public void onFileShared(String sender, String fileName, String fileType, String fileDetails) {
+        displayFileMessage(sender, fileName, fileType, fileDetails);
+    }
+
+    @Override
+    public void onFileOffered(String sender, String fileName, String fileType, long fileSize) {
+        displaySystemMessage(sender + " đã gửi file: " + fileName);
+    }
+
+    @Override
+    public void onFileProgress(String fileName, int percent) {
+        updateFileProgress(fileName, percent);
+    }
+
+    @Override
+    public void onFileQueued(String fileName, int position) {
+        updateFileQueuePosition(fileName, position);
+    }
+
+    @Override
+    public void onSessionConflict(String username) {
+        handleExistingSession(username);
+    }
+
+    @Override
+    public void onReconnecting(DisconnectReason reason, int attempt, long delayMillis) {
+        String cause = attempt == 1 && reason == DisconnectReason.SERVER_SHUTDOWN
+                ? "Server đã đóng kết nối" : "Mất kết nối đến server";
+        displaySystemMessage(String.format("%s, thử kết nối lại sau %.1f giây (lần %d)...",
+                cause, delayMillis / 1000.0, attempt));
+    }
+
+    @Override
+    public void onReconnected(boolean complete) {
+        displaySystemMessage(complete
+                ? "Đã kết nối lại đến server."
+                : "Đã kết nối lại đến server. Một số tin nhắn cũ hơn trong lúc mất kết nối không được tải lại.");
+    }
+
+    @Override
+    public void onDisconnected(DisconnectReason reason) {
+        switch (reason) {
+            case SERVER_SHUTDOWN:
+                displaySystemMessage("Server đã đóng kết nối. Bạn đã bị ngắt kết nối.");
+                break;
+            case OTHER_SESSION:
+                displaySystemMessage("Tài khoản của bạn đã đăng nhập ở nơi khác. Bạn đã bị ngắt kết nối.");
+                break;
+            default:
+                displaySystemMessage("Mất kết nối đến server!");
+                break;
+        }
+        handleServerShutdown();
+    }
+
+    // Future của ChatClient báo lỗi trực tiếp, còn các bước nối sau bọc trong CompletionException
+    private static String errorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage();
+    }
+
     private void sendMessage() {
         String message = taMessage.getText().trim();
         if (!message.isEmpty() && isConnected) {
@@ -1762,15 +1951,18 @@ public class ChatClientGUI extends JFrame {
                 
                 boolean showCenterTime = (currentTime - lastMessageTime) > 5 * 60 * 1000;
                 if (showCenterTime) {
-                    displayCenterTime(timeStamp);
+                    scheduleDisplay(() -> displayCenterTime(timeStamp));
                 }
                 
                 lastMessageTime = currentTime;
                 
                 displaySentMessage(message);
 
-                String formattedMessage = getUsername() + ": " + message;
-                client.sendMessage(formattedMessage);
+                client.sendChatMessage(message).exceptionally(error -> {
+                    logger.log(Level.SEVERE, "Error sending message", error);
+                    displaySystemMessage("Lỗi khi gửi tin nhắn: " + errorMessage(error));
+                    return null;
+                });
 
                 taMessage.setText("");
                 taMessage.requestFocus();
@@ -1782,101 +1974,39 @@ public class ChatClientGUI extends JFrame {
     }
 
     public void displaySystemMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-            String timeStamp = sdf.format(new Date());
-            
-            String formattedMessage = String.format(
-                    "[%s] %s", 
-                    timeStamp, 
-                    message);
-            
-            Style styleToUse = systemStyle;
-            if (message.contains(" đã tham gia chat!")) {
-                styleToUse = joinLeaveStyle;
-                String username = message.substring(0, message.indexOf(" đã tham gia chat!"));
-                updateUserList(username, true);
-            } else if (message.contains(" đã rời chat!")) {
-                styleToUse = joinLeaveStyle;
-                StyleConstants.setForeground(joinLeaveStyle, LEAVE_COLOR);
-                String username = message.substring(0, message.indexOf(" đã rời chat!"));
-                updateUserList(username, false);
-                StyleConstants.setForeground(joinLeaveStyle, JOIN_COLOR);
-            }
-            
-            try {
-                int start = chatDocument.getLength();
-                chatDocument.insertString(start, formattedMessage + "\n", styleToUse);
-                
-                SimpleAttributeSet center = new SimpleAttributeSet();
-                StyleConstants.setAlignment(center, StyleConstants.ALIGN_CENTER);
-                chatDocument.setParagraphAttributes(start, chatDocument.getLength() - start, center, false);
-            } catch (BadLocationException e) {
-                logger.log(Level.WARNING, "Error displaying system message", e);
-                tpChat.setText(tpChat.getText() + formattedMessage + "\n");
-            }
-            
-            tpChat.setCaretPosition(chatDocument.getLength());
-        });
+        scheduleDisplay(() -> addSystemEntry(message));
+    }
+    
+    // Thêm thông báo hệ thống vào khung chat, cập nhật danh sách người dùng khi có người vào/ra; chạy trên EDT
+    private void addSystemEntry(String message) {
+        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+        String timeStamp = sdf.format(new Date());
+        
+        TranscriptEntry.Kind kind = TranscriptEntry.Kind.SYSTEM;
+        if (message.contains(" đã tham gia chat!")) {
+            kind = TranscriptEntry.Kind.JOIN;
+            String username = message.substring(0, message.indexOf(" đã tham gia chat!"));
+            updateUserList(username, true);
+        } else if (message.contains(" đã rời chat!")) {
+            kind = TranscriptEntry.Kind.LEAVE;
+            String username = message.substring(0, message.indexOf(" đã rời chat!"));
+            updateUserList(username, false);
+        }
+        
+        appendEntry(TranscriptEntry.system(kind, message, timeStamp));
     }
     
     public void displaySentMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
-                String timeStamp = sdf.format(new Date());
-                
-                int start = chatDocument.getLength();
-                chatDocument.insertString(start, "\n", null);
-                
-                JPanel messagePanel = new JPanel(new BorderLayout(5, 2));
-                messagePanel.setBackground(new Color(0, 0, 0, 0));
-                
-                JPanel bubblePanel = new JPanel() {
-                    @Override
-                    protected void paintComponent(Graphics g) {
-                        Graphics2D g2 = (Graphics2D) g.create();
-                        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                        g2.setColor(MY_MESSAGE_BG);
-                        g2.fillRoundRect(0, 0, getWidth(), getHeight(), 16, 16);
-                        g2.dispose();
-                    }
-                };
-                bubblePanel.setOpaque(false);
-                bubblePanel.setLayout(new BorderLayout());
-                
-                String wrappedMessage = wrapMessage(message, MAX_CHARS_PER_LINE);
-                
-                JLabel messageLabel = new JLabel("<html><div style='color: white; padding: 5px 10px 5px 10px;'>" + 
-                                            wrappedMessage.replace("\n", "<br>") + 
-                                            "<div style='text-align: right; font-size: smaller; margin-top: 4px; color: rgba(255,255,255,0.8);'>" + 
-                                            timeStamp + "</div></div></html>");
-                messageLabel.setFont(CHAT_FONT);
-                bubblePanel.add(messageLabel, BorderLayout.CENTER);
-                
-                messagePanel.add(bubblePanel, BorderLayout.LINE_END);
-                
-                Style style = chatDocument.addStyle("MessagePanelStyle", null);
-                StyleConstants.setComponent(style, messagePanel);
-                
-                start = chatDocument.getLength();
-                chatDocument.insertString(start, " ", style);
-                
-                SimpleAttributeSet right = new SimpleAttributeSet();
-                StyleConstants.setAlignment(right, StyleConstants.ALIGN_RIGHT);
-                chatDocument.setParagraphAttributes(start, 1, right, false);
-                
-                chatDocument.insertString(start + 1, "\n", null);
-                
-                tpChat.setCaretPosition(chatDocument.getLength());
-            } catch (BadLocationException e) {
-                logger.log(Level.WARNING, "Error displaying sent message", e);
-            }
+        scheduleDisplay(() -> {
+            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
+            String timeStamp = sdf.format(new Date());
+            
+            appendEntry(TranscriptEntry.message(getUsername(), true, message, timeStamp, false));
         });
     }
     
     public void displayReceivedMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
+        scheduleDisplay(() -> {
             long currentTime = System.currentTimeMillis();
             SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
             String timeStamp = sdf.format(new Date(currentTime));
@@ -1900,110 +2030,12 @@ public class ChatClientGUI extends JFrame {
                 content = message;
             }
             
-            try {
-                int start = chatDocument.getLength();
-                chatDocument.insertString(start, "\n", null);
-                
-                JPanel messagePanel = new JPanel(new BorderLayout(5, 2));
-                messagePanel.setBackground(new Color(0, 0, 0, 0));
-                
-                JLabel senderLabel = new JLabel(sender);
-                senderLabel.setFont(SMALL_FONT);
-                senderLabel.setForeground(SYSTEM_MESSAGE_COLOR);
-                messagePanel.add(senderLabel, BorderLayout.NORTH);
-                
-                JPanel bubblePanel = new JPanel() {
-                    @Override
-                    protected void paintComponent(Graphics g) {
-                        Graphics2D g2 = (Graphics2D) g.create();
-                        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                        g2.setColor(OTHER_MESSAGE_BG);
-                        g2.fillRoundRect(0, 0, getWidth(), getHeight(), 16, 16);
-                        g2.dispose();
-                    }
-                };
-                bubblePanel.setOpaque(false);
-                bubblePanel.setLayout(new BorderLayout());
-                
-                String wrappedContent = wrapMessage(content, MAX_CHARS_PER_LINE);
-                
-                JLabel messageLabel = new JLabel("<html><div style='color: black; padding: 5px 10px 5px 10px;'>" + 
-                                            wrappedContent.replace("\n", "<br>") + 
-                                            "<div style='text-align: right; font-size: smaller; margin-top: 4px; color: rgba(0,0,0,0.6);'>" + 
-                                            timeStamp + "</div></div></html>");
-                messageLabel.setFont(CHAT_FONT);
-                bubblePanel.add(messageLabel, BorderLayout.CENTER);
-                
-                messagePanel.add(bubblePanel, BorderLayout.LINE_START);
-                
-                Style style = chatDocument.addStyle("OtherMessagePanelStyle", null);
-                StyleConstants.setComponent(style, messagePanel);
-                
-                start = chatDocument.getLength();
-                chatDocument.insertString(start, " ", style);
-                
-                SimpleAttributeSet left = new SimpleAttributeSet();
-                StyleConstants.setAlignment(left, StyleConstants.ALIGN_LEFT);
-                chatDocument.setParagraphAttributes(start, 1, left, false);
-                
-                chatDocument.insertString(start + 1, "\n", null);
-            } catch (BadLocationException e) {
-                logger.log(Level.WARNING, "Error displaying received message", e);
-                try {
-                    chatDocument.insertString(chatDocument.getLength(), 
-                                            timeStamp + " " + sender + ": " + content + "\n", 
-                                            otherMessageStyle);
-                } catch (BadLocationException ex) {
-                    logger.log(Level.SEVERE, "Cannot insert fallback message", ex);
-                }
-            }
-            
-            tpChat.setCaretPosition(chatDocument.getLength());
+            appendEntry(TranscriptEntry.message(sender, false, content, timeStamp, false));
         });
     }
     
-    private String wrapMessage(String message, int charsPerLine) {
-        StringBuilder result = new StringBuilder();
-        String[] words = message.split(" ");
-        int lineLength = 0;
-        
-        for (String word : words) {
-            if (word.length() > charsPerLine) {
-                if (lineLength > 0) {
-                    result.append("\n");
-                    lineLength = 0;
-                }
-                
-                for (int i = 0; i < word.length(); i += charsPerLine) {
-                    int end = Math.min(i + charsPerLine, word.length());
-                    result.append(word.substring(i, end));
-                    if (end < word.length()) {
-                        result.append("\n");
-                        lineLength = 0;
-                    } else {
-                        lineLength = end - i;
-                    }
-                }
-                continue;
-            }
-            
-            if (lineLength + word.length() > charsPerLine) {
-                result.append("\n");
-                lineLength = 0;
-            } else if (lineLength > 0) {
-                result.append(" ");
-                lineLength++;
-            }
-            
-            result.append(word);
-            lineLength += word.length();
-        }
-        
-        return result.toString();
-    }
-    
     public void displayFileMessage(String sender, String filename, String fileType, String fileDetails) {
-        SwingUtilities.invokeLater(() -> {
+        scheduleDisplay(() -> {
             long currentTime = System.currentTimeMillis();
             SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
             String timeStamp = sdf.format(new Date(currentTime));
@@ -2015,377 +2047,404 @@ public class ChatClientGUI extends JFrame {
             
             lastMessageTime = currentTime;
             
-            try {
-                int start = chatDocument.getLength();
-                chatDocument.insertString(start, "\n", null);
-                
-                boolean isSentByMe = sender.equals(lblUserInfo.getText());
-                
-                String fileKey = sender + "_" + filename + "_" + System.currentTimeMillis();
-                
-                JPanel filePanel = new JPanel(new BorderLayout(5, 2));
-                filePanel.setBackground(new Color(0, 0, 0, 0));
-                
-                if (!isSentByMe) {
-                    JLabel senderLabel = new JLabel(sender);
-                    senderLabel.setFont(SMALL_FONT);
-                    senderLabel.setForeground(SYSTEM_MESSAGE_COLOR);
-                    filePanel.add(senderLabel, BorderLayout.NORTH);
-                }
-                
-                JPanel fileContainer = createEnhancedFileContainer(filename, fileType, fileDetails, isSentByMe, fileKey, timeStamp);
-                
-                if (isSentByMe) {
-                    filePanel.add(fileContainer, BorderLayout.LINE_END);
-                } else {
-                    filePanel.add(fileContainer, BorderLayout.LINE_START);
-                }
-                
-                Style style = chatDocument.addStyle("FileMessageStyle", null);
-                StyleConstants.setComponent(style, filePanel);
-                
-                start = chatDocument.getLength();
-                chatDocument.insertString(start, " ", style);
-                
-                SimpleAttributeSet alignment = new SimpleAttributeSet();
-                if (isSentByMe) {
-                    StyleConstants.setAlignment(alignment, StyleConstants.ALIGN_RIGHT);
-                } else {
-                    StyleConstants.setAlignment(alignment, StyleConstants.ALIGN_LEFT);
-                }
-                chatDocument.setParagraphAttributes(start, 1, alignment, false);
-                
-                chatDocument.insertString(start + 1, "\n", null);
-                
-                fileComponentMap.put(fileKey, fileContainer);
-            } catch (BadLocationException e) {
-                logger.log(Level.WARNING, "Error displaying file message", e);
-                String basicMessage = "[" + timeStamp + "] " + sender + " gửi file: " + filename;
-                try {
-                    chatDocument.insertString(chatDocument.getLength(), basicMessage + "\n", systemStyle);
-                } catch (BadLocationException ex) {
-                    logger.log(Level.SEVERE, "Cannot insert fallback file message", ex);
-                }
+            boolean isSentByMe = sender.equals(lblUserInfo.getText());
+            TranscriptEntry entry = TranscriptEntry.file(sender, isSentByMe, filename, fileType, fileDetails, timeStamp);
+            if (fileType.equals("image")) {
+                loadFilePreview(entry);
             }
             
-            tpChat.setCaretPosition(chatDocument.getLength());
+            appendEntry(entry);
         });
     }
-
-    private JPanel createEnhancedFileContainer(String filename, String fileType, String fileDetails, boolean isSentByMe, String fileKey, String timeStamp) {
-        JPanel container = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                Graphics2D g2 = (Graphics2D) g.create();
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setColor(isSentByMe ? MY_MESSAGE_BG : OTHER_MESSAGE_BG);
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 16, 16);
-                g2.dispose();
+    
+    // Dòng file chứa điểm p của khung chat; local nhận tọa độ của p trong dòng đó
+    private TranscriptEntry fileEntryAt(Point p, Point local) {
+        int index = lstChat.locationToIndex(p);
+        if (index < 0) return null;
+        Rectangle cell = lstChat.getCellBounds(index, index);
+        if (cell == null || !cell.contains(p)) return null;
+        
+        TranscriptEntry entry = chatModel.getElementAt(index);
+        if (entry.kind != TranscriptEntry.Kind.FILE || entry.box == null) return null;
+        local.setLocation(p.x - cell.x, p.y - cell.y);
+        return entry.box.contains(local) ? entry : null;
+    }
+    
+    private void handleTranscriptClick(MouseEvent e) {
+        Point local = new Point();
+        TranscriptEntry entry = fileEntryAt(e.getPoint(), local);
+        if (entry == null || !SwingUtilities.isLeftMouseButton(e)) return;
+        
+        if (entry.viewButton.contains(local) || e.getClickCount() == 2) {
+            openFileDirectly(entry.getText(), entry.fileType);
+        } else if (entry.downloadButton.contains(local)) {
+            downloadFile(entry.getText());
+        }
+    }
+    
+    private void updateTranscriptHover(Point p) {
+        Point local = new Point();
+        TranscriptEntry entry = p == null ? null : fileEntryAt(p, local);
+        Rectangle button = null;
+        if (entry != null) {
+            if (entry.viewButton.contains(local)) {
+                button = entry.viewButton;
+            } else if (entry.downloadButton.contains(local)) {
+                button = entry.downloadButton;
             }
-        };
-        container.setLayout(new BorderLayout(5, 5));
-        container.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
-        container.setOpaque(false);
+        }
         
-        int containerWidth = Math.min(380, tpChat.getWidth() / 2);
-        container.setPreferredSize(new Dimension(containerWidth, -1));
+        lstChat.setCursor(Cursor.getPredefinedCursor(entry != null ? Cursor.HAND_CURSOR : Cursor.DEFAULT_CURSOR));
+        if (entry != hoveredEntry || button != hoveredButton) {
+            hoveredEntry = entry;
+            hoveredButton = button;
+            lstChat.repaint();
+        }
+    }
+    
+    // Vẽ một dòng của khung chat. JList chỉ gọi renderer cho các dòng đang hiện; kích thước và
+    // các dòng chữ đã ngắt được giữ trong TranscriptEntry cho đến khi chiều rộng đổi
+    private class TranscriptRenderer extends JComponent implements ListCellRenderer<TranscriptEntry> {
+        private final Font systemFont = new Font("Segoe UI", Font.ITALIC, 13);
+        private final Font timeFont = new Font("Arial", Font.ITALIC, 12);
+        private final Font fileNameFont = new Font(NORMAL_FONT.getFamily(), Font.BOLD, NORMAL_FONT.getSize());
+        private TranscriptEntry entry;
+        private boolean selected;
         
-        JComponent previewComponent = createFilePreviewComponent(filename, fileType, fileKey, fileDetails);
-        if (previewComponent != null) {
-            container.add(previewComponent, BorderLayout.NORTH);
+        @Override
+        public Component getListCellRendererComponent(JList<? extends TranscriptEntry> list, TranscriptEntry value,
+                int index, boolean isSelected, boolean cellHasFocus) {
+            entry = value;
+            selected = isSelected;
+            Insets insets = list.getInsets();
+            layoutEntry(value, Math.max(MIN_FILE_CARD_WIDTH, list.getWidth() - insets.left - insets.right));
+            return this;
         }
         
-        JPanel infoPanel = new JPanel(new BorderLayout(0, 8));
-        infoPanel.setOpaque(false);
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(0, entry == null ? 0 : entry.height);
+        }
         
-        JLabel nameLabel = new JLabel("<html><b>" + filename + "</b></html>");
-        nameLabel.setFont(new Font(NORMAL_FONT.getFamily(), Font.BOLD, NORMAL_FONT.getSize()));
-        nameLabel.setForeground(isSentByMe ? Color.WHITE : Color.BLACK);
+        private void layoutEntry(TranscriptEntry e, int width) {
+            if (e.layoutWidth == width) return;
+            e.layoutWidth = width;
+            
+            switch (e.kind) {
+                case TIME:
+                    e.height = 20 + getFontMetrics(timeFont).getHeight();
+                    break;
+                case MESSAGE:
+                    layoutMessage(e, width);
+                    break;
+                case FILE:
+                    layoutFile(e, width);
+                    break;
+                default:
+                    wrapText(e, e.toString(), systemFont, width - 20);
+                    e.height = e.lines.length * getFontMetrics(systemFont).getHeight() + 4;
+                    break;
+            }
+        }
         
-        JLabel detailsLabel = new JLabel(fileDetails);
-        detailsLabel.setFont(SMALL_FONT);
-        detailsLabel.setForeground(isSentByMe ? new Color(220, 220, 220) : SYSTEM_MESSAGE_COLOR);
+        private void layoutMessage(TranscriptEntry e, int width) {
+            FontMetrics fm = getFontMetrics(CHAT_FONT);
+            FontMetrics small = getFontMetrics(SMALL_FONT);
+            wrapText(e, e.getText(), CHAT_FONT, Math.min(width * 2 / 3, MAX_BUBBLE_TEXT_WIDTH));
+            
+            int textWidth = small.stringWidth(timeLabel(e));
+            for (String line : e.lines) {
+                textWidth = Math.max(textWidth, fm.stringWidth(line));
+            }
+            int boxWidth = textWidth + 2 * BUBBLE_PADDING_X;
+            int boxHeight = e.lines.length * fm.getHeight() + 4 + small.getHeight() + 2 * BUBBLE_PADDING_Y;
+            int top = ROW_GAP + (e.mine ? 0 : small.getHeight() + 2);
+            e.box = new Rectangle(e.mine ? width - boxWidth : 0, top, boxWidth, boxHeight);
+            e.height = top + boxHeight;
+        }
         
-        infoPanel.add(nameLabel, BorderLayout.NORTH);
-        infoPanel.add(detailsLabel, BorderLayout.CENTER);
+        private void layoutFile(TranscriptEntry e, int width) {
+            FontMetrics small = getFontMetrics(SMALL_FONT);
+            FontMetrics buttonFm = getFontMetrics(NORMAL_FONT);
+            int boxWidth = Math.min(FILE_CARD_WIDTH, Math.max(MIN_FILE_CARD_WIDTH, width / 2));
+            int top = ROW_GAP + (e.mine ? 0 : small.getHeight() + 2);
+            int x = e.mine ? width - boxWidth : 0;
+            int y = top + FILE_CARD_PADDING;
+            
+            int innerWidth = boxWidth - 2 * FILE_CARD_PADDING;
+            int previewHeight = 0;
+            int previewWidth = innerWidth;
+            if (e.fileType.equals("image")) {
+                previewHeight = 150;
+                if (e.getPreviewWidth() > 0) {
+                    double scale = Math.min(1.0, innerWidth / (double) e.getPreviewWidth());
+                    previewWidth = (int) (e.getPreviewWidth() * scale);
+                    previewHeight = (int) (e.getPreviewHeight() * scale);
+                }
+            } else if (e.fileType.equals("video")) {
+                previewHeight = 180;
+            }
+            e.previewArea = null;
+            if (previewHeight > 0) {
+                e.previewArea = new Rectangle(x + FILE_CARD_PADDING + (innerWidth - previewWidth) / 2, y,
+                        previewWidth, previewHeight);
+                y += previewHeight + 12;
+            }
+            
+            int textX = x + FILE_CARD_PADDING + FILE_ICON_SIZE + 10;
+            int buttonY = y + getFontMetrics(fileNameFont).getHeight() + 4 + small.getHeight() + 8;
+            int viewWidth = buttonWidth(viewLabel(e), buttonFm);
+            e.viewButton = new Rectangle(textX, buttonY, viewWidth, FILE_BUTTON_HEIGHT);
+            e.downloadButton = new Rectangle(textX + viewWidth + 8, buttonY,
+                    buttonWidth("Tải về", buttonFm), FILE_BUTTON_HEIGHT);
+            
+            y = Math.max(y + FILE_ICON_SIZE, buttonY + FILE_BUTTON_HEIGHT) + 4;
+            int boxHeight = y + small.getHeight() + FILE_CARD_PADDING - top;
+            e.box = new Rectangle(x, top, boxWidth, boxHeight);
+            e.height = top + boxHeight;
+        }
         
-        JPanel actionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
-        actionPanel.setOpaque(false);
-
-        JButton viewBtn;
-        if (fileType.equals("image")) {
-            viewBtn = createFileActionButton("Xem", viewIcon, isSentByMe, SUCCESS_COLOR);
-        } else if (fileType.equals("video")) {
-            viewBtn = createFileActionButton("Phát", playIcon, isSentByMe, ERROR_COLOR);
-        } else if (fileType.equals("audio")) {
-            viewBtn = createFileActionButton("Phát", audioIcon, isSentByMe, ACCENT_COLOR);
-        } else {
-            viewBtn = createFileActionButton("Xem", viewIcon, isSentByMe, SUCCESS_COLOR);
+        // Chỉ ngắt lại khi chiều rộng dành cho chữ đổi; bong bóng tin nhắn có chiều rộng tối đa nên
+        // phóng to/thu nhỏ cửa sổ rộng thường không phải ngắt lại
+        private void wrapText(TranscriptEntry e, String text, Font font, int width) {
+            width = Math.max(40, width);
+            if (e.lines != null && e.wrapWidth == width) return;
+            e.lines = TranscriptEntry.wrap(text, getFontMetrics(font), width).toArray(new String[0]);
+            e.wrapWidth = width;
         }
         
-        viewBtn.addActionListener(e -> openFileDirectly(filename, fileType, fileKey));
-        actionPanel.add(viewBtn);
+        private int buttonWidth(String label, FontMetrics fm) {
+            return 20 + 16 + 6 + fm.stringWidth(label);
+        }
         
-        JButton downloadBtn = createFileActionButton("Tải về", downloadIcon, isSentByMe, ATTACHMENT_COLOR);
-        downloadBtn.addActionListener(e -> downloadFile(filename, fileKey));
-        actionPanel.add(downloadBtn);
+        private String timeLabel(TranscriptEntry e) {
+            return e.historical ? e.time + " (cũ)" : e.time;
+        }
         
-        infoPanel.add(actionPanel, BorderLayout.SOUTH);
+        private String viewLabel(TranscriptEntry e) {
+            return e.fileType.equals("video") || e.fileType.equals("audio") ? "Phát" : "Xem";
+        }
         
-        ImageIcon fileIcon = getFileTypeIcon(fileType);
-        Image scaledImage = fileIcon.getImage().getScaledInstance(48, 48, Image.SCALE_SMOOTH);
-        JLabel iconLabel = new JLabel(new ImageIcon(scaledImage));
-        iconLabel.setPreferredSize(new Dimension(48, 48));
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            if (selected) {
+                g2.setColor(lstChat.getSelectionBackground());
+                g2.fillRect(0, 0, getWidth(), getHeight());
+            }
+            
+            switch (entry.kind) {
+                case TIME:
+                    g2.setFont(timeFont);
+                    g2.setColor(Color.GRAY);
+                    drawCentered(g2, "------------ " + entry.time + " ------------", 10 + g2.getFontMetrics().getAscent());
+                    break;
+                case MESSAGE:
+                    paintMessage(g2, entry);
+                    break;
+                case FILE:
+                    paintFile(g2, entry);
+                    break;
+                default:
+                    g2.setFont(systemFont);
+                    g2.setColor(entry.kind == TranscriptEntry.Kind.JOIN ? JOIN_COLOR
+                            : entry.kind == TranscriptEntry.Kind.LEAVE ? LEAVE_COLOR : SYSTEM_MESSAGE_COLOR);
+                    FontMetrics fm = g2.getFontMetrics();
+                    int y = 2 + fm.getAscent();
+                    for (String line : entry.lines) {
+                        drawCentered(g2, line, y);
+                        y += fm.getHeight();
+                    }
+                    break;
+            }
+            g2.dispose();
+        }
         
-        JPanel contentPanel = new JPanel(new BorderLayout(10, 0));
-        contentPanel.setOpaque(false);
-        contentPanel.add(iconLabel, BorderLayout.WEST);
-        contentPanel.add(infoPanel, BorderLayout.CENTER);
+        private void drawCentered(Graphics2D g2, String text, int baseline) {
+            g2.drawString(text, (getWidth() - g2.getFontMetrics().stringWidth(text)) / 2, baseline);
+        }
         
-        container.add(contentPanel, BorderLayout.CENTER);
+        private void paintSender(Graphics2D g2, TranscriptEntry e) {
+            if (!e.mine) {
+                g2.setFont(SMALL_FONT);
+                g2.setColor(SYSTEM_MESSAGE_COLOR);
+                g2.drawString(e.sender, e.box.x, ROW_GAP + g2.getFontMetrics().getAscent());
+            }
+        }
         
-        JLabel timeLabel = new JLabel(timeStamp);
-        timeLabel.setFont(SMALL_FONT);
-        timeLabel.setForeground(isSentByMe ? new Color(220, 220, 220, 180) : new Color(100, 100, 100, 180));
-        timeLabel.setHorizontalAlignment(isSentByMe ? SwingConstants.RIGHT : SwingConstants.LEFT);
-        timeLabel.setBorder(BorderFactory.createEmptyBorder(4, 0, 0, 0));
+        private void paintMessage(Graphics2D g2, TranscriptEntry e) {
+            Rectangle box = e.box;
+            paintSender(g2, e);
+            g2.setColor(e.mine ? MY_MESSAGE_BG : OTHER_MESSAGE_BG);
+            g2.fillRoundRect(box.x, box.y, box.width, box.height, 16, 16);
+            
+            g2.setFont(CHAT_FONT);
+            g2.setColor(e.mine ? Color.WHITE : Color.BLACK);
+            FontMetrics fm = g2.getFontMetrics();
+            int y = box.y + BUBBLE_PADDING_Y + fm.getAscent();
+            for (String line : e.lines) {
+                g2.drawString(line, box.x + BUBBLE_PADDING_X, y);
+                y += fm.getHeight();
+            }
+            
+            g2.setFont(SMALL_FONT);
+            g2.setColor(e.mine ? new Color(255, 255, 255, 204) : new Color(0, 0, 0, 153));
+            String time = timeLabel(e);
+            FontMetrics small = g2.getFontMetrics();
+            g2.drawString(time, box.x + box.width - BUBBLE_PADDING_X - small.stringWidth(time),
+                    box.y + box.height - BUBBLE_PADDING_Y - small.getDescent());
+        }
         
-        container.add(timeLabel, BorderLayout.SOUTH);
+        private void paintFile(Graphics2D g2, TranscriptEntry e) {
+            Rectangle box = e.box;
+            paintSender(g2, e);
+            g2.setColor(e.mine ? MY_MESSAGE_BG : OTHER_MESSAGE_BG);
+            g2.fillRoundRect(box.x, box.y, box.width, box.height, 16, 16);
+            
+            int infoTop = box.y + FILE_CARD_PADDING;
+            Rectangle preview = e.previewArea;
+            if (preview != null) {
+                paintPreview(g2, e, preview);
+                infoTop = preview.y + preview.height + 12;
+            }
+            
+            int iconX = box.x + FILE_CARD_PADDING;
+            g2.drawImage(getFileTypeIcon(e.fileType).getImage(), iconX, infoTop, FILE_ICON_SIZE, FILE_ICON_SIZE, null);
+            
+            int textX = iconX + FILE_ICON_SIZE + 10;
+            int textWidth = box.x + box.width - FILE_CARD_PADDING - textX;
+            g2.setFont(fileNameFont);
+            g2.setColor(e.mine ? Color.WHITE : Color.BLACK);
+            FontMetrics nameFm = g2.getFontMetrics();
+            g2.drawString(clip(e.getText(), nameFm, textWidth), textX, infoTop + nameFm.getAscent());
+            
+            g2.setFont(SMALL_FONT);
+            g2.setColor(e.mine ? new Color(220, 220, 220) : SYSTEM_MESSAGE_COLOR);
+            FontMetrics small = g2.getFontMetrics();
+            g2.drawString(clip(e.fileDetails, small, textWidth), textX,
+                    infoTop + nameFm.getHeight() + 4 + small.getAscent());
+            
+            Color viewColor = e.fileType.equals("video") ? ERROR_COLOR
+                    : e.fileType.equals("audio") ? ACCENT_COLOR : SUCCESS_COLOR;
+            ImageIcon viewIconToUse = e.fileType.equals("video") ? playIcon
+                    : e.fileType.equals("audio") ? audioIcon : viewIcon;
+            paintButton(g2, e, e.viewButton, viewLabel(e), viewIconToUse, viewColor);
+            paintButton(g2, e, e.downloadButton, "Tải về", downloadIcon, ATTACHMENT_COLOR);
+            
+            g2.setFont(SMALL_FONT);
+            g2.setColor(e.mine ? new Color(220, 220, 220, 180) : new Color(100, 100, 100, 180));
+            int timeX = e.mine ? box.x + box.width - FILE_CARD_PADDING - small.stringWidth(e.time) : iconX;
+            g2.drawString(e.time, timeX, box.y + box.height - FILE_CARD_PADDING - small.getDescent());
+        }
         
-        container.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() == 2) {
-                    openFileDirectly(filename, fileType, fileKey);
+        private void paintPreview(Graphics2D g2, TranscriptEntry e, Rectangle area) {
+            if (e.fileType.equals("image")) {
+                BufferedImage thumbnail = e.previewKey == null ? null : thumbnails.getIfPresent(e.previewKey);
+                if (thumbnail != null) {
+                    g2.drawImage(thumbnail, area.x, area.y, area.width, area.height, null);
+                    return;
                 }
+                g2.setColor(new Color(200, 200, 200));
+                g2.fillRect(area.x, area.y, area.width, area.height);
+                if (e.getPreviewWidth() > 0) {
+                    // Ảnh thu nhỏ đã bị bỏ khỏi bộ nhớ: đọc lại từ cache ngoài EDT, tạm vẽ khung trống
+                    loadFilePreview(e);
+                    return;
+                }
+                g2.setFont(NORMAL_FONT);
+                g2.setColor(Color.WHITE);
+                drawCenteredIn(g2, e.previewFailed ? "Không thể xem trước ảnh" : "Đang tải hình ảnh...",
+                        area, area.y + area.height / 2);
+            } else {
+                g2.setColor(Color.BLACK);
+                g2.fillRect(area.x, area.y, area.width, area.height);
+                g2.setFont(new Font("Arial", Font.BOLD, 48));
+                g2.setColor(new Color(255, 255, 255, 180));
+                drawCenteredIn(g2, "▶", area, area.y + area.height / 2 + 16);
+                g2.setFont(NORMAL_FONT);
+                g2.setColor(Color.WHITE);
+                drawCenteredIn(g2, clip(e.getText(), g2.getFontMetrics(), area.width - 16), area, area.y + area.height - 12);
             }
-            
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                container.setCursor(new Cursor(Cursor.HAND_CURSOR));
-            }
-            
-            @Override
-            public void mouseExited(MouseEvent e) {
-                container.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-            }
-        });
-        
-        return container;
-    }
-    
-    private JButton createFileActionButton(String text, ImageIcon icon, boolean isSentByMe, Color baseColor) {
-        JButton button = new JButton(text);
-        button.setFont(NORMAL_FONT);
-        
-        Color buttonColor = isSentByMe ? new Color(255, 255, 255, 180) : baseColor;
-        button.setBackground(buttonColor);
-        button.setForeground(isSentByMe ? PRIMARY_COLOR : Color.WHITE);
-        button.setBorder(BorderFactory.createEmptyBorder(8, 12, 8, 12));
-        button.setFocusPainted(false);
-        button.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        }
         
-        if (icon != null) {
-            button.setIcon(icon);
-            button.setIconTextGap(8);
+        private void drawCenteredIn(Graphics2D g2, String text, Rectangle area, int baseline) {
+            g2.drawString(text, area.x + (area.width - g2.getFontMetrics().stringWidth(text)) / 2, baseline);
         }
         
-        button.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                button.setBackground(buttonColor.darker());
-            }
-            
-            @Override
-            public void mouseExited(MouseEvent e) {
-                button.setBackground(buttonColor);
-            }
-            
-            @Override
-            public void mousePressed(MouseEvent e) {
-                button.setBackground(buttonColor.darker().darker());
+        private void paintButton(Graphics2D g2, TranscriptEntry e, Rectangle r, String label, ImageIcon icon, Color baseColor) {
+            Color color = e.mine ? new Color(255, 255, 255, 180) : baseColor;
+            if (e == hoveredEntry && r == hoveredButton) {
+                color = color.darker();
             }
+            g2.setColor(color);
+            g2.fillRoundRect(r.x, r.y, r.width, r.height, 8, 8);
             
-            @Override
-            public void mouseReleased(MouseEvent e) {
-                button.setBackground(buttonColor.darker());
-            }
-        });
+            g2.drawImage(icon.getImage(), r.x + 10, r.y + (r.height - 16) / 2, 16, 16, null);
+            g2.setFont(NORMAL_FONT);
+            g2.setColor(e.mine ? PRIMARY_COLOR : Color.WHITE);
+            FontMetrics fm = g2.getFontMetrics();
+            g2.drawString(label, r.x + 10 + 16 + 6, r.y + (r.height - fm.getHeight()) / 2 + fm.getAscent());
+        }
         
-        return button;
+        private String clip(String text, FontMetrics fm, int width) {
+            if (fm.stringWidth(text) <= width) return text;
+            int end = text.length();
+            while (end > 0 && fm.stringWidth(text.substring(0, end)) + fm.stringWidth("...") > width) {
+                end--;
+            }
+            return text.substring(0, end) + "...";
+        }
     }
     
-    private JComponent createFilePreviewComponent(String filename, String fileType, String fileKey, String fileDetails) {
-        if (fileType.equals("image")) {
-            try {
-                File tempFile = new File(tempFilesDir, filename);
-                
-                if (tempFile.exists()) {
-                    try {
-                        ImageIcon icon = new ImageIcon(tempFile.getAbsolutePath());
-                        int maxWidth = 320;
-                        int maxHeight = 220;
-                        double scale = getScaleFactor(icon.getIconWidth(), icon.getIconHeight(), maxWidth, maxHeight);
-                        
-                        Image scaledImage = icon.getImage().getScaledInstance(
-                                (int)(icon.getIconWidth() * scale),
-                                (int)(icon.getIconHeight() * scale),
-                                Image.SCALE_SMOOTH);
-                        
-                        JLabel imageLabel = new JLabel(new ImageIcon(scaledImage));
-                        imageLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 12, 0));
-                        imageLabel.setHorizontalAlignment(SwingConstants.CENTER);
-                        return imageLabel;
-                    } catch (Exception e) {
-                        logger.log(Level.WARNING, "Error creating image preview", e);
+    // Ảnh thu nhỏ lấy từ cache hoặc giải mã ngoài EDT. Chưa có thì xin server ảnh xem trước;
+    // chỉ với server cũ không tạo ảnh xem trước mới phải tải cả file gốc. Chạy trên EDT
+    private void loadFilePreview(TranscriptEntry entry) {
+        if (entry.previewLoading || entry.previewFailed) return;
+        if (entry.previewKey == null) {
+            entry.previewKey = tfServerIP.getText().trim() + ":" + tfPort.getText().trim() + "/" + entry.getText();
+        }
+        entry.previewLoading = true;
+        
+        File tempFile = new File(tempFilesDir, entry.getText());
+        thumbnails.load(entry.previewKey, tempFile).whenComplete((image, error) -> SwingUtilities.invokeLater(() -> {
+            if (image != null || error != null) {
+                showFilePreview(entry, image, error);
+            } else if (client != null && client.supportsPreviews()) {
+                File previewFile = new File(tempFilesDir, "preview_" + entry.getText());
+                client.requestPreview(entry.getText(), previewFile.getAbsolutePath()).whenComplete((file, failure) -> {
+                    if (file != null) {
+                        loadThumbnail(entry, file);
+                    } else {
+                        SwingUtilities.invokeLater(() -> showFilePreview(entry, null, failure));
                     }
-                } else {
-                    JPanel placeholderPanel = new JPanel(new BorderLayout());
-                    placeholderPanel.setBackground(new Color(200, 200, 200));
-                    placeholderPanel.setPreferredSize(new Dimension(320, 150));
-                    
-                    JLabel placeholderLabel = new JLabel("Đang tải hình ảnh...");
-                    placeholderLabel.setHorizontalAlignment(SwingConstants.CENTER);
-                    placeholderLabel.setForeground(Color.WHITE);
-                    placeholderLabel.setFont(NORMAL_FONT);
-                    placeholderPanel.add(placeholderLabel, BorderLayout.CENTER);
-                    
-                    JProgressBar progressBar = new JProgressBar();
-                    progressBar.setIndeterminate(true);
-                    progressBar.setPreferredSize(new Dimension(200, 10));
-                    progressBar.setBackground(new Color(180, 180, 180));
-                    progressBar.setForeground(PRIMARY_COLOR);
-                    
-                    JPanel spinnerPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-                    spinnerPanel.setOpaque(false);
-                    spinnerPanel.add(progressBar);
-                    placeholderPanel.add(spinnerPanel, BorderLayout.SOUTH);
-                    
-                    requestFileAndNotify(filename, tempFile.getAbsolutePath(), fileKey, () -> {
-                        updateImagePreview(placeholderPanel, tempFile.getAbsolutePath());
-                    });
-                    
-                    return placeholderPanel;
-                }
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to create image preview", e);
+                });
+            } else {
+                requestFileAndNotify(entry.getText(), tempFile.getAbsolutePath(), () -> loadThumbnail(entry, tempFile));
             }
-        } else if (fileType.equals("video")) {
-            JPanel videoPanel = new JPanel(new BorderLayout());
-            videoPanel.setBackground(Color.BLACK);
-            videoPanel.setPreferredSize(new Dimension(320, 180));
-            
-            JLabel playIconLabel = new JLabel("▶");
-            playIconLabel.setFont(new Font("Arial", Font.BOLD, 48));
-            playIconLabel.setForeground(new Color(255, 255, 255, 180));
-            playIconLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            
-            JLabel videoInfoLabel = new JLabel(filename);
-            videoInfoLabel.setFont(NORMAL_FONT);
-            videoInfoLabel.setForeground(Color.WHITE);
-            videoInfoLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            videoInfoLabel.setBorder(BorderFactory.createEmptyBorder(8, 0, 8, 0));
-            
-            videoPanel.add(playIconLabel, BorderLayout.CENTER);
-            videoPanel.add(videoInfoLabel, BorderLayout.SOUTH);
-            
-            return videoPanel;
-        } else if (fileType.equals("audio")) {
-            JPanel audioPanel = new JPanel(new BorderLayout());
-            audioPanel.setBackground(new Color(240, 240, 240));
-            audioPanel.setPreferredSize(new Dimension(320, 60));
-            
-            JLabel audioLabel = new JLabel(" 🔊  " + filename);
-            audioLabel.setFont(NORMAL_FONT);
-            audioLabel.setForeground(Color.DARK_GRAY);
-            audioLabel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
-            
-            audioPanel.add(audioLabel, BorderLayout.CENTER);
-            
-            JButton playButton = new JButton("▶");
-            playButton.setFont(new Font(NORMAL_FONT.getFamily(), Font.BOLD, 16));
-            playButton.setFocusPainted(false);
-            playButton.setBackground(SUCCESS_COLOR);
-            playButton.setForeground(Color.WHITE);
-            playButton.setPreferredSize(new Dimension(50, 50));
-            playButton.addActionListener(e -> openFileDirectly(filename, "audio", fileKey));
-            
-            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-            buttonPanel.setOpaque(false);
-            buttonPanel.add(playButton);
-            audioPanel.add(buttonPanel, BorderLayout.EAST);
-            
-            return audioPanel;
-        } else {
-            JPanel docPanel = new JPanel(new BorderLayout());
-            docPanel.setBackground(new Color(245, 245, 245));
-            docPanel.setBorder(BorderFactory.createLineBorder(new Color(220, 220, 220), 1));
-            docPanel.setPreferredSize(new Dimension(320, 80));
-            
-            ImageIcon docIcon = getFileTypeIcon(fileType);
-            Image scaledDocImage = docIcon.getImage().getScaledInstance(32, 32, Image.SCALE_SMOOTH);
-            
-            JPanel iconTextPanel = new JPanel(new BorderLayout(10, 0));
-            iconTextPanel.setOpaque(false);
-            iconTextPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-            
-            JLabel iconLabel = new JLabel(new ImageIcon(scaledDocImage));
-            
-            JLabel docLabel = new JLabel("<html><b>" + filename + "</b><br><font size='2' color='gray'>" + 
-                                   fileDetails + "</font></html>");
-            
-            iconTextPanel.add(iconLabel, BorderLayout.WEST);
-            iconTextPanel.add(docLabel, BorderLayout.CENTER);
-            
-            docPanel.add(iconTextPanel, BorderLayout.CENTER);
-            
-            return docPanel;
-        }
-        return null;
+        }));
     }
     
-    private double getScaleFactor(int width, int height, int maxWidth, int maxHeight) {
-        double scaleW = maxWidth / (double)width;
-        double scaleH = maxHeight / (double)height;
-        return Math.min(1.0, Math.min(scaleW, scaleH));
+    private void loadThumbnail(TranscriptEntry entry, File source) {
+        thumbnails.load(entry.previewKey, source).whenComplete((image, error) ->
+                SwingUtilities.invokeLater(() -> showFilePreview(entry, image, error)));
     }
     
-    private void updateImagePreview(JComponent placeholder, String imagePath) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                ImageIcon icon = new ImageIcon(imagePath);
-                
-                int maxWidth = 320;
-                int maxHeight = 220;
-                double scale = getScaleFactor(icon.getIconWidth(), icon.getIconHeight(), maxWidth, maxHeight);
-                
-                Image scaledImage = icon.getImage().getScaledInstance(
-                        (int)(icon.getIconWidth() * scale),
-                        (int)(icon.getIconHeight() * scale),
-                        Image.SCALE_SMOOTH);
-                
-                if (placeholder instanceof JPanel) {
-                    JPanel panel = (JPanel)placeholder;
-                    panel.removeAll();
-                    panel.setBackground(null);
-                    
-                    JLabel imageLabel = new JLabel(new ImageIcon(scaledImage));
-                    imageLabel.setHorizontalAlignment(SwingConstants.CENTER);
-                    panel.add(imageLabel, BorderLayout.CENTER);
-                    
-                    panel.revalidate();
-                    panel.repaint();
-                }
-                
-                tpChat.revalidate();
-                tpChat.repaint();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Error updating image preview", e);
+    private void showFilePreview(TranscriptEntry entry, BufferedImage image, Throwable error) {
+        entry.previewLoading = false;
+        if (image == null) {
+            entry.previewFailed = true;
+            if (error != null) {
+                logger.log(Level.WARNING, "Error creating image preview for " + entry.getText(), error);
             }
-        });
+        } else {
+            entry.setPreviewSize(image.getWidth(), image.getHeight());
+        }
+        chatModel.update(entry);
     }
     
-    private void openFileDirectly(String filename, String fileType, String fileKey) {
+    private void openFileDirectly(String filename, String fileType) {
         try {
             File tempFile = new File(tempFilesDir, filename);
             
@@ -2412,7 +2471,7 @@ public class ChatClientGUI extends JFrame {
                 
                 displaySystemMessage("Đang tải " + filename + " để mở...");
                 
-                requestFileAndNotify(filename, tempFile.getAbsolutePath(), fileKey, () -> {
+                requestFileAndNotify(filename, tempFile.getAbsolutePath(), () -> {
                     SwingUtilities.invokeLater(() -> {
                         loadingDialog.dispose();
                         try {
@@ -2430,7 +2489,7 @@ public class ChatClientGUI extends JFrame {
         }
     }
     
-    private void downloadFile(String filename, String fileKey) {
+    private void downloadFile(String filename) {
         try {
             JFileChooser fileChooser = new JFileChooser();
             fileChooser.setDialogTitle("Lưu file");
@@ -2467,7 +2526,7 @@ public class ChatClientGUI extends JFrame {
                     });
                 };
                 
-                requestFileAndNotify(filename, targetFile.getAbsolutePath(), fileKey, updateProgress);
+                requestFileAndNotify(filename, targetFile.getAbsolutePath(), updateProgress);
                 
                 Timer progressTimer = new Timer(500, e -> {
                     Integer progress = fileProgressMap.get(filename);
@@ -2514,30 +2573,22 @@ public class ChatClientGUI extends JFrame {
     }
     
     public void fileDownloadComplete(String fileName, String savePath) {
-        SwingUtilities.invokeLater(() -> {
-            displaySystemMessage("Đã tải xuống file: " + fileName + " vào " + savePath);
-            
-            for (Map.Entry<String, Runnable> entry : fileDownloadCallbacks.entrySet()) {
-                if (entry.getKey().startsWith(savePath)) {
-                    Runnable callback = entry.getValue();
-                    if (callback != null) {
-                        callback.run();
-                    }
-                    fileDownloadCallbacks.remove(entry.getKey());
-                    break;
-                }
-            }
-        });
+        displaySystemMessage("Đã tải xuống file: " + fileName + " vào " + savePath);
     }
     
-    public void requestFileAndNotify(String filename, String savePath, String fileKey, Runnable callback) {
-        String callbackKey = savePath + "_" + System.currentTimeMillis();
-        
-        if (callback != null) {
-            fileDownloadCallbacks.put(callbackKey, callback);
-        }
-        
-        client.requestFile(filename, savePath);
+    public void requestFileAndNotify(String filename, String savePath, Runnable callback) {
+        displaySystemMessage("Đã yêu cầu tải file: " + filename);
+        client.requestFile(filename, savePath).whenComplete((file, error) -> {
+            if (error != null) {
+                logger.log(Level.WARNING, "Error downloading file", error);
+                displaySystemMessage("Lỗi khi nhận file: " + errorMessage(error));
+                return;
+            }
+            fileDownloadComplete(filename, file.getPath());
+            if (callback != null) {
+                SwingUtilities.invokeLater(callback);
+            }
+        });
     }
     
     public void handleExistingSession(String username) {
@@ -2561,7 +2612,9 @@ public class ChatClientGUI extends JFrame {
                 cardLayout.show(mainPanel, "chat");
                 setTitle("Chat Client - " + username);
                 updateUserList(username, true);
-                requestChatHistory();
+                if (!historyFromCache) {
+                    requestChatHistory();
+                }
                 taMessage.requestFocus();
             } else {
                 disconnectFromServer();
@@ -2573,143 +2626,30 @@ public class ChatClientGUI extends JFrame {
 
     private void requestChatHistory() {
         if (client != null && client.isConnected()) {
-            client.sendMessage("REQUEST_CHAT_HISTORY");
             displaySystemMessage("Đang tải lịch sử chat...");
-        }
-    }
-
-    public void displayChatHistory(List<String> messages, List<String> authors, List<String> timestamps) {
-        SwingUtilities.invokeLater(() -> {
-            displaySystemMessage("Đã tải lịch sử chat.");
-            
-            displaySystemMessage("--- Bắt đầu lịch sử chat ---");
-            
-            for (int i = 0; i < messages.size(); i++) {
-                String author = authors.get(i);
-                String message = messages.get(i);
-                String timestamp = timestamps.get(i);
-                
-                if (author.equals(getUsername())) {
-                    displayHistoricalSentMessage(message, timestamp);
+            client.requestHistory().whenComplete((entries, error) -> {
+                if (error != null) {
+                    logger.log(Level.WARNING, "Error loading chat history", error);
+                    displaySystemMessage("Không thể tải lịch sử chat: " + errorMessage(error));
                 } else {
-                    displayHistoricalReceivedMessage(author + ": " + message, timestamp);
+                    displayChatHistory(entries);
                 }
-            }
-            
-        });
-    }
-
-    private void displayHistoricalSentMessage(String message, String timestamp) {
-        try {
-            int start = chatDocument.getLength();
-            chatDocument.insertString(start, "\n", null);
-            
-            JPanel messagePanel = new JPanel(new BorderLayout(5, 2));
-            messagePanel.setBackground(new Color(0, 0, 0, 0));
-            
-            JPanel bubblePanel = new JPanel() {
-                @Override
-                protected void paintComponent(Graphics g) {
-                    Graphics2D g2 = (Graphics2D) g.create();
-                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                    g2.setColor(MY_MESSAGE_BG);
-                    g2.fillRoundRect(0, 0, getWidth(), getHeight(), 16, 16);
-                    g2.dispose();
-                }
-            };
-            bubblePanel.setOpaque(false);
-            bubblePanel.setLayout(new BorderLayout());
-            
-            String wrappedMessage = wrapMessage(message, MAX_CHARS_PER_LINE);
-            
-            JLabel messageLabel = new JLabel("<html><div style='color: white; padding: 5px 10px 5px 10px;'>" + 
-                                        wrappedMessage.replace("\n", "<br>") + 
-                                        "<div style='text-align: right; font-size: smaller; margin-top: 4px; color: rgba(255,255,255,0.7);'>" + 
-                                        timestamp + " (cũ)</div></div></html>");
-            messageLabel.setFont(CHAT_FONT);
-            bubblePanel.add(messageLabel, BorderLayout.CENTER);
-            
-            messagePanel.add(bubblePanel, BorderLayout.LINE_END);
-            
-            Style style = chatDocument.addStyle("HistoricalMessagePanelStyle", null);
-            StyleConstants.setComponent(style, messagePanel);
-            
-            start = chatDocument.getLength();
-            chatDocument.insertString(start, " ", style);
-            
-            SimpleAttributeSet right = new SimpleAttributeSet();
-            StyleConstants.setAlignment(right, StyleConstants.ALIGN_RIGHT);
-            chatDocument.setParagraphAttributes(start, 1, right, false);
-            
-            chatDocument.insertString(start + 1, "\n", null);
-        } catch (BadLocationException e) {
-            logger.log(Level.WARNING, "Error displaying historical sent message", e);
+            });
         }
     }
 
-    private void displayHistoricalReceivedMessage(String message, String timestamp) {
-        String sender;
-        String content;
-        int colonIndex = message.indexOf(": ");
-        
-        if (colonIndex > 0) {
-            sender = message.substring(0, colonIndex);
-            content = message.substring(colonIndex + 2);
-        } else {
-            sender = "Unknown";
-            content = message;
-        }
-        
-        try {
-            int start = chatDocument.getLength();
-            chatDocument.insertString(start, "\n", null);
-            
-            JPanel messagePanel = new JPanel(new BorderLayout(5, 2));
-            messagePanel.setBackground(new Color(0, 0, 0, 0));
+    // Cả trang lịch sử là một việc trong hàng đợi nên được chèn cùng một lô
+    public void displayChatHistory(List<HistoryEntry> entries) {
+        scheduleDisplay(() -> {
+            addSystemEntry("Đã tải lịch sử chat.");
+            addSystemEntry("--- Bắt đầu lịch sử chat ---");
             
-            JLabel senderLabel = new JLabel(sender);
-            senderLabel.setFont(SMALL_FONT);
-            senderLabel.setForeground(SYSTEM_MESSAGE_COLOR);
-            messagePanel.add(senderLabel, BorderLayout.NORTH);
-            
-            JPanel bubblePanel = new JPanel() {
-                @Override
-                protected void paintComponent(Graphics g) {
-                    Graphics2D g2 = (Graphics2D) g.create();
-                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                    g2.setColor(OTHER_MESSAGE_BG);
-                    g2.fillRoundRect(0, 0, getWidth(), getHeight(), 16, 16);
-                    g2.dispose();
-                }
-            };
-            bubblePanel.setOpaque(false);
-            bubblePanel.setLayout(new BorderLayout());
-            
-            String wrappedContent = wrapMessage(content, MAX_CHARS_PER_LINE);
-            
-            JLabel messageLabel = new JLabel("<html><div style='color: black; padding: 5px 10px 5px 10px;'>" + 
-                                      wrappedContent.replace("\n", "<br>") + 
-                                      "<div style='text-align: right; font-size: smaller; margin-top: 4px; color: rgba(0,0,0,0.6);'>" + 
-                                      timestamp + " (cũ)</div></div></html>");
-            messageLabel.setFont(CHAT_FONT);
-            bubblePanel.add(messageLabel, BorderLayout.CENTER);
-            
-            messagePanel.add(bubblePanel, BorderLayout.LINE_START);
-            
-            Style style = chatDocument.addStyle("HistoricalOtherMessagePanelStyle", null);
-            StyleConstants.setComponent(style, messagePanel);
-            
-            start = chatDocument.getLength();
-            chatDocument.insertString(start, " ", style);
-            
-            SimpleAttributeSet left = new SimpleAttributeSet();
-            StyleConstants.setAlignment(left, StyleConstants.ALIGN_LEFT);
-            chatDocument.setParagraphAttributes(start, 1, left, false);
-            
-            chatDocument.insertString(start + 1, "\n", null);
-        } catch (BadLocationException e) {
-            logger.log(Level.WARNING, "Error displaying historical received message", e);
-        }
+            for (HistoryEntry entry : entries) {
+                String author = entry.getAuthor();
+                appendEntry(TranscriptEntry.message(author, author.equals(getUsername()),
+                        entry.getMessage(), entry.getTimestamp(), true));
+            }
+        });
     }
 
     public static void main(String[] args) {
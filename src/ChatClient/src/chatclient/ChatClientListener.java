@@ -0,0 +1,92 @@
+package chatclient;
+
+import java.util.List;
+
+/**
+ * Các sự kiện {@link ChatClient} nhận từ server. {@link ChatClientGUI} là một listener;
+ * bot, {@link LoadGenerator} hay ứng dụng nhúng chỉ cần cài những sự kiện mình quan tâm.
+ *
+ * Các phương thức được gọi từ thread đọc socket của client, không phải EDT, và không
+ * nên chặn lâu vì client không đọc tiếp trong lúc chờ. Kết quả của các yêu cầu (gửi tin,
+ * lịch sử, file) được trả qua {@link java.util.concurrent.CompletableFuture} của
+ * {@link ChatClient}, không qua listener.
+ */
+public interface ChatClientListener {
+
+    /** Lý do client mất kết nối. */
+    enum DisconnectReason {
+        /** Server dừng. */
+        SERVER_SHUTDOWN,
+        /** Tài khoản đăng nhập ở nơi khác và phiên này bị đẩy ra. */
+        OTHER_SESSION,
+        /** Socket lỗi hoặc bị đóng đột ngột. */
+        CONNECTION_LOST
+    }
+
+    /** Tin nhắn chat của người khác, đã giải mã. */
+    default void onMessage(String sender, String text) {
+    }
+
+    /**
+     * Tin nhắn đã lưu trong {@link MessageCache}, cũ trước, báo ngay khi đăng nhập thành công
+     * và trước các tin server gửi bù qua {@link #onMessage}. Chỉ gọi khi client có cache;
+     * danh sách rỗng nghĩa là chưa lưu gì và nên gọi {@link ChatClient#requestHistory()}.
+     */
+    default void onCachedHistory(List<HistoryEntry> entries) {
+    }
+
+    /** Dòng thông báo server gửi mà client không nhận ra. */
+    default void onSystemMessage(String message) {
+    }
+
+    /** Danh sách đầy đủ người dùng đang online, không gồm chính mình. */
+    default void onUserList(List<String> users) {
+    }
+
+    default void onUserJoined(String username) {
+    }
+
+    default void onUserLeft(String username) {
+    }
+
+    /** Một file đã có trên server và có thể tải về bằng {@link ChatClient#requestFile}. */
+    default void onFileShared(String sender, String fileName, String fileType, String fileDetails) {
+    }
+
+    /** Người khác vừa gửi một file cho mình hoặc cho cả phòng. */
+    default void onFileOffered(String sender, String fileName, String fileType, long fileSize) {
+    }
+
+    /**
+     * File mình gửi đang chờ trong hàng đợi ở vị trí {@code position} (từ 1), hoặc 0 khi
+     * file bắt đầu được gửi.
+     */
+    default void onFileQueued(String fileName, int position) {
+    }
+
+    /** Tiến độ gửi hoặc nhận file, theo phần trăm. */
+    default void onFileProgress(String fileName, int percent) {
+    }
+
+    /** Tài khoản đang đăng nhập ở nơi khác; gọi {@link ChatClient#forceLogin()} để chiếm phiên. */
+    default void onSessionConflict(String username) {
+    }
+
+    /**
+     * Mất kết nối và client sẽ tự kết nối lại sau {@code delayMillis} ms, lần thứ
+     * {@code attempt}. Khi tự kết nối lại, {@link #onDisconnected} chỉ được gọi lúc bỏ cuộc.
+     */
+    default void onReconnecting(DisconnectReason reason, int attempt, long delayMillis) {
+    }
+
+    /**
+     * Đã kết nối lại và nhận xong các tin nhắn bỏ lỡ, được báo trước đó qua {@link #onMessage}.
+     * @param complete false nếu bỏ lỡ quá nhiều và server chỉ gửi lại phần mới nhất
+     */
+    default void onReconnected(boolean complete) {
+    }
+
+    /** Mất kết nối hẳn: bị phiên khác đẩy ra, tắt tự kết nối lại hoặc đã hết số lần thử. */
+    default void onDisconnected(DisconnectReason reason) {
+    }
+}
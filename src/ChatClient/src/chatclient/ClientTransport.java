@@ -0,0 +1,378 @@
+package chatclient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport NIO của client: một thread I/O duy nhất sở hữu socket.
+ *
+ * Dòng lệnh và dữ liệu file đến được đọc từ cùng một buffer; sau một dòng, handler có thể
+ * gọi {@link #receiveRaw} để nhận đúng N byte tiếp theo dưới dạng dữ liệu thô. Chiều gửi là
+ * một hàng đợi {@link Outbound}: các thread khác chỉ xếp hàng rồi đánh thức selector, thread
+ * I/O ghi lần lượt từng mục khi socket sẵn sàng. Dữ liệu lớn (khối file) lấy từ
+ * {@link BulkSource} và chỉ được gửi khi hàng đợi dòng lệnh trống, nên một dòng lệnh chờ
+ * nhiều nhất một khối.
+ */
+final class ClientTransport implements Runnable {
+    private static final Logger logger = Logger.getLogger(ClientTransport.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Nhận dữ liệu từ server, luôn được gọi trên thread I/O. */
+    interface Handler {
+        /** Một dòng lệnh, đã bỏ ký tự xuống dòng. Ném IOException để đóng kết nối. */
+        void onLine(String line) throws IOException;
+
+        /**
+         * Transport đã đóng, gọi đúng một lần.
+         * @param cause lỗi làm đóng kết nối, null nếu đóng bằng {@link #close()}
+         */
+        void onClosed(IOException cause);
+    }
+
+    /** Nơi nhận dữ liệu thô đến ngay sau một dòng lệnh, ví dụ nội dung file. */
+    interface RawSink {
+        /** Một phần dữ liệu; phần chưa đọc trong {@code data} bị bỏ qua. */
+        void accept(ByteBuffer data) throws IOException;
+
+        /** Đã nhận đủ số byte yêu cầu. */
+        void complete() throws IOException;
+    }
+
+    /** Nguồn dữ liệu lớn, chỉ được hỏi khi không còn dòng lệnh chờ gửi. */
+    interface BulkSource {
+        /** Mục tiếp theo cần gửi, hoặc null nếu hiện chưa có gì. Gọi trên thread I/O. */
+        Outbound poll() throws IOException;
+    }
+
+    /** Một mục trong hàng đợi gửi. Các phương thức được gọi trên thread I/O. */
+    abstract static class Outbound {
+        /** Buffer tiếp theo cần ghi, hoặc null khi mục đã gửi xong. */
+        abstract ByteBuffer next() throws IOException;
+
+        /** Đã ghi hết lên socket. */
+        void sent() {
+        }
+
+        /** Không gửi được vì kết nối đã đóng. */
+        void failed(IOException cause) {
+        }
+    }
+
+    /** Một dòng lệnh, future hoàn tất khi dòng đã được ghi lên socket. */
+    private static final class Line extends Outbound {
+        private ByteBuffer data;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Line(String line) {
+            data = encodeLine(line);
+        }
+
+        @Override
+        ByteBuffer next() {
+            ByteBuffer result = data;
+            data = null;
+            return result;
+        }
+
+        @Override
+        void sent() {
+            future.complete(null);
+        }
+
+        @Override
+        void failed(IOException cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final Handler handler;
+    private final Thread ioThread;
+    private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile BulkSource bulkSource;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // Chỉ thread I/O dùng các trường dưới đây
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] partialLine = new byte[256];
+    private int partialLength;
+    private RawSink rawSink;
+    private long rawRemaining;
+    private Outbound current;
+    private ByteBuffer currentBuffer;
+
+    /**
+     * @param channel socket đã kết nối; transport chuyển nó sang chế độ không chặn
+     */
+    ClientTransport(SocketChannel channel, Handler handler, String threadName) throws IOException {
+        this.channel = channel;
+        this.handler = handler;
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        ioThread = new Thread(this, threadName);
+        ioThread.setDaemon(true);
+    }
+
+    void start() {
+        ioThread.start();
+    }
+
+    static ByteBuffer encodeLine(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Xếp một dòng lệnh vào hàng đợi gửi. */
+    CompletableFuture<Void> sendLine(String line) {
+        Line item = new Line(line);
+        send(item);
+        return item.future;
+    }
+
+    void setBulkSource(BulkSource source) {
+        bulkSource = source;
+        wakeup();
+    }
+
+    /**
+     * Chạy {@code task} trên thread I/O, trước lần ghi tiếp theo.
+     * @return false nếu transport đã đóng và task sẽ không chạy
+     */
+    boolean execute(Runnable task) {
+        if (closed) {
+            return false;
+        }
+        tasks.add(task);
+        // Thread I/O chạy nốt các task còn lại khi đóng; task thêm sau đó thì không chạy
+        if (closed && tasks.remove(task)) {
+            return false;
+        }
+        wakeup();
+        return true;
+    }
+
+    /** Xếp một mục vào hàng đợi gửi; mục được báo failed nếu transport đã đóng. */
+    void send(Outbound item) {
+        if (closed) {
+            item.failed(closedException());
+            return;
+        }
+        outbound.add(item);
+        // Thread I/O có thể đã dọn hàng đợi ngay trước khi mục được thêm vào
+        if (closed && outbound.remove(item)) {
+            item.failed(closedException());
+            return;
+        }
+        wakeup();
+    }
+
+    /**
+     * Nhận đúng {@code length} byte tiếp theo dưới dạng dữ liệu thô. Chỉ gọi trên thread I/O,
+     * từ {@link Handler#onLine}.
+     */
+    void receiveRaw(long length, RawSink sink) throws IOException {
+        if (length == 0) {
+            sink.complete();
+            return;
+        }
+        rawSink = sink;
+        rawRemaining = length;
+    }
+
+    private void wakeup() {
+        if (Thread.currentThread() != ioThread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /** Đóng kết nối; các mục chưa gửi được báo failed. Gọi được từ bất kỳ thread nào. */
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        IOException cause = null;
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            while (!closed) {
+                // Task thêm từ chính thread I/O (ví dụ trong callback) không đánh thức selector
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+                selector.selectedKeys().clear();
+                runTasks();
+                if (closed) {
+                    break;
+                }
+                boolean blocked = flush();
+                key.interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            cause = e;
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Unexpected error on client I/O thread", e);
+            cause = new IOException(e);
+        } finally {
+            closed = true;
+            runTasks();
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing socket", e);
+            }
+            failPending(cause);
+            handler.onClosed(cause);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException("Server đã đóng kết nối");
+        }
+        readBuffer.flip();
+        try {
+            dispatch();
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    private void dispatch() throws IOException {
+        byte[] array = readBuffer.array();
+        while (readBuffer.hasRemaining() && !closed) {
+            int position = readBuffer.position();
+            if (rawSink != null) {
+                int count = (int) Math.min(rawRemaining, readBuffer.remaining());
+                ByteBuffer data = readBuffer.duplicate();
+                data.limit(position + count);
+                readBuffer.position(position + count);
+                rawRemaining -= count;
+                RawSink sink = rawSink;
+                if (rawRemaining == 0) {
+                    rawSink = null;
+                }
+                sink.accept(data);
+                if (rawRemaining == 0) {
+                    sink.complete();
+                }
+                continue;
+            }
+
+            int limit = readBuffer.limit();
+            int end = position;
+            while (end < limit && array[end] != '\n') {
+                end++;
+            }
+            if (end == limit) {
+                // Chưa hết dòng, giữ phần đã nhận để buffer đọc có chỗ trống
+                appendPartial(array, position, limit - position);
+                readBuffer.position(limit);
+                break;
+            }
+            readBuffer.position(end + 1);
+            String line;
+            if (partialLength == 0) {
+                line = decodeLine(array, position, end - position);
+            } else {
+                appendPartial(array, position, end - position);
+                line = decodeLine(partialLine, 0, partialLength);
+                partialLength = 0;
+            }
+            handler.onLine(line);
+        }
+    }
+
+    private void appendPartial(byte[] source, int offset, int length) {
+        if (partialLength + length > partialLine.length) {
+            partialLine = Arrays.copyOf(partialLine, Math.max(partialLength + length, partialLine.length * 2));
+        }
+        System.arraycopy(source, offset, partialLine, partialLength, length);
+        partialLength += length;
+    }
+
+    private static String decodeLine(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ghi các dòng lệnh rồi tới dữ liệu lớn, cho tới khi hết hoặc socket đầy.
+     * @return true nếu socket đầy và cần chờ OP_WRITE
+     */
+    private boolean flush() throws IOException {
+        while (true) {
+            if (currentBuffer == null || !currentBuffer.hasRemaining()) {
+                if (current == null) {
+                    current = outbound.poll();
+                    BulkSource bulk = bulkSource;
+                    if (current == null && bulk != null) {
+                        current = bulk.poll();
+                    }
+                    if (current == null) {
+                        return false;
+                    }
+                }
+                currentBuffer = current.next();
+                if (currentBuffer == null) {
+                    Outbound done = current;
+                    current = null;
+                    done.sent();
+                    continue;
+                }
+            }
+            channel.write(currentBuffer);
+            if (currentBuffer.hasRemaining()) {
+                return true;
+            }
+        }
+    }
+
+    private void failPending(IOException cause) {
+        IOException error = cause != null ? cause : closedException();
+        if (current != null) {
+            current.failed(error);
+            current = null;
+        }
+        Outbound item;
+        while ((item = outbound.poll()) != null) {
+            item.failed(error);
+        }
+    }
+
+    private static IOException closedException() {
+        return new IOException("Đã ngắt kết nối khỏi server");
+    }
+}
@@ -0,0 +1,40 @@
+package chatclient;
+
+/**
+ * Một tin nhắn trong lịch sử chat server gửi về, nội dung đã được giải mã.
+ */
+public final class HistoryEntry {
+    private final long id;
+    private final String timestamp;
+    private final String author;
+    private final String message;
+
+    public HistoryEntry(String timestamp, String author, String message) {
+        this(-1, timestamp, author, message);
+    }
+
+    public HistoryEntry(long id, String timestamp, String author, String message) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.author = author;
+        this.message = message;
+    }
+
+    /** Id của tin nhắn trên server, -1 nếu server không gửi kèm. */
+    public long getId() {
+        return id;
+    }
+
+    /** Thời điểm theo định dạng của server, ví dụ "2024-05-01 10:00:00". */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
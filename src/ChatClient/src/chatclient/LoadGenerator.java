@@ -0,0 +1,458 @@
+package chatclient;
+
+import chatclient.ChatClientListener.DisconnectReason;
+import chatcommon.LatencyHistogram;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bộ sinh tải không giao diện: mở N kết nối {@link ChatClient} tới server, gửi tin nhắn theo
+ * tốc độ và phân bố kích thước cấu hình, định kỳ yêu cầu lịch sử và gửi file, rồi in phân vị
+ * độ trễ và thông lượng.
+ *
+ * Mỗi tin nhắn bắt đầu bằng {@code LG|<nanoTime>|<user>|<seq>|}. Mọi người dùng ảo chạy
+ * trong cùng JVM nên độ trễ giao tin là nanoTime lúc client khác nhận trừ thời điểm gửi.
+ * Thời điểm gửi là thời điểm đã lên lịch chứ không phải lúc ghi được ra socket, để thời gian
+ * chờ khi server chậm cũng được tính vào độ trễ.
+ *
+ * Ví dụ: {@code java -cp ChatClient.jar:ChatCommon.jar chatclient.LoadGenerator --users 1000 --rate 0.5}
+ * hoặc {@code ant loadtest -Dload.args="--users 1000 --rate 0.5"}. Chạy {@code --help} để
+ * xem các tham số.
+ */
+public final class LoadGenerator {
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+    // Giữ tham chiếu để mức log đặt trong main không mất khi logger bị thu gom
+    private static final Logger clientLogger = Logger.getLogger("chatclient");
+    private static final String MARKER = "LG|";
+    private static final long DRAIN_MILLIS = 2000;
+    private static final char[] PADDING = "abcdefghijklmnopqrstuvwxyz ".toCharArray();
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Dùng: LoadGenerator [tham số]",
+            "  --host <địa chỉ>        server (mặc định localhost)",
+            "  --port <cổng>           (mặc định 12345)",
+            "  --users <n>             số người dùng ảo (mặc định 100)",
+            "  --prefix <tên>          tiền tố username (mặc định load)",
+            "  --rate <tin/giây>       tốc độ gửi của mỗi người dùng, phân bố Poisson (mặc định 1)",
+            "  --size <min-max>        số ký tự mỗi tin (mặc định 16-256)",
+            "  --size-dist <kiểu>      uniform hoặc exp: lệch về tin ngắn, cắt ở max (mặc định uniform)",
+            "  --history-every <giây>  mỗi người dùng yêu cầu lịch sử trung bình mỗi chừng này giây, 0 để tắt (mặc định 30)",
+            "  --file-every <giây>     mỗi người dùng gửi file trung bình mỗi chừng này giây, 0 để tắt (mặc định 0)",
+            "  --file-size <byte>      kích thước file gửi (mặc định 65536)",
+            "  --warmup <giây>         thời gian chạy trước khi bắt đầu đo (mặc định 5)",
+            "  --duration <giây>       thời gian đo (mặc định 30)",
+            "  --report <giây>         chu kỳ in tiến độ (mặc định 5)",
+            "  --connect-threads <n>   số kết nối mở song song (mặc định 16)",
+            "  --threads <n>           số thread lên lịch gửi (mặc định bằng số CPU)",
+            "  --verbose               giữ log INFO của ChatClient");
+
+    private final String host;
+    private final int port;
+    private final int users;
+    private final String prefix;
+    private final double rate;
+    private final int sizeMin;
+    private final int sizeMax;
+    private final boolean sizeExponential;
+    private final double historyEvery;
+    private final double fileEvery;
+    private final int fileSize;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int reportSeconds;
+    private final int connectThreads;
+    private final int schedulerThreads;
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram historyLatency = new LatencyHistogram();
+    private final LatencyHistogram uploadLatency = new LatencyHistogram();
+    private final LatencyHistogram reconnectLatency = new LatencyHistogram();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentChars = new LongAdder();
+    private final LongAdder expectedDeliveries = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder deliveredChars = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger online = new AtomicInteger();
+
+    private final List<VirtualUser> virtualUsers = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private File uploadFile;
+    private volatile boolean running;
+    // Chỉ tính các thao tác bắt đầu sau mốc này (hết warmup)
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+
+    private LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        users = Integer.parseInt(options.getOrDefault("users", "100"));
+        prefix = options.getOrDefault("prefix", "load");
+        rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        String[] size = options.getOrDefault("size", "16-256").split("-", 2);
+        sizeMin = Integer.parseInt(size[0]);
+        sizeMax = size.length > 1 ? Integer.parseInt(size[1]) : sizeMin;
+        sizeExponential = "exp".equals(options.getOrDefault("size-dist", "uniform"));
+        historyEvery = Double.parseDouble(options.getOrDefault("history-every", "30"));
+        fileEvery = Double.parseDouble(options.getOrDefault("file-every", "0"));
+        fileSize = Integer.parseInt(options.getOrDefault("file-size", "65536"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        reportSeconds = Integer.parseInt(options.getOrDefault("report", "5"));
+        connectThreads = Integer.parseInt(options.getOrDefault("connect-threads", "16"));
+        schedulerThreads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (sizeMax < sizeMin || rate < 0) {
+            throw new IllegalArgumentException("--size phải là min-max với min <= max, --rate không âm");
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseArgs(args);
+        if (options == null) {
+            System.out.println(USAGE);
+            return;
+        }
+        if (!options.containsKey("verbose")) {
+            // Mỗi client ghi log INFO khi kết nối và gửi file; hàng nghìn client sẽ lấn át báo cáo
+            clientLogger.setLevel(Level.WARNING);
+        }
+        new LoadGenerator(options).run();
+    }
+
+    // --tên giá trị; cờ không có giá trị nhận "true". Trả về null nếu cần in hướng dẫn.
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || args[i].equals("--help")) {
+                return null;
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    private void run() throws IOException, InterruptedException {
+        if (fileEvery > 0) {
+            uploadFile = createUploadFile();
+        }
+        scheduler = Executors.newScheduledThreadPool(schedulerThreads, r -> {
+            Thread thread = new Thread(r, "loadgen-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        connectAll();
+        if (virtualUsers.isEmpty()) {
+            System.out.println("Không kết nối được người dùng nào tới " + host + ":" + port);
+            scheduler.shutdownNow();
+            return;
+        }
+
+        running = true;
+        long start = System.nanoTime();
+        measureStartNanos = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        for (VirtualUser user : virtualUsers) {
+            user.start(start);
+        }
+        long[] last = new long[2];
+        scheduler.scheduleAtFixedRate(() -> reportProgress(start, last), reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        TimeUnit.SECONDS.sleep(warmupSeconds + durationSeconds);
+        running = false;
+        long measuredNanos = System.nanoTime() - measureStartNanos;
+        // Chờ các tin đã gửi tới nơi trước khi chốt số liệu
+        Thread.sleep(DRAIN_MILLIS);
+        scheduler.shutdownNow();
+
+        printReport(measuredNanos);
+        for (VirtualUser user : virtualUsers) {
+            user.client.disconnect();
+        }
+        if (uploadFile != null) {
+            uploadFile.delete();
+        }
+    }
+
+    private void connectAll() throws InterruptedException {
+        System.out.println("Đang kết nối " + users + " người dùng tới " + host + ":" + port + "...");
+        long start = System.nanoTime();
+        ExecutorService connector = Executors.newFixedThreadPool(connectThreads);
+        for (int i = 0; i < users; i++) {
+            String name = prefix + i;
+            connector.execute(() -> {
+                VirtualUser user = new VirtualUser(name);
+                long connectStart = System.nanoTime();
+                if (user.client.connect(host, port, name)) {
+                    connectLatency.recordSince(connectStart);
+                    online.incrementAndGet();
+                    virtualUsers.add(user);
+                } else {
+                    connectFailures.increment();
+                }
+            });
+        }
+        connector.shutdown();
+        connector.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        System.out.printf("Đã kết nối %d/%d người dùng trong %.1fs%n", virtualUsers.size(), users,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private File createUploadFile() throws IOException {
+        File file = File.createTempFile("loadgen", ".bin");
+        file.deleteOnExit();
+        byte[] buffer = new byte[8192];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < fileSize; written += buffer.length) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                out.write(buffer, 0, Math.min(buffer.length, fileSize - written));
+            }
+        }
+        return file;
+    }
+
+    // Khoảng chờ tới lần kế tiếp của quá trình Poisson có tốc độ ratePerSecond
+    private static long nextIntervalNanos(double ratePerSecond) {
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (long) (-Math.log(u) / ratePerSecond * 1e9);
+    }
+
+    private int nextMessageSize() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (sizeExponential) {
+            double mean = (sizeMax - sizeMin) / 4.0;
+            return (int) Math.min(sizeMax, sizeMin - mean * Math.log(1.0 - random.nextDouble()));
+        }
+        return sizeMin + random.nextInt(sizeMax - sizeMin + 1);
+    }
+
+    private String buildMessage(String username, long seq, long sentAt) {
+        StringBuilder sb = new StringBuilder(sizeMax + 48);
+        sb.append(MARKER).append(sentAt).append('|').append(username).append('|').append(seq).append('|');
+        int size = nextMessageSize();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (sb.length() < size) {
+            sb.append(PADDING[random.nextInt(PADDING.length)]);
+        }
+        return sb.toString();
+    }
+
+    private void reportProgress(long start, long[] last) {
+        long sentNow = sent.sum();
+        long deliveredNow = deliveries.sum();
+        System.out.printf("t=%ds online=%d sent=+%d delivered=+%d p99=%.2fms%s%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), online.get(),
+                sentNow - last[0], deliveredNow - last[1],
+                deliveryLatency.getPercentileNanos(0.99) / 1e6,
+                System.nanoTime() < measureStartNanos ? " (warmup)" : "");
+        last[0] = sentNow;
+        last[1] = deliveredNow;
+    }
+
+    private void printReport(long measuredNanos) {
+        double seconds = measuredNanos / 1e9;
+        long sentCount = sent.sum();
+        long delivered = deliveries.sum();
+        long expected = expectedDeliveries.sum();
+        System.out.println();
+        System.out.printf("Người dùng: %d kết nối, %d lỗi%n", virtualUsers.size(), connectFailures.sum());
+        System.out.printf("Thời gian đo: %.1fs%n", seconds);
+        System.out.printf("Gửi: %d tin (%.1f tin/s, %.1f KB/s)%n", sentCount, sentCount / seconds,
+                sentChars.sum() / seconds / 1024);
+        System.out.printf("Nhận: %d/%d lượt giao (%.2f%%), %.1f tin/s, %.1f KB/s%n", delivered, expected,
+                expected == 0 ? 100.0 : delivered * 100.0 / expected, delivered / seconds,
+                deliveredChars.sum() / seconds / 1024);
+        System.out.println("Độ trễ kết nối:  " + percentiles(connectLatency));
+        System.out.println("Độ trễ giao tin: " + percentiles(deliveryLatency));
+        System.out.println("Độ trễ lịch sử:  " + percentiles(historyLatency));
+        System.out.println("Độ trễ gửi file: " + percentiles(uploadLatency));
+        System.out.println("Kết nối lại:     " + percentiles(reconnectLatency));
+        System.out.println("Yêu cầu lịch sử/file thất bại: " + failures.sum());
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return "n=0";
+        }
+        return String.format("n=%d avg=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                count,
+                histogram.getSumNanos() / (double) count / 1e6,
+                histogram.getPercentileNanos(0.50) / 1e6,
+                histogram.getPercentileNanos(0.90) / 1e6,
+                histogram.getPercentileNanos(0.99) / 1e6,
+                histogram.getPercentileNanos(0.999) / 1e6,
+                histogram.getMaxNanos() / 1e6);
+    }
+
+    /** Một người dùng ảo: một {@link ChatClient} và các lịch gửi tin, lịch sử, file của nó. */
+    private final class VirtualUser implements ChatClientListener {
+        private final String name;
+        private final ChatClient client;
+        private final AtomicBoolean gone = new AtomicBoolean();
+        // Đang mất kết nối (chờ kết nối lại hoặc đã bỏ cuộc) và thời điểm mất kết nối gần nhất
+        private final AtomicBoolean offline = new AtomicBoolean();
+        private volatile long lostAt;
+        // Mỗi người dùng chỉ có một yêu cầu lịch sử và một file đang chờ tại một thời điểm
+        private final AtomicBoolean historyPending = new AtomicBoolean();
+        private final AtomicBoolean uploadPending = new AtomicBoolean();
+        private long seq;
+        private long nextSendAt;
+
+        VirtualUser(String name) {
+            this.name = name;
+            this.client = new ChatClient(this);
+        }
+
+        void start(long now) {
+            if (rate > 0) {
+                // Lệch pha ngẫu nhiên để các người dùng không gửi cùng lúc
+                nextSendAt = now + nextIntervalNanos(rate);
+                scheduler.schedule(this::sendNext, nextSendAt - now, TimeUnit.NANOSECONDS);
+            }
+            if (historyEvery > 0) {
+                scheduler.schedule(this::requestHistory, nextIntervalNanos(1 / historyEvery), TimeUnit.NANOSECONDS);
+            }
+            if (uploadFile != null) {
+                scheduler.schedule(this::uploadFile, nextIntervalNanos(1 / fileEvery), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Chỉ chạy trên một thread của scheduler tại một thời điểm, vì lần kế tiếp được lên lịch ở cuối
+        private void sendNext() {
+            if (!running || gone.get()) {
+                return;
+            }
+            long scheduledAt = nextSendAt;
+            // Đang tự kết nối lại thì bỏ lượt này nhưng vẫn giữ lịch gửi
+            if (client.isConnected()) {
+                String text = buildMessage(name, seq++, scheduledAt);
+                client.sendChatMessage(text);
+                if (scheduledAt >= measureStartNanos) {
+                    sent.increment();
+                    sentChars.add(text.length());
+                    expectedDeliveries.add(online.get() - 1);
+                }
+            }
+            nextSendAt = scheduledAt + nextIntervalNanos(rate);
+            scheduler.schedule(this::sendNext, Math.max(0, nextSendAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private void requestHistory() {
+            if (!running || gone.get()) {
+                return;
+            }
+            if (client.isConnected() && historyPending.compareAndSet(false, true)) {
+                long requestedAt = System.nanoTime();
+                client.requestHistory().whenComplete((entries, error) -> {
+                    historyPending.set(false);
+                    if (requestedAt >= measureStartNanos) {
+                        if (error == null) {
+                            historyLatency.recordSince(requestedAt);
+                        } else {
+                            failures.increment();
+                        }
+                    }
+                });
+            }
+            scheduler.schedule(this::requestHistory, nextIntervalNanos(1 / historyEvery), TimeUnit.NANOSECONDS);
+        }
+
+        private void uploadFile() {
+            if (!running || gone.get()) {
+                return;
+            }
+            if (client.isConnected() && uploadPending.compareAndSet(false, true)) {
+                long startedAt = System.nanoTime();
+                client.sendFile(uploadFile).whenComplete((storedName, error) -> {
+                    uploadPending.set(false);
+                    if (startedAt >= measureStartNanos) {
+                        if (error == null) {
+                            uploadLatency.recordSince(startedAt);
+                        } else {
+                            failures.increment();
+                        }
+                    }
+                });
+            }
+            scheduler.schedule(this::uploadFile, nextIntervalNanos(1 / fileEvery), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onMessage(String sender, String text) {
+            long now = System.nanoTime();
+            if (!text.startsWith(MARKER)) {
+                return;
+            }
+            int end = text.indexOf('|', MARKER.length());
+            if (end < 0) {
+                return;
+            }
+            long sentAt;
+            try {
+                sentAt = Long.parseLong(text.substring(MARKER.length(), end));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (sentAt >= measureStartNanos) {
+                deliveryLatency.record(now - sentAt);
+                deliveries.increment();
+                deliveredChars.add(text.length());
+            }
+        }
+
+        @Override
+        public void onReconnecting(DisconnectReason reason, int attempt, long delayMillis) {
+            if (offline.compareAndSet(false, true)) {
+                lostAt = System.nanoTime();
+                online.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void onReconnected(boolean complete) {
+            if (offline.compareAndSet(true, false)) {
+                reconnectLatency.recordSince(lostAt);
+                online.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onDisconnected(DisconnectReason reason) {
+            if (gone.compareAndSet(false, true)) {
+                if (offline.compareAndSet(false, true)) {
+                    online.decrementAndGet();
+                }
+                logger.warning(name + " mất kết nối: " + reason);
+            }
+        }
+
+        @Override
+        public void onSessionConflict(String username) {
+            // Còn phiên cũ cùng tên từ lần chạy trước; chiếm lại phiên thay vì hỏi người dùng
+            client.forceLogin();
+        }
+    }
+}
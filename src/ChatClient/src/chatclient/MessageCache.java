@@ -0,0 +1,209 @@
+package chatclient;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lưu cục bộ các tin nhắn chat đã nhận, theo server và port, trong SQLite (GUI dùng
+ * database/client_data.db). Khi đăng nhập, {@link ChatClient} hiển thị ngay các tin đã lưu
+ * và chỉ xin server những tin có id lớn hơn tin mới nhất trong cache.
+ *
+ * Tin nhắn mới được xếp hàng rồi một thread riêng ghi theo lô trong một transaction, nên
+ * thread I/O của client không phải chờ đĩa. Tin chưa kịp ghi khi thoát đột ngột sẽ được
+ * server gửi lại ở lần đăng nhập sau.
+ */
+public final class MessageCache {
+    private static final Logger logger = Logger.getLogger(MessageCache.class.getName());
+    // Mỗi server giữ tối đa bấy nhiêu tin nhắn mới nhất, phần cũ hơn bị xóa khi mở cache
+    private static final int MAX_MESSAGES_PER_SERVER = 5000;
+    private static final int BATCH_SIZE = 256;
+    private static final Pending STOP = new Pending(null, 0, null);
+
+    private final String dbPath;
+    private Connection connection;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private Thread writer;
+
+    private static final class Pending {
+        final String server;
+        final int port;
+        final HistoryEntry entry;
+
+        Pending(String server, int port, HistoryEntry entry) {
+            this.server = server;
+            this.port = port;
+            this.entry = entry;
+        }
+    }
+
+    public MessageCache(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        this.dbPath = "jdbc:sqlite:" + file.getPath();
+    }
+
+    /** Mở database và tạo bảng nếu cần; false nếu không dùng được cache. */
+    public synchronized boolean open() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection(dbPath);
+            try (Statement stmt = connection.createStatement()) {
+                // Nhiều client trên cùng máy có thể dùng chung file
+                stmt.execute("PRAGMA busy_timeout = 3000");
+                stmt.execute("PRAGMA journal_mode = WAL");
+                stmt.execute("PRAGMA synchronous = NORMAL");
+                stmt.execute("CREATE TABLE IF NOT EXISTS messages ("
+                        + "server TEXT NOT NULL,"
+                        + "port INTEGER NOT NULL,"
+                        + "id INTEGER NOT NULL,"
+                        + "timestamp TEXT,"
+                        + "author TEXT,"
+                        + "message TEXT,"
+                        + "PRIMARY KEY (server, port, id))");
+                int pruned = stmt.executeUpdate("DELETE FROM messages WHERE id <= ("
+                        + "SELECT m.id FROM messages m WHERE m.server = messages.server AND m.port = messages.port "
+                        + "ORDER BY m.id DESC LIMIT 1 OFFSET " + MAX_MESSAGES_PER_SERVER + ")");
+                if (pruned > 0) {
+                    logger.fine("Pruned " + pruned + " cached messages");
+                }
+            }
+        } catch (ClassNotFoundException | SQLException e) {
+            logger.log(Level.WARNING, "Could not open message cache " + dbPath, e);
+            closeConnection();
+            return false;
+        }
+
+        writer = new Thread(this::writeLoop, "chatclient-cache");
+        writer.setDaemon(true);
+        writer.start();
+        return true;
+    }
+
+    /** Tối đa {@code limit} tin nhắn mới nhất đã lưu của server, cũ trước. */
+    synchronized List<HistoryEntry> recent(String server, int port, int limit) {
+        List<HistoryEntry> entries = new ArrayList<>();
+        if (connection == null) {
+            return entries;
+        }
+        String sql = "SELECT id, timestamp, author, message FROM messages "
+                + "WHERE server = ? AND port = ? ORDER BY id DESC LIMIT ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, server);
+            pstmt.setInt(2, port);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new HistoryEntry(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Could not read message cache", e);
+        }
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /** Xếp tin nhắn vào hàng đợi ghi; tin có id đã lưu thì bỏ qua. Không chặn. */
+    void add(String server, int port, HistoryEntry entry) {
+        if (entry.getId() >= 0) {
+            pending.add(new Pending(server, port, entry));
+        }
+    }
+
+    /** Ghi nốt các tin đang chờ rồi đóng database. */
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            current = writer;
+            writer = null;
+        }
+        if (current != null) {
+            pending.add(STOP);
+            try {
+                current.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeConnection();
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(pending.take());
+                pending.drainTo(batch, BATCH_SIZE - 1);
+                boolean stop = batch.remove(STOP);
+                write(batch);
+                batch.clear();
+                if (stop) {
+                    // Phần thêm sau STOP (nếu có) cũng được ghi trước khi dừng
+                    pending.drainTo(batch);
+                    write(batch);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void write(List<Pending> batch) {
+        if (batch.isEmpty() || connection == null) {
+            return;
+        }
+        String sql = "INSERT OR IGNORE INTO messages (server, port, id, timestamp, author, message) "
+                + "VALUES (?, ?, ?, ?, ?, ?)";
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                for (Pending item : batch) {
+                    pstmt.setString(1, item.server);
+                    pstmt.setInt(2, item.port);
+                    pstmt.setLong(3, item.entry.getId());
+                    pstmt.setString(4, item.entry.getTimestamp());
+                    pstmt.setString(5, item.entry.getAuthor());
+                    pstmt.setString(6, item.entry.getMessage());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Could not write " + batch.size() + " messages to cache", e);
+        }
+    }
+
+    private void closeConnection() {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error closing message cache", e);
+        }
+        connection = null;
+    }
+}
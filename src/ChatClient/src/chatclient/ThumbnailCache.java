@@ -0,0 +1,193 @@
+package chatclient;
+
+import chatcommon.ImageThumbnails;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Ảnh thu nhỏ cho phần xem trước file ảnh trong khung chat.
+ *
+ * Ảnh gốc được giải mã bằng {@link ImageThumbnails} trên một thread riêng. Ảnh thu nhỏ được
+ * giữ theo LRU giới hạn bằng số byte, trong bộ nhớ và trên đĩa; bản trên đĩa dùng chung giữa
+ * các lần chạy nên ảnh đã xem không phải tải và giải mã lại.
+ */
+final class ThumbnailCache {
+    private static final Logger logger = Logger.getLogger(ThumbnailCache.class.getName());
+    // Xóa bớt trên đĩa xuống mức này khi vượt giới hạn, tránh dọn thư mục sau mỗi ảnh
+    private static final double DISK_TRIM_RATIO = 0.8;
+
+    private final File dir;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    // -1 cho đến lần ghi đầu tiên, khi đó mới quét thư mục
+    private long diskBytes = -1;
+    private final Map<String, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chatclient-thumbnails");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    ThumbnailCache(File dir, int maxWidth, int maxHeight, long maxMemoryBytes, long maxDiskBytes) {
+        this.dir = dir;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /** Ảnh thu nhỏ đang có trong bộ nhớ, hoặc null. Không chặn, dùng được khi vẽ. */
+    synchronized BufferedImage getIfPresent(String key) {
+        return memory.get(key);
+    }
+
+    /**
+     * Ảnh thu nhỏ của {@code key}: lấy từ bộ nhớ, từ đĩa, hoặc giải mã {@code source} nếu file đã
+     * có. Hoàn thành với null khi chưa có cả ảnh thu nhỏ lẫn file gốc. Các lời gọi trùng key khi
+     * đang đọc dùng chung một lần đọc.
+     */
+    CompletableFuture<BufferedImage> load(String key, File source) {
+        BufferedImage cached = getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<BufferedImage> future = inFlight.computeIfAbsent(key,
+                k -> CompletableFuture.supplyAsync(() -> loadSlow(k, source), decoder));
+        future.whenComplete((image, error) -> inFlight.remove(key, future));
+        return future;
+    }
+
+    private BufferedImage loadSlow(String key, File source) {
+        File diskFile = diskFile(key);
+        try {
+            BufferedImage image = null;
+            if (diskFile.isFile()) {
+                image = ImageIO.read(diskFile);
+                if (image != null) {
+                    diskFile.setLastModified(System.currentTimeMillis());
+                }
+            }
+            if (image == null) {
+                if (!source.isFile()) {
+                    return null;
+                }
+                image = ImageThumbnails.read(source, maxWidth, maxHeight);
+                store(diskFile, image);
+            }
+            remember(key, image);
+            return image;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private synchronized void remember(String key, BufferedImage image) {
+        BufferedImage old = memory.put(key, image);
+        if (old != null) {
+            memoryBytes -= bytes(old);
+        }
+        memoryBytes += bytes(image);
+        Iterator<BufferedImage> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && memory.size() > 1) {
+            memoryBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    // Ghi ra file tạm rồi đổi tên để cửa sổ khác dùng chung thư mục không đọc phải file ghi dở
+    private void store(File diskFile, BufferedImage image) {
+        try {
+            Files.createDirectories(dir.toPath());
+            File tmp = File.createTempFile("thumb", ".tmp", dir);
+            try {
+                ImageThumbnails.write(image, tmp);
+            } catch (IOException e) {
+                tmp.delete();
+                throw e;
+            }
+            long size = tmp.length();
+            Files.move(tmp.toPath(), diskFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            trimDisk(size);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not store thumbnail " + diskFile.getName(), e);
+        }
+    }
+
+    // Chỉ chạy trên thread giải mã
+    private void trimDisk(long added) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".thumb"));
+        if (files == null) {
+            return;
+        }
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            for (File file : files) {
+                diskBytes += file.length();
+            }
+        } else {
+            diskBytes += added;
+        }
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long target = (long) (maxDiskBytes * DISK_TRIM_RATIO);
+        diskBytes = 0;
+        for (File file : files) {
+            diskBytes += file.length();
+        }
+        for (File file : files) {
+            if (diskBytes <= target) {
+                break;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    private File diskFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                    (key + "|" + maxWidth + "x" + maxHeight).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 6);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(dir, name.append(".thumb").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package chatclient;
+
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Một dòng trong khung chat của {@link ChatClientGUI}: tin nhắn, file, thông báo hệ thống
+ * hoặc mốc thời gian. Khung chat là một JList nên chỉ các dòng đang hiện mới được vẽ.
+ *
+ * Các trường layout là kích thước đã tính cho chiều rộng {@code layoutWidth}, renderer chỉ tính
+ * lại khi chiều rộng đổi hoặc sau {@link #invalidate()}. Các dòng chữ đã ngắt được giữ theo
+ * {@code wrapWidth} nên đổi kích thước cửa sổ thường không phải ngắt lại. Chỉ dùng trên EDT.
+ */
+final class TranscriptEntry {
+
+    enum Kind { SYSTEM, JOIN, LEAVE, TIME, MESSAGE, FILE }
+
+    final Kind kind;
+    final String sender;
+    final boolean mine;
+    final String time;
+    // Tin nhắn từ lịch sử chat, hiển thị kèm "(cũ)"
+    final boolean historical;
+    final String fileType;
+    final String fileDetails;
+    // Nội dung tin nhắn, tên file với FILE; dòng trạng thái gửi file được cập nhật tại chỗ
+    private String text;
+    // Kích thước ảnh thu nhỏ khi đã biết; bản thân ảnh nằm trong ThumbnailCache và có thể bị bỏ ra
+    private int previewWidth;
+    private int previewHeight;
+    String previewKey;
+    boolean previewLoading;
+    boolean previewFailed;
+
+    // Layout theo chiều rộng layoutWidth, do renderer của ChatClientGUI tính
+    int layoutWidth = -1;
+    int height;
+    int wrapWidth = -1;
+    String[] lines;
+    Rectangle box;
+    Rectangle previewArea;
+    Rectangle viewButton;
+    Rectangle downloadButton;
+
+    private TranscriptEntry(Kind kind, String sender, boolean mine, String text, String time,
+            boolean historical, String fileType, String fileDetails) {
+        this.kind = kind;
+        this.sender = sender;
+        this.mine = mine;
+        this.text = text;
+        this.time = time;
+        this.historical = historical;
+        this.fileType = fileType;
+        this.fileDetails = fileDetails;
+    }
+
+    static TranscriptEntry system(Kind kind, String text, String time) {
+        return new TranscriptEntry(kind, null, false, text, time, false, null, null);
+    }
+
+    static TranscriptEntry timeSeparator(String time) {
+        return new TranscriptEntry(Kind.TIME, null, false, null, time, false, null, null);
+    }
+
+    static TranscriptEntry message(String sender, boolean mine, String text, String time, boolean historical) {
+        return new TranscriptEntry(Kind.MESSAGE, sender, mine, text, time, historical, null, null);
+    }
+
+    static TranscriptEntry file(String sender, boolean mine, String fileName, String fileType,
+            String fileDetails, String time) {
+        return new TranscriptEntry(Kind.FILE, sender, mine, fileName, time, false, fileType, fileDetails);
+    }
+
+    String getText() {
+        return text;
+    }
+
+    void setText(String text) {
+        this.text = text;
+        invalidate();
+    }
+
+    int getPreviewWidth() {
+        return previewWidth;
+    }
+
+    int getPreviewHeight() {
+        return previewHeight;
+    }
+
+    void setPreviewSize(int width, int height) {
+        if (width != previewWidth || height != previewHeight) {
+            previewWidth = width;
+            previewHeight = height;
+            invalidate();
+        }
+    }
+
+    /** Bỏ layout đã tính, lần vẽ sau sẽ tính lại. */
+    void invalidate() {
+        layoutWidth = -1;
+        wrapWidth = -1;
+    }
+
+    /** Nội dung dạng chữ, dùng khi copy các dòng đang chọn. */
+    @Override
+    public String toString() {
+        switch (kind) {
+            case TIME:
+                return "--- " + time + " ---";
+            case MESSAGE:
+                return "[" + time + "] " + sender + ": " + text;
+            case FILE:
+                return "[" + time + "] " + sender + " gửi file: " + text;
+            default:
+                return "[" + time + "] " + text;
+        }
+    }
+
+    /**
+     * Ngắt {@code text} thành các dòng rộng không quá {@code width} pixel theo {@code fm}, ưu tiên
+     * ngắt ở dấu cách và giữ nguyên các xuống dòng có sẵn. Từ dài hơn một dòng bị cắt giữa từ.
+     */
+    static List<String> wrap(String text, FontMetrics fm, int width) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : text.split("\n", -1)) {
+            // Phần lớn tin nhắn ngắn và vừa một dòng
+            if (fm.stringWidth(paragraph) <= width) {
+                lines.add(paragraph);
+                continue;
+            }
+            int lineStart = 0;
+            int lineWidth = 0;
+            int breakAt = -1;
+            for (int i = 0; i < paragraph.length(); i++) {
+                char c = paragraph.charAt(i);
+                int charWidth = fm.charWidth(c);
+                if (lineWidth + charWidth > width && i > lineStart && c != ' ') {
+                    int end = breakAt > lineStart ? breakAt : i;
+                    lines.add(stripTrailingSpaces(paragraph, lineStart, end));
+                    lineStart = end;
+                    lineWidth = fm.stringWidth(paragraph.substring(lineStart, i));
+                    breakAt = -1;
+                }
+                lineWidth += charWidth;
+                if (c == ' ') {
+                    breakAt = i + 1;
+                }
+            }
+            lines.add(stripTrailingSpaces(paragraph, lineStart, paragraph.length()));
+        }
+        return lines;
+    }
+
+    private static String stripTrailingSpaces(String text, int start, int end) {
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+}
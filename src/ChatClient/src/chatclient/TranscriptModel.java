@@ -0,0 +1,68 @@
+package chatclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * Các dòng của khung chat. Chỉ giữ {@link #MAX_ENTRIES} dòng mới nhất để bộ nhớ không tăng
+ * theo độ dài phiên; tin nhắn cũ hơn vẫn nằm trong lịch sử và cache cục bộ. Chỉ dùng trên EDT.
+ */
+final class TranscriptModel extends AbstractListModel<TranscriptEntry> {
+    static final int MAX_ENTRIES = 5000;
+    // Khi vượt giới hạn thì bỏ một lượt nhiều dòng, tránh dời mảng sau mỗi tin nhắn
+    private static final int TRIM_BATCH = 500;
+
+    private final List<TranscriptEntry> entries = new ArrayList<>();
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public TranscriptEntry getElementAt(int index) {
+        return entries.get(index);
+    }
+
+    void add(TranscriptEntry entry) {
+        entries.add(entry);
+        int index = entries.size() - 1;
+        fireIntervalAdded(this, index, index);
+        trim();
+    }
+
+    void addAll(List<TranscriptEntry> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        int first = entries.size();
+        entries.addAll(added);
+        fireIntervalAdded(this, first, entries.size() - 1);
+        trim();
+    }
+
+    /** Báo JList vẽ lại một dòng đã đổi nội dung hoặc kích thước. */
+    void update(TranscriptEntry entry) {
+        int index = entries.lastIndexOf(entry);
+        if (index >= 0) {
+            fireContentsChanged(this, index, index);
+        }
+    }
+
+    /** Báo JList đo lại mọi dòng khi khung chat đổi chiều rộng; renderer tự bỏ layout cũ theo chiều rộng. */
+    void relayout() {
+        if (!entries.isEmpty()) {
+            fireContentsChanged(this, 0, entries.size() - 1);
+        }
+    }
+
+    private void trim() {
+        if (entries.size() <= MAX_ENTRIES) {
+            return;
+        }
+        int removed = entries.size() - MAX_ENTRIES + TRIM_BATCH;
+        entries.subList(0, removed).clear();
+        fireIntervalRemoved(this, 0, removed - 1);
+    }
+}
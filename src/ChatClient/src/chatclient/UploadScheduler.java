@@ -0,0 +1,276 @@
+package chatclient;
+
+import chatcommon.FileStreamCipher;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lập lịch gửi file trên một kết nối; mọi phương thức chạy trên thread I/O của
+ * {@link ClientTransport}.
+ *
+ * File chờ gửi được xếp theo {@link Priority} (ảnh và file nhỏ trước, video và file lớn sau),
+ * cùng mức thì theo thứ tự gửi. Tối đa {@code maxActive} file được gửi song song, mỗi file một
+ * id riêng: UPLOAD_START:id:..., sau đó các khối FILE_CHUNK:id:số byte. Mỗi khối được cấp cho
+ * file có thời gian ảo (số byte đã gửi chia trọng số) nhỏ nhất, nên băng thông được chia theo
+ * trọng số của mức ưu tiên thay vì file trước chiếm hết.
+ */
+final class UploadScheduler implements ClientTransport.BulkSource {
+    private static final Logger logger = Logger.getLogger(UploadScheduler.class.getName());
+    private static final long SMALL_FILE = 256 * 1024;
+    private static final long LARGE_FILE = 16 * 1024 * 1024;
+
+    /** Mức ưu tiên của một file, kèm trọng số khi chia băng thông. */
+    enum Priority {
+        HIGH(4), NORMAL(2), LOW(1);
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+
+        static Priority of(String fileType, long fileSize) {
+            if (fileType.equals("image") || fileSize <= SMALL_FILE) {
+                return HIGH;
+            }
+            if (fileType.equals("video") || fileSize >= LARGE_FILE) {
+                return LOW;
+            }
+            return NORMAL;
+        }
+    }
+
+    /** Một file cần gửi. Được tạo trên thread gọi, sau đó chỉ scheduler dùng. */
+    static final class Upload {
+        final String fileName;
+        final String fileType;
+        final long fileSize;
+        final String recipient;
+        final Priority priority;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        private final InputStream source;
+        private String id;
+        private long sequence;
+        private boolean accepted;
+        private FileStreamCipher.Sealer sealer;
+        private LongConsumer progress;
+        private double virtualTime;
+        private int reportedPosition = -1;
+
+        /** Mở file ngay để lỗi đọc file được báo trước khi xếp hàng. */
+        Upload(File file, String fileType, String recipient) throws IOException {
+            this.fileName = file.getName();
+            this.fileType = fileType;
+            this.fileSize = file.length();
+            this.recipient = recipient;
+            this.priority = Priority.of(fileType, fileSize);
+            this.source = new FileInputStream(file);
+        }
+
+        void fail(Throwable error) {
+            close();
+            future.completeExceptionally(error);
+        }
+
+        private void close() {
+            try {
+                source.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " + fileName, e);
+            }
+        }
+    }
+
+    /** Một khối file: dòng FILE_CHUNK rồi dữ liệu đã mã hóa. */
+    private final class Chunk extends ClientTransport.Outbound {
+        private final Upload upload;
+        private ByteBuffer header;
+        private ByteBuffer data;
+
+        Chunk(Upload upload, ByteBuffer data) {
+            this.upload = upload;
+            this.header = ClientTransport.encodeLine("FILE_CHUNK:" + upload.id + ":" + data.remaining());
+            this.data = data;
+        }
+
+        @Override
+        ByteBuffer next() {
+            ByteBuffer result = header != null ? header : data;
+            if (header != null) {
+                header = null;
+            } else {
+                data = null;
+            }
+            return result;
+        }
+
+        @Override
+        void sent() {
+            upload.progress.accept(upload.sealer.processed());
+        }
+    }
+
+    private static final Comparator<Upload> QUEUE_ORDER = Comparator
+            .comparing((Upload upload) -> upload.priority)
+            .thenComparingLong(upload -> upload.sequence);
+
+    private final ClientTransport transport;
+    private final FileStreamCipher cipher;
+    private final ChatClientListener listener;
+    private final PriorityQueue<Upload> waiting = new PriorityQueue<>(QUEUE_ORDER);
+    // File đang gửi dữ liệu
+    private final List<Upload> active = new ArrayList<>();
+    // Mọi file đã gửi UPLOAD_START mà server chưa trả lời xong, theo id
+    private final Map<String, Upload> started = new HashMap<>();
+    private int maxActive;
+    private long nextSequence;
+    private int nextId;
+
+    UploadScheduler(ClientTransport transport, FileStreamCipher cipher, ChatClientListener listener, int maxActive) {
+        this.transport = transport;
+        this.cipher = cipher;
+        this.listener = listener;
+        this.maxActive = Math.max(1, maxActive);
+    }
+
+    void setMaxActive(int maxActive) {
+        this.maxActive = Math.max(1, maxActive);
+        startWaiting();
+    }
+
+    void add(Upload upload) {
+        upload.sequence = nextSequence++;
+        upload.id = Integer.toString(++nextId);
+        waiting.add(upload);
+        startWaiting();
+        reportPositions();
+    }
+
+    /** Server đã nhận UPLOAD_START; file bắt đầu được chia khối. */
+    void accepted(String id) throws IOException {
+        Upload upload = started.get(id);
+        if (upload == null || upload.accepted) {
+            return;
+        }
+        upload.accepted = true;
+        upload.sealer = cipher.newSealer(upload.fileSize);
+        upload.progress = ChatClient.progressReporter(listener, upload.fileName, upload.fileSize);
+        // Bắt đầu từ thời gian ảo nhỏ nhất hiện có để không giành hết băng thông của file đang gửi
+        double floor = Double.MAX_VALUE;
+        for (Upload other : active) {
+            if (other != upload && other.accepted) {
+                floor = Math.min(floor, other.virtualTime);
+            }
+        }
+        upload.virtualTime = floor == Double.MAX_VALUE ? 0 : floor;
+    }
+
+    /** Server từ chối hoặc không nhận được file; trả về file đó, null nếu id không còn. */
+    Upload rejected(String id, String reason) {
+        Upload upload = started.remove(id);
+        if (upload == null) {
+            return null;
+        }
+        active.remove(upload);
+        upload.fail(new IOException("Yêu cầu gửi file bị từ chối: " + reason));
+        startWaiting();
+        return upload;
+    }
+
+    /** Server đã nhận đủ file; trả về file đó, null nếu id không còn. */
+    Upload done(String id) {
+        Upload upload = started.remove(id);
+        if (upload != null && active.remove(upload)) {
+            // File rỗng có thể xong trước khi có khối nào
+            upload.close();
+            startWaiting();
+        }
+        return upload;
+    }
+
+    void failAll(IOException cause) {
+        for (Upload upload : waiting) {
+            upload.fail(cause);
+        }
+        waiting.clear();
+        for (Upload upload : started.values()) {
+            upload.fail(cause);
+        }
+        started.clear();
+        active.clear();
+    }
+
+    @Override
+    public ClientTransport.Outbound poll() throws IOException {
+        while (true) {
+            Upload next = null;
+            for (Upload upload : active) {
+                if (upload.accepted && (next == null || upload.virtualTime < next.virtualTime)) {
+                    next = upload;
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+
+            ByteBuffer data = next.sealer.next(next.source);
+            if (data == null || next.sealer.processed() == next.fileSize) {
+                // Khối cuối: giải phóng chỗ cho file đang chờ, file vẫn chờ UPLOAD_DONE
+                active.remove(next);
+                next.close();
+                startWaiting();
+            }
+            if (data != null) {
+                next.virtualTime += (double) data.remaining() / next.priority.weight;
+                return new Chunk(next, data);
+            }
+        }
+    }
+
+    private void startWaiting() {
+        boolean startedAny = false;
+        while (active.size() < maxActive && !waiting.isEmpty()) {
+            Upload upload = waiting.poll();
+            active.add(upload);
+            started.put(upload.id, upload);
+            // FORMAT: UPLOAD_START:id:filesize:filetype:recipient:filename
+            transport.sendLine("UPLOAD_START:" + upload.id + ":" + upload.fileSize + ":" + upload.fileType + ":"
+                    + (upload.recipient != null ? upload.recipient : "") + ":" + upload.fileName);
+            if (upload.reportedPosition > 0) {
+                listener.onFileQueued(upload.fileName, 0);
+            }
+            upload.reportedPosition = 0;
+            startedAny = true;
+        }
+        if (startedAny) {
+            reportPositions();
+        }
+    }
+
+    // Báo vị trí trong hàng chờ cho những file có vị trí thay đổi
+    private void reportPositions() {
+        List<Upload> queue = new ArrayList<>(waiting);
+        queue.sort(QUEUE_ORDER);
+        int position = 1;
+        for (Upload upload : queue) {
+            if (upload.reportedPosition != position) {
+                upload.reportedPosition = position;
+                listener.onFileQueued(upload.fileName, position);
+            }
+            position++;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package chatcommon;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Phần chung của các AEAD cipher: nonce 12 byte = 4 byte ngẫu nhiên của instance
+ * + 8 byte bộ đếm, nên không lặp lại nonce trong cùng một khóa.
+ *
+ * Bên nhận chỉ chấp nhận tin có bộ đếm lớn hơn mọi tin đã nhận trong phiên, nên một dòng bị
+ * bắt lại và gửi lại nguyên văn bị từ chối. Vì vậy bên gửi phải gửi đi theo đúng thứ tự mã hóa.
+ */
+abstract class AeadMessageCipher implements MessageCipher {
+    static final int NONCE_BYTES = 12;
+    static final int TAG_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final CipherSuite suite;
+    private final String transformation;
+    private final String keyAlgorithm;
+    private final SecretKey sendKey;
+    private final SecretKey receiveKey;
+    private final int noncePrefix;
+    private final AtomicLong counter = new AtomicLong();
+    // Bộ đếm lớn nhất trong các tin đã giải mã; -1 khi chưa nhận tin nào
+    private final AtomicLong highestReceived = new AtomicLong(-1);
+    private final FileStreamCipher fileCipher;
+
+    AeadMessageCipher(CipherSuite suite, String transformation, String keyAlgorithm, SessionKeys keys) {
+        this.suite = suite;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.sendKey = new SecretKeySpec(keys.getSendKey(), keyAlgorithm);
+        this.receiveKey = new SecretKeySpec(keys.getReceiveKey(), keyAlgorithm);
+        this.noncePrefix = RANDOM.nextInt();
+        this.fileCipher = new ChunkedAeadFileCipher(this, keys);
+    }
+
+    abstract AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset);
+
+    String getTransformation() {
+        return transformation;
+    }
+
+    String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    @Override
+    public CipherSuite getSuite() {
+        return suite;
+    }
+
+    @Override
+    public FileStreamCipher getFileCipher() {
+        return fileCipher;
+    }
+
+    @Override
+    public int getOverhead() {
+        return NONCE_BYTES + TAG_BYTES;
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length + NONCE_BYTES + TAG_BYTES;
+    }
+
+    @Override
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        long sequence = counter.getAndIncrement();
+        writeInt(dst, dstOffset, noncePrefix);
+        writeInt(dst, dstOffset + 4, (int) (sequence >>> 32));
+        writeInt(dst, dstOffset + 8, (int) sequence);
+
+        Cipher cipher = null;
+        try {
+            cipher = CipherPool.borrow(transformation, Cipher.ENCRYPT_MODE);
+            cipher.init(Cipher.ENCRYPT_MODE, sendKey, parameterSpec(dst, dstOffset));
+            return NONCE_BYTES + cipher.doFinal(src, srcOffset, length, dst, dstOffset + NONCE_BYTES);
+        } catch (GeneralSecurityException ex) {
+            cipher = null; // trạng thái không rõ, không trả lại pool
+            throw new CodecException("Không thể mã hóa tin nhắn", ex);
+        } finally {
+            if (cipher != null) {
+                CipherPool.release(transformation, Cipher.ENCRYPT_MODE, cipher);
+            }
+        }
+    }
+
+    @Override
+    public int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        if (length < NONCE_BYTES + TAG_BYTES) {
+            throw new CodecException("Tin nhắn mã hóa quá ngắn");
+        }
+        Cipher cipher = null;
+        try {
+            cipher = CipherPool.borrow(transformation, Cipher.DECRYPT_MODE);
+            cipher.init(Cipher.DECRYPT_MODE, receiveKey, parameterSpec(src, srcOffset));
+            int written = cipher.doFinal(src, srcOffset + NONCE_BYTES, length - NONCE_BYTES, dst, dstOffset);
+            // Kiểm tra sau khi xác thực, để nonce giả không đẩy được bộ đếm lên
+            acceptSequence(((long) readInt(src, srcOffset + 4) << 32) | (readInt(src, srcOffset + 8) & 0xFFFFFFFFL));
+            return written;
+        } catch (GeneralSecurityException ex) {
+            cipher = null;
+            throw new CodecException("Tin nhắn không hợp lệ hoặc đã bị sửa đổi", ex);
+        } finally {
+            if (cipher != null) {
+                CipherPool.release(transformation, Cipher.DECRYPT_MODE, cipher);
+            }
+        }
+    }
+
+    private void acceptSequence(long sequence) {
+        long highest;
+        do {
+            highest = highestReceived.get();
+            if (sequence <= highest) {
+                throw new CodecException("Tin nhắn bị gửi lại (bộ đếm " + sequence + ")");
+            }
+        } while (!highestReceived.compareAndSet(highest, sequence));
+    }
+
+    @Override
+    public String encodeText(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[maxEncodedLength(input.length)];
+        int written = encode(input, 0, input.length, output, 0);
+        return Base64.getEncoder().encodeToString(written == output.length ? output : Arrays.copyOf(output, written));
+    }
+
+    @Override
+    public String decodeText(String text) {
+        byte[] input;
+        try {
+            input = Base64.getDecoder().decode(text);
+        } catch (IllegalArgumentException ex) {
+            throw new CodecException("Tin nhắn không phải Base64", ex);
+        }
+        byte[] output = new byte[Math.max(0, input.length - NONCE_BYTES)];
+        int written = decode(input, 0, input.length, output, 0);
+        return new String(output, 0, written, StandardCharsets.UTF_8);
+    }
+
+    private static int readInt(byte[] src, int offset) {
+        return (src[offset] & 0xFF) << 24 | (src[offset + 1] & 0xFF) << 16
+                | (src[offset + 2] & 0xFF) << 8 | (src[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+}
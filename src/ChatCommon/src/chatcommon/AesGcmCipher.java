@@ -0,0 +1,19 @@
+package chatcommon;
+
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-256-GCM; nhanh nhất trên CPU có AES-NI.
+ */
+public final class AesGcmCipher extends AeadMessageCipher {
+
+    public AesGcmCipher(SessionKeys keys) {
+        super(CipherSuite.AES_GCM, "AES/GCM/NoPadding", "AES", keys);
+    }
+
+    @Override
+    AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset) {
+        return new GCMParameterSpec(TAG_BYTES * 8, nonce, offset, NONCE_BYTES);
+    }
+}
@@ -0,0 +1,145 @@
+package chatcommon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler ghi log bất đồng bộ: thread gọi log chỉ đưa bản ghi vào hàng đợi vòng có giới
+ * hạn, một thread nền lấy theo lô và chuyển cho handler đích (thường là FileHandler xoay
+ * vòng), flush một lần mỗi lô. Nhờ vậy I/O ghi file không nằm trên đường xử lý tin nhắn.
+ *
+ * Khi hàng đợi đầy, bản ghi được xử lý theo {@link OverflowPolicy}; số bản ghi bị bỏ
+ * được ghi lại thành một dòng WARNING khi hàng đợi có chỗ.
+ */
+public class AsyncLogHandler extends Handler {
+
+    /** Cách xử lý khi hàng đợi đầy. */
+    public enum OverflowPolicy {
+        /** Bỏ bản ghi mới, giữ nguyên những gì đã xếp hàng. */
+        DROP_NEWEST,
+        /** Bỏ bản ghi cũ nhất để nhận bản ghi mới, như một ring buffer ghi đè. */
+        DROP_OLDEST,
+        /** Chờ đến khi có chỗ; không mất log nhưng thread gọi có thể bị chặn. */
+        BLOCK
+    }
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> queue;
+    private final OverflowPolicy policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    public AsyncLogHandler(Handler target, int capacity, OverflowPolicy policy) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.worker = new Thread(this::drainLoop, "async-log");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        switch (policy) {
+            case DROP_NEWEST:
+                if (!queue.offer(record)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(record)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                try {
+                    queue.put(record);
+                } catch (InterruptedException e) {
+                    dropped.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+        }
+    }
+
+    /** Số bản ghi đang chờ thread nền ghi. */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /** Số bản ghi đã bị bỏ vì hàng đợi đầy, tính từ khi khởi tạo. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drainLoop() {
+        List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+        long reportedDrops = 0;
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LogRecord first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    LogRecord warning = new LogRecord(Level.WARNING,
+                            "Bỏ " + (drops - reportedDrops) + " bản ghi log vì hàng đợi đầy");
+                    warning.setLoggerName(AsyncLogHandler.class.getName());
+                    target.publish(warning);
+                    reportedDrops = drops;
+                }
+                for (LogRecord record : batch) {
+                    target.publish(record);
+                }
+                target.flush();
+            } catch (InterruptedException e) {
+                // Không ai ngắt thread này; tiếp tục để không mất log
+            } catch (RuntimeException e) {
+                reportError("Lỗi khi ghi log", e, ErrorManager.WRITE_FAILURE);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Thread nền flush sau mỗi lô
+    }
+
+    /** Ghi nốt các bản ghi đang chờ rồi đóng handler đích. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        // Thread nền thấy cờ closed sau lần poll kế tiếp, ghi nốt hàng đợi rồi dừng
+        closed = true;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+}
@@ -0,0 +1,219 @@
+package chatcommon;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Mã hóa file theo khối 64 KB bằng AEAD của suite đã thỏa thuận.
+ *
+ * Định dạng trên socket: [salt 16 byte][khối 0][khối 1]...; mỗi khối là
+ * [ciphertext][tag 16 byte] của tối đa {@link #CHUNK_SIZE} byte gốc. Mỗi file có khóa
+ * riêng = HMAC-SHA256(khóa phiên theo chiều gửi, nhãn || salt), nên nonce chỉ cần là số
+ * thứ tự khối. AAD của khối cuối khác các khối còn lại, nên cắt bớt khối ở cuối hay
+ * đổi chỗ các khối đều làm hỏng tag.
+ */
+final class ChunkedAeadFileCipher implements FileStreamCipher {
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int SALT_BYTES = 16;
+    private static final int TAG_BYTES = AeadMessageCipher.TAG_BYTES;
+    private static final byte[] LAST_CHUNK = {1};
+    private static final byte[] MORE_CHUNKS = {0};
+    private static final byte[] KEY_LABEL = "ltm-chat file".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final AeadMessageCipher aead;
+    private final SecretKeySpec sendKey;
+    private final SecretKeySpec receiveKey;
+
+    ChunkedAeadFileCipher(AeadMessageCipher aead, SessionKeys keys) {
+        this.aead = aead;
+        this.sendKey = new SecretKeySpec(keys.getSendKey(), "HmacSHA256");
+        this.receiveKey = new SecretKeySpec(keys.getReceiveKey(), "HmacSHA256");
+    }
+
+    @Override
+    public long sealedLength(long plainLength) {
+        long chunks = plainLength == 0 ? 1 : (plainLength + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return SALT_BYTES + plainLength + chunks * TAG_BYTES;
+    }
+
+    @Override
+    public Sealer newSealer(long length) throws IOException {
+        return new ChunkSealer(length);
+    }
+
+    @Override
+    public Opener newOpener(long length) {
+        return new ChunkOpener(length);
+    }
+
+    private final class ChunkSealer implements Sealer {
+        private final long length;
+        private final SecretKey key;
+        private final byte[] plain;
+        // Khối đầu tiên đi kèm salt ở đầu buffer
+        private final byte[] sealed;
+        private final byte[] nonce = new byte[AeadMessageCipher.NONCE_BYTES];
+        private long remaining;
+        private long index;
+
+        ChunkSealer(long length) throws IOException {
+            this.length = length;
+            this.remaining = length;
+            plain = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, length))];
+            sealed = new byte[SALT_BYTES + plain.length + TAG_BYTES];
+            byte[] salt = new byte[SALT_BYTES];
+            RANDOM.nextBytes(salt);
+            System.arraycopy(salt, 0, sealed, 0, SALT_BYTES);
+            try {
+                key = fileKey(sendKey, salt);
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Không thể mã hóa file", ex);
+            }
+        }
+
+        @Override
+        public ByteBuffer next(InputStream in) throws IOException {
+            if (index > 0 && remaining == 0) {
+                return null;
+            }
+            int count = (int) Math.min(plain.length, remaining);
+            readFully(in, plain, count);
+            remaining -= count;
+
+            int offset = index == 0 ? SALT_BYTES : 0;
+            setNonce(nonce, index++);
+            try {
+                int written = crypt(Cipher.ENCRYPT_MODE, key, nonce, remaining == 0, plain, count, sealed, offset);
+                return ByteBuffer.wrap(sealed, 0, offset + written);
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Không thể mã hóa file", ex);
+            }
+        }
+
+        @Override
+        public long processed() {
+            return length - remaining;
+        }
+    }
+
+    private final class ChunkOpener implements Opener {
+        private final long length;
+        private final byte[] salt = new byte[SALT_BYTES];
+        private final byte[] plain;
+        private final byte[] sealed;
+        private final byte[] nonce = new byte[AeadMessageCipher.NONCE_BYTES];
+        private SecretKey key;
+        // Số byte của salt hoặc khối hiện tại đã nhận
+        private int filled;
+        private long remainingPlain;
+        private long remainingSealed;
+        private long index;
+
+        ChunkOpener(long length) {
+            this.length = length;
+            this.remainingPlain = length;
+            this.remainingSealed = sealedLength(length);
+            plain = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, length))];
+            sealed = new byte[plain.length + TAG_BYTES];
+        }
+
+        @Override
+        public boolean update(ByteBuffer data, OutputStream out) throws IOException {
+            boolean chunkDone = false;
+            while (data.hasRemaining() && remainingSealed > 0) {
+                if (key == null) {
+                    int n = Math.min(SALT_BYTES - filled, data.remaining());
+                    data.get(salt, filled, n);
+                    filled += n;
+                    remainingSealed -= n;
+                    if (filled == SALT_BYTES) {
+                        try {
+                            key = fileKey(receiveKey, salt);
+                        } catch (GeneralSecurityException ex) {
+                            throw new IOException("Không thể giải mã file", ex);
+                        }
+                        filled = 0;
+                    }
+                    continue;
+                }
+
+                int count = (int) Math.min(plain.length, remainingPlain);
+                int n = Math.min(count + TAG_BYTES - filled, data.remaining());
+                data.get(sealed, filled, n);
+                filled += n;
+                remainingSealed -= n;
+                if (filled < count + TAG_BYTES) {
+                    break;
+                }
+                remainingPlain -= count;
+                setNonce(nonce, index);
+                try {
+                    int written = crypt(Cipher.DECRYPT_MODE, key, nonce, remainingPlain == 0, sealed, count + TAG_BYTES, plain, 0);
+                    out.write(plain, 0, written);
+                } catch (GeneralSecurityException ex) {
+                    throw new IOException("Khối " + index + " của file không hợp lệ hoặc đã bị sửa đổi", ex);
+                }
+                index++;
+                filled = 0;
+                chunkDone = true;
+            }
+            return chunkDone;
+        }
+
+        @Override
+        public long remaining() {
+            return remainingSealed;
+        }
+
+        @Override
+        public long processed() {
+            return length - remainingPlain;
+        }
+    }
+
+    // Mượn cipher từ pool cho một khối; cipher lỗi có trạng thái không rõ nên không trả lại pool
+    private int crypt(int mode, SecretKey key, byte[] nonce, boolean last, byte[] input, int length,
+            byte[] output, int outputOffset) throws GeneralSecurityException {
+        Cipher cipher = CipherPool.borrow(aead.getTransformation(), mode);
+        cipher.init(mode, key, aead.parameterSpec(nonce, 0));
+        cipher.updateAAD(last ? LAST_CHUNK : MORE_CHUNKS);
+        int written = cipher.doFinal(input, 0, length, output, outputOffset);
+        CipherPool.release(aead.getTransformation(), mode, cipher);
+        return written;
+    }
+
+    private SecretKey fileKey(SecretKeySpec base, byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(base);
+        mac.update(KEY_LABEL);
+        return new SecretKeySpec(mac.doFinal(salt), aead.getKeyAlgorithm());
+    }
+
+    private static void setNonce(byte[] nonce, long index) {
+        for (int i = 0; i < 8; i++) {
+            nonce[nonce.length - 1 - i] = (byte) (index >>> (8 * i));
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("File bị cắt cụt");
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package chatcommon;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.Cipher;
+
+/**
+ * Pool các instance {@link Cipher} theo transformation.
+ *
+ * {@code Cipher.getInstance} phải tìm provider mỗi lần gọi nên chậm hơn nhiều so với
+ * {@code init} với nonce mới; còn một Cipher lại không dùng chung được giữa các thread.
+ * Mỗi tin nhắn mượn một instance rồi trả lại. Instance mã hóa và giải mã nằm ở hai pool
+ * riêng, vì provider ChaCha20 từ chối init lại với cùng khóa và nonce của lần init trước.
+ */
+final class CipherPool {
+    private static final int MAX_IDLE_PER_TRANSFORMATION = 64;
+    private static final Map<String, Queue<Cipher>> POOLS = new ConcurrentHashMap<>();
+
+    private CipherPool() {
+    }
+
+    static Cipher borrow(String transformation, int mode) throws GeneralSecurityException {
+        Cipher cipher = pool(transformation, mode).poll();
+        return cipher != null ? cipher : Cipher.getInstance(transformation);
+    }
+
+    static void release(String transformation, int mode, Cipher cipher) {
+        Queue<Cipher> pool = pool(transformation, mode);
+        // Kích thước chỉ là ước lượng, vượt giới hạn một chút cũng không sao
+        if (pool.size() < MAX_IDLE_PER_TRANSFORMATION) {
+            pool.offer(cipher);
+        }
+    }
+
+    private static Queue<Cipher> pool(String transformation, int mode) {
+        return POOLS.computeIfAbsent(transformation + "#" + mode, t -> new ConcurrentLinkedQueue<>());
+    }
+}
@@ -0,0 +1,127 @@
+package chatcommon;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.crypto.Cipher;
+
+/**
+ * Các bộ mã hóa mà client và server có thể thỏa thuận khi kết nối.
+ *
+ * Bắt tay: client gửi "CIPHER_HELLO:&lt;suite1&gt;,&lt;suite2&gt;...[:&lt;public key&gt;]" (theo thứ
+ * tự ưu tiên) trước dòng username, server trả lời "CIPHER_SELECTED:&lt;suite&gt;[:&lt;public key&gt;]".
+ * Public key chỉ có khi suite cần khóa phiên, xem {@link SessionHandshake}. Client cũ không
+ * gửi CIPHER_HELLO được coi là dùng PLAIN.
+ */
+public enum CipherSuite {
+    AES_GCM("AES/GCM/NoPadding"),
+    CHACHA20_POLY1305("ChaCha20-Poly1305"),
+    VIGENERE(null),
+    PLAIN(null);
+
+    public static final String HELLO_PREFIX = "CIPHER_HELLO:";
+    public static final String SELECTED_PREFIX = "CIPHER_SELECTED:";
+
+    private final String transformation;
+    private final boolean available;
+
+    CipherSuite(String transformation) {
+        this.transformation = transformation;
+        this.available = transformation == null || isSupportedByJre(transformation);
+    }
+
+    private static boolean isSupportedByJre(String transformation) {
+        try {
+            Cipher.getInstance(transformation);
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /** Suite cần khóa phiên thỏa thuận qua {@link SessionHandshake}. */
+    public boolean isKeyed() {
+        return transformation != null;
+    }
+
+    /** ChaCha20-Poly1305 chỉ có từ JRE 11. */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /** Codec cho suite không cần khóa phiên. */
+    public MessageCodec newCodec() {
+        switch (this) {
+            case VIGENERE:
+                return new VigenereCodec();
+            case PLAIN:
+                return new PlainCodec();
+            default:
+                throw new IllegalStateException(name() + " cần khóa phiên");
+        }
+    }
+
+    public MessageCodec newCodec(SessionKeys keys) {
+        switch (this) {
+            case AES_GCM:
+                return new AesGcmCipher(keys);
+            case CHACHA20_POLY1305:
+                return new ChaCha20Poly1305Cipher(keys);
+            default:
+                return newCodec();
+        }
+    }
+
+    public static CipherSuite[] availableSuites() {
+        List<CipherSuite> suites = new ArrayList<>();
+        for (CipherSuite suite : values()) {
+            if (suite.isAvailable()) {
+                suites.add(suite);
+            }
+        }
+        return suites.toArray(new CipherSuite[0]);
+    }
+
+    public static CipherSuite fromName(String name) {
+        for (CipherSuite suite : values()) {
+            if (suite.name().equalsIgnoreCase(name.trim())) {
+                return suite;
+            }
+        }
+        return null;
+    }
+
+    /** Tạo dòng CIPHER_HELLO với các suite theo thứ tự ưu tiên. */
+    public static String hello(String publicKey, CipherSuite... preferred) {
+        StringBuilder sb = new StringBuilder(HELLO_PREFIX);
+        for (int i = 0; i < preferred.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(preferred[i].name());
+        }
+        if (publicKey != null) {
+            sb.append(':').append(publicKey);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Chọn suite đầu tiên trong danh sách client đề nghị mà server hỗ trợ.
+     * @param offer danh sách suite, phần giữa "CIPHER_HELLO:" và public key
+     * @param keyOffered client có gửi public key không; không có thì bỏ qua suite cần khóa
+     */
+    public static CipherSuite negotiate(String offer, boolean keyOffered, CipherSuite... supported) {
+        for (String name : offer.split(",")) {
+            CipherSuite suite = fromName(name);
+            if (suite == null || !suite.isAvailable() || (suite.isKeyed() && !keyOffered)) {
+                continue;
+            }
+            for (CipherSuite candidate : supported) {
+                if (candidate == suite) {
+                    return suite;
+                }
+            }
+        }
+        return PLAIN;
+    }
+}
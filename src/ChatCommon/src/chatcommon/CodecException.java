@@ -0,0 +1,15 @@
+package chatcommon;
+
+/**
+ * Tin nhắn không giải mã được: sai định dạng hoặc không qua được kiểm tra xác thực (AEAD tag).
+ */
+public class CodecException extends RuntimeException {
+
+    public CodecException(String message) {
+        super(message);
+    }
+
+    public CodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
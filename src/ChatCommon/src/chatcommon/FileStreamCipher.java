@@ -0,0 +1,95 @@
+package chatcommon;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * Mã hóa file theo luồng khi truyền qua socket, dùng chung cho client và server.
+ *
+ * File được xử lý từng khối nên bộ nhớ dùng không phụ thuộc kích thước file. Hai bên
+ * đã biết kích thước gốc từ FILE_HEADER / FILE_SIZE, nên bên nhận tính được số byte cần
+ * đọc trên socket bằng {@link #sealedLength(long)} mà không cần thêm khung độ dài.
+ * Lấy instance qua {@link MessageCodec#getFileCipher()}.
+ *
+ * Bên dùng socket chặn gọi {@link #encrypt} / {@link #decrypt}; transport không chặn dùng
+ * {@link Sealer} / {@link Opener} để xử lý từng khối khi socket sẵn sàng.
+ */
+public interface FileStreamCipher {
+
+    /** Số byte thực sự đi trên socket cho một file {@code plainLength} byte. */
+    long sealedLength(long plainLength);
+
+    /** Bộ mã hóa từng khối cho một file {@code length} byte. */
+    Sealer newSealer(long length) throws IOException;
+
+    /** Bộ giải mã từng phần cho một file {@code length} byte gốc. */
+    Opener newOpener(long length) throws IOException;
+
+    /** Mã hóa file theo từng khối do bên gọi quyết định khi nào đọc. */
+    interface Sealer {
+        /**
+         * Đọc khối tiếp theo từ {@code in} và trả về dữ liệu cần gửi cho khối đó.
+         * Buffer được dùng lại ở lần gọi sau, nên phải gửi hết trước khi gọi tiếp.
+         * @return null khi đã mã hóa hết file
+         */
+        ByteBuffer next(InputStream in) throws IOException;
+
+        /** Số byte gốc đã mã hóa. */
+        long processed();
+    }
+
+    /** Giải mã dữ liệu file khi nó đến từng phần trên socket. */
+    interface Opener {
+        /**
+         * Nhận tiếp dữ liệu từ socket và ghi phần đã giải mã vào {@code out}. Chỉ đọc từ
+         * {@code sealed} tối đa {@link #remaining()} byte.
+         * @return true nếu đã giải mã xong thêm ít nhất một khối
+         */
+        boolean update(ByteBuffer sealed, OutputStream out) throws IOException;
+
+        /** Số byte trên socket còn phải nhận. */
+        long remaining();
+
+        /** Số byte gốc đã ghi ra. */
+        long processed();
+    }
+
+    /**
+     * Đọc đúng {@code length} byte từ {@code in}, mã hóa rồi ghi vào {@code out}.
+     * Không đóng và không flush {@code out}.
+     * @param progress nhận số byte gốc đã xử lý sau mỗi khối, có thể null
+     */
+    default void encrypt(InputStream in, long length, OutputStream out, LongConsumer progress) throws IOException {
+        Sealer sealer = newSealer(length);
+        ByteBuffer chunk;
+        while ((chunk = sealer.next(in)) != null) {
+            out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            if (progress != null) {
+                progress.accept(sealer.processed());
+            }
+        }
+    }
+
+    /**
+     * Đọc đúng {@link #sealedLength(long) sealedLength(length)} byte từ {@code in} và ghi
+     * {@code length} byte gốc vào {@code out}. Ném {@link java.io.IOException} nếu dữ liệu
+     * bị cắt cụt hoặc bị sửa đổi; khi đó phần đã ghi vào {@code out} phải bị bỏ đi.
+     */
+    default void decrypt(InputStream in, long length, OutputStream out, LongConsumer progress) throws IOException {
+        Opener opener = newOpener(length);
+        byte[] buffer = new byte[(int) Math.min(64 * 1024, Math.max(1, opener.remaining()))];
+        while (opener.remaining() > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, opener.remaining()));
+            if (read < 0) {
+                throw new EOFException("File bị cắt cụt");
+            }
+            if (opener.update(ByteBuffer.wrap(buffer, 0, read), out) && progress != null) {
+                progress.accept(opener.processed());
+            }
+        }
+    }
+}
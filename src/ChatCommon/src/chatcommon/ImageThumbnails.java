@@ -0,0 +1,81 @@
+package chatcommon;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Tạo ảnh thu nhỏ, dùng chung cho server (tạo lúc nhận file) và client (cache ảnh xem trước).
+ *
+ * Ảnh gốc được đọc cách dòng/cột bằng ImageIO nên không bao giờ phải giữ ảnh đủ độ phân
+ * giải trong bộ nhớ.
+ */
+public final class ImageThumbnails {
+
+    private ImageThumbnails() {
+    }
+
+    /**
+     * Ảnh thu nhỏ của {@code source}, giữ tỉ lệ và không lớn hơn {@code maxWidth} x
+     * {@code maxHeight}; ảnh nhỏ hơn không bị phóng to.
+     *
+     * @throws IOException nếu không đọc được hoặc ImageIO không hỗ trợ định dạng
+     */
+    public static BufferedImage read(File source, int maxWidth, int maxHeight) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            if (in == null) {
+                throw new IOException("Cannot open image " + source.getName());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + source.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = Math.min(1.0, Math.min(maxWidth / (double) width, maxHeight / (double) height));
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+                // Đọc cách dòng/cột sao cho ảnh giải mã chỉ còn khoảng gấp đôi ảnh thu nhỏ, rồi thu nhỏ một lần
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width / (2 * targetWidth), height / (2 * targetHeight)));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                return resize(decoded, targetWidth, targetHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Ghi ảnh thu nhỏ ra {@code target}: PNG nếu có kênh trong suốt, JPEG nếu không. */
+    public static void write(BufferedImage image, File target) throws IOException {
+        if (!ImageIO.write(image, image.getColorModel().hasAlpha() ? "png" : "jpg", target)) {
+            throw new IOException("No image writer for " + target.getName());
+        }
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (image.getWidth() == width && image.getHeight() == height && image.getType() == type) {
+            return image;
+        }
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+}
@@ -0,0 +1,109 @@
+package chatcommon;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram độ trễ với bucket theo lũy thừa của 2 (nano giây).
+ *
+ * Bucket i chứa các giá trị trong [2^(i-1), 2^i) ns, nên sai số phân vị tối đa là 2 lần,
+ * đủ để thấy độ trễ đuôi. Mỗi bucket là một {@link LongAdder}, nên ghi không khóa,
+ * không cấp phát và ít tranh chấp giữa các thread.
+ */
+public final class LatencyHistogram {
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /** Ghi thời gian từ {@code startNanos} (giá trị {@link System#nanoTime()}) đến giờ. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** Giới hạn trên (không tính) của bucket {@code index}, đơn vị nano giây. */
+    public static long upperBound(int index) {
+        return index >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << index;
+    }
+
+    /** Số lần ghi trong từng bucket, chụp tại thời điểm gọi. */
+    public long[] bucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /** Phân vị gần đúng (0..1), trả về giới hạn trên của bucket chứa nó. */
+    public long getPercentileNanos(double quantile) {
+        long[] counts = bucketCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /** Tóm tắt một dòng, ví dụ "n=120 avg=0.42ms p50=0.26ms p99=2.10ms max=3.80ms". */
+    public String summary() {
+        long count = getCount();
+        if (count == 0) {
+            return "n=0";
+        }
+        return String.format("n=%d avg=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+                count,
+                toMillis(getSumNanos() / count),
+                toMillis(getPercentileNanos(0.50)),
+                toMillis(getPercentileNanos(0.99)),
+                toMillis(getMaxNanos()));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
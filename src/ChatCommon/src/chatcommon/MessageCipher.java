@@ -0,0 +1,15 @@
+package chatcommon;
+
+/**
+ * SPI cho các codec mã hóa có xác thực (AEAD) dùng khóa riêng của từng phiên.
+ *
+ * Dữ liệu mã hóa có dạng [nonce][ciphertext][tag]; {@link #encodeText(String)} trả về
+ * Base64 để gửi trên giao thức dạng dòng. {@link #decode} ném {@link CodecException} khi
+ * tin nhắn bị sửa đổi, không được mã hóa bằng khóa của phiên này, hoặc là bản gửi lại của
+ * một tin đã nhận.
+ */
+public interface MessageCipher extends MessageCodec {
+
+    /** Số byte thêm vào mỗi tin nhắn (nonce + tag). */
+    int getOverhead();
+}
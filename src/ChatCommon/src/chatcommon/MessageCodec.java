@@ -0,0 +1,54 @@
+package chatcommon;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bộ mã hóa nội dung tin nhắn dùng chung cho client và server.
+ *
+ * API làm việc trên byte (UTF-8) và ghi vào buffer do người gọi cung cấp, để có thể
+ * dùng lại buffer giữa các tin nhắn. Implementation phải thread-safe vì server dùng
+ * chung một instance cho mọi thread gửi tin.
+ */
+public interface MessageCodec {
+
+    CipherSuite getSuite();
+
+    /** Kích thước buffer đích đủ cho {@code length} byte đầu vào. */
+    int maxEncodedLength(int length);
+
+    /**
+     * Mã hóa {@code length} byte từ {@code src} vào {@code dst}.
+     * {@code src} và {@code dst} có thể là cùng một mảng nếu codec giữ nguyên độ dài.
+     * @return số byte đã ghi vào {@code dst}
+     */
+    int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+    /**
+     * Giải mã {@code length} byte từ {@code src} vào {@code dst}; kết quả không dài hơn đầu vào.
+     * @return số byte đã ghi vào {@code dst}
+     */
+    int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+    /** Mã hóa một chuỗi để gửi trên giao thức dạng dòng văn bản. */
+    default String encodeText(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[maxEncodedLength(input.length)];
+        int written = encode(input, 0, input.length, output, 0);
+        return new String(output, 0, written, StandardCharsets.UTF_8);
+    }
+
+    default String decodeText(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[input.length];
+        int written = decode(input, 0, input.length, output, 0);
+        return new String(output, 0, written, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bộ mã hóa file đi kèm codec. Suite không có khóa phiên truyền file nguyên trạng,
+     * vì mã hóa Vigenère trên dữ liệu nhị phân không bảo vệ được gì.
+     */
+    default FileStreamCipher getFileCipher() {
+        return PlainFileStream.INSTANCE;
+    }
+}
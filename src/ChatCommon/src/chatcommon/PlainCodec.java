@@ -0,0 +1,39 @@
+package chatcommon;
+
+/**
+ * Không mã hóa, dùng cho client cũ không gửi CIPHER_HELLO.
+ */
+public final class PlainCodec implements MessageCodec {
+
+    @Override
+    public CipherSuite getSuite() {
+        return CipherSuite.PLAIN;
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        System.arraycopy(src, srcOffset, dst, dstOffset, length);
+        return length;
+    }
+
+    @Override
+    public int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        System.arraycopy(src, srcOffset, dst, dstOffset, length);
+        return length;
+    }
+
+    @Override
+    public String encodeText(String text) {
+        return text;
+    }
+
+    @Override
+    public String decodeText(String text) {
+        return text;
+    }
+}
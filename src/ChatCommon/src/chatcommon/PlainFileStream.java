@@ -0,0 +1,88 @@
+package chatcommon;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Truyền file nguyên trạng, cho các suite không có khóa phiên (PLAIN, VIGENERE).
+ */
+final class PlainFileStream implements FileStreamCipher {
+    static final PlainFileStream INSTANCE = new PlainFileStream();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PlainFileStream() {
+    }
+
+    @Override
+    public long sealedLength(long plainLength) {
+        return plainLength;
+    }
+
+    @Override
+    public Sealer newSealer(long length) {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, length))];
+        return new Sealer() {
+            private long remaining = length;
+
+            @Override
+            public ByteBuffer next(InputStream in) throws IOException {
+                if (remaining == 0) {
+                    return null;
+                }
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Luồng kết thúc khi còn " + remaining + " byte");
+                }
+                remaining -= read;
+                return ByteBuffer.wrap(buffer, 0, read);
+            }
+
+            @Override
+            public long processed() {
+                return length - remaining;
+            }
+        };
+    }
+
+    @Override
+    public Opener newOpener(long length) {
+        return new Opener() {
+            private long remaining = length;
+            private byte[] copy;
+
+            @Override
+            public boolean update(ByteBuffer data, OutputStream out) throws IOException {
+                int count = (int) Math.min(data.remaining(), remaining);
+                if (count == 0) {
+                    return false;
+                }
+                if (data.hasArray()) {
+                    out.write(data.array(), data.arrayOffset() + data.position(), count);
+                    data.position(data.position() + count);
+                } else {
+                    if (copy == null || copy.length < count) {
+                        copy = new byte[Math.max(count, 8192)];
+                    }
+                    data.get(copy, 0, count);
+                    out.write(copy, 0, count);
+                }
+                remaining -= count;
+                return true;
+            }
+
+            @Override
+            public long remaining() {
+                return remaining;
+            }
+
+            @Override
+            public long processed() {
+                return length - remaining;
+            }
+        };
+    }
+}
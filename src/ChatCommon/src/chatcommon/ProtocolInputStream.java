@@ -0,0 +1,82 @@
+package chatcommon;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Luồng vào cho giao thức dạng dòng xen dữ liệu file: đọc dòng lệnh UTF-8 và byte file từ
+ * cùng một bộ đệm. BufferedReader đọc trước vào bộ đệm ký tự của riêng nó, nên byte file
+ * gửi ngay sau một dòng lệnh (ví dụ FILE_CHUNK) sẽ bị nuốt mất nếu sau đó đọc thẳng từ socket.
+ */
+public class ProtocolInputStream extends BufferedInputStream {
+    private byte[] line = new byte[256];
+
+    public ProtocolInputStream(InputStream in) {
+        super(in, 8192);
+    }
+
+    /**
+     * Đọc một dòng kết thúc bằng {@code \n} (bỏ {@code \r} ở cuối nếu có).
+     *
+     * @return nội dung dòng, hoặc null nếu luồng đã hết
+     */
+    public synchronized String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (pos >= count) {
+                // Bộ đệm đã hết, read() nạp lại và trả về byte đầu tiên
+                int b = read();
+                if (b < 0) {
+                    if (length == 0) {
+                        return null;
+                    }
+                    break;
+                }
+                if (b == '\n') {
+                    break;
+                }
+                ensureCapacity(length + 1);
+                line[length++] = (byte) b;
+                continue;
+            }
+            int end = pos;
+            while (end < count && buf[end] != '\n') {
+                end++;
+            }
+            ensureCapacity(length + end - pos);
+            System.arraycopy(buf, pos, line, length, end - pos);
+            length += end - pos;
+            if (end < count) {
+                pos = end + 1;
+                break;
+            }
+            pos = end;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Đọc đúng {@code length} byte vào {@code buffer}. */
+    public void readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = read(buffer, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Luồng kết thúc khi còn " + (length - offset) + " byte");
+            }
+            offset += read;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > line.length) {
+            line = Arrays.copyOf(line, Math.max(capacity, line.length * 2));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package chatcommon;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Thỏa thuận khóa phiên bằng ECDH (secp256r1) trong lúc bắt tay CIPHER_HELLO.
+ *
+ * Mỗi bên tạo một cặp khóa tạm thời và gửi public key (X.509, Base64) cho bên kia.
+ * Bí mật chung được đưa qua HKDF-SHA256, với salt là hash của hai public key, để sinh
+ * hai khóa 256 bit: một cho chiều client -&gt; server, một cho chiều ngược lại.
+ */
+public final class SessionHandshake {
+    private static final int KEY_BYTES = 32;
+
+    private final KeyPair keyPair;
+    private final byte[] encodedPublicKey;
+
+    public SessionHandshake() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        this.keyPair = generator.generateKeyPair();
+        this.encodedPublicKey = keyPair.getPublic().getEncoded();
+    }
+
+    public String getPublicKey() {
+        return Base64.getEncoder().encodeToString(encodedPublicKey);
+    }
+
+    /**
+     * @param peerPublicKey public key Base64 của bên kia
+     * @param isClient true nếu gọi từ phía client
+     */
+    public SessionKeys deriveKeys(String peerPublicKey, CipherSuite suite, boolean isClient)
+            throws GeneralSecurityException {
+        byte[] peerEncoded;
+        try {
+            peerEncoded = Base64.getDecoder().decode(peerPublicKey.trim());
+        } catch (IllegalArgumentException ex) {
+            throw new GeneralSecurityException("Public key không hợp lệ", ex);
+        }
+        PublicKey peerKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(peerEncoded));
+
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(peerKey, true);
+        byte[] secret = agreement.generateSecret();
+
+        byte[] clientKey = isClient ? encodedPublicKey : peerEncoded;
+        byte[] serverKey = isClient ? peerEncoded : encodedPublicKey;
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(clientKey);
+        digest.update(serverKey);
+        byte[] prk = hmac(digest.digest(), secret);
+        Arrays.fill(secret, (byte) 0);
+
+        byte[] clientToServer = expand(prk, "ltm-chat c2s " + suite.name());
+        byte[] serverToClient = expand(prk, "ltm-chat s2c " + suite.name());
+        return isClient
+                ? new SessionKeys(clientToServer, serverToClient)
+                : new SessionKeys(serverToClient, clientToServer);
+    }
+
+    // HKDF-Expand chỉ cần một khối vì độ dài khóa bằng độ dài đầu ra của SHA-256
+    private static byte[] expand(byte[] prk, String info) throws GeneralSecurityException {
+        byte[] infoBytes = info.getBytes(StandardCharsets.UTF_8);
+        byte[] input = Arrays.copyOf(infoBytes, infoBytes.length + 1);
+        input[infoBytes.length] = 1;
+        return Arrays.copyOf(hmac(prk, input), KEY_BYTES);
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+}
@@ -0,0 +1,22 @@
+package chatcommon;
+
+/**
+ * Cặp khóa của một phiên, mỗi chiều một khóa để hai bên không bao giờ dùng chung nonce.
+ */
+public final class SessionKeys {
+    private final byte[] sendKey;
+    private final byte[] receiveKey;
+
+    public SessionKeys(byte[] sendKey, byte[] receiveKey) {
+        this.sendKey = sendKey.clone();
+        this.receiveKey = receiveKey.clone();
+    }
+
+    byte[] getSendKey() {
+        return sendKey;
+    }
+
+    byte[] getReceiveKey() {
+        return receiveKey;
+    }
+}
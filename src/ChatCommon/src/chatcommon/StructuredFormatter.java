@@ -0,0 +1,96 @@
+package chatcommon;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Định dạng mỗi bản ghi thành một dòng key=value (logfmt), dễ grep và dễ đưa vào công cụ
+ * thu thập log, ví dụ:
+ * <pre>ts=2024-05-01T10:00:00.123 level=INFO logger=chatserver.ChatServer thread=14 msg="user logged in" user=an</pre>
+ *
+ * Nếu message không có chỗ giữ {@code {0}} thì tham số của bản ghi được hiểu là các cặp
+ * key, value xen kẽ; xem {@link StructuredLog}.
+ */
+public class StructuredFormatter extends Formatter {
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("ts=").append(TIMESTAMP.format(Instant.ofEpochMilli(record.getMillis())));
+        sb.append(" level=").append(record.getLevel().getName());
+        if (record.getLoggerName() != null) {
+            sb.append(" logger=").append(record.getLoggerName());
+        }
+        sb.append(" thread=").append(record.getThreadID());
+
+        Object[] params = record.getParameters();
+        String message = record.getMessage();
+        boolean keyValues = params != null && params.length > 0 && message != null && message.indexOf('{') < 0;
+        sb.append(" msg=");
+        appendValue(sb, keyValues || params == null ? message : formatMessage(record));
+        if (keyValues) {
+            for (int i = 0; i + 1 < params.length; i += 2) {
+                sb.append(' ').append(params[i]).append('=');
+                appendValue(sb, String.valueOf(params[i + 1]));
+            }
+        }
+
+        Throwable thrown = record.getThrown();
+        if (thrown != null) {
+            sb.append(" error=");
+            appendValue(sb, thrown.toString());
+            sb.append(System.lineSeparator());
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        } else {
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    // Giá trị có khoảng trắng, dấu nháy hoặc xuống dòng được đặt trong nháy kép
+    private static void appendValue(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,76 @@
+package chatcommon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cài đặt log dùng chung cho client và server, và các hàm ghi log dạng key/value.
+ *
+ * {@code StructuredLog.info(logger, "user logged in", "user", name, "ip", ip)} chỉ tạo
+ * bản ghi khi level được bật. Mảng varargs vẫn được tạo trước khi gọi, nên trên đường
+ * nóng hãy bọc bằng {@code if (logger.isLoggable(Level.FINE))} hoặc dùng
+ * {@code logger.fine(() -> ...)}.
+ */
+public final class StructuredLog {
+
+    private StructuredLog() {
+    }
+
+    public static void info(Logger logger, String event, Object... keyValues) {
+        log(logger, Level.INFO, event, keyValues);
+    }
+
+    public static void fine(Logger logger, String event, Object... keyValues) {
+        log(logger, Level.FINE, event, keyValues);
+    }
+
+    public static void log(Logger logger, Level level, String event, Object... keyValues) {
+        if (logger.isLoggable(level)) {
+            logger.log(level, event, keyValues);
+        }
+    }
+
+    /**
+     * Gắn một {@link AsyncLogHandler} ghi ra FileHandler xoay vòng theo kích thước vào root
+     * logger. Gọi nhiều lần chỉ cài một lần, nên mở nhiều cửa sổ trong cùng JVM không
+     * nhân đôi handler. ConsoleHandler mặc định của root bị gỡ: nó ghi đồng bộ ra stderr trên
+     * thread gọi log, đúng điều handler bất đồng bộ tránh.
+     *
+     * @param pattern mẫu tên file của {@link FileHandler}, ví dụ "logs/chatserver.%g.log"
+     * @param limitBytes kích thước tối đa mỗi file trước khi xoay vòng
+     * @param count số file giữ lại
+     */
+    public static synchronized AsyncLogHandler install(String pattern, int limitBytes, int count, int capacity,
+            AsyncLogHandler.OverflowPolicy policy) throws IOException {
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            if (handler instanceof AsyncLogHandler) {
+                return (AsyncLogHandler) handler;
+            }
+        }
+
+        File parent = new File(pattern).getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        FileHandler fileHandler = new FileHandler(pattern, limitBytes, count, true);
+        fileHandler.setFormatter(new StructuredFormatter());
+        fileHandler.setEncoding("UTF-8");
+
+        AsyncLogHandler asyncHandler = new AsyncLogHandler(fileHandler, capacity, policy);
+        for (Handler handler : root.getHandlers()) {
+            if (handler instanceof ConsoleHandler) {
+                root.removeHandler(handler);
+                handler.close();
+            }
+        }
+        root.addHandler(asyncHandler);
+        root.setLevel(Level.INFO);
+        return asyncHandler;
+    }
+}
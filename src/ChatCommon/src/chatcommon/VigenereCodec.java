@@ -0,0 +1,156 @@
+package chatcommon;
+
+/**
+ * Vigenère trên byte UTF-8: chỉ dịch chuyển chữ cái ASCII, giữ nguyên hoa/thường,
+ * và chỉ tăng vị trí khóa khi gặp chữ cái. Byte ngoài ASCII (chữ tiếng Việt có dấu,
+ * emoji...) được giữ nguyên nên kết quả vẫn là UTF-8 hợp lệ và cùng độ dài.
+ */
+public final class VigenereCodec implements MessageCodec {
+    public static final String DEFAULT_KEY = "SECRETKEY";
+    private static final int TABLE_SIZE = 256;
+
+    // Mỗi vị trí khóa một khối 256 byte; byte không phải chữ cái ánh xạ về chính nó
+    private final byte[] encodeTable;
+    private final byte[] decodeTable;
+    // Đầu khối của vị trí khóa tiếp theo sau mỗi byte, để vòng lặp không rẽ nhánh theo chữ cái
+    private final int[] nextBlock;
+
+    public VigenereCodec() {
+        this(DEFAULT_KEY);
+    }
+
+    public VigenereCodec(String key) {
+        int[] shifts = new int[key.length()];
+        int count = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = Character.toUpperCase(key.charAt(i));
+            if (c >= 'A' && c <= 'Z') {
+                shifts[count++] = c - 'A';
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Khóa Vigenère phải chứa ít nhất một chữ cái ASCII");
+        }
+
+        this.encodeTable = new byte[count * TABLE_SIZE];
+        this.decodeTable = new byte[count * TABLE_SIZE];
+        this.nextBlock = new int[count * TABLE_SIZE];
+        for (int j = 0; j < count; j++) {
+            int next = (j + 1) % count * TABLE_SIZE;
+            for (int b = 0; b < TABLE_SIZE; b++) {
+                encodeTable[j * TABLE_SIZE + b] = (byte) shift(b, shifts[j]);
+                decodeTable[j * TABLE_SIZE + b] = (byte) shift(b, 26 - shifts[j]);
+                nextBlock[j * TABLE_SIZE + b] = isLetter(b) ? next : j * TABLE_SIZE;
+            }
+        }
+    }
+
+    private static int shift(int b, int shift) {
+        if (b >= 'A' && b <= 'Z') {
+            return (b - 'A' + shift) % 26 + 'A';
+        }
+        if (b >= 'a' && b <= 'z') {
+            return (b - 'a' + shift) % 26 + 'a';
+        }
+        return b;
+    }
+
+    private static boolean isLetter(int b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    @Override
+    public CipherSuite getSuite() {
+        return CipherSuite.VIGENERE;
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        transform(src, srcOffset, length, dst, dstOffset, encodeTable);
+        return length;
+    }
+
+    @Override
+    public int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        transform(src, srcOffset, length, dst, dstOffset, decodeTable);
+        return length;
+    }
+
+    /**
+     * Làm trực tiếp trên char[], không qua UTF-8: byte UTF-8 của ký tự ngoài ASCII đều từ 0x80
+     * trở lên nên không bao giờ bị dịch, kết quả giống hệt mã hóa theo byte.
+     */
+    @Override
+    public String encodeText(String text) {
+        String result = transform(text, encodeTable);
+        return result != null ? result : MessageCodec.super.encodeText(text);
+    }
+
+    @Override
+    public String decodeText(String text) {
+        String result = transform(text, decodeTable);
+        return result != null ? result : MessageCodec.super.decodeText(text);
+    }
+
+    /**
+     * Mã hóa {@code length} ký tự từ {@code src} vào {@code dst}, không cấp phát; {@code dst} có
+     * thể chính là {@code src}. Cùng kết quả với {@link #encodeText}, trừ surrogate lẻ được giữ
+     * nguyên thay vì thành '?'.
+     * @return số ký tự đã ghi, luôn bằng {@code length}
+     */
+    public int encode(char[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+        return transform(src, srcOffset, length, dst, dstOffset, encodeTable, false);
+    }
+
+    /** Giải mã trên char[], xem {@link #encode(char[], int, int, char[], int)}. */
+    public int decode(char[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+        return transform(src, srcOffset, length, dst, dstOffset, decodeTable, false);
+    }
+
+    private void transform(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, byte[] table) {
+        int block = 0;
+        for (int i = 0; i < length; i++) {
+            int k = block + (src[srcOffset + i] & 0xFF);
+            dst[dstOffset + i] = table[k];
+            block = nextBlock[k];
+        }
+    }
+
+    /** Null nếu chuỗi có surrogate lẻ. */
+    private String transform(String text, byte[] table) {
+        char[] chars = text.toCharArray();
+        if (transform(chars, 0, chars.length, chars, 0, table, true) < 0) {
+            return null;
+        }
+        return new String(chars);
+    }
+
+    /** -1 nếu {@code strict} và gặp surrogate lẻ; ký tự từ 256 trở lên giữ nguyên. */
+    private int transform(char[] src, int srcOffset, int length, char[] dst, int dstOffset, byte[] table,
+            boolean strict) {
+        int block = 0;
+        for (int i = 0; i < length; i++) {
+            char c = src[srcOffset + i];
+            if (c < TABLE_SIZE) {
+                int k = block + c;
+                c = (char) (table[k] & 0xFF);
+                block = nextBlock[k];
+            } else if (strict && Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || i + 1 == length || !Character.isLowSurrogate(src[srcOffset + i + 1])) {
+                    // Surrogate lẻ: getBytes thay bằng '?', để đường byte xử lý cho kết quả giống hệt
+                    return -1;
+                }
+                dst[dstOffset + i] = c;
+                i++;
+                c = src[srcOffset + i];
+            }
+            dst[dstOffset + i] = c;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,104 @@
+package chatcommon;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Chống gửi lại của các suite AEAD: bên nhận chỉ chấp nhận tin có bộ đếm nonce lớn hơn tin
+ * trước trong cùng phiên.
+ */
+@RunWith(Parameterized.class)
+public class AeadMessageCipherTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> suites() {
+        List<Object[]> suites = new ArrayList<>();
+        for (CipherSuite suite : CipherSuite.availableSuites()) {
+            if (suite.isKeyed()) {
+                suites.add(new Object[]{suite});
+            }
+        }
+        return suites;
+    }
+
+    private final CipherSuite suite;
+    private MessageCodec sender;
+    private MessageCodec receiver;
+
+    public AeadMessageCipherTest(CipherSuite suite) {
+        this.suite = suite;
+    }
+
+    @Before
+    public void newSession() {
+        Random random = new Random(7);
+        byte[] a = new byte[32];
+        byte[] b = new byte[32];
+        random.nextBytes(a);
+        random.nextBytes(b);
+        sender = suite.newCodec(new SessionKeys(a, b));
+        receiver = suite.newCodec(new SessionKeys(b, a));
+    }
+
+    @Test
+    public void acceptsMessagesInOrder() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals("tin " + i, receiver.decodeText(sender.encodeText("tin " + i)));
+        }
+    }
+
+    @Test
+    public void rejectsReplayedLine() {
+        String line = sender.encodeText("chuyển 100k cho bob");
+        assertEquals("chuyển 100k cho bob", receiver.decodeText(line));
+        assertRejected(line);
+        // Tin mới sau đó vẫn được nhận
+        assertEquals("tiếp", receiver.decodeText(sender.encodeText("tiếp")));
+        assertRejected(line);
+    }
+
+    @Test
+    public void rejectsOlderCounter() {
+        String first = sender.encodeText("một");
+        String second = sender.encodeText("hai");
+        assertEquals("hai", receiver.decodeText(second));
+        assertRejected(first);
+    }
+
+    @Test
+    public void forgedCounterDoesNotAdvanceReceiver() {
+        String line = sender.encodeText("thật");
+        byte[] forged = Base64.getDecoder().decode(line);
+        // Đẩy bộ đếm trong nonce lên gần tối đa: không qua được xác thực
+        forged[4] = 0x7F;
+        assertRejected(Base64.getEncoder().encodeToString(forged));
+        assertEquals("thật", receiver.decodeText(line));
+    }
+
+    @Test
+    public void separateSessionsHaveSeparateCounters() {
+        String line = sender.encodeText("xin chào");
+        assertEquals("xin chào", receiver.decodeText(line));
+        newSession();
+        assertEquals("mới", receiver.decodeText(sender.encodeText("mới")));
+    }
+
+    private void assertRejected(String line) {
+        try {
+            receiver.decodeText(line);
+            fail("Tin bị gửi lại vẫn được chấp nhận");
+        } catch (CodecException expected) {
+            // đúng
+        }
+    }
+}
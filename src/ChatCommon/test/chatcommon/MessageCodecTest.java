@@ -0,0 +1,233 @@
+package chatcommon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mã hóa rồi giải mã phải trả lại đúng dữ liệu gốc với mọi suite, giữa hai codec độc lập như
+ * client và server; thêm một ngưỡng thông lượng thấp để bắt lỗi chậm bất thường.
+ */
+@RunWith(Parameterized.class)
+public class MessageCodecTest {
+    private static final String VIETNAMESE = "Xin chào mọi người, tối nay họp lúc 8 giờ nhé! Đồng ý không?";
+    private static final int[] LENGTHS = {0, 1, 16, 255, 4096, 64 * 1024};
+    // Thông lượng mã hóa + giải mã tối thiểu cho tin 4 KB; đo thực tế cao hơn nhiều lần
+    private static final double MIN_MEGABYTES_PER_SECOND = 5;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> suites() {
+        List<Object[]> suites = new ArrayList<>();
+        for (CipherSuite suite : CipherSuite.availableSuites()) {
+            suites.add(new Object[]{suite});
+        }
+        return suites;
+    }
+
+    private final CipherSuite suite;
+    private final Random random = new Random(42);
+    // Hai đầu của một phiên: codec của client và của server
+    private MessageCodec client;
+    private MessageCodec server;
+
+    public MessageCodecTest(CipherSuite suite) {
+        this.suite = suite;
+    }
+
+    @Before
+    public void newSession() {
+        if (suite.isKeyed()) {
+            byte[] a = new byte[32];
+            byte[] b = new byte[32];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            client = suite.newCodec(new SessionKeys(a, b));
+            server = suite.newCodec(new SessionKeys(b, a));
+        } else {
+            client = suite.newCodec();
+            server = suite.newCodec();
+        }
+    }
+
+    @Test
+    public void textRoundTripsBothWays() {
+        for (String text : Arrays.asList("", "a", "Hello World", "HeLLo wOrLd 123", VIETNAMESE, "emoji 😀 ok")) {
+            assertEquals(text, server.decodeText(client.encodeText(text)));
+            assertEquals(text, client.decodeText(server.encodeText(text)));
+        }
+    }
+
+    @Test
+    public void vigenereTextMatchesBytePath() {
+        // Vigenère mã hóa chuỗi trên char[]; kết quả phải giống đường byte, kể cả với surrogate lẻ
+        if (suite != CipherSuite.VIGENERE) {
+            return;
+        }
+        for (String text : Arrays.asList(VIETNAMESE, "emoji 😀 ok", "lẻ \uD83D abc", "ngược \uDE00 xyz")) {
+            byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+            byte[] encoded = new byte[client.maxEncodedLength(plain.length)];
+            int encodedLength = client.encode(plain, 0, plain.length, encoded, 0);
+            assertEquals(new String(encoded, 0, encodedLength, StandardCharsets.UTF_8), client.encodeText(text));
+            byte[] decoded = new byte[plain.length];
+            int decodedLength = client.decode(plain, 0, plain.length, decoded, 0);
+            assertEquals(new String(decoded, 0, decodedLength, StandardCharsets.UTF_8), client.decodeText(text));
+        }
+    }
+
+    @Test
+    public void vigenereCharArrayMatchesText() {
+        if (suite != CipherSuite.VIGENERE) {
+            return;
+        }
+        VigenereCodec vigenere = (VigenereCodec) client;
+        for (String text : Arrays.asList("", VIETNAMESE, "emoji 😀 ok")) {
+            char[] source = ("ab" + text + "c").toCharArray();
+            char[] encoded = new char[text.length() + 4];
+            assertEquals(text.length(), vigenere.encode(source, 2, text.length(), encoded, 4));
+            assertEquals(vigenere.encodeText(text), new String(encoded, 4, text.length()));
+            // Giải mã tại chỗ
+            vigenere.decode(encoded, 4, text.length(), encoded, 4);
+            assertEquals(text, new String(encoded, 4, text.length()));
+        }
+    }
+
+    @Test
+    public void bytesRoundTripAtEveryLength() {
+        for (int length : LENGTHS) {
+            byte[] plain = randomText(length);
+            byte[] encoded = new byte[client.maxEncodedLength(length)];
+            int encodedLength = client.encode(plain, 0, length, encoded, 0);
+            assertTrue(encodedLength <= encoded.length);
+            byte[] decoded = new byte[Math.max(length, encodedLength)];
+            int decodedLength = server.decode(encoded, 0, encodedLength, decoded, 0);
+            assertArrayEquals("độ dài " + length, plain, Arrays.copyOf(decoded, decodedLength));
+        }
+    }
+
+    @Test
+    public void respectsOffsets() {
+        byte[] plain = VIETNAMESE.getBytes(StandardCharsets.UTF_8);
+        byte[] source = new byte[plain.length + 7];
+        System.arraycopy(plain, 0, source, 5, plain.length);
+        byte[] encoded = new byte[client.maxEncodedLength(plain.length) + 11];
+        int encodedLength = client.encode(source, 5, plain.length, encoded, 3);
+        byte[] decoded = new byte[encodedLength + 9];
+        int decodedLength = server.decode(encoded, 3, encodedLength, decoded, 9);
+        assertArrayEquals(plain, Arrays.copyOfRange(decoded, 9, 9 + decodedLength));
+    }
+
+    @Test
+    public void sameLengthCodecsWorkInPlace() {
+        byte[] plain = VIETNAMESE.getBytes(StandardCharsets.UTF_8);
+        if (client.maxEncodedLength(plain.length) != plain.length) {
+            return;
+        }
+        byte[] buffer = plain.clone();
+        assertEquals(plain.length, client.encode(buffer, 0, buffer.length, buffer, 0));
+        assertEquals(plain.length, server.decode(buffer, 0, buffer.length, buffer, 0));
+        assertArrayEquals(plain, buffer);
+    }
+
+    @Test
+    public void encodingHidesLetters() {
+        if (suite == CipherSuite.PLAIN) {
+            return;
+        }
+        assertFalse(client.encodeText(VIETNAMESE).contains("mọi người"));
+    }
+
+    @Test
+    public void sharedCodecIsThreadSafe() throws Exception {
+        if (suite.isKeyed()) {
+            // Codec có khóa thuộc về một phiên, không dùng chung giữa các client
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                results.add(pool.submit(() -> {
+                    Random local = new Random(seed);
+                    for (int i = 0; i < 2000; i++) {
+                        String text = VIETNAMESE.substring(local.nextInt(VIETNAMESE.length()));
+                        if (!text.equals(server.decodeText(server.encodeText(text)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fileCipherRoundTrips() throws IOException {
+        for (int length : new int[]{0, 1, 100_000, 300_001}) {
+            byte[] plain = new byte[length];
+            random.nextBytes(plain);
+            FileStreamCipher sending = client.getFileCipher();
+            ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+            sending.encrypt(new ByteArrayInputStream(plain), length, sealed, null);
+            assertEquals(sending.sealedLength(length), sealed.size());
+
+            ByteArrayOutputStream opened = new ByteArrayOutputStream();
+            server.getFileCipher().decrypt(new ByteArrayInputStream(sealed.toByteArray()), length, opened, null);
+            assertArrayEquals("độ dài " + length, plain, opened.toByteArray());
+        }
+    }
+
+    @Test
+    public void throughputAboveFloor() {
+        byte[] plain = randomText(4096);
+        byte[] encoded = new byte[client.maxEncodedLength(plain.length)];
+        byte[] decoded = new byte[encoded.length];
+        double best = 0;
+        // Lần đầu là khởi động JIT; lấy lần nhanh nhất để máy bận không làm test lỗi
+        for (int round = 0; round < 5; round++) {
+            newSession();
+            long bytes = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < 200_000_000L) {
+                int n = client.encode(plain, 0, plain.length, encoded, 0);
+                server.decode(encoded, 0, n, decoded, 0);
+                bytes += plain.length;
+            }
+            best = Math.max(best, bytes / ((System.nanoTime() - start) / 1e9) / 1e6);
+        }
+        assertTrue(suite + " chỉ đạt " + best + " MB/s", best >= MIN_MEGABYTES_PER_SECOND);
+    }
+
+    // Văn bản UTF-8 ngẫu nhiên cắt đúng length byte; codec làm việc trên byte nên không cần hợp lệ ở cuối
+    private byte[] randomText(int length) {
+        String alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 àáạảãâầấậẩẫăằắặẳẵêềếệểễđ";
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), length);
+    }
+}
@@ -0,0 +1,44 @@
+package chatserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Sự kiện JFR cho một lần {@link ChatServer#broadcastMessage}; thời lượng gồm giải mã, lưu
+ * vào kho (tin chat, xem storeNanos), mã hóa lại và ghi socket cho mọi người nhận.
+ */
+@Name("chatserver.BroadcastCompleted")
+@Label("Broadcast Completed")
+@Category("Chat Server")
+@Description("Gửi một tin nhắn cho mọi client")
+@StackTrace(false)
+class BroadcastCompletedEvent extends jdk.jfr.Event {
+    @Label("Sender")
+    String sender;
+
+    @Label("Cipher Suite")
+    String suite;
+
+    @Label("Recipients")
+    int recipients;
+
+    @Label("Length")
+    @Description("Số ký tự của tin nhắn đã giải mã")
+    int length;
+
+    @Label("Decode Time")
+    @Timespan
+    long decodeNanos;
+
+    @Label("Store Time")
+    @Description("Thời gian lưu tin nhắn vào kho, nằm trong thời lượng của sự kiện")
+    @Timespan
+    long storeNanos;
+
+    @Label("System Message")
+    boolean systemMessage;
+}
@@ -0,0 +1,99 @@
+package chatserver;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Xuất dữ liệu chat ra file text, dùng chung cho mọi backend lưu trữ.
+ */
+public class ChatDataExporter {
+    private static final Logger logger = Logger.getLogger(ChatDataExporter.class.getName());
+    private final ChatStorage storage;
+
+    public ChatDataExporter(ChatStorage storage) {
+        this.storage = storage;
+    }
+
+    public void exportDataToTextFileByPort(String filePath, int port) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+            writer.println("=== LỊCH SỬ CHAT TRÊN PORT " + port + " ===");
+            writer.println("Thời gian xuất: " + new java.util.Date());
+            writer.println();
+
+            List<ChatMessage> messages = storage.getRecentMessages(port, Integer.MAX_VALUE);
+            for (ChatMessage msg : messages) {
+                writeMessage(writer, msg);
+            }
+            if (messages.isEmpty()) {
+                writer.println("Không có tin nhắn nào trên port này.");
+            }
+
+            writer.println();
+            writer.println("=== THỐNG KÊ NGƯỜI DÙNG ===");
+            writer.println();
+
+            List<UserRecord> users = storage.getActiveUsers(port);
+            users.sort((a, b) -> Integer.compare(b.getConnectionCount(), a.getConnectionCount()));
+            for (UserRecord user : users) {
+                writer.println(user.getUsername() + " - Đăng nhập gần nhất: " + user.getFormattedLastLogin()
+                        + " - Số lần kết nối: " + user.getConnectionCount());
+            }
+            if (users.isEmpty()) {
+                writer.println("Không có người dùng nào đã kết nối đến port này.");
+            }
+
+            writer.println();
+            writer.println("=== THỐNG KÊ KẾT NỐI ===");
+            writer.println();
+            writer.println("Tổng số lần kết nối: " + storage.countConnectionEvents(port, true));
+            writer.println("Tổng số lần ngắt kết nối: " + storage.countConnectionEvents(port, false));
+
+            logger.info("Dữ liệu đã được xuất ra " + filePath);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Lỗi khi xuất dữ liệu", e);
+        }
+    }
+
+    public void exportFilteredMessagesToFile(String filePath, String searchText, int port) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+            writer.println("=== TIN NHẮN TÌM KIẾM THEO TỪ KHÓA '" + searchText + "' TRÊN PORT " + port + " ===");
+            writer.println("Thời gian xuất: " + new java.util.Date());
+            writer.println("Từ khóa tìm kiếm: " + searchText);
+            writer.println();
+
+            List<ChatMessage> messages = storage.searchMessages(searchText, port);
+            for (ChatMessage msg : messages) {
+                writeMessage(writer, msg);
+            }
+
+            if (messages.isEmpty()) {
+                writer.println("Không tìm thấy tin nhắn nào phù hợp với từ khóa '" + searchText + "'.");
+            } else {
+                writer.println();
+                writer.println("Tổng số tin nhắn tìm thấy: " + messages.size());
+            }
+
+            logger.info("Dữ liệu tìm kiếm đã được xuất ra " + filePath);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Lỗi khi xuất dữ liệu tìm kiếm", e);
+        }
+    }
+
+    private void writeMessage(PrintWriter writer, ChatMessage msg) {
+        String originalMsg = msg.getOriginalMessage();
+        String encryptedMsg = msg.getEncryptedMessage();
+
+        writer.println("[" + msg.getFormattedTimestamp() + "] " + msg.getUsername() + ": " + msg.getMessage());
+
+        if (originalMsg != null && encryptedMsg != null
+                && !originalMsg.isEmpty() && !encryptedMsg.isEmpty()) {
+            writer.println("   - Nội dung gốc: " + originalMsg);
+            writer.println("   - Mã hóa: " + encryptedMsg);
+            writer.println();
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package chatserver;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
 public class ChatMessage {
+    // Định dạng giống CURRENT_TIMESTAMP của SQLite (UTC)
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private long id;
     private String username;
     private String message;
     private String originalMessage;
     private String encryptedMessage;
     private long timestamp;
-    
+
     public ChatMessage(String username, String message, long timestamp) {
         this.username = username;
         this.message = message;
@@ -14,7 +24,7 @@ public class ChatMessage {
         this.originalMessage = "";
         this.encryptedMessage = "";
     }
-    
+
     public ChatMessage(String username, String message, String originalMessage, String encryptedMessage, long timestamp) {
         this.username = username;
         this.message = message;
@@ -22,24 +32,54 @@ public class ChatMessage {
         this.encryptedMessage = encryptedMessage;
         this.timestamp = timestamp;
     }
-    
+
+    public ChatMessage(long id, String username, String message, String originalMessage, String encryptedMessage, long timestamp) {
+        this(username, message, originalMessage, encryptedMessage, timestamp);
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
     public String getUsername() {
         return username;
     }
-    
+
     public String getMessage() {
         return message;
     }
-    
+
     public String getOriginalMessage() {
         return originalMessage;
     }
-    
+
     public String getEncryptedMessage() {
         return encryptedMessage;
     }
-    
+
     public long getTimestamp() {
         return timestamp;
     }
-}
\ No newline at end of file
+
+    public String getFormattedTimestamp() {
+        return formatTimestamp(timestamp);
+    }
+
+    static String formatTimestamp(long millis) {
+        return TIMESTAMP_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    static long parseTimestamp(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0L;
+        }
+        try {
+            // SQLite có thể trả về phần mili giây, chỉ lấy 19 ký tự đầu
+            String value = text.length() > 19 ? text.substring(0, 19) : text;
+            return LocalDateTime.parse(value, TIMESTAMP_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0L;
+        }
+    }
+}
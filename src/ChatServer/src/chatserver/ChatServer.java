@@ -1,48 +1,108 @@
 package chatserver;
 
+import chatcommon.AsyncLogHandler;
+import chatcommon.CipherSuite;
+import chatcommon.CodecException;
+import chatcommon.MessageCodec;
+import chatcommon.StructuredLog;
 import java.io.*;
 import java.net.*;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
 public class ChatServer {
     private ServerSocket serverSocket;
     final List<ClientHandler> clients = new ArrayList<>();
-    private final DatabaseManager dbManager;
-    final ChatServerGUI gui;
+    private final ServerConfig config;
+    private final ChatStorage storage;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final PreviewStore previews = new PreviewStore(new File("files"));
+    private MetricsHttpServer metricsHttpServer;
+    final ServerView gui;
     private boolean running = false;
     private int serverPort = 0;
     private static final Logger logger = Logger.getLogger(ChatServer.class.getName());
-    private final VigenereCipher cipher;
+    // Codec của suite không cần khóa phiên được dùng chung cho mọi client
+    private final Map<CipherSuite, MessageCodec> codecs = new EnumMap<>(CipherSuite.class);
     private Map<String, ClientHandler> userClientMap = new ConcurrentHashMap<>();
+    // Số tin nhắn tối đa gửi lại cho một client kết nối lại
+    private static final int MAX_REPLAY = 1000;
+    // Lưu và gửi tin nhắn người dùng lần lượt để id tăng đúng theo thứ tự client nhận. Khác khóa
+    // clients để đăng nhập, rời phòng và danh sách online không phải chờ ghi đĩa. Nếu cần cả
+    // hai thì lấy khóa này trước
+    private final Object messageOrder = new Object();
+    // Id tin nhắn mới nhất đã gửi, chỉ dùng trong khóa messageOrder
+    private long lastMessageId;
+    // Tính năng gửi kèm RESUMED, cách nhau bởi dấu phẩy; client cũ bỏ qua trường này
+    private static final String FEATURES = "preview,presence";
+    // Danh sách online có phiên bản, tạo lại mỗi lần start(); chỉ dùng trong khóa clients
+    private PresenceTracker presence = newPresence();
+    private boolean presenceFlushScheduled;
+    // Thay đổi danh sách online trong khoảng này được gửi gộp một lần
+    private final int presenceWindowMs;
+    private static final int PRESENCE_LOG_SIZE = 64;
+    private static final ScheduledExecutorService PRESENCE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chatserver-presence");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public ChatServer(ChatServerGUI gui) {
+    public ChatServer(ServerView gui) {
+        this(gui, ServerConfig.load(), null);
+    }
+    
+    /** Dùng cấu hình và kho lưu trữ cho sẵn; storage null thì tạo theo cấu hình. */
+    ChatServer(ServerView gui, ServerConfig config, ChatStorage storage) {
         this.gui = gui;
-        this.dbManager = new DatabaseManager();
-        this.cipher = new VigenereCipher();
+        this.config = config;
+        this.storage = storage != null ? storage : StorageFactory.create(config);
+        for (CipherSuite suite : CipherSuite.values()) {
+            if (!suite.isKeyed()) {
+                codecs.put(suite, suite.newCodec());
+            }
+        }
+        metrics.gauge("chat_connections_active", "Số kết nối đang mở", this::getClientCount);
+        metrics.gauge("chat_users_online", "Số người dùng đã đăng nhập", userClientMap::size);
+        metrics.gauge("chat_client_pending_lines", "Số dòng đang chờ gửi cho mọi client", () -> pendingLines(false));
+        metrics.gauge("chat_client_pending_lines_max", "Số dòng chờ gửi nhiều nhất của một client", () -> pendingLines(true));
+        presenceWindowMs = config.getInt("presence.window.ms", 200);
         setupLogger();
     }
     
+    // Log ghi bất đồng bộ ra file xoay vòng theo kích thước, cấu hình trong server.properties
     private void setupLogger() {
+        AsyncLogHandler.OverflowPolicy policy;
         try {
-            Handler fileHandler = new FileHandler("chatserver.log", true);
-            fileHandler.setFormatter(new SimpleFormatter());
-            Logger.getLogger("").addHandler(fileHandler);
-            Logger.getLogger("").setLevel(Level.INFO);
-        } catch (Exception e) {
-            e.printStackTrace();
+            policy = AsyncLogHandler.OverflowPolicy.valueOf(config.get("log.overflow", "DROP_OLDEST"));
+        } catch (IllegalArgumentException e) {
+            policy = AsyncLogHandler.OverflowPolicy.DROP_OLDEST;
+        }
+        try {
+            AsyncLogHandler logHandler = StructuredLog.install(config.get("log.file", "logs/chatserver.%g.log"),
+                    config.getInt("log.limit.bytes", 5 * 1024 * 1024),
+                    config.getInt("log.count", 5),
+                    config.getInt("log.queue.capacity", 8192),
+                    policy);
+            metrics.gauge("chat_log_queue_depth", "Số bản ghi log đang chờ ghi ra file", logHandler::getQueueDepth);
+            metrics.counter("chat_log_dropped_total", "Số bản ghi log bị bỏ vì hàng đợi đầy", logHandler::getDroppedCount);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Không thể mở file log", e);
         }
     }
     
     public boolean start(int port) {
         try {
-            if (!dbManager.connect()) {
+            if (!storage.connect()) {
                 gui.logMessage("Không thể kết nối đến cơ sở dữ liệu!");
                 return false;
             }
+            synchronized (messageOrder) {
+                lastMessageId = newestMessageId(port);
+            }
             
             serverSocket = new ServerSocket(port);
             serverPort = port;
@@ -50,11 +110,15 @@ public class ChatServer {
             
             synchronized (clients) {
                 clients.clear();
+                presence = newPresence();
                 gui.updateClientCount(0);
             }
             
             new Thread(new ConnectionAcceptor()).start();
             
+            // Endpoint số liệu cho giám sát, chỉ chạy khi bật trong server.properties
+            metricsHttpServer = MetricsHttpServer.start(this, config);
+            
             return true;
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Không thể khởi động server trên port " + port, ex);
@@ -70,64 +134,154 @@ public class ChatServer {
         if (existingClient != null && existingClient.isConnected()) {
             // Người dùng đã đăng nhập ở một client khác
             newClient.sendMessage("ACCOUNT_ALREADY_LOGGED_IN:" + username);
-            logger.info("User " + username + " already logged in, notifying new client");
+            StructuredLog.info(logger, "duplicate login", "user", username);
             return false;
         }
 
-        // Đăng ký client mới cho username này
+        // Đăng ký client mới cho username này; danh sách online được báo khi client nhận broadcast
         userClientMap.put(username, newClient);
 
-        // Gửi danh sách người dùng cho tất cả client
-        sendUserList(newClient);
-
-        // Broadcast thông báo người dùng mới tham gia
-        broadcastMessage(username + " đã tham gia chat!", newClient);
-
-        logger.info("User " + username + " logged in successfully");
+        StructuredLog.info(logger, "user logged in", "user", username);
         return true;
     }
 
-    public void sendUserList(ClientHandler newClient) {
-        List<String> userList = new ArrayList<>();
-        
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                if (client.isConnected() && (newClient == null || !client.getUsername().equals(newClient.getUsername()))) {
-                    userList.add(client.getUsername());
-                }
+    private static PresenceTracker newPresence() {
+        return new PresenceTracker(Long.toString(System.currentTimeMillis(), 36), PRESENCE_LOG_SIZE);
+    }
+    
+    /**
+     * Client đã đăng nhập bắt đầu nhận broadcast. Client gửi RESUME trước đó được gửi lại các tin
+     * nhắn có id lớn hơn {@code afterId}, xem {@link #replayMessages}, để mỗi tin nhắn đến đúng
+     * một lần. Phần lớn tin bỏ lỡ được đọc trước khi lấy khóa; trong khóa messageOrder chỉ đọc
+     * thêm những tin được lưu trong lúc đó.
+     */
+    void admit(ClientHandler client, long afterId) {
+        List<ChatMessage> missed = Collections.emptyList();
+        boolean partial = false;
+        if (client.wantsMessageIds() && afterId >= 0) {
+            missed = storage.getMessagesAfter(serverPort, afterId, MAX_REPLAY + 1);
+            if (missed.size() > MAX_REPLAY) {
+                missed = storage.getRecentMessages(serverPort, MAX_REPLAY);
+                partial = true;
             }
         }
-        
-        // Nếu newClient không null, gửi danh sách người dùng cho client mới
-        if (newClient != null && !userList.isEmpty()) {
-            StringBuilder userListMsg = new StringBuilder("USER_LIST:");
-            for (String username : userList) {
-                userListMsg.append(username).append(",");
+        synchronized (messageOrder) {
+            if (client.wantsMessageIds()) {
+                long lastId = missed.isEmpty() ? afterId : missed.get(missed.size() - 1).getId();
+                if (afterId >= 0 && lastMessageId > lastId) {
+                    missed = new ArrayList<>(missed);
+                    missed.addAll(storage.getMessagesAfter(serverPort, lastId, MAX_REPLAY));
+                }
+                replayMessages(client, afterId, missed, partial);
             }
-            newClient.sendMessage(userListMsg.toString());
+            client.startReceiving();
         }
-        
-        // Thông báo cho các client khác biết có người dùng mới kết nối hoặc người dùng đã rời đi
-        if (newClient != null) {
+        synchronized (clients) {
+            userOnline(client);
+        }
+    }
+    
+    /**
+     * Client đã đăng nhập và bắt đầu nhận broadcast. Phải gọi trong khóa clients. Mọi client
+     * được báo ở lần gửi gộp tiếp theo, xem {@link #flushPresence()}.
+     */
+    private void userOnline(ClientHandler client) {
+        // Sau FORCE_LOGIN client mới chưa được đăng ký trong handleUserLogin
+        userClientMap.put(client.getUsername(), client);
+        presenceChanged(client.getUsername(), true);
+    }
+    
+    // Gọi trong khóa clients
+    private void presenceChanged(String username, boolean online) {
+        presence.set(username, online);
+        if (!presenceFlushScheduled) {
+            presenceFlushScheduled = true;
+            PRESENCE_TIMER.schedule(this::flushPresence, presenceWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Gửi các thay đổi danh sách online đã gom: một dòng PRESENCE_DELTA cho client đã
+     * PRESENCE_SYNC, USER_CONNECTED/USER_DISCONNECTED từng người cho client cũ, không gì cho
+     * client RESUME chưa xin danh sách (danh sách nó nhận sau đã gồm các thay đổi này).
+     */
+    private void flushPresence() {
+        try {
             synchronized (clients) {
+                presenceFlushScheduled = false;
+                PresenceTracker.Delta delta = presence.flush();
+                if (delta == null) {
+                    return;
+                }
+                long bytes = 0;
                 for (ClientHandler client : clients) {
-                    if (client.isConnected() && !client.equals(newClient)) {
-                        client.sendMessage("USER_CONNECTED:" + newClient.getUsername());
+                    ClientHandler.PresenceMode mode = client.getPresenceMode();
+                    if (!client.isConnected() || mode == ClientHandler.PresenceMode.NONE) {
+                        continue;
+                    }
+                    if (mode == ClientHandler.PresenceMode.DELTAS) {
+                        client.sendMessage(delta.line);
+                        bytes += delta.line.length();
+                        continue;
+                    }
+                    for (String user : delta.joined) {
+                        if (!user.equals(client.getUsername())) {
+                            client.sendMessage("USER_CONNECTED:" + user);
+                            bytes += "USER_CONNECTED:".length() + user.length();
+                        }
+                    }
+                    for (String user : delta.left) {
+                        client.sendMessage("USER_DISCONNECTED:" + user);
+                        bytes += "USER_DISCONNECTED:".length() + user.length();
                     }
                 }
+                metrics.presenceBytes.add(bytes);
             }
-        } else {
-            // Cập nhật danh sách người dùng khi có người rời đi
-            StringBuilder userListMsg = new StringBuilder("USER_LIST:");
-            for (String username : userList) {
-                userListMsg.append(username).append(",");
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Lỗi khi gửi danh sách người dùng", e);
+        }
+    }
+    
+    /** Trả lời GET_ONLINE_USERS: USER_LIST:a,b, không gồm chính client. */
+    public void sendUserList(ClientHandler client) {
+        StringBuilder userListMsg = new StringBuilder("USER_LIST:");
+        // Gửi trong khóa để danh sách không đến sau thay đổi gộp kế tiếp
+        synchronized (clients) {
+            for (String username : presence.users()) {
+                if (!username.equals(client.getUsername())) {
+                    userListMsg.append(username).append(",");
+                }
             }
-            
-            synchronized (clients) {
-                for (ClientHandler client : clients) {
-                    if (client.isConnected()) {
-                        client.sendMessage(userListMsg.toString());
-                    }
+            if (client.getPresenceMode() == ClientHandler.PresenceMode.NONE) {
+                client.setPresenceMode(ClientHandler.PresenceMode.LEGACY);
+            }
+            client.sendMessage(userListMsg.toString());
+        }
+        metrics.presenceBytes.add(userListMsg.length());
+        metrics.presenceSnapshots.increment();
+    }
+    
+    /**
+     * Trả lời PRESENCE_SYNC:epoch:phiên bản: gửi các delta client còn thiếu hoặc một snapshot.
+     * Từ đây client nhận PRESENCE_DELTA thay cho USER_CONNECTED/USER_DISCONNECTED.
+     */
+    void syncPresence(ClientHandler client, String argument) {
+        String[] parts = argument.split(":", 2);
+        long version = -1;
+        if (parts.length == 2) {
+            try {
+                version = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                // Nhận snapshot
+            }
+        }
+        synchronized (clients) {
+            client.setPresenceMode(ClientHandler.PresenceMode.DELTAS);
+            for (String line : presence.sync(parts[0], version)) {
+                client.sendMessage(line);
+                metrics.presenceBytes.add(line.length());
+                if (line.startsWith(PresenceTracker.SNAPSHOT_PREFIX)) {
+                    metrics.presenceSnapshots.increment();
                 }
             }
         }
@@ -135,39 +289,58 @@ public class ChatServer {
     
     // Phương thức gửi lịch sử chat cho client
     public void sendChatHistory(String username, ClientHandler client) {
-        try {
-            // Lấy các tin nhắn gần đây từ cơ sở dữ liệu
-            ResultSet history = dbManager.getMessagesWithEncryption(50, serverPort);
-            
-            client.sendMessage("CHAT_HISTORY_BEGIN");
-            logger.info("Sending chat history to " + username);
-            
-            // Xử lý dữ liệu từ ResultSet
-            while (history != null && history.next()) {
-                String timestamp = history.getString("timestamp");
-                String author = history.getString("username");
-                String message;
-                
-                if (author.equals(username)) {
-                    // Tin nhắn của chính người dùng này - sử dụng tin nhắn gốc
-                    message = history.getString("original_message");
-                } else {
-                    // Tin nhắn từ người khác - gửi phiên bản đã mã hóa để client giải mã
-                    message = history.getString("encrypted_message");
-                }
-                
-                // Format: TIMESTAMP|AUTHOR|MESSAGE
-                client.sendMessage(timestamp + "|" + author + "|" + message);
-            }
-            
-            client.sendMessage("CHAT_HISTORY_END");
+        // Lấy các tin nhắn gần đây từ kho lưu trữ (theo thứ tự thời gian)
+        List<ChatMessage> history = storage.getRecentMessages(serverPort, 50);
+        
+        client.sendMessage("CHAT_HISTORY_BEGIN");
+        logger.fine(() -> "Sending chat history to " + username);
+        
+        for (ChatMessage entry : history) {
+            String original = entry.getOriginalMessage() != null ? entry.getOriginalMessage() : entry.getMessage();
             
-            if (history != null) {
-                history.close();
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error sending chat history", e);
-            client.sendMessage("Error loading chat history");
+            // Mã hóa bằng codec của client nhận, client sẽ giải mã
+            // Format: TIMESTAMP|AUTHOR|MESSAGE, client gửi RESUME nhận thêm ID| ở đầu để lưu cache
+            String line = entry.getFormattedTimestamp() + "|" + entry.getUsername() + "|";
+            client.sendEncoded(client.wantsMessageIds() ? entry.getId() + "|" + line : line, original);
+        }
+        
+        client.sendMessage("CHAT_HISTORY_END");
+    }
+    
+    private long newestMessageId(int port) {
+        List<ChatMessage> newest = storage.getRecentMessages(port, 1);
+        return newest.isEmpty() ? 0 : newest.get(0).getId();
+    }
+    
+    /**
+     * Gửi lại các tin nhắn bỏ lỡ {@code missed}, rồi RESUMED:token:id cuối:partial:tính năng.
+     * Gọi trong khóa messageOrder, trước khi client nhận broadcast. afterId âm (đăng nhập mới)
+     * thì chỉ báo id mới nhất. partial = 1 nếu client lỡ hơn MAX_REPLAY tin và chỉ nhận phần cuối.
+     */
+    private void replayMessages(ClientHandler client, long afterId, List<ChatMessage> missed, boolean partial) {
+        long lastId = afterId < 0 ? lastMessageId : afterId;
+        for (ChatMessage entry : missed) {
+            String original = entry.getOriginalMessage() != null ? entry.getOriginalMessage() : entry.getMessage();
+            // Format: REPLAY:ID|TIMESTAMP|AUTHOR|MESSAGE
+            client.sendEncoded("REPLAY:" + entry.getId() + "|" + entry.getFormattedTimestamp() + "|"
+                    + entry.getUsername() + "|", original);
+            lastId = entry.getId();
+        }
+        client.sendMessage("RESUMED:" + client.getSessionToken() + ":" + lastId + ":" + (partial ? 1 : 0)
+                + ":" + FEATURES);
+        StructuredLog.fine(logger, "session resumed", "user", client.getUsername(), "after", afterId,
+                "replayed", missed.size());
+    }
+    
+    /**
+     * Client kết nối lại với đúng token của phiên cũ (ví dụ socket cũ chết mà server chưa
+     * biết) thì phiên cũ bị đóng luôn, không hỏi FORCE_LOGIN.
+     */
+    void takeOverSession(String username, String token, ClientHandler newClient) {
+        ClientHandler existing = userClientMap.get(username);
+        if (existing != null && existing != newClient && !token.isEmpty() && token.equals(existing.getSessionToken())) {
+            StructuredLog.info(logger, "session taken over", "user", username);
+            existing.disconnect();
         }
     }
     
@@ -191,68 +364,140 @@ public class ChatServer {
         }
         
         running = false;
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+            metricsHttpServer = null;
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
             
-            dbManager.disconnect();
-            logger.info("Server đã dừng trên port " + serverPort);
+            storage.disconnect();
+            StructuredLog.info(logger, "server stopped", "port", serverPort, "metrics", metrics.summary());
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Lỗi khi đóng server", ex);
         }
     }
     
     public void deletePortData() {
-        if (dbManager != null) {
-            dbManager.deleteDataByPort(serverPort);
+        if (storage != null) {
+            synchronized (messageOrder) {
+                storage.deleteDataByPort(serverPort);
+                lastMessageId = newestMessageId(serverPort);
+            }
             gui.logMessage("Đã xóa toàn bộ dữ liệu trên port " + serverPort);
         }
     }
     
+    /**
+     * Gửi tin cho mọi client đã đăng nhập. Tin người dùng ("tên: nội dung" mã hóa bằng codec
+     * của {@code sender}) được lưu rồi mã hóa lại cho từng người nhận, nên phải có người gửi.
+     */
     public void broadcastMessage(String message, ClientHandler sender) {
         // Kiểm tra xem đây có phải tin nhắn hệ thống (không cần mã hóa)
         boolean isSystemMessage = message.contains(" đã tham gia chat!") || 
                                  message.contains(" đã rời chat!") ||
                                  !message.contains(": ");
         
+        long start = System.nanoTime();
+        BroadcastCompletedEvent event = new BroadcastCompletedEvent();
+        event.begin();
         if (isSystemMessage) {
-            // Tin nhắn hệ thống - gửi nguyên trạng
+            // Tin nhắn hệ thống - gửi nguyên trạng, bỏ qua client chưa xong thỏa thuận mã hóa
             synchronized (clients) {
                 for (ClientHandler client : clients) {
-                    client.sendMessage(message);
+                    if (client.isConnected()) {
+                        client.sendMessage(message);
+                        event.recipients++;
+                    }
                 }
+                metrics.broadcastRecipients.add(event.recipients);
+            }
+            metrics.broadcastLatency.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.systemMessage = true;
+                event.length = message.length();
+                event.commit();
             }
             
             gui.logMessage(message);
         } else {
-            // Tin nhắn người dùng - gửi nguyên trạng vì đã được mã hóa từ client
+            // Tin nhắn người dùng - nội dung đã được mã hóa bằng codec của người gửi
             String senderName = message.substring(0, message.indexOf(": "));
             String encryptedContent = message.substring(message.indexOf(": ") + 2);
+            MessageCodec senderCodec = sender.getCodec();
+            String decryptedContent;
+            long decodeStart = System.nanoTime();
+            try {
+                decryptedContent = senderCodec.decodeText(encryptedContent);
+                event.decodeNanos = System.nanoTime() - decodeStart;
+            } catch (CodecException e) {
+                metrics.codecErrors.increment();
+                logger.warning("Bỏ tin nhắn không giải mã được từ " + senderName + ": " + e.getMessage());
+                return;
+            }
             
-            synchronized (clients) {
-                for (ClientHandler client : clients) {
-                    if (client != sender) {
-                        // Gửi tin nhắn đã mã hóa đến các client khác
-                        client.sendMessage(message);
+            // Giải mã một lần, mã hóa lại cho từng người nhận. Suite dùng khóa phiên phải mã hóa
+            // riêng cho mỗi client; suite dùng chung thì chỉ mã hóa một lần cho mỗi suite.
+            Map<CipherSuite, String> encodedBySuite = Collections.synchronizedMap(new EnumMap<>(CipherSuite.class));
+            if (!senderCodec.getSuite().isKeyed()) {
+                encodedBySuite.put(senderCodec.getSuite(), encryptedContent);
+            }
+            // Lưu và xếp hàng trong cùng khóa messageOrder: id tăng đúng theo thứ tự client nhận,
+            // nên client kết nối lại chỉ cần báo id cuối cùng đã thấy (xem admit). Mã hóa và ghi
+            // ra socket sau khi nhả khóa
+            String originalMessage = senderName + ": " + decryptedContent;
+            List<ClientHandler> queued = new ArrayList<>();
+            synchronized (messageOrder) {
+                long dbStart = System.nanoTime();
+                long id = storage.saveMessageWithEncryption(sender.getClientHostname(), sender.getClientIpAddress(),
+                        sender.getUsername(), originalMessage, message, serverPort);
+                event.storeNanos = System.nanoTime() - dbStart;
+                metrics.dbWriteLatency.record(event.storeNanos);
+                if (id < 0) {
+                    // Không có id để gửi kèm: mọi client nhận dạng cũ và không tính là đã thấy
+                    logger.warning("Không lưu được tin nhắn của " + senderName + ", gửi không kèm id");
+                } else {
+                    lastMessageId = Math.max(lastMessageId, id);
+                }
+                List<ClientHandler> recipients;
+                synchronized (clients) {
+                    recipients = new ArrayList<>(clients);
+                }
+                for (ClientHandler client : recipients) {
+                    // Người gửi hỗ trợ RESUME cũng nhận lại tin của mình để biết id
+                    boolean echo = client == sender;
+                    boolean withId = id >= 0 && client.wantsMessageIds();
+                    if ((!echo || withId) && client.isConnected()) {
+                        // Client hỗ trợ RESUME nhận kèm id: MSG:id:người gửi: nội dung
+                        String prefix = withId
+                                ? "MSG:" + id + ":" + senderName + ": "
+                                : senderName + ": ";
+                        client.enqueue(prefix, decryptedContent, encodedBySuite);
+                        queued.add(client);
+                        if (!echo) {
+                            metrics.broadcastRecipients.increment();
+                            event.recipients++;
+                        }
                     }
                 }
             }
-            
-            // Lưu cả phiên bản gốc và mã hóa vào database
-            String decryptedContent = cipher.decrypt(encryptedContent);
-            String originalMessage = senderName + ": " + decryptedContent;
-            
-            String hostname = sender.getClientHostname();
-            String ipAddress = sender.getClientIpAddress();
-            String username = sender.getUsername();
-            
-            // Lưu với cả tin nhắn gốc và đã mã hóa
-            dbManager.saveMessageWithEncryption(hostname, ipAddress, username, 
-                                            originalMessage, message, serverPort);
+            for (ClientHandler client : queued) {
+                client.flushOutbound();
+            }
+            metrics.broadcastLatency.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.sender = senderName;
+                event.suite = senderCodec.getSuite().name();
+                event.length = decryptedContent.length();
+                event.commit();
+            }
             
             // Log để hiển thị
-            gui.logCompareMessage(username, encryptedContent, decryptedContent);
+            gui.logCompareMessage(sender.getUsername(), encryptedContent, decryptedContent);
         }
     }
     
@@ -260,15 +505,9 @@ public class ChatServer {
         synchronized (clients) {
             clients.remove(client);
             
-            if (client.getUsername() != null) {
-                // Xóa khỏi map người dùng-client
-                userClientMap.remove(client.getUsername());
-                
-                // Broadcast thông báo người dùng đã rời đi
-                broadcastMessage(client.getUsername() + " đã rời chat!", null);
-                
-                // Cập nhật danh sách người dùng cho tất cả client còn lại
-                sendUserList(null);
+            // Phiên khác cùng tên (FORCE_LOGIN, kết nối lại) thì người dùng vẫn online
+            if (client.getUsername() != null && userClientMap.remove(client.getUsername(), client)) {
+                presenceChanged(client.getUsername(), false);
             }
             
             int currentCount = clients.size();
@@ -290,7 +529,7 @@ public class ChatServer {
     public void broadcastFileHeader(String header, ClientHandler sender) {
         synchronized (clients) {
             for (ClientHandler client : clients) {
-                if (client != sender) {
+                if (client != sender && client.isConnected()) {
                     client.sendMessage(header);
                 }
             }
@@ -300,21 +539,40 @@ public class ChatServer {
     public void sendFileHeaderToUser(String header, String recipient) {
         synchronized (clients) {
             for (ClientHandler client : clients) {
-                if (client.getUsername().equals(recipient)) {
+                if (recipient.equals(client.getUsername())) {
                     client.sendMessage(header);
-                    logger.info("Sent file header to " + recipient);
+                    StructuredLog.fine(logger, "file header sent", "recipient", recipient);
                     break;
                 }
             }
         }
     }
     
+    // Tổng hoặc lớn nhất số dòng chờ gửi theo từng client: hàng đợi tin chat và dòng giữ lại
+    // khi đang gửi file
+    private long pendingLines(boolean max) {
+        long result = 0;
+        synchronized (clients) {
+            for (ClientHandler client : clients) {
+                int pending = client.getPendingLines();
+                result = max ? Math.max(result, pending) : result + pending;
+            }
+        }
+        return result;
+    }
+    
     public int getClientCount() {
         synchronized (clients) {
             return clients.size();
         }
     }
     
+    /** Tra cứu O(1) qua userClientMap, không cần khóa danh sách clients. */
+    public boolean isUserOnline(String username) {
+        ClientHandler client = userClientMap.get(username);
+        return client != null && client.isConnected();
+    }
+    
     public int getServerPort() {
         return serverPort;
     }
@@ -323,12 +581,28 @@ public class ChatServer {
         return running;
     }
     
-    public DatabaseManager getDatabaseManager() {
-        return dbManager;
+    public ChatStorage getStorage() {
+        return storage;
+    }
+    
+    public ServerConfig getConfig() {
+        return config;
+    }
+    
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    PreviewStore getPreviews() {
+        return previews;
+    }
+    
+    public CipherSuite[] getSupportedSuites() {
+        return CipherSuite.availableSuites();
     }
     
-    public VigenereCipher getCipher() {
-        return cipher;
+    public MessageCodec getCodec(CipherSuite suite) {
+        return codecs.get(suite);
     }
     
     private class ConnectionAcceptor implements Runnable {
@@ -339,8 +613,9 @@ public class ChatServer {
             try {
                 while (running) {
                     Socket socket = serverSocket.accept();
+                    metrics.connectionsAccepted.increment();
                     
-                    ClientHandler client = new ClientHandler(socket, ChatServer.this, dbManager);
+                    ClientHandler client = new ClientHandler(socket, ChatServer.this, storage);
                     addClient(client);
                     
                     new Thread(client).start();
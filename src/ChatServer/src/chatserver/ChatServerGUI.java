@@ -4,24 +4,31 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class ChatServerGUI extends JFrame {
+public class ChatServerGUI extends JFrame implements ServerView {
     private JTextField tfPort;
-    private JTextArea taLog;
+    private JList<LogConsoleModel.Entry> logList;
+    // Khung log chỉ giữ LOG_CAPACITY dòng gần nhất; log đầy đủ nằm trong file log
+    private static final int LOG_CAPACITY = 5000;
+    // Số dòng mỗi lần đọc cho bảng người dùng và tin nhắn
+    private static final int TABLE_PAGE_SIZE = 200;
+    private final LogConsoleModel logModel = new LogConsoleModel(LOG_CAPACITY);
+    private JTextField tfFilter;
+    private JLabel lblFilterResult;
+    // Lọc theo từng phím gõ: chờ người dùng ngừng gõ rồi mới tìm, và hủy lần tìm cũ
+    private static final int FILTER_DEBOUNCE_MS = 150;
+    private Timer filterDebounce;
+    private SwingWorker<java.util.List<LogConsoleModel.Entry>, Void> filterWorker;
     private JButton btnStart, btnStop, btnClear, btnViewUsers, btnViewMessages, btnExportData, btnDeleteData;
     private JLabel lblStatus, lblClientCount;
     private ChatServer server;
@@ -106,8 +113,9 @@ public class ChatServerGUI extends JFrame {
         addButtonHoverEffect(btnViewMessages, COLOR_PRIMARY);
         addButtonHoverEffect(btnExportData, COLOR_PRIMARY);
         
-        taLog.setFont(FONT_MONOSPACE);
-        taLog.setBackground(COLOR_CARD);
+        logList.setFont(FONT_MONOSPACE);
+        logList.setBackground(COLOR_CARD);
+        logList.setFixedCellHeight(logList.getFontMetrics(FONT_MONOSPACE).getHeight() + 2);
         
         for (Component comp : getContentPane().getComponents()) {
             if (comp instanceof JPanel) {
@@ -186,7 +194,7 @@ public class ChatServerGUI extends JFrame {
         // Phím tắt Ctrl+L: Xóa log
         KeyStroke clearKey = KeyStroke.getKeyStroke(KeyEvent.VK_L, InputEvent.CTRL_DOWN_MASK);
         getRootPane().registerKeyboardAction(e -> {
-            taLog.setText("");
+            logModel.clear();
         }, clearKey, JComponent.WHEN_IN_FOCUSED_WINDOW);
         
         // Phím tắt F1: Hiển thị trợ giúp
@@ -362,44 +370,92 @@ public class ChatServerGUI extends JFrame {
                 TitledBorder.LEFT, TitledBorder.TOP, FONT_SUBHEADER));
         logPanel.setBackground(COLOR_BACKGROUND);
         
-        taLog = new JTextArea();
-        taLog.setEditable(false);
-        taLog.setLineWrap(true);
-        taLog.setWrapStyleWord(true);
-        taLog.setFont(FONT_MONOSPACE);
-        taLog.setBackground(new Color(252, 252, 252));
-        
-        DefaultCaret caret = (DefaultCaret) taLog.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
-        
-        JScrollPane scrollPane = new JScrollPane(taLog);
+        // JList chỉ vẽ các dòng đang hiển thị; chiều cao và chiều rộng ô cố định để
+        // không phải đo lại toàn bộ danh sách mỗi khi có dòng mới
+        logList = new JList<>(logModel);
+        logList.setFont(FONT_MONOSPACE);
+        logList.setBackground(new Color(252, 252, 252));
+        logList.setFixedCellHeight(logList.getFontMetrics(FONT_MONOSPACE).getHeight() + 2);
+        logList.setFixedCellWidth(100);
+        logList.setCellRenderer(new LogEntryRenderer());
+        ToolTipManager.sharedInstance().registerComponent(logList);
+        
+        JScrollPane scrollPane = new JScrollPane(logList);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        
+        // Tự cuộn xuống cuối khi có lô log mới, trừ khi người dùng đang cuộn xem phía trên
+        logModel.addListDataListener(new javax.swing.event.ListDataListener() {
+            @Override
+            public void intervalAdded(javax.swing.event.ListDataEvent e) {
+                if (logList.getModel() != logModel) {
+                    refreshFilter();
+                    return;
+                }
+                JScrollBar bar = scrollPane.getVerticalScrollBar();
+                if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - logList.getFixedCellHeight() * 2) {
+                    SwingUtilities.invokeLater(() -> logList.ensureIndexIsVisible(logModel.getSize() - 1));
+                }
+            }
+            
+            @Override
+            public void intervalRemoved(javax.swing.event.ListDataEvent e) {
+                if (logList.getModel() != logModel) {
+                    refreshFilter();
+                }
+            }
+            
+            @Override
+            public void contentsChanged(javax.swing.event.ListDataEvent e) {
+            }
+        });
         logPanel.add(scrollPane, BorderLayout.CENTER);
         
         JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         filterPanel.setBackground(COLOR_BACKGROUND);
         JLabel lblFilter = new JLabel("Lọc log:");
         lblFilter.setFont(FONT_NORMAL);
-        JTextField tfFilter = new JTextField(20);
+        tfFilter = new JTextField(20);
         JButton btnFilter = new JButton("Lọc");
         JButton btnClearFilter = new JButton("Xóa lọc");
+        lblFilterResult = new JLabel();
+        lblFilterResult.setFont(FONT_SMALL);
         
         filterPanel.add(lblFilter);
         filterPanel.add(tfFilter);
         filterPanel.add(btnFilter);
         filterPanel.add(btnClearFilter);
+        filterPanel.add(lblFilterResult);
         
         logPanel.add(filterPanel, BorderLayout.NORTH);
         
-        btnFilter.addActionListener(e -> {
-            String filterText = tfFilter.getText().trim();
-            if (!filterText.isEmpty()) {
-                filterLog(filterText);
+        filterDebounce = new Timer(FILTER_DEBOUNCE_MS, e -> runFilter(false));
+        filterDebounce.setRepeats(false);
+        tfFilter.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                filterDebounce.restart();
+            }
+            
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                filterDebounce.restart();
+            }
+            
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                filterDebounce.restart();
             }
         });
         
+        // Enter hoặc nút Lọc: mở cửa sổ kết quả để xuất file
+        tfFilter.addActionListener(e -> runFilter(true));
+        btnFilter.addActionListener(e -> runFilter(true));
+        
         btnClearFilter.addActionListener(e -> {
             tfFilter.setText("");
+            filterDebounce.stop();
+            runFilter(false);
         });
         
         panel.add(functionPanel, BorderLayout.NORTH);
@@ -408,7 +464,62 @@ public class ChatServerGUI extends JFrame {
         return panel;
     }
     
-    private void filterLog(String filterText) {
+    // Log mới trong lúc đang lọc: tìm lại, nhưng không quá một lần mỗi FILTER_DEBOUNCE_MS
+    private void refreshFilter() {
+        if (!filterDebounce.isRunning()) {
+            filterDebounce.start();
+        }
+    }
+    
+    private void runFilter(boolean openDialog) {
+        String filterText = tfFilter.getText().trim();
+        if (filterWorker != null) {
+            filterWorker.cancel(false);
+            filterWorker = null;
+        }
+        if (filterText.isEmpty()) {
+            if (logList.getModel() != logModel) {
+                logList.setModel(logModel);
+                logList.ensureIndexIsVisible(logModel.getSize() - 1);
+            }
+            lblFilterResult.setText("");
+            return;
+        }
+        
+        long start = System.nanoTime();
+        filterWorker = new SwingWorker<java.util.List<LogConsoleModel.Entry>, Void>() {
+            @Override
+            protected java.util.List<LogConsoleModel.Entry> doInBackground() {
+                return logModel.search(filterText, this::isCancelled);
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    java.util.List<LogConsoleModel.Entry> results = get();
+                    if (results == null) {
+                        return;
+                    }
+                    DefaultListModel<LogConsoleModel.Entry> filtered = new DefaultListModel<>();
+                    filtered.addAll(results);
+                    logList.setModel(filtered);
+                    lblFilterResult.setText("Tìm thấy " + results.size() + " dòng ("
+                            + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                    if (openDialog) {
+                        filterLog(filterText, results);
+                    }
+                } catch (Exception ex) {
+                    logger.log(Level.WARNING, "Lỗi khi lọc log", ex);
+                }
+            }
+        };
+        filterWorker.execute();
+    }
+    
+    private void filterLog(String filterText, java.util.List<LogConsoleModel.Entry> results) {
         JDialog filterDialog = new JDialog(this, "Kết quả lọc log với từ khóa: " + filterText, false);
         filterDialog.setSize(800, 500);
         filterDialog.setLocationRelativeTo(this);
@@ -425,15 +536,12 @@ public class ChatServerGUI extends JFrame {
         JScrollPane scrollPane = new JScrollPane(filteredLog);
         panel.add(scrollPane, BorderLayout.CENTER);
         
-        String[] lines = taLog.getText().split("\n");
-        int matchCount = 0;
-        
-        for (String line : lines) {
-            if (line.toLowerCase().contains(filterText.toLowerCase())) {
-                filteredLog.append(line + "\n");
-                matchCount++;
-            }
+        StringBuilder matches = new StringBuilder();
+        for (LogConsoleModel.Entry entry : results) {
+            matches.append(entry).append('\n');
         }
+        filteredLog.setText(matches.toString());
+        int matchCount = results.size();
         
         JPanel infoPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JLabel lblInfo = new JLabel("Tìm thấy " + matchCount + " dòng phù hợp");
@@ -581,7 +689,7 @@ public class ChatServerGUI extends JFrame {
     private void setupEventHandlers() {
         btnStart.addActionListener(e -> startServer());
         btnStop.addActionListener(e -> stopServer());
-        btnClear.addActionListener(e -> taLog.setText(""));
+        btnClear.addActionListener(e -> logModel.clear());
         btnViewUsers.addActionListener(e -> showUsersDialog());
         btnViewMessages.addActionListener(e -> showMessagesDialog());
         btnExportData.addActionListener(e -> exportData());
@@ -688,7 +796,7 @@ public class ChatServerGUI extends JFrame {
             }).start();
             
             new Thread(() -> {
-                server.getDatabaseManager().exportDataToTextFileByPort(finalPath, server.getServerPort());
+                new ChatDataExporter(server.getStorage()).exportDataToTextFileByPort(finalPath, server.getServerPort());
                 
                 SwingUtilities.invokeLater(() -> {
                     progressDialog.dispose();
@@ -711,18 +819,34 @@ public class ChatServerGUI extends JFrame {
         dialog.setSize(550, 400);
         dialog.setLocationRelativeTo(this);
         
-        DefaultTableModel model = new DefaultTableModel() {
+        int port = server.getServerPort();
+        PagedTableModel<UserRecord> model = new PagedTableModel<UserRecord>(
+                new String[]{"STT", "Tên người dùng", "Lần đăng nhập gần nhất", "Trạng thái"}, TABLE_PAGE_SIZE) {
+            @Override
+            protected int count() {
+                return server.getStorage().countUsers(port);
+            }
+            
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
+            protected java.util.List<UserRecord> fetch(int offset, int limit) {
+                return server.getStorage().getActiveUsers(port, offset, limit);
+            }
+            
+            @Override
+            protected Object valueAt(UserRecord user, int row, int column) {
+                switch (column) {
+                    case 0:
+                        return row + 1;
+                    case 1:
+                        return user.getUsername();
+                    case 2:
+                        return user.getFormattedLastLogin();
+                    default:
+                        return server.isUserOnline(user.getUsername()) ? "Online" : "Offline";
+                }
             }
         };
         
-        model.addColumn("STT");
-        model.addColumn("Tên người dùng");
-        model.addColumn("Lần đăng nhập gần nhất");
-        model.addColumn("Trạng thái");
-        
         JTable table = new JTable(model);
         table.getColumnModel().getColumn(0).setPreferredWidth(50);
         table.getColumnModel().getColumn(1).setPreferredWidth(150);
@@ -755,13 +879,10 @@ public class ChatServerGUI extends JFrame {
         JButton btnClose = new JButton("Đóng");
         btnClose.setFont(FONT_NORMAL);
         
-        btnRefresh.addActionListener(e -> {
-            model.setRowCount(0);
-            loadUsersData(model);
-        });
+        btnRefresh.addActionListener(e -> loadUsersData(model, lblInfo));
         
         btnExport.addActionListener(e -> {
-            exportUsersList(table);
+            exportUsersList();
         });
         
         btnClose.addActionListener(e -> dialog.dispose());
@@ -771,12 +892,12 @@ public class ChatServerGUI extends JFrame {
         buttonPanel.add(btnClose);
         dialog.add(buttonPanel, BorderLayout.SOUTH);
         
-        loadUsersData(model);
+        loadUsersData(model, lblInfo);
         
         dialog.setVisible(true);
     }
     
-    private void exportUsersList(JTable table) {
+    private void exportUsersList() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Xuất danh sách người dùng");
         fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text files", "txt"));
@@ -799,13 +920,12 @@ public class ChatServerGUI extends JFrame {
                 writer.println(String.format("%-5s %-20s %-30s %-15s", "STT", "Tên người dùng", "Lần đăng nhập gần nhất", "Trạng thái"));
                 writer.println(String.format("%-5s %-20s %-30s %-15s", "-----", "--------------------", "------------------------------", "---------------"));
                 
-                for (int i = 0; i < table.getRowCount(); i++) {
-                    String stt = table.getValueAt(i, 0).toString();
-                    String username = table.getValueAt(i, 1).toString();
-                    String lastLogin = table.getValueAt(i, 2).toString();
-                    String status = table.getValueAt(i, 3).toString();
-                    
-                    writer.println(String.format("%-5s %-20s %-30s %-15s", stt, username, lastLogin, status));
+                // Bảng chỉ giữ các trang đã xem, nên xuất thẳng từ kho lưu trữ
+                int stt = 0;
+                for (UserRecord user : server.getStorage().getActiveUsers(server.getServerPort())) {
+                    String status = server.isUserOnline(user.getUsername()) ? "Online" : "Offline";
+                    writer.println(String.format("%-5s %-20s %-30s %-15s", ++stt, user.getUsername(),
+                            user.getFormattedLastLogin(), status));
                 }
                 
                 JOptionPane.showMessageDialog(this, 
@@ -819,44 +939,11 @@ public class ChatServerGUI extends JFrame {
         }
     }
     
-    private void loadUsersData(DefaultTableModel model) {
-        try {
-            ResultSet rs = server.getDatabaseManager().getActiveUsers(server.getServerPort());
-            boolean hasUsers = false;
-            int rowCount = 0;
-            
-            while (rs.next()) {
-                hasUsers = true;
-                rowCount++;
-                String username = rs.getString("username");
-                String lastLogin = rs.getString("last_login");
-                boolean online = false;
-                
-                // Kiểm tra xem user này có đang online không
-                synchronized (server.clients) {
-                    for (ClientHandler client : server.clients) {
-                        if (client.getUsername() != null && client.getUsername().equals(username) && client.isConnected()) {
-                            online = true;
-                            break;
-                        }
-                    }
-                }
-                
-                String status = online ? "Online" : "Offline";
-                
-                model.addRow(new Object[]{rowCount, username, lastLogin, status});
-            }
-            
-            if (!hasUsers) {
-                model.addRow(new Object[]{"", "Không có người dùng nào đã kết nối đến port này.", "", ""});
-            }
-            
-            rs.close();
-        } catch (SQLException ex) {
-            logger.log(Level.WARNING, "Không thể lấy danh sách người dùng", ex);
-            JOptionPane.showMessageDialog(this, "Lỗi khi lấy dữ liệu: " + ex.getMessage(), 
-                    "Lỗi", JOptionPane.ERROR_MESSAGE);
-        }
+    private void loadUsersData(PagedTableModel<UserRecord> model, JLabel lblInfo) {
+        lblInfo.setText("Đang tải danh sách người dùng...");
+        model.refresh(count -> lblInfo.setText(count == 0
+                ? "Không có người dùng nào đã kết nối đến port này."
+                : "Danh sách người dùng (" + count + ")"));
     }
     
     private void showMessagesDialog() {
@@ -893,19 +980,39 @@ public class ChatServerGUI extends JFrame {
         
         dialog.add(searchPanel, BorderLayout.NORTH);
         
-        DefaultTableModel model = new DefaultTableModel() {
+        int port = server.getServerPort();
+        String[] currentSearch = new String[1];
+        PagedTableModel<ChatMessage> model = new PagedTableModel<ChatMessage>(
+                new String[]{"STT", "Thời gian", "Người dùng", "Tin nhắn gốc", "Tin nhắn mã hóa"}, TABLE_PAGE_SIZE) {
+            @Override
+            protected int count() {
+                return server.getStorage().countMessages(port, currentSearch[0]);
+            }
+            
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
+            protected java.util.List<ChatMessage> fetch(int offset, int limit) {
+                return server.getStorage().getMessagePage(port, currentSearch[0], offset, limit);
+            }
+            
+            @Override
+            protected Object valueAt(ChatMessage msg, int row, int column) {
+                switch (column) {
+                    case 0:
+                        return row + 1;
+                    case 1:
+                        return msg.getFormattedTimestamp();
+                    case 2:
+                        return msg.getUsername();
+                    case 3:
+                        String originalMsg = msg.getOriginalMessage();
+                        return originalMsg == null || originalMsg.isEmpty() ? msg.getMessage() : originalMsg;
+                    default:
+                        String encryptedMsg = msg.getEncryptedMessage();
+                        return encryptedMsg == null || encryptedMsg.isEmpty() ? msg.getMessage() : encryptedMsg;
+                }
             }
         };
         
-        model.addColumn("STT");
-        model.addColumn("Thời gian");
-        model.addColumn("Người dùng");
-        model.addColumn("Tin nhắn gốc");
-        model.addColumn("Tin nhắn mã hóa");
-        
         JTable table = new JTable(model);
         table.getColumnModel().getColumn(0).setPreferredWidth(40);
         table.getColumnModel().getColumn(1).setPreferredWidth(120);
@@ -947,28 +1054,25 @@ public class ChatServerGUI extends JFrame {
         southPanel.add(buttonPanel, BorderLayout.EAST);
         dialog.add(southPanel, BorderLayout.SOUTH);
         
-        loadMessagesData(model, null);
-        
-        ActionListener searchAction = new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                String searchText = tfSearch.getText().trim();
-                loadMessagesData(model, searchText.isEmpty() ? null : searchText);
-            }
+        // Điều kiện tìm được đọc trên thread nền khi tải trang
+        Runnable reload = () -> {
+            String searchText = tfSearch.getText().trim();
+            currentSearch[0] = searchText.isEmpty() ? null : searchText;
+            loadMessagesData(model, currentSearch[0], lblInfo);
         };
+        reload.run();
+        
+        ActionListener searchAction = e -> reload.run();
         
         btnSearch.addActionListener(searchAction);
         tfSearch.addActionListener(searchAction);
         
         btnClearSearch.addActionListener(e -> {
             tfSearch.setText("");
-            loadMessagesData(model, null);
+            reload.run();
         });
         
-        btnRefresh.addActionListener(e -> {
-            String searchText = tfSearch.getText().trim();
-            loadMessagesData(model, searchText.isEmpty() ? null : searchText);
-        });
+        btnRefresh.addActionListener(e -> reload.run());
         
         btnExport.addActionListener(e -> {
             String searchText = tfSearch.getText().trim();
@@ -980,50 +1084,17 @@ public class ChatServerGUI extends JFrame {
         dialog.setVisible(true);
     }
     
-    private void loadMessagesData(DefaultTableModel model, String searchText) {
-        model.setRowCount(0);
-        
-        try {
-            ResultSet rs;
-            
-            if (searchText == null || searchText.isEmpty()) {
-                rs = server.getDatabaseManager().getMessagesWithEncryption(500, server.getServerPort());
+    private void loadMessagesData(PagedTableModel<ChatMessage> model, String searchText, JLabel lblInfo) {
+        lblInfo.setText("Đang tải...");
+        model.refresh(count -> {
+            if (count > 0) {
+                lblInfo.setText((searchText == null ? "Lịch sử tin nhắn (" : "Kết quả tìm kiếm (") + count + ")");
+            } else if (searchText != null) {
+                lblInfo.setText("Không tìm thấy tin nhắn phù hợp.");
             } else {
-                rs = server.getDatabaseManager().searchMessagesWithEncryption(searchText, server.getServerPort());
-            }
-            
-            boolean hasMessages = false;
-            int rowCount = 0;
-            
-            while (rs.next()) {
-                hasMessages = true;
-                rowCount++;
-                String username = rs.getString("username");
-                String message = rs.getString("message");
-                String originalMsg = rs.getString("original_message");
-                String encryptedMsg = rs.getString("encrypted_message");
-                String timestamp = rs.getString("timestamp");
-                
-                if (originalMsg == null || originalMsg.isEmpty()) originalMsg = message;
-                if (encryptedMsg == null || encryptedMsg.isEmpty()) encryptedMsg = message;
-                
-                model.addRow(new Object[]{rowCount, timestamp, username, originalMsg, encryptedMsg});
+                lblInfo.setText("Chưa có tin nhắn nào trên port này.");
             }
-            
-            if (!hasMessages) {
-                if (searchText != null && !searchText.isEmpty()) {
-                    model.addRow(new Object[]{"", "", "Không tìm thấy tin nhắn phù hợp.", "", ""});
-                } else {
-                    model.addRow(new Object[]{"", "", "Chưa có tin nhắn nào trên port này.", "", ""});
-                }
-            }
-            
-            rs.close();
-        } catch (SQLException ex) {
-            logger.log(Level.WARNING, "Không thể lấy danh sách tin nhắn", ex);
-            JOptionPane.showMessageDialog(this, "Lỗi khi lấy dữ liệu: " + ex.getMessage(), 
-                    "Lỗi", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
     
     private void exportFilteredMessages(String searchText) {
@@ -1068,7 +1139,7 @@ public class ChatServerGUI extends JFrame {
             
             new Thread(() -> {
                 if (finalSearchText != null && !finalSearchText.isEmpty()) {
-                    server.getDatabaseManager().exportFilteredMessagesToFile(finalPath, finalSearchText, server.getServerPort());
+                    new ChatDataExporter(server.getStorage()).exportFilteredMessagesToFile(finalPath, finalSearchText, server.getServerPort());
                     
                     SwingUtilities.invokeLater(() -> {
                         progressDialog.dispose();
@@ -1077,7 +1148,7 @@ public class ChatServerGUI extends JFrame {
                             "Xuất dữ liệu thành công", JOptionPane.INFORMATION_MESSAGE);
                     });
                 } else {
-                    server.getDatabaseManager().exportDataToTextFileByPort(finalPath, server.getServerPort());
+                    new ChatDataExporter(server.getStorage()).exportDataToTextFileByPort(finalPath, server.getServerPort());
                     
                     SwingUtilities.invokeLater(() -> {
                         progressDialog.dispose();
@@ -1226,29 +1297,17 @@ public class ChatServerGUI extends JFrame {
         logMessage("Server đã dừng trên port " + server.getServerPort());
     }
     
+    @Override
     public void logMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String timeStamp = sdf.format(new Date());
-            taLog.append("[" + timeStamp + "] " + message + "\n");
-        });
+        logModel.add(LogConsoleModel.Entry.info(message));
     }
     
+    @Override
     public void logCompareMessage(String username, String encryptedContent, String originalContent) {
-        SwingUtilities.invokeLater(() -> {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String timeStamp = sdf.format(new Date());
-            
-            taLog.append("╔══════════════════════════════════════════════════════════════════════════╗\n");
-            taLog.append("║ [" + timeStamp + "] " + username + " gửi tin nhắn:\n");
-            taLog.append("║ ┌────────────────────────────────────────────────────────────────────┐\n");
-            taLog.append("║ │ Nội dung gốc:    " + originalContent + "\n");
-            taLog.append("║ │ Mã hóa Vigenere: " + encryptedContent + "\n");
-            taLog.append("║ └────────────────────────────────────────────────────────────────────┘\n");
-            taLog.append("╚══════════════════════════════════════════════════════════════════════════╝\n");
-        });
+        logModel.add(LogConsoleModel.Entry.chat(username, originalContent, encryptedContent));
     }
     
+    @Override
     public void updateClientCount(int count) {
         SwingUtilities.invokeLater(() -> {
             lblClientCount.setText(String.valueOf(count));
@@ -1259,6 +1318,31 @@ public class ChatServerGUI extends JFrame {
         });
     }
     
+    /**
+     * Vẽ mỗi dòng log trên một hàng: tin nhắn chat gồm nội dung gốc và bản mã hóa,
+     * bản đầy đủ hiện trong tooltip khi dòng bị cắt.
+     */
+    private class LogEntryRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            LogConsoleModel.Entry entry = (LogConsoleModel.Entry) value;
+            String text;
+            if (entry.isChat()) {
+                text = "[" + entry.getFormattedTimestamp() + "] " + entry.getUsername() + ": "
+                        + entry.getMessage() + "  ⇢  " + entry.getEncrypted();
+            } else {
+                text = "[" + entry.getFormattedTimestamp() + "] " + entry.getMessage();
+            }
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            if (!isSelected && entry.isChat()) {
+                setForeground(COLOR_PRIMARY_DARK);
+            }
+            setToolTipText(text);
+            return this;
+        }
+    }
+    
     public static void main(String[] args) {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
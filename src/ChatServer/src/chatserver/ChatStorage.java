@@ -0,0 +1,18 @@
+package chatserver;
+
+/**
+ * Backend lưu trữ của server, gồm tin nhắn, phiên đăng nhập và file.
+ * Backend được chọn qua cấu hình, xem {@link StorageFactory}.
+ */
+public interface ChatStorage extends MessageStore, SessionStore, FileStore {
+
+    boolean connect();
+
+    void disconnect();
+
+    default void deleteDataByPort(int port) {
+        deleteMessages(port);
+        deleteSessions(port);
+        deleteFiles(port);
+    }
+}
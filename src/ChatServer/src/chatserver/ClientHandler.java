@@ -1,27 +1,132 @@
 package chatserver;
 
+import chatcommon.CipherSuite;
+import chatcommon.FileStreamCipher;
+import chatcommon.MessageCodec;
+import chatcommon.ProtocolInputStream;
+import chatcommon.SessionHandshake;
+import chatcommon.StructuredLog;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 import java.util.logging.*;
 
 public class ClientHandler implements Runnable {
     private Socket socket;
-    private BufferedReader reader;
     private PrintWriter writer;
     private String username;
     private ChatServer server;
-    private DatabaseManager dbManager;
-    private boolean connected = false;
+    private ChatStorage storage;
+    private final ServerMetrics metrics;
+    // Dòng lệnh và byte file đọc từ cùng một bộ đệm
+    private ProtocolInputStream in;
+    private OutputStream out;
+    private volatile boolean connected = false;
     private static final Logger logger = Logger.getLogger(ClientHandler.class.getName());
-    private VigenereCipher cipher;
+    // Client cũ không gửi CIPHER_HELLO sẽ dùng PLAIN
+    private volatile MessageCodec codec;
     private String clientIpAddress;
     private String clientHostname;
+    // Thread khác (broadcast) cũng gửi dòng cho client này; khi đang gửi dữ liệu file thì
+    // dòng được giữ lại trong deferredLines và gửi sau, để không chen vào giữa dữ liệu
+    private final Object sendLock = new Object();
+    private List<String> deferredLines;
+    // Tin chat xếp hàng theo thứ tự id trong khóa messageOrder của server; mã hóa và ghi ra
+    // socket sau khi nhả khóa, xem flushOutbound
+    private final Queue<OutboundLine> outbound = new ConcurrentLinkedQueue<>();
+    // Số dòng trong outbound và deferredLines, cho metrics
+    private final AtomicInteger pendingLines = new AtomicInteger();
+    // File đang nhận theo khối FILE_CHUNK, theo id client đặt; chỉ thread của handler dùng
+    private final Map<String, IncomingUpload> uploads = new HashMap<>();
+    private byte[] chunkBuffer = new byte[0];
+    // Client gửi RESUME nhận tin nhắn kèm id và được gửi lại tin nhắn bỏ lỡ khi kết nối lại
+    private volatile boolean messageIds;
+    /** Cách client nhận thay đổi danh sách online. */
+    enum PresenceMode {
+        /** Client RESUME chưa xin danh sách: chưa gửi gì, lần xin đầu tiên quyết định. */
+        NONE,
+        /** USER_CONNECTED/USER_DISCONNECTED từng người. */
+        LEGACY,
+        /** PRESENCE_DELTA có phiên bản, sau PRESENCE_SYNC. */
+        DELTAS
+    }
+    // Chỉ đổi trong khóa clients của server
+    private volatile PresenceMode presenceMode = PresenceMode.LEGACY;
+    private String resumeToken = "";
+    private long resumeAfter = -1;
+    // Cấp khi đăng nhập, client dùng để chiếm lại phiên của chính mình khi kết nối lại
+    private volatile String sessionToken;
+    private static final SecureRandom TOKEN_RANDOM = new SecureRandom();
+    private static final long MAX_FILE_SIZE = 100 * 1024 * 1024; // 100MB
+    private static final int MAX_CHUNK_BYTES = 1024 * 1024;
+    
+    /** Một file client đang gửi theo khối, có thể xen với các file và dòng lệnh khác. */
+    private static final class IncomingUpload {
+        final String fileName;
+        final String fileType;
+        final long fileSize;
+        final File file;
+        final String recipient;
+        final OutputStream output;
+        final FileStreamCipher.Opener opener;
+        final LongConsumer progress;
+        final long start = System.nanoTime();
+        
+        IncomingUpload(String fileName, String fileType, long fileSize, File file, String recipient,
+                OutputStream output, FileStreamCipher.Opener opener) {
+            this.fileName = fileName;
+            this.fileType = fileType;
+            this.fileSize = fileSize;
+            this.file = file;
+            this.recipient = recipient;
+            this.output = output;
+            this.opener = opener;
+            this.progress = FileChunkEvent.recorder(fileName, true);
+        }
+        
+        // Không giữ lại file nhận dở hoặc bị sửa đổi
+        void abort() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Lỗi khi đóng file " + fileName, e);
+            }
+            file.delete();
+        }
+    }
+    
+    /** Tin chat chờ gửi: prefix + nội dung mã hóa bằng codec của client lúc ghi. */
+    private static final class OutboundLine {
+        final String prefix;
+        final String text;
+        // Bản mã dùng chung của một lần broadcast cho các suite không cần khóa phiên
+        final Map<CipherSuite, String> encodedBySuite;
+        
+        OutboundLine(String prefix, String text, Map<CipherSuite, String> encodedBySuite) {
+            this.prefix = prefix;
+            this.text = text;
+            this.encodedBySuite = encodedBySuite;
+        }
+    }
     
-    public ClientHandler(Socket socket, ChatServer server, DatabaseManager dbManager) {
+    public ClientHandler(Socket socket, ChatServer server, ChatStorage storage) {
         this.socket = socket;
         this.server = server;
-        this.dbManager = dbManager;
-        this.cipher = server.getCipher();
+        this.storage = storage;
+        this.metrics = server.getMetrics();
+        this.codec = server.getCodec(CipherSuite.PLAIN);
         this.clientIpAddress = socket.getInetAddress().getHostAddress();
         try {
             this.clientHostname = socket.getInetAddress().getHostName();
@@ -30,18 +135,55 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    /**
+     * Handler không có socket, ghi tin gửi đi vào {@code sink}; dùng cho benchmark và
+     * kiểm thử trong cùng process.
+     */
+    ClientHandler(ChatServer server, ChatStorage storage, String username, MessageCodec codec, OutputStream sink) {
+        this.server = server;
+        this.storage = storage;
+        this.metrics = server.getMetrics();
+        this.username = username;
+        this.codec = codec;
+        this.clientIpAddress = "127.0.0.1";
+        this.clientHostname = "localhost";
+        this.out = sink;
+        this.writer = new PrintWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8), true);
+        this.connected = true;
+    }
+    
     @Override
     public void run() {
         try {
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            in = new ProtocolInputStream(new CountingInputStream(socket.getInputStream(), metrics.bytesIn));
+            out = new CountingOutputStream(socket.getOutputStream(), metrics.bytesOut);
+            writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true);
+            
+            String firstLine = in.readLine();
+            if (firstLine != null && firstLine.startsWith(CipherSuite.HELLO_PREFIX)) {
+                // Thỏa thuận bộ mã hóa (và khóa phiên) trước khi nhận username
+                negotiateCipher(firstLine.substring(CipherSuite.HELLO_PREFIX.length()));
+                username = in.readLine();
+            } else {
+                username = firstLine;
+            }
+            // FORMAT: RESUME:token:id tin nhắn cuối đã thấy, gửi trước username; -1 khi đăng nhập mới
+            if (username != null && username.startsWith("RESUME:")) {
+                parseResume(username.substring("RESUME:".length()));
+                username = in.readLine();
+            }
+            if (username == null) {
+                return;
+            }
             
-            username = reader.readLine();
+            if (messageIds) {
+                server.takeOverSession(username, resumeToken, this);
+            }
             
             // Kiểm tra nếu username đã đăng nhập ở nơi khác
             if (!server.handleUserLogin(username, this)) {
                 // Đợi quyết định từ người dùng về việc tiếp tục đăng nhập hay không
-                String response = reader.readLine();
+                String response = in.readLine();
                 if (response.equals("FORCE_LOGIN")) {
                     // Tìm session cũ và ngắt kết nối
                     for (ClientHandler client : server.clients) {
@@ -57,55 +199,100 @@ public class ClientHandler implements Runnable {
                 }
             }
             
-            connected = true;
+            // Từ đây client nhận broadcast, sau các tin nhắn bỏ lỡ
+            if (messageIds) {
+                sessionToken = newSessionToken();
+            }
+            server.admit(this, resumeAfter);
             server.logMessage("Client '" + username + "' đã kết nối từ " + clientIpAddress + " (" + clientHostname + ")");
             
             // Lưu thông tin kết nối vào cơ sở dữ liệu
-            dbManager.logConnection(username, clientIpAddress, true, server.getServerPort());
-            
-            // Gửi thông báo cho tất cả người dùng biết người dùng mới đã kết nối
-            String joinMessage = username + " đã tham gia chat!";
-            server.broadcastMessage(joinMessage, this);
-            
-            // Gửi danh sách người dùng đang online cho client mới
-            server.sendUserList(this);
+            long dbStart = System.nanoTime();
+            storage.logConnection(username, clientIpAddress, true, server.getServerPort());
+            metrics.dbWriteLatency.recordSince(dbStart);
             
             // Xử lý tin nhắn
             String message;
-            while (connected && (message = reader.readLine()) != null) {
-                if (message.equals("LOGOUT")) {
+            while (connected && (message = in.readLine()) != null) {
+                long start = System.nanoTime();
+                MessageReceivedEvent event = new MessageReceivedEvent();
+                event.begin();
+                metrics.messagesIn.increment();
+                ProtocolCommand command = ProtocolCommand.of(message);
+                if (command == ProtocolCommand.LOGOUT) {
                     break;
-                } else if (message.equals("REQUEST_CHAT_HISTORY")) {
-                    // Xử lý yêu cầu lịch sử chat
-                    server.sendChatHistory(username, this);
-                } else if (message.equals("GET_ONLINE_USERS")) {
-                    // Gửi danh sách người dùng đang online
-                    server.sendUserList(this);
-                } else if (message.startsWith("FILE_HEADER:")) {
-                    // Xử lý gửi file
-                    handleFileHeader(message);
-                } else if (message.startsWith("REQUEST_FILE:")) {
-                    // Xử lý yêu cầu file
-                    String fileName = message.substring("REQUEST_FILE:".length());
-                    sendFile(fileName);
-                } else if (message.startsWith("READY_TO_RECEIVE:")) {
-                    // Client sẵn sàng nhận file
-                    String fileName = message.substring("READY_TO_RECEIVE:".length());
-                    // Logic xử lý gửi file ở đây
-                } else if (message.startsWith("FILE_RECEIVED:")) {
-                    // Client đã nhận file thành công
-                    String fileName = message.substring("FILE_RECEIVED:".length());
-                    logger.info("Client " + username + " received file: " + fileName);
-                } else if (message.equals("FORCE_LOGIN")) {
-                    // Đã xử lý ở trên
-                } else {
-                    // Xử lý tin nhắn thông thường - đã được mã hóa từ client
-                    server.broadcastMessage(username + ": " + message, this);
+                }
+                switch (command) {
+                    case REQUEST_CHAT_HISTORY:
+                        // Xử lý yêu cầu lịch sử chat
+                        server.sendChatHistory(username, this);
+                        break;
+                    case GET_ONLINE_USERS:
+                        // Gửi danh sách người dùng đang online
+                        server.sendUserList(this);
+                        break;
+                    case PRESENCE_SYNC:
+                        server.syncPresence(this, command.argument(message));
+                        break;
+                    case FILE_HEADER:
+                        // Xử lý gửi file
+                        handleFileHeader(message);
+                        break;
+                    case UPLOAD_START:
+                        // Gửi file theo khối, có thể nhiều file song song
+                        handleUploadStart(command.argument(message));
+                        break;
+                    case FILE_CHUNK:
+                        handleFileChunk(command.argument(message));
+                        break;
+                    case REQUEST_FILE:
+                        // Xử lý yêu cầu file
+                        // Client gửi kèm đường dẫn lưu: REQUEST_FILE:tên:đường dẫn
+                        sendFile(command.argument(message).split(":", 2)[0]);
+                        break;
+                    case REQUEST_PREVIEW:
+                        // Chỉ ảnh thu nhỏ, file gốc chỉ tải khi người dùng mở
+                        sendPreview(command.argument(message));
+                        break;
+                    case READY_TO_RECEIVE:
+                        // Client sẵn sàng nhận file
+                        // Logic xử lý gửi file ở đây
+                        break;
+                    case FILE_RECEIVED:
+                        // Client đã nhận file thành công
+                        StructuredLog.fine(logger, "file delivered", "user", username, "file", command.argument(message));
+                        break;
+                    case ACCEPT_FILE:
+                        // Client xác nhận đã thấy header file; file chỉ được gửi khi có REQUEST_FILE
+                        break;
+                    case MSG:
+                        // Tin nhắn chat, nội dung đã được mã hóa bằng codec đã thỏa thuận
+                        server.broadcastMessage(username + ": " + command.argument(message), this);
+                        break;
+                    case FORCE_LOGIN:
+                        // Đã xử lý ở trên
+                        break;
+                    default:
+                        // Client cũ gửi tin nhắn chat không có tiền tố MSG:
+                        server.broadcastMessage(username + ": " + message, this);
+                        break;
+                }
+                metrics.commandLatency(command).recordSince(start);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.command = command.name();
+                    event.username = username;
+                    event.length = message.length();
+                    event.commit();
                 }
             }
         } catch (IOException e) {
             logger.log(Level.WARNING, "Lỗi kết nối cho " + username, e);
         } finally {
+            for (IncomingUpload upload : uploads.values()) {
+                upload.abort();
+            }
+            uploads.clear();
             disconnect();
         }
     }
@@ -120,8 +307,7 @@ public class ClientHandler implements Runnable {
             String recipient = (parts.length > 4) ? parts[4] : null;
             
             // Kiểm tra kích thước file 
-            long maxFileSize = 100 * 1024 * 1024; // 100MB
-            if (fileSize > maxFileSize) {
+            if (fileSize > MAX_FILE_SIZE) {
                 sendMessage("FILE_REJECTED:File too large (max 100MB)");
                 return;
             }
@@ -129,65 +315,25 @@ public class ClientHandler implements Runnable {
             // Chấp nhận file
             sendMessage("FILE_ACCEPTED:" + fileName);
             
-            // Tạo thư mục files nếu chưa tồn tại
-            File filesDir = new File("files");
-            if (!filesDir.exists()) {
-                filesDir.mkdir();
-            }
-            
-            // Xác định đường dẫn file
-            String filePath = "files/" + fileName;
-            File outputFile = new File(filePath);
-            
-            // Nếu file đã tồn tại, thêm timestamp để tránh trùng tên
-            if (outputFile.exists()) {
-                String baseName = fileName;
-                String extension = "";
-                int lastDotIndex = fileName.lastIndexOf('.');
-                if (lastDotIndex > 0) {
-                    baseName = fileName.substring(0, lastDotIndex);
-                    extension = fileName.substring(lastDotIndex);
-                }
-                fileName = baseName + "_" + System.currentTimeMillis() + extension;
-                filePath = "files/" + fileName;
-                outputFile = new File(filePath);
-            }
+            File outputFile = reserveFile(fileName);
+            fileName = outputFile.getName();
             
-            // Tạo stream để ghi file
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            InputStream is = socket.getInputStream();
-            
-            // Nhận dữ liệu file
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            long totalRead = 0;
-            
-            while (totalRead < fileSize && 
-                   (bytesRead = is.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead))) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                totalRead += bytesRead;
+            // Nhận dữ liệu file theo từng khối, giải mã bằng khóa phiên của client
+            long transferStart = System.nanoTime();
+            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+                codec.getFileCipher().decrypt(in, fileSize, fos, FileChunkEvent.recorder(fileName, true));
+            } catch (IOException e) {
+                // Không giữ lại file nhận dở hoặc bị sửa đổi
+                outputFile.delete();
+                throw e;
             }
-            
-            fos.close();
+            metrics.fileTransferLatency.recordSince(transferStart);
+            metrics.fileBytesReceived.add(fileSize);
             
             // Thông báo client đã nhận file thành công
             sendMessage("FILE_RECEIVED:" + fileName);
             
-            // Lưu thông tin file vào database
-            dbManager.saveFileInfo(username, fileName, fileType, fileSize, filePath, server.getServerPort());
-            
-            // Gửi header file cho client khác
-            String fileHeader = "FILE_HEADER:" + fileName + ":" + fileSize + ":" + fileType + ":" + username;
-            
-            if (recipient != null && !recipient.isEmpty()) {
-                // Gửi cho người nhận cụ thể
-                server.sendFileHeaderToUser(fileHeader, recipient);
-            } else {
-                // Broadcast cho tất cả
-                server.broadcastFileHeader(fileHeader, this);
-            }
-            
-            server.logMessage("Client '" + username + "' đã gửi file: " + fileName + " (" + formatFileSize(fileSize) + ")");
+            announceFile(fileName, fileType, fileSize, outputFile, recipient);
             
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Lỗi khi xử lý file header", e);
@@ -195,6 +341,158 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    private void handleUploadStart(String argument) {
+        // FORMAT: UPLOAD_START:id:filesize:filetype:recipient:filename (recipient rỗng = gửi cả phòng)
+        String[] parts = argument.split(":", 5);
+        String id = parts[0];
+        try {
+            if (parts.length < 5 || uploads.containsKey(id)) {
+                sendMessage("UPLOAD_REJECTED:" + id + ":Bad request");
+                return;
+            }
+            long fileSize = Long.parseLong(parts[1]);
+            String fileType = parts[2];
+            String recipient = parts[3].isEmpty() ? null : parts[3];
+            if (fileSize < 0 || fileSize > MAX_FILE_SIZE) {
+                sendMessage("UPLOAD_REJECTED:" + id + ":File too large (max 100MB)");
+                return;
+            }
+            
+            File outputFile = reserveFile(parts[4]);
+            IncomingUpload upload = new IncomingUpload(outputFile.getName(), fileType, fileSize, outputFile, recipient,
+                    new FileOutputStream(outputFile), codec.getFileCipher().newOpener(fileSize));
+            uploads.put(id, upload);
+            sendMessage("UPLOAD_ACCEPTED:" + id);
+            if (upload.opener.remaining() == 0) {
+                // File rỗng không có khối nào
+                upload.output.close();
+                completeUpload(id, upload);
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Lỗi khi bắt đầu nhận file", e);
+            IncomingUpload upload = uploads.remove(id);
+            if (upload != null) {
+                upload.abort();
+            }
+            sendMessage("UPLOAD_REJECTED:" + id + ":Server error");
+        }
+    }
+    
+    /**
+     * Nhận một khối FILE_CHUNK:id:số byte, theo sau là đúng số byte đó. Dữ liệu luôn được đọc
+     * hết khỏi socket, kể cả khi file đã bị từ chối, để dòng lệnh sau không bị lệch.
+     */
+    private void handleFileChunk(String argument) throws IOException {
+        String[] parts = argument.split(":", 2);
+        int length;
+        try {
+            length = Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Khối file không hợp lệ: " + argument, e);
+        }
+        if (length < 0 || length > MAX_CHUNK_BYTES) {
+            throw new IOException("Khối file quá lớn: " + length);
+        }
+        if (chunkBuffer.length < length) {
+            chunkBuffer = new byte[length];
+        }
+        in.readFully(chunkBuffer, length);
+        
+        IncomingUpload upload = uploads.get(parts[0]);
+        if (upload == null) {
+            return;
+        }
+        try {
+            if (length > upload.opener.remaining()) {
+                throw new IOException("Dữ liệu vượt quá kích thước file");
+            }
+            if (upload.opener.update(ByteBuffer.wrap(chunkBuffer, 0, length), upload.output)) {
+                upload.progress.accept(upload.opener.processed());
+            }
+            if (upload.opener.remaining() == 0) {
+                upload.output.close();
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Lỗi khi nhận file " + upload.fileName + " từ " + username, e);
+            uploads.remove(parts[0]);
+            upload.abort();
+            sendMessage("UPLOAD_REJECTED:" + parts[0] + ":Invalid data");
+            return;
+        }
+        if (upload.opener.remaining() == 0) {
+            completeUpload(parts[0], upload);
+        }
+    }
+    
+    // File đã nhận đủ và đã đóng; lỗi lúc thông báo không làm mất file đã nhận
+    private void completeUpload(String id, IncomingUpload upload) {
+        uploads.remove(id);
+        metrics.fileTransferLatency.recordSince(upload.start);
+        metrics.fileBytesReceived.add(upload.fileSize);
+        sendMessage("UPLOAD_DONE:" + id + ":" + upload.fileName);
+        try {
+            announceFile(upload.fileName, upload.fileType, upload.fileSize, upload.file, upload.recipient);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Lỗi khi lưu thông tin file " + upload.fileName, e);
+        }
+    }
+    
+    /**
+     * Chọn tên chưa dùng trong thư mục files và tạo file ngay, để các file gửi cùng lúc
+     * (kể cả từ client khác) không trùng tên.
+     */
+    private static synchronized File reserveFile(String requestedName) throws IOException {
+        File filesDir = new File("files");
+        if (!filesDir.exists()) {
+            filesDir.mkdir();
+        }
+        // Chỉ lấy tên, bỏ đường dẫn client gửi kèm
+        String fileName = new File(requestedName).getName();
+        File outputFile = new File(filesDir, fileName);
+        if (outputFile.createNewFile()) {
+            return outputFile;
+        }
+        
+        // Nếu file đã tồn tại, thêm timestamp để tránh trùng tên
+        String baseName = fileName;
+        String extension = "";
+        int lastDotIndex = fileName.lastIndexOf('.');
+        if (lastDotIndex > 0) {
+            baseName = fileName.substring(0, lastDotIndex);
+            extension = fileName.substring(lastDotIndex);
+        }
+        String stamped = baseName + "_" + System.currentTimeMillis();
+        outputFile = new File(filesDir, stamped + extension);
+        for (int n = 1; !outputFile.createNewFile(); n++) {
+            outputFile = new File(filesDir, stamped + "_" + n + extension);
+        }
+        return outputFile;
+    }
+    
+    // Lưu thông tin file và báo cho người nhận sau khi đã nhận đủ dữ liệu
+    private void announceFile(String fileName, String fileType, long fileSize, File file, String recipient) {
+        // Tạo ảnh xem trước trên thread riêng; client xin trước khi xong thì chờ
+        server.getPreviews().generate(fileName, fileType);
+        
+        // Lưu thông tin file vào database
+        long dbStart = System.nanoTime();
+        storage.saveFileInfo(username, fileName, fileType, fileSize, "files/" + file.getName(), server.getServerPort());
+        metrics.dbWriteLatency.recordSince(dbStart);
+        
+        // Gửi header file cho client khác
+        String fileHeader = "FILE_HEADER:" + fileName + ":" + fileSize + ":" + fileType + ":" + username;
+        
+        if (recipient != null && !recipient.isEmpty()) {
+            // Gửi cho người nhận cụ thể
+            server.sendFileHeaderToUser(fileHeader, recipient);
+        } else {
+            // Broadcast cho tất cả
+            server.broadcastFileHeader(fileHeader, this);
+        }
+        
+        server.logMessage("Client '" + username + "' đã gửi file: " + fileName + " (" + formatFileSize(fileSize) + ")");
+    }
+    
     private String formatFileSize(long size) {
         if (size < 1024) {
             return size + " B";
@@ -218,25 +516,25 @@ public class ClientHandler implements Runnable {
             
             // Gửi thông báo file đã sẵn sàng
             String savePath = fileName; // Client sẽ quyết định đường dẫn lưu cuối cùng
-            sendMessage("FILE_READY:" + fileName + ":" + savePath);
-            
-            // Gửi kích thước file
-            sendMessage("FILE_SIZE:" + file.length());
-            
-            // Mở file stream
-            FileInputStream fis = new FileInputStream(file);
-            OutputStream os = socket.getOutputStream();
-            
-            // Gửi dữ liệu file
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+            long transferStart = System.nanoTime();
+            try (FileInputStream fis = new FileInputStream(file)) {
+                synchronized (sendLock) {
+                    sendMessage("FILE_READY:" + fileName + ":" + savePath);
+                    // Gửi kích thước gốc; client tự tính số byte đã mã hóa trên socket
+                    sendMessage("FILE_SIZE:" + file.length());
+                    deferredLines = new ArrayList<>();
+                }
+                
+                // Gửi dữ liệu file, mã hóa theo từng khối
+                try {
+                    codec.getFileCipher().encrypt(fis, file.length(), out, FileChunkEvent.recorder(fileName, false));
+                    out.flush();
+                } finally {
+                    sendDeferredLines();
+                }
             }
-            
-            os.flush();
-            fis.close();
+            metrics.fileTransferLatency.recordSince(transferStart);
+            metrics.fileBytesSent.add(file.length());
             
             server.logMessage("Đã gửi file " + fileName + " cho " + username);
             
@@ -246,22 +544,151 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    /**
+     * Gửi ảnh xem trước: PREVIEW:số byte:tên rồi dữ liệu đã mã hóa như khi gửi file, hoặc
+     * PREVIEW_NONE:tên nếu file không có ảnh xem trước.
+     */
+    private void sendPreview(String fileName) {
+        File preview = server.getPreviews().get(fileName);
+        if (preview == null) {
+            sendMessage("PREVIEW_NONE:" + fileName);
+            return;
+        }
+        try (FileInputStream fis = new FileInputStream(preview)) {
+            long size = preview.length();
+            synchronized (sendLock) {
+                sendMessage("PREVIEW:" + size + ":" + fileName);
+                deferredLines = new ArrayList<>();
+            }
+            try {
+                codec.getFileCipher().encrypt(fis, size, out, null);
+                out.flush();
+            } finally {
+                sendDeferredLines();
+            }
+            metrics.previewBytesSent.add(size);
+        } catch (IOException e) {
+            // Thường là socket đã đóng; vòng đọc lệnh sẽ tự kết thúc
+            logger.log(Level.SEVERE, "Lỗi khi gửi ảnh xem trước " + fileName, e);
+        }
+    }
+    
+    private void parseResume(String argument) {
+        String[] parts = argument.split(":", 2);
+        messageIds = true;
+        // Client mới xin danh sách bằng PRESENCE_SYNC ngay khi nhận RESUMED; không gửi dòng
+        // USER_CONNECTED/USER_DISCONNECTED trùng với delta nó sẽ nhận
+        presenceMode = PresenceMode.NONE;
+        resumeToken = parts[0];
+        try {
+            resumeAfter = parts.length > 1 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            logger.warning("RESUME không hợp lệ từ " + clientIpAddress + ": " + argument);
+            resumeAfter = -1;
+        }
+    }
+    
+    private static String newSessionToken() {
+        byte[] bytes = new byte[16];
+        TOKEN_RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    /** Client gửi RESUME khi đăng nhập và nhận tin nhắn dạng MSG:id:người gửi: nội dung. */
+    boolean wantsMessageIds() {
+        return messageIds;
+    }
+    
+    String getSessionToken() {
+        return sessionToken;
+    }
+    
+    PresenceMode getPresenceMode() {
+        return presenceMode;
+    }
+    
+    void setPresenceMode(PresenceMode presenceMode) {
+        this.presenceMode = presenceMode;
+    }
+    
     public void sendMessage(String message) {
         try {
-            if (writer != null) {
-                writer.println(message);
+            synchronized (sendLock) {
+                if (deferredLines != null) {
+                    deferredLines.add(message);
+                    pendingLines.incrementAndGet();
+                } else if (writer != null) {
+                    writer.println(message);
+                    metrics.messagesOut.increment();
+                }
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, "Lỗi khi gửi tin nhắn đến " + username, e);
         }
     }
     
+    /**
+     * Gửi {@code prefix} + {@code text} mã hóa bằng codec của client. Mã hóa và gửi trong cùng
+     * sendLock để các dòng đến client theo đúng thứ tự bộ đếm nonce: client từ chối tin AEAD có
+     * bộ đếm không lớn hơn tin trước.
+     */
+    void sendEncoded(String prefix, String text) {
+        synchronized (sendLock) {
+            sendMessage(prefix + getCodec().encodeText(text));
+        }
+    }
+    
+    /**
+     * Xếp một tin chat vào hàng đợi gửi; chỉ thêm vào hàng đợi nên gọi được trong khóa của
+     * server. Người gọi phải gọi {@link #flushOutbound} sau khi nhả khóa. {@code encodedBySuite}
+     * phải an toàn khi nhiều thread cùng dùng.
+     */
+    void enqueue(String prefix, String text, Map<CipherSuite, String> encodedBySuite) {
+        outbound.add(new OutboundLine(prefix, text, encodedBySuite));
+        pendingLines.incrementAndGet();
+    }
+    
+    /**
+     * Mã hóa và gửi các tin trong hàng đợi theo đúng thứ tự xếp. Trong sendLock nên bộ đếm nonce
+     * tăng theo thứ tự dòng ra socket, như {@link #sendEncoded}.
+     */
+    void flushOutbound() {
+        synchronized (sendLock) {
+            OutboundLine line;
+            while ((line = outbound.poll()) != null) {
+                pendingLines.decrementAndGet();
+                MessageCodec current = getCodec();
+                String text = line.text;
+                String encoded = current.getSuite().isKeyed()
+                        ? current.encodeText(text)
+                        : line.encodedBySuite.computeIfAbsent(current.getSuite(), s -> current.encodeText(text));
+                sendMessage(line.prefix + encoded);
+            }
+        }
+    }
+    
+    /** Số dòng đang chờ gửi cho client này. */
+    int getPendingLines() {
+        return pendingLines.get();
+    }
+    
+    private void sendDeferredLines() {
+        synchronized (sendLock) {
+            List<String> lines = deferredLines;
+            deferredLines = null;
+            pendingLines.addAndGet(-lines.size());
+            for (String line : lines) {
+                sendMessage(line);
+            }
+        }
+    }
+    
     public void disconnect() {
         if (connected) {
             connected = false;
             
             try {
-                if (reader != null) reader.close();
+                if (in != null) in.close();
                 if (writer != null) writer.close();
                 if (socket != null && !socket.isClosed()) socket.close();
             } catch (IOException e) {
@@ -270,23 +697,12 @@ public class ClientHandler implements Runnable {
             
             // Lưu thông tin ngắt kết nối vào DB
             if (username != null) {
-                dbManager.logConnection(username, clientIpAddress, false, server.getServerPort());
+                long dbStart = System.nanoTime();
+                storage.logConnection(username, clientIpAddress, false, server.getServerPort());
+                metrics.dbWriteLatency.recordSince(dbStart);
                 
-                // Phòng trường hợp đã đóng server
+                // Phòng trường hợp đã đóng server; các client khác được báo khi server gửi gộp
                 if (server.isRunning()) {
-                    // Thông báo cho tất cả client biết có người dùng rời đi
-                    String leaveMessage = username + " đã rời chat!";
-                    server.broadcastMessage(leaveMessage, this);
-                    
-                    // Thông báo cụ thể để client cập nhật danh sách người dùng
-                    synchronized (server.clients) {
-                        for (ClientHandler client : server.clients) {
-                            if (client.isConnected() && !client.equals(this)) {
-                                client.sendMessage("USER_DISCONNECTED:" + username);
-                            }
-                        }
-                    }
-                    
                     server.logMessage("Client '" + username + "' đã ngắt kết nối.");
                 }
             }
@@ -304,16 +720,12 @@ public class ClientHandler implements Runnable {
         } catch (IOException e) {
             logger.log(Level.WARNING, "Error closing client socket", e);
         }
-
-        // Thông báo cho các client khác khi người dùng ngắt kết nối
-        if (username != null) {
-            for (ClientHandler client : server.clients) {
-                if (client.isConnected() && client != this) {
-                    client.sendMessage("USER_DISCONNECTED:" + username);
-                }
-            }
-        }
     }
+    /** Gọi bởi {@link ChatServer#admit} khi client bắt đầu nhận broadcast. */
+    void startReceiving() {
+        connected = true;
+    }
+    
     public boolean isConnected() {
         return connected;
     }
@@ -322,6 +734,31 @@ public class ClientHandler implements Runnable {
         return username;
     }
     
+    private void negotiateCipher(String hello) {
+        String[] parts = hello.split(":", 2);
+        String clientKey = parts.length > 1 ? parts[1] : null;
+        CipherSuite suite = CipherSuite.negotiate(parts[0], clientKey != null, server.getSupportedSuites());
+        
+        if (suite.isKeyed()) {
+            try {
+                SessionHandshake handshake = new SessionHandshake();
+                codec = suite.newCodec(handshake.deriveKeys(clientKey, suite, false));
+                sendMessage(CipherSuite.SELECTED_PREFIX + suite.name() + ":" + handshake.getPublicKey());
+                return;
+            } catch (GeneralSecurityException e) {
+                logger.log(Level.WARNING, "Không thể thỏa thuận khóa phiên với " + clientIpAddress, e);
+                suite = CipherSuite.PLAIN;
+            }
+        }
+        
+        codec = server.getCodec(suite);
+        sendMessage(CipherSuite.SELECTED_PREFIX + suite.name());
+    }
+    
+    public MessageCodec getCodec() {
+        return codec;
+    }
+    
     public String getClientIpAddress() {
         return clientIpAddress;
     }
@@ -0,0 +1,31 @@
+package chatserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Đếm số byte ghi ra socket vào một counter của {@link ServerMetrics}.
+ */
+final class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder counter;
+
+    CountingOutputStream(OutputStream out, LongAdder counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counter.increment();
+    }
+
+    // FilterOutputStream mặc định ghi từng byte, nên phải ghi đè để ghi cả khối
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        counter.add(len);
+    }
+}
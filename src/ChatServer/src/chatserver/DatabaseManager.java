@@ -3,17 +3,18 @@ package chatserver;
 import java.sql.*;
 import java.util.logging.*;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
-public class DatabaseManager {
+public class DatabaseManager implements ChatStorage {
     private Connection connection;
     private String dbPath;
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
-    private VigenereCipher cipher;
+    // Tên backend trong các sự kiện JFR
+    private static final String BACKEND_NAME = "sqlite";
+    // Điều kiện tìm kiếm dùng chung cho searchMessages, getMessagePage và countMessages
+    private static final String SEARCH_CONDITION =
+            " AND (message LIKE ? OR username LIKE ? OR original_message LIKE ?)";
     
     public DatabaseManager() {
         File dbDir = new File("database");
@@ -22,9 +23,14 @@ public class DatabaseManager {
         }
         
         this.dbPath = "jdbc:sqlite:database/chatapp.db";
-        this.cipher = new VigenereCipher();
     }
     
+    /** Dùng file database khác mặc định, ví dụ cho kiểm thử và benchmark. */
+    DatabaseManager(File dbFile) {
+        this.dbPath = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+    }
+    
+    @Override
     public boolean connect() {
         try {
             Class.forName("org.sqlite.JDBC");
@@ -42,191 +48,161 @@ public class DatabaseManager {
         }
     }
     
+    // Tăng mỗi khi thêm migration mới vào cuối migrate()
+    private static final int SCHEMA_VERSION = 5;
+    
     private void initializeDatabase() {
-        try {
-            File sqlFile = new File("database/chatapp.sql");
-            
-            if (sqlFile.exists()) {
-                try (Statement stmt = connection.createStatement();
-                     java.util.Scanner scanner = new java.util.Scanner(sqlFile)) {
-                    
-                    StringBuilder sqlBuilder = new StringBuilder();
-                    while (scanner.hasNextLine()) {
-                        String line = scanner.nextLine().trim();
-                        if (line.startsWith("--") || line.isEmpty()) continue;
-                        
-                        sqlBuilder.append(line);
-                        if (line.endsWith(";")) {
-                            stmt.execute(sqlBuilder.toString());
-                            sqlBuilder.setLength(0);
-                        }
-                    }
+        int currentVersion = readSchemaVersion();
+        if (currentVersion >= SCHEMA_VERSION) {
+            logger.fine("Database đã ở phiên bản " + currentVersion + ", bỏ qua migration");
+            return;
+        }
+        
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL)");
+            
+            for (int version = currentVersion + 1; version <= SCHEMA_VERSION; version++) {
+                connection.setAutoCommit(false);
+                try {
+                    migrate(version, stmt);
+                    stmt.executeUpdate("DELETE FROM schema_version");
+                    stmt.executeUpdate("INSERT INTO schema_version (version) VALUES (" + version + ")");
+                    connection.commit();
+                } catch (SQLException ex) {
+                    connection.rollback();
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
-            } else {
-                createDefaultTables();
             }
             
-            ensureServerPortColumn();
-            ensureEncryptionColumns();
-            ensureChatHistoryTable();
-            
-            logger.info("Database được khởi tạo thành công");
-        } catch (SQLException | IOException ex) {
+            logger.info("Database được nâng cấp từ phiên bản " + currentVersion + " lên " + SCHEMA_VERSION
+                    + " trong " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi khởi tạo database", ex);
         }
     }
     
-    private void ensureServerPortColumn() {
-        try (Statement stmt = connection.createStatement()) {
-            ResultSet rs = stmt.executeQuery("PRAGMA table_info(messages)");
-            boolean hasServerPort = false;
-            while (rs.next()) {
-                if ("server_port".equals(rs.getString("name"))) {
-                    hasServerPort = true;
-                    break;
-                }
-            }
-            
-            if (!hasServerPort) {
-                stmt.execute("ALTER TABLE messages ADD COLUMN server_port INTEGER");
+    private int readSchemaVersion() {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException ex) {
+            // Chưa có bảng schema_version: database mới hoặc được tạo bởi phiên bản cũ.
+            // Mọi migration đều idempotent nên chạy lại toàn bộ là an toàn.
+            return 0;
+        }
+    }
+    
+    private void migrate(int version, Statement stmt) throws SQLException {
+        switch (version) {
+            case 1:
+                createDefaultTables(stmt);
+                break;
+            case 2:
+                addColumnIfMissing(stmt, "messages", "server_port", "INTEGER");
+                addColumnIfMissing(stmt, "connection_log", "server_port", "INTEGER");
+                addColumnIfMissing(stmt, "files", "server_port", "INTEGER");
                 stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_port ON messages(server_port)");
-            }
-            
-            rs = stmt.executeQuery("PRAGMA table_info(connection_log)");
-            hasServerPort = false;
-            while (rs.next()) {
-                if ("server_port".equals(rs.getString("name"))) {
-                    hasServerPort = true;
-                    break;
-                }
-            }
-            
-            if (!hasServerPort) {
-                stmt.execute("ALTER TABLE connection_log ADD COLUMN server_port INTEGER");
                 stmt.execute("CREATE INDEX IF NOT EXISTS idx_connection_log_port ON connection_log(server_port)");
-            }
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi kiểm tra/thêm cột server_port", ex);
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_files_port ON files(server_port)");
+                break;
+            case 3:
+                addColumnIfMissing(stmt, "messages", "original_message", "TEXT");
+                addColumnIfMissing(stmt, "messages", "encrypted_message", "TEXT");
+                break;
+            case 4:
+                stmt.execute("CREATE TABLE IF NOT EXISTS chat_history ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "server_port INTEGER,"
+                        + "username TEXT,"
+                        + "message TEXT,"
+                        + "original_message TEXT,"
+                        + "encrypted_message TEXT,"
+                        + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
+                        + ")");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_port ON chat_history(server_port)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_username ON chat_history(username)");
+                break;
+            case 5:
+                // Tìm kiếm dùng LIKE '%...%' nên không dùng được hai chỉ mục này, chúng chỉ làm chậm INSERT
+                stmt.execute("DROP INDEX IF EXISTS idx_messages_original");
+                stmt.execute("DROP INDEX IF EXISTS idx_messages_encrypted");
+                break;
+            default:
+                throw new SQLException("Không có migration cho phiên bản " + version);
         }
+        logger.info("Đã áp dụng migration phiên bản " + version);
     }
     
-    private void ensureEncryptionColumns() {
-        try (Statement stmt = connection.createStatement()) {
-            ResultSet rs = stmt.executeQuery("PRAGMA table_info(messages)");
-            boolean hasOriginalMessage = false;
-            boolean hasEncryptedMessage = false;
-            
+    private void addColumnIfMissing(Statement stmt, String table, String column, String type) throws SQLException {
+        boolean exists = false;
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
             while (rs.next()) {
-                String colName = rs.getString("name");
-                if ("original_message".equals(colName)) {
-                    hasOriginalMessage = true;
-                } else if ("encrypted_message".equals(colName)) {
-                    hasEncryptedMessage = true;
+                if (column.equals(rs.getString("name"))) {
+                    exists = true;
+                    break;
                 }
             }
-            
-            if (!hasOriginalMessage) {
-                stmt.execute("ALTER TABLE messages ADD COLUMN original_message TEXT");
-            }
-            
-            if (!hasEncryptedMessage) {
-                stmt.execute("ALTER TABLE messages ADD COLUMN encrypted_message TEXT");
-            }
-            
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_original ON messages(original_message)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_encrypted ON messages(encrypted_message)");
-            
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi kiểm tra/thêm cột mã hóa", ex);
         }
-    }
-    
-    private void ensureChatHistoryTable() {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute("CREATE TABLE IF NOT EXISTS chat_history ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "server_port INTEGER,"
-                    + "username TEXT,"
-                    + "message TEXT,"
-                    + "original_message TEXT,"
-                    + "encrypted_message TEXT,"
-                    + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                    + ");");
-            
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_port ON chat_history(server_port);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_username ON chat_history(username);");
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi tạo bảng chat_history", ex);
+        
+        if (!exists) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
         }
     }
     
-    private void createDefaultTables() throws SQLException {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute("CREATE TABLE IF NOT EXISTS messages ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "hostname TEXT,"
-                    + "ip_address TEXT,"
-                    + "username TEXT,"
-                    + "message TEXT,"
-                    + "original_message TEXT,"
-                    + "encrypted_message TEXT,"
-                    + "server_port INTEGER,"
-                    + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                    + ");");
-            
-            stmt.execute("CREATE TABLE IF NOT EXISTS users ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "username TEXT UNIQUE,"
-                    + "password TEXT,"
-                    + "ip_address TEXT,"
-                    + "last_login DATETIME DEFAULT CURRENT_TIMESTAMP,"
-                    + "connection_count INTEGER DEFAULT 1"
-                    + ");");
-            
-            stmt.execute("CREATE TABLE IF NOT EXISTS connection_log ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "username TEXT,"
-                    + "ip_address TEXT,"
-                    + "action TEXT,"
-                    + "server_port INTEGER,"
-                    + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                    + ");");
-            
-            stmt.execute("CREATE TABLE IF NOT EXISTS files ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "sender_username TEXT,"
-                    + "file_name TEXT,"
-                    + "file_type TEXT,"
-                    + "file_size INTEGER,"
-                    + "file_path TEXT,"
-                    + "server_port INTEGER,"
-                    + "sent_timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                    + ");");
-            
-            stmt.execute("CREATE TABLE IF NOT EXISTS chat_history ("
-                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "server_port INTEGER,"
-                    + "username TEXT,"
-                    + "message TEXT,"
-                    + "original_message TEXT,"
-                    + "encrypted_message TEXT,"
-                    + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                    + ");");
-            
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_username ON messages(username);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_port ON messages(server_port);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_original ON messages(original_message);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_encrypted ON messages(encrypted_message);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_users_username ON users(username);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_connection_log_username ON connection_log(username);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_connection_log_port ON connection_log(server_port);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_files_sender ON files(sender_username);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_files_port ON files(server_port);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_port ON chat_history(server_port);");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_history_username ON chat_history(username);");
-        }
+    // Các bảng gốc, đã có cột server_port và cột mã hóa. Database cũ thiếu các cột này được bổ
+    // sung ở migration 2 và 3; với database mới hai migration đó không phải làm gì
+    private void createDefaultTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS messages ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "hostname TEXT,"
+                + "ip_address TEXT,"
+                + "username TEXT,"
+                + "message TEXT,"
+                + "original_message TEXT,"
+                + "encrypted_message TEXT,"
+                + "server_port INTEGER,"
+                + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
+                + ");");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS users ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "username TEXT UNIQUE,"
+                + "password TEXT,"
+                + "ip_address TEXT,"
+                + "last_login DATETIME DEFAULT CURRENT_TIMESTAMP,"
+                + "connection_count INTEGER DEFAULT 1"
+                + ");");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS connection_log ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "username TEXT,"
+                + "ip_address TEXT,"
+                + "action TEXT,"
+                + "server_port INTEGER,"
+                + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
+                + ");");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS files ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "sender_username TEXT,"
+                + "file_name TEXT,"
+                + "file_type TEXT,"
+                + "file_size INTEGER,"
+                + "file_path TEXT,"
+                + "server_port INTEGER,"
+                + "sent_timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
+                + ");");
+        
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_username ON messages(username);");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_users_username ON users(username);");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_connection_log_username ON connection_log(username);");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_files_sender ON files(sender_username);");
     }
     
+    @Override
     public void disconnect() {
         try {
             if (connection != null && !connection.isClosed()) {
@@ -238,75 +214,56 @@ public class DatabaseManager {
         }
     }
     
-    public void saveMessage(String hostname, String ipAddress, String username, String message, int port) {
+    @Override
+    public long saveMessageWithEncryption(String hostname, String ipAddress, String username, 
+                                    String originalMessage, String encryptedMessage, int port) {
+        String originalContent = originalMessage.contains(": ") ? originalMessage.split(": ", 2)[1] : originalMessage;
+        String encryptedContent = encryptedMessage.contains(": ") ? encryptedMessage.split(": ", 2)[1] : encryptedMessage;
+        long id = -1;
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
         try {
-            String originalContent = "";
-            if (message.startsWith(username + ": ")) {
-                originalContent = message.substring((username + ": ").length());
-            } else {
-                originalContent = message;
-            }
-            
-            String encryptedContent = cipher.encrypt(originalContent);
-            
-            // Lưu vào messages
             String sql = "INSERT INTO messages (hostname, ip_address, username, message, original_message, encrypted_message, server_port) VALUES (?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 pstmt.setString(1, hostname);
                 pstmt.setString(2, ipAddress);
                 pstmt.setString(3, username);
-                pstmt.setString(4, message);
+                pstmt.setString(4, originalMessage);
                 pstmt.setString(5, originalContent);
                 pstmt.setString(6, encryptedContent);
                 pstmt.setInt(7, port);
                 pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        id = keys.getLong(1);
+                    }
+                }
             }
             
-            // Lưu vào chat_history
             sql = "INSERT INTO chat_history (server_port, username, message, original_message, encrypted_message) VALUES (?, ?, ?, ?, ?)";
             try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
                 pstmt.setInt(1, port);
                 pstmt.setString(2, username);
-                pstmt.setString(3, message);
+                pstmt.setString(3, originalMessage);
                 pstmt.setString(4, originalContent);
                 pstmt.setString(5, encryptedContent);
                 pstmt.executeUpdate();
             }
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi lưu tin nhắn", ex);
-        }
-    }
-    
-    public void saveMessageWithEncryption(String hostname, String ipAddress, String username, 
-                                    String originalMessage, String encryptedMessage, int port) {
-        try {
-            String sql = "INSERT INTO messages (hostname, ip_address, username, message, original_message, encrypted_message, server_port) VALUES (?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, hostname);
-                pstmt.setString(2, ipAddress);
-                pstmt.setString(3, username);
-                pstmt.setString(4, originalMessage);
-                pstmt.setString(5, originalMessage.contains(": ") ? originalMessage.split(": ", 2)[1] : originalMessage);
-                pstmt.setString(6, encryptedMessage.contains(": ") ? encryptedMessage.split(": ", 2)[1] : encryptedMessage);
-                pstmt.setInt(7, port);
-                pstmt.executeUpdate();
-            }
-            
-            sql = "INSERT INTO chat_history (server_port, username, message, original_message, encrypted_message) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setInt(1, port);
-                pstmt.setString(2, username);
-                pstmt.setString(3, originalMessage);
-                pstmt.setString(4, originalMessage.contains(": ") ? originalMessage.split(": ", 2)[1] : originalMessage);
-                pstmt.setString(5, encryptedMessage.contains(": ") ? encryptedMessage.split(": ", 2)[1] : encryptedMessage);
-                pstmt.executeUpdate();
-            }
+            success = true;
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi lưu tin nhắn mã hóa", ex);
+        } finally {
+            event.finish(BACKEND_NAME, "message", port, success);
         }
+        return id;
     }
     
+    @Override
     public void logConnection(String username, String ipAddress, boolean isConnecting, int port) {
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
         try {
             String action = isConnecting ? "connect" : "disconnect";
             String sql = "INSERT INTO connection_log (username, ip_address, action, server_port) VALUES (?, ?, ?, ?)";
@@ -346,143 +303,254 @@ public class DatabaseManager {
                     }
                 }
             }
+            success = true;
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi ghi log kết nối", ex);
+        } finally {
+            event.finish(BACKEND_NAME, "session", port, success);
         }
     }
     
-    // Lấy lịch sử chat
-    public List<ChatMessage> getChatHistory(int port, int limit) {
+    @Override
+    public List<ChatMessage> getRecentMessages(int port, int limit) {
         List<ChatMessage> messages = new ArrayList<>();
-        String sql = "SELECT username, message, original_message, encrypted_message, timestamp FROM chat_history " +
-                     "WHERE server_port = ? ORDER BY timestamp DESC LIMIT ?";
+        String sql = "SELECT id, username, message, original_message, encrypted_message, timestamp FROM messages " +
+                     "WHERE server_port = ? ORDER BY id DESC LIMIT ?";
         
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, port);
             pstmt.setInt(2, limit);
             
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                String username = rs.getString("username");
-                String message = rs.getString("message");
-                String originalMessage = rs.getString("original_message");
-                String encryptedMessage = rs.getString("encrypted_message");
-                long timestamp = rs.getTimestamp("timestamp").getTime();
-                
-                messages.add(0, new ChatMessage(username, message, originalMessage, encryptedMessage, timestamp));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                }
             }
-            
-        } catch (SQLException e) {
-            logger.log(Level.WARNING, "Error retrieving chat history", e);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi lấy tin nhắn gần đây", ex);
         }
         
+        // Truy vấn lấy mới nhất trước, đảo lại theo thứ tự thời gian
+        java.util.Collections.reverse(messages);
         return messages;
     }
     
-    public ResultSet getRecentMessages(int limit, int port) {
-        try {
-            String sql = "SELECT username, message, timestamp FROM messages WHERE server_port = ? ORDER BY timestamp DESC LIMIT ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+    @Override
+    public List<ChatMessage> getMessagesAfter(int port, long afterId, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        String sql = "SELECT id, username, message, original_message, encrypted_message, timestamp FROM messages " +
+                     "WHERE server_port = ? AND id > ? ORDER BY id LIMIT ?";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, port);
-            pstmt.setInt(2, limit);
-            return pstmt.executeQuery();
+            pstmt.setLong(2, afterId);
+            pstmt.setInt(3, limit);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                }
+            }
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi lấy tin nhắn gần đây", ex);
-            return null;
+            logger.log(Level.SEVERE, "Lỗi khi lấy tin nhắn sau id " + afterId, ex);
         }
+        return messages;
     }
     
-    public ResultSet getMessagesWithEncryption(int limit, int port) {
-        try {
-            String sql = "SELECT username, message, original_message, encrypted_message, timestamp FROM messages WHERE server_port = ? ORDER BY timestamp DESC LIMIT ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, port);
-            pstmt.setInt(2, limit);
-            return pstmt.executeQuery();
+    @Override
+    public List<ChatMessage> searchMessages(String searchText, int port) {
+        List<ChatMessage> messages = new ArrayList<>();
+        String sql = "SELECT id, username, message, original_message, encrypted_message, timestamp FROM messages " +
+                     "WHERE server_port = ?" + SEARCH_CONDITION + " ORDER BY id";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            bindSearch(pstmt, port, searchText);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                }
+            }
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi lấy tin nhắn mã hóa", ex);
-            return null;
+            logger.log(Level.SEVERE, "Lỗi khi tìm kiếm tin nhắn", ex);
         }
+        return messages;
     }
     
-    public ResultSet getActiveUsers(int port) {
-        try {
-            String sql = "SELECT DISTINCT u.username, u.last_login, u.connection_count FROM users u " +
-                        "JOIN connection_log c ON u.username = c.username " +
-                        "WHERE c.server_port = ? ORDER BY u.last_login DESC";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+    @Override
+    public List<ChatMessage> getMessagePage(int port, String searchText, int offset, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        String sql = "SELECT id, username, message, original_message, encrypted_message, timestamp FROM messages " +
+                     "WHERE server_port = ?" + (searchText == null ? "" : SEARCH_CONDITION) +
+                     " ORDER BY id DESC LIMIT ? OFFSET ?";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            int index = bindSearch(pstmt, port, searchText);
+            pstmt.setInt(index++, limit);
+            pstmt.setInt(index, offset);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                }
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi lấy trang tin nhắn", ex);
+        }
+        return messages;
+    }
+    
+    private static int bindSearch(PreparedStatement pstmt, int port, String searchText) throws SQLException {
+        int index = 1;
+        pstmt.setInt(index++, port);
+        if (searchText != null) {
+            String pattern = "%" + searchText + "%";
+            pstmt.setString(index++, pattern);
+            pstmt.setString(index++, pattern);
+            pstmt.setString(index++, pattern);
+        }
+        return index;
+    }
+    
+    private ChatMessage readMessage(ResultSet rs) throws SQLException {
+        return new ChatMessage(
+                rs.getLong("id"),
+                rs.getString("username"),
+                rs.getString("message"),
+                rs.getString("original_message"),
+                rs.getString("encrypted_message"),
+                ChatMessage.parseTimestamp(rs.getString("timestamp")));
+    }
+    
+    @Override
+    public List<UserRecord> getActiveUsers(int port) {
+        return getActiveUsers(port, 0, -1);
+    }
+    
+    @Override
+    public List<UserRecord> getActiveUsers(int port, int offset, int limit) {
+        List<UserRecord> users = new ArrayList<>();
+        // LIMIT -1 trong SQLite là không giới hạn
+        String sql = "SELECT DISTINCT u.username, u.last_login, u.connection_count FROM users u " +
+                     "JOIN connection_log c ON u.username = c.username " +
+                     "WHERE c.server_port = ? ORDER BY u.last_login DESC LIMIT ? OFFSET ?";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, port);
-            return pstmt.executeQuery();
+            pstmt.setInt(2, limit);
+            pstmt.setInt(3, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new UserRecord(
+                            rs.getString("username"),
+                            ChatMessage.parseTimestamp(rs.getString("last_login")),
+                            rs.getInt("connection_count")));
+                }
+            }
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi lấy danh sách người dùng hoạt động", ex);
-            return null;
         }
+        return users;
     }
     
-    public int getMessagesCountByPort(int port) {
-        try {
-            String sql = "SELECT COUNT(*) as count FROM messages WHERE server_port = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+    @Override
+    public int countMessages(int port) {
+        return queryCount("SELECT COUNT(*) FROM messages WHERE server_port = ?", port,
+                "Lỗi khi đếm tin nhắn theo port");
+    }
+    
+    @Override
+    public int countMessages(int port, String searchText) {
+        if (searchText == null) {
+            return countMessages(port);
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT COUNT(*) FROM messages WHERE server_port = ?" + SEARCH_CONDITION)) {
+            bindSearch(pstmt, port, searchText);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi đếm tin nhắn tìm kiếm", ex);
+            return 0;
+        }
+    }
+    
+    @Override
+    public int countUsers(int port) {
+        return queryCount("SELECT COUNT(DISTINCT username) FROM connection_log WHERE server_port = ?", port,
+                "Lỗi khi đếm người dùng theo port");
+    }
+    
+    @Override
+    public int countConnectionEvents(int port, boolean connecting) {
+        String action = connecting ? "connect" : "disconnect";
+        return queryCount("SELECT COUNT(*) FROM connection_log WHERE action = '" + action + "' AND server_port = ?", port,
+                "Lỗi khi đếm số lần kết nối");
+    }
+    
+    private int queryCount(String sql, int port, String errorMessage) {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, port);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("count");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
             }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, errorMessage, ex);
             return 0;
+        }
+    }
+    
+    @Override
+    public int deleteMessages(int port) {
+        try {
+            int deleted = deleteRows("messages", port);
+            deleteRows("chat_history", port);
+            return deleted;
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi đếm tin nhắn theo port", ex);
+            logger.log(Level.SEVERE, "Lỗi khi xóa tin nhắn theo port", ex);
             return 0;
         }
     }
     
-    public int getUsersCountByPort(int port) {
+    @Override
+    public int deleteSessions(int port) {
         try {
-            String sql = "SELECT COUNT(DISTINCT username) as count FROM connection_log WHERE server_port = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, port);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("count");
-            }
+            return deleteRows("connection_log", port);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi xóa log kết nối theo port", ex);
             return 0;
+        }
+    }
+    
+    @Override
+    public int deleteFiles(int port) {
+        try {
+            return deleteRows("files", port);
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi đếm người dùng theo port", ex);
+            logger.log(Level.SEVERE, "Lỗi khi xóa thông tin file theo port", ex);
             return 0;
         }
     }
     
+    private int deleteRows(String table, int port) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + table + " WHERE server_port = ?")) {
+            pstmt.setInt(1, port);
+            int deleted = pstmt.executeUpdate();
+            logger.info("Đã xóa " + deleted + " dòng từ bảng " + table + " trên port " + port);
+            return deleted;
+        }
+    }
+    
+    @Override
     public void deleteDataByPort(int port) {
         try {
             connection.setAutoCommit(false);
             
-            String sqlDeleteMessages = "DELETE FROM messages WHERE server_port = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sqlDeleteMessages)) {
-                pstmt.setInt(1, port);
-                int messagesDeleted = pstmt.executeUpdate();
-                logger.info("Đã xóa " + messagesDeleted + " tin nhắn từ port " + port);
-            }
-            
-            String sqlDeleteConnections = "DELETE FROM connection_log WHERE server_port = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sqlDeleteConnections)) {
-                pstmt.setInt(1, port);
-                int connectionsDeleted = pstmt.executeUpdate();
-                logger.info("Đã xóa " + connectionsDeleted + " log kết nối từ port " + port);
-            }
-            
-            String sqlDeleteFiles = "DELETE FROM files WHERE server_port = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sqlDeleteFiles)) {
-                pstmt.setInt(1, port);
-                int filesDeleted = pstmt.executeUpdate();
-                logger.info("Đã xóa " + filesDeleted + " thông tin file từ port " + port);
-            }
-            
-            String sqlDeleteHistory = "DELETE FROM chat_history WHERE server_port = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sqlDeleteHistory)) {
-                pstmt.setInt(1, port);
-                int historyDeleted = pstmt.executeUpdate();
-                logger.info("Đã xóa " + historyDeleted + " tin nhắn lịch sử từ port " + port);
-            }
+            deleteRows("messages", port);
+            deleteRows("connection_log", port);
+            deleteRows("files", port);
+            deleteRows("chat_history", port);
             
             connection.commit();
             connection.setAutoCommit(true);
@@ -498,183 +566,11 @@ public class DatabaseManager {
         }
     }
     
-    public void exportDataToTextFileByPort(String filePath, int port) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            writer.println("=== LỊCH SỬ CHAT TRÊN PORT " + port + " ===");
-            writer.println("Thời gian xuất: " + new java.util.Date());
-            writer.println();
-
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT timestamp, username, message, original_message, encrypted_message FROM messages " +
-                    "WHERE server_port = ? ORDER BY timestamp")) {
-                stmt.setInt(1, port);
-                ResultSet rs = stmt.executeQuery();
-                
-                boolean hasMessages = false;
-                while (rs.next()) {
-                    hasMessages = true;
-                    String timestamp = rs.getString("timestamp");
-                    String username = rs.getString("username");
-                    String message = rs.getString("message");
-                    String originalMsg = rs.getString("original_message");
-                    String encryptedMsg = rs.getString("encrypted_message");
-                    
-                    writer.println("[" + timestamp + "] " + username + ": " + message);
-                    
-                    if (originalMsg != null && encryptedMsg != null && 
-                        !originalMsg.isEmpty() && !encryptedMsg.isEmpty()) {
-                        writer.println("   - Nội dung gốc: " + originalMsg);
-                        writer.println("   - Mã hóa: " + encryptedMsg);
-                        writer.println();
-                    }
-                }
-                
-                if (!hasMessages) {
-                    writer.println("Không có tin nhắn nào trên port này.");
-                }
-            }
-            
-            writer.println();
-            writer.println("=== THỐNG KÊ NGƯỜI DÙNG ===");
-            writer.println();
-            
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT DISTINCT u.username, u.last_login, u.connection_count FROM users u " +
-                    "JOIN connection_log c ON u.username = c.username " +
-                    "WHERE c.server_port = ? ORDER BY u.connection_count DESC")) {
-                stmt.setInt(1, port);
-                ResultSet rs = stmt.executeQuery();
-                
-                boolean hasUsers = false;
-                while (rs.next()) {
-                    hasUsers = true;
-                    String username = rs.getString("username");
-                    String lastLogin = rs.getString("last_login");
-                    int connectionCount = rs.getInt("connection_count");
-                    
-                    writer.println(username + " - Đăng nhập gần nhất: " + lastLogin + " - Số lần kết nối: " + connectionCount);
-                }
-                
-                if (!hasUsers) {
-                    writer.println("Không có người dùng nào đã kết nối đến port này.");
-                }
-            }
-            
-            writer.println();
-            writer.println("=== THỐNG KÊ KẾT NỐI ===");
-            writer.println();
-            
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT COUNT(*) as connect_count FROM connection_log WHERE action = 'connect' AND server_port = ?")) {
-                stmt.setInt(1, port);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    int connectCount = rs.getInt("connect_count");
-                    writer.println("Tổng số lần kết nối: " + connectCount);
-                }
-            }
-            
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT COUNT(*) as disconnect_count FROM connection_log WHERE action = 'disconnect' AND server_port = ?")) {
-                stmt.setInt(1, port);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    int disconnectCount = rs.getInt("disconnect_count");
-                    writer.println("Tổng số lần ngắt kết nối: " + disconnectCount);
-                }
-            }
-            
-            logger.info("Dữ liệu đã được xuất ra " + filePath);
-        } catch (IOException | SQLException e) {
-            logger.log(Level.SEVERE, "Lỗi khi xuất dữ liệu", e);
-        }
-    }
-
-    public ResultSet searchMessages(String searchText, int port) {
-        try {
-            String sql = "SELECT username, message, timestamp FROM messages " +
-                        "WHERE server_port = ? AND (message LIKE ? OR username LIKE ?) " +
-                        "ORDER BY timestamp DESC";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, port);
-            pstmt.setString(2, "%" + searchText + "%");
-            pstmt.setString(3, "%" + searchText + "%");
-            return pstmt.executeQuery();
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi tìm kiếm tin nhắn", ex);
-            return null;
-        }
-    }
-    
-    public ResultSet searchMessagesWithEncryption(String searchText, int port) {
-        try {
-            String sql = "SELECT username, message, original_message, encrypted_message, timestamp FROM messages " +
-                        "WHERE server_port = ? AND (message LIKE ? OR username LIKE ? OR original_message LIKE ?) " +
-                        "ORDER BY timestamp DESC";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, port);
-            pstmt.setString(2, "%" + searchText + "%");
-            pstmt.setString(3, "%" + searchText + "%");
-            pstmt.setString(4, "%" + searchText + "%");
-            return pstmt.executeQuery();
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Lỗi khi tìm kiếm tin nhắn mã hóa", ex);
-            return null;
-        }
-    }
-
-    public void exportFilteredMessagesToFile(String filePath, String searchText, int port) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            writer.println("=== TIN NHẮN TÌM KIẾM THEO TỪ KHÓA '" + searchText + "' TRÊN PORT " + port + " ===");
-            writer.println("Thời gian xuất: " + new java.util.Date());
-            writer.println("Từ khóa tìm kiếm: " + searchText);
-            writer.println();
-
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT timestamp, username, message, original_message, encrypted_message FROM messages " +
-                    "WHERE server_port = ? AND (message LIKE ? OR username LIKE ? OR original_message LIKE ?) ORDER BY timestamp")) {
-                stmt.setInt(1, port);
-                stmt.setString(2, "%" + searchText + "%");
-                stmt.setString(3, "%" + searchText + "%");
-                stmt.setString(4, "%" + searchText + "%");
-                ResultSet rs = stmt.executeQuery();
-                
-                boolean hasMessages = false;
-                int count = 0;
-                while (rs.next()) {
-                    hasMessages = true;
-                    count++;
-                    String timestamp = rs.getString("timestamp");
-                    String username = rs.getString("username");
-                    String message = rs.getString("message");
-                    String originalMsg = rs.getString("original_message");
-                    String encryptedMsg = rs.getString("encrypted_message");
-                    
-                    writer.println("[" + timestamp + "] " + username + ": " + message);
-                    
-                    if (originalMsg != null && encryptedMsg != null && 
-                        !originalMsg.isEmpty() && !encryptedMsg.isEmpty()) {
-                        writer.println("   - Nội dung gốc: " + originalMsg);
-                        writer.println("   - Mã hóa: " + encryptedMsg);
-                        writer.println();
-                    }
-                }
-                
-                if (!hasMessages) {
-                    writer.println("Không tìm thấy tin nhắn nào phù hợp với từ khóa '" + searchText + "'.");
-                } else {
-                    writer.println();
-                    writer.println("Tổng số tin nhắn tìm thấy: " + count);
-                }
-            }
-            
-            logger.info("Dữ liệu tìm kiếm đã được xuất ra " + filePath);
-        } catch (IOException | SQLException e) {
-            logger.log(Level.SEVERE, "Lỗi khi xuất dữ liệu tìm kiếm", e);
-        }
-    }
-    
+    @Override
     public void saveFileInfo(String username, String fileName, String fileType, long fileSize, String filePath, int port) {
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
         try {
             String sql = "INSERT INTO files (sender_username, file_name, file_type, file_size, file_path, server_port) VALUES (?, ?, ?, ?, ?, ?)";
             try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
@@ -686,24 +582,41 @@ public class DatabaseManager {
                 pstmt.setInt(6, port);
                 pstmt.executeUpdate();
             }
+            success = true;
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi lưu thông tin file", ex);
+        } finally {
+            event.finish(BACKEND_NAME, "file", port, success);
         }
     }
     
-    public ResultSet getFiles(int port) {
-        try {
-            String sql = "SELECT id, sender_username, file_name, file_type, file_size, file_path, sent_timestamp " +
-                        "FROM files WHERE server_port = ? ORDER BY sent_timestamp DESC";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
+    @Override
+    public List<FileRecord> getFiles(int port) {
+        List<FileRecord> files = new ArrayList<>();
+        String sql = "SELECT id, sender_username, file_name, file_type, file_size, file_path, sent_timestamp " +
+                     "FROM files WHERE server_port = ? ORDER BY sent_timestamp DESC";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, port);
-            return pstmt.executeQuery();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    files.add(new FileRecord(
+                            rs.getLong("id"),
+                            rs.getString("sender_username"),
+                            rs.getString("file_name"),
+                            rs.getString("file_type"),
+                            rs.getLong("file_size"),
+                            rs.getString("file_path"),
+                            ChatMessage.parseTimestamp(rs.getString("sent_timestamp"))));
+                }
+            }
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Lỗi khi lấy danh sách file", ex);
-            return null;
         }
+        return files;
     }
     
+    @Override
     public boolean checkLogin(String username, String password) {
         try {
             String sql = "SELECT id FROM users WHERE username = ? AND password = ?";
@@ -719,6 +632,7 @@ public class DatabaseManager {
         }
     }
     
+    @Override
     public boolean registerUser(String username, String password) {
         try {
             String checkSql = "SELECT id FROM users WHERE username = ?";
@@ -742,4 +656,4 @@ public class DatabaseManager {
             return false;
         }
     }
-}
\ No newline at end of file
+}
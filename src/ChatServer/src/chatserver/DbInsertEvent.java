@@ -0,0 +1,41 @@
+package chatserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sự kiện JFR cho mỗi lần ghi vào kho lưu trữ.
+ */
+@Name("chatserver.DbInsert")
+@Label("DB Insert")
+@Category("Chat Server")
+@Description("Một lần ghi tin nhắn, phiên hoặc thông tin file vào kho lưu trữ")
+@StackTrace(false)
+class DbInsertEvent extends jdk.jfr.Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Port")
+    int port;
+
+    @Label("Success")
+    boolean success;
+
+    /** Kết thúc và ghi sự kiện nếu recording đang bật, gọi trong khối finally của thao tác ghi. */
+    void finish(String backend, String operation, int port, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.backend = backend;
+            this.operation = operation;
+            this.port = port;
+            this.success = success;
+            commit();
+        }
+    }
+}
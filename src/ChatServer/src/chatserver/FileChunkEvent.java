@@ -0,0 +1,65 @@
+package chatserver;
+
+import java.util.function.LongConsumer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sự kiện JFR cho mỗi khối file đi qua socket; thời lượng gồm đọc, mã hóa hoặc giải mã
+ * và ghi khối đó.
+ */
+@Name("chatserver.FileChunk")
+@Label("File Chunk")
+@Category("Chat Server")
+@Description("Một khối file gửi hoặc nhận")
+@StackTrace(false)
+class FileChunkEvent extends jdk.jfr.Event {
+    @Label("File")
+    String fileName;
+
+    @Label("Upload")
+    boolean upload;
+
+    @Label("Size")
+    @DataAmount
+    int bytes;
+
+    @Label("Offset")
+    @DataAmount
+    long offset;
+
+    /**
+     * Callback tiến độ cho {@link chatcommon.FileStreamCipher}: mỗi lần được gọi (sau mỗi
+     * khối) ghi một sự kiện cho khối vừa xong và bắt đầu đo khối tiếp theo.
+     */
+    static LongConsumer recorder(String fileName, boolean upload) {
+        return new LongConsumer() {
+            private FileChunkEvent event = started();
+            private long offset;
+
+            @Override
+            public void accept(long done) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.fileName = fileName;
+                    event.upload = upload;
+                    event.bytes = (int) (done - offset);
+                    event.offset = offset;
+                    event.commit();
+                }
+                offset = done;
+                event = started();
+            }
+        };
+    }
+
+    private static FileChunkEvent started() {
+        FileChunkEvent event = new FileChunkEvent();
+        event.begin();
+        return event;
+    }
+}
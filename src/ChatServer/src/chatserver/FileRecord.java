@@ -0,0 +1,50 @@
+package chatserver;
+
+public class FileRecord {
+    private final long id;
+    private final String senderUsername;
+    private final String fileName;
+    private final String fileType;
+    private final long fileSize;
+    private final String filePath;
+    private final long sentTimestamp;
+
+    public FileRecord(long id, String senderUsername, String fileName, String fileType,
+                      long fileSize, String filePath, long sentTimestamp) {
+        this.id = id;
+        this.senderUsername = senderUsername;
+        this.fileName = fileName;
+        this.fileType = fileType;
+        this.fileSize = fileSize;
+        this.filePath = filePath;
+        this.sentTimestamp = sentTimestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSenderUsername() {
+        return senderUsername;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getSentTimestamp() {
+        return sentTimestamp;
+    }
+}
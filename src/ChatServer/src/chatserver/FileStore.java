@@ -0,0 +1,16 @@
+package chatserver;
+
+import java.util.List;
+
+/**
+ * Thông tin các file đã được gửi lên server.
+ */
+public interface FileStore {
+
+    void saveFileInfo(String username, String fileName, String fileType, long fileSize, String filePath, int port);
+
+    /** Danh sách file của port, file mới nhất trước. */
+    List<FileRecord> getFiles(int port);
+
+    int deleteFiles(int port);
+}
@@ -0,0 +1,197 @@
+package chatserver;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import javax.swing.AbstractListModel;
+import javax.swing.Timer;
+
+/**
+ * Model cho khung log của server: ring buffer có giới hạn các dòng log có cấu trúc.
+ *
+ * Thread bất kỳ gọi {@link #add(Entry)} chỉ đưa dòng vào hàng chờ; một Swing Timer trên
+ * EDT gom hàng chờ mỗi {@link #FLUSH_INTERVAL_MS} ms và báo cho JList một lần cho cả lô.
+ * Khi đầy, dòng cũ nhất bị bỏ, nên bộ nhớ không tăng theo thời gian chạy. JList chỉ vẽ
+ * các dòng đang hiển thị, nên số dòng giữ lại không làm chậm EDT.
+ *
+ * Ring buffer đi kèm một {@link LogSearchIndex}; {@link #search} chạy được từ thread nền,
+ * nên ring và chỉ mục chỉ được sửa trong {@code indexLock}.
+ */
+public class LogConsoleModel extends AbstractListModel<LogConsoleModel.Entry> {
+    static final int FLUSH_INTERVAL_MS = 100;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /** Một dòng log: thông báo hệ thống hoặc tin nhắn chat kèm bản mã hóa. */
+    public static final class Entry {
+        private final long timestamp;
+        private final String message;
+        private final String username;
+        private final String encrypted;
+
+        private Entry(long timestamp, String message, String username, String encrypted) {
+            this.timestamp = timestamp;
+            this.message = message;
+            this.username = username;
+            this.encrypted = encrypted;
+        }
+
+        public static Entry info(String message) {
+            return new Entry(System.currentTimeMillis(), message, null, null);
+        }
+
+        public static Entry chat(String username, String original, String encrypted) {
+            return new Entry(System.currentTimeMillis(), original, username, encrypted);
+        }
+
+        public boolean isChat() {
+            return username != null;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getEncrypted() {
+            return encrypted;
+        }
+
+        public String getFormattedTimestamp() {
+            return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timestamp));
+        }
+
+        // Nội dung được đưa vào chỉ mục; bản mã hóa là chuỗi ngẫu nhiên nên không đánh chỉ mục
+        String indexText() {
+            return isChat() ? username + " " + message : message;
+        }
+
+        /** Dạng văn bản một dòng, dùng cho lọc và xuất file. */
+        @Override
+        public String toString() {
+            if (isChat()) {
+                return "[" + getFormattedTimestamp() + "] " + username + ": " + message + " | Mã hóa: " + encrypted;
+            }
+            return "[" + getFormattedTimestamp() + "] " + message;
+        }
+    }
+
+    private final Entry[] ring;
+    private int head;
+    private int size;
+    // Số thứ tự của dòng ở vị trí head; dòng thứ i có số thứ tự firstSeq + i
+    private long firstSeq;
+    private final LogSearchIndex index = new LogSearchIndex();
+    private final Object indexLock = new Object();
+
+    // Hàng chờ giữa các thread ghi log và EDT, cũng có giới hạn bằng dung lượng ring
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+
+    public LogConsoleModel(int capacity) {
+        this.ring = new Entry[capacity];
+        Timer flushTimer = new Timer(FLUSH_INTERVAL_MS, e -> flushPending());
+        flushTimer.start();
+    }
+
+    /** Thêm một dòng; gọi được từ mọi thread. */
+    public void add(Entry entry) {
+        synchronized (pending) {
+            if (pending.size() == ring.length) {
+                pending.pollFirst();
+            }
+            pending.addLast(entry);
+        }
+    }
+
+    /** Xóa toàn bộ log; chỉ gọi trên EDT. */
+    public void clear() {
+        synchronized (pending) {
+            pending.clear();
+        }
+        int removed = size;
+        synchronized (indexLock) {
+            firstSeq += size;
+            head = 0;
+            size = 0;
+            Arrays.fill(ring, null);
+            index.clear();
+        }
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+    }
+
+    /**
+     * Các dòng chứa mọi từ của {@code query} (so khớp theo tiền tố token, không phân biệt hoa
+     * thường), theo thứ tự thời gian. Gọi được từ thread nền.
+     *
+     * @return null nếu {@code cancelled} báo hủy trước khi xong
+     */
+    public List<Entry> search(String query, BooleanSupplier cancelled) {
+        synchronized (indexLock) {
+            BitSet matches = index.search(query, firstSeq, size, cancelled);
+            if (matches == null) {
+                return null;
+            }
+            List<Entry> entries = new ArrayList<>(matches.cardinality());
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                entries.add(getElementAt(i));
+            }
+            return entries;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Entry getElementAt(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    // Chạy trên EDT mỗi FLUSH_INTERVAL_MS
+    private void flushPending() {
+        Entry[] batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending.toArray(new Entry[0]);
+            pending.clear();
+        }
+
+        int capacity = ring.length;
+        int added = Math.min(batch.length, capacity);
+        int removed = Math.max(0, size + added - capacity);
+        synchronized (indexLock) {
+            for (int i = batch.length - added; i < batch.length; i++) {
+                if (size == capacity) {
+                    index.remove(firstSeq, ring[head].indexText());
+                    ring[head] = null;
+                    head = (head + 1) % capacity;
+                    firstSeq++;
+                    size--;
+                }
+                ring[(head + size) % capacity] = batch[i];
+                index.add(firstSeq + size, batch[i].indexText());
+                size++;
+            }
+        }
+
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+}
@@ -0,0 +1,141 @@
+package chatserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Chỉ mục ngược token → số thứ tự dòng log, dùng để lọc khung log theo từ khóa mà không
+ * phải quét và lower-case lại toàn bộ log mỗi lần gõ.
+ *
+ * Mỗi dòng có một số thứ tự tăng dần; dòng bị đẩy ra khỏi ring buffer luôn là dòng cũ
+ * nhất nên chỉ cần bỏ phần tử đầu của các danh sách posting. Token được sắp trong TreeMap
+ * để tìm theo tiền tố khi người dùng đang gõ dở. Lớp này không tự đồng bộ; xem
+ * {@link LogConsoleModel}.
+ */
+class LogSearchIndex {
+
+    /** Danh sách số thứ tự tăng dần của một token, thêm ở cuối và bỏ ở đầu. */
+    private static final class Postings {
+        private long[] values = new long[4];
+        private int head;
+        private int tail;
+
+        void addLast(long seq) {
+            // Một dòng có thể chứa một token nhiều lần, chỉ ghi một lần
+            if (tail > head && values[tail - 1] == seq) {
+                return;
+            }
+            if (tail == values.length) {
+                if (head > values.length / 2) {
+                    System.arraycopy(values, head, values, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                } else {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+            }
+            values[tail++] = seq;
+        }
+
+        void removeFirst(long seq) {
+            if (tail > head && values[head] == seq) {
+                head++;
+            }
+        }
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+    }
+
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+
+    void add(long seq, String text) {
+        for (String token : tokenize(text)) {
+            postings.computeIfAbsent(token, k -> new Postings()).addLast(seq);
+        }
+    }
+
+    /** Bỏ dòng cũ nhất; {@code text} phải là nội dung đã dùng khi {@link #add}. */
+    void remove(long seq, String text) {
+        for (String token : tokenize(text)) {
+            Postings list = postings.get(token);
+            if (list != null) {
+                list.removeFirst(seq);
+                if (list.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        postings.clear();
+    }
+
+    int tokenCount() {
+        return postings.size();
+    }
+
+    /**
+     * Tìm các dòng chứa mọi từ của truy vấn, mỗi từ khớp như tiền tố của một token.
+     *
+     * @param firstSeq số thứ tự của dòng cũ nhất còn giữ
+     * @param size số dòng đang giữ
+     * @return bit i bật nếu dòng {@code firstSeq + i} khớp, hoặc null nếu bị hủy giữa chừng
+     */
+    BitSet search(String query, long firstSeq, int size, BooleanSupplier cancelled) {
+        List<String> terms = tokenize(query);
+        BitSet result = new BitSet(size);
+        if (terms.isEmpty()) {
+            return result;
+        }
+        result.set(0, size);
+        for (String term : terms) {
+            BitSet termBits = new BitSet(size);
+            NavigableMap<String, Postings> matches = postings.subMap(term, true, term + Character.MAX_VALUE, false);
+            for (Map.Entry<String, Postings> match : matches.entrySet()) {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                Postings list = match.getValue();
+                for (int i = list.head; i < list.tail; i++) {
+                    long offset = list.values[i] - firstSeq;
+                    if (offset >= 0 && offset < size) {
+                        termBits.set((int) offset);
+                    }
+                }
+            }
+            result.and(termBits);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Tách thành các token chữ/số viết thường; dấu câu và khoảng trắng là dấu phân cách. */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,967 @@
+package chatserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Backend lưu trữ dạng append-only log, tối ưu cho ghi liên tục và đọc phần đuôi.
+ *
+ * Tin nhắn được ghi vào các segment "messages-&lt;baseId&gt;.seg", mỗi bản ghi có dạng
+ * [độ dài][crc32][nội dung]. Mỗi segment giữ một sparse index trong bộ nhớ (vị trí của
+ * mỗi bản ghi thứ {@value #INDEX_INTERVAL}), nên lấy tin nhắn mới nhất chỉ cần đọc ngược
+ * vài khối cuối thay vì quét cả log. Đọc tin nhắn dùng ảnh chụp danh sách segment và không giữ
+ * lock của store trong lúc đọc file, nên tìm kiếm và gửi lại tin nhắn không chặn ghi. Xóa dữ
+ * liệu theo port được ghi thành tombstone trong purges.log, segment cũ không bị ghi đè. Phiên
+ * đăng nhập và file nhỏ nên được giữ toàn bộ trong bộ nhớ và chỉ ghi log (sessions.log,
+ * files.log) để khôi phục khi khởi động.
+ */
+public class LogStructuredStore implements ChatStorage {
+    private static final Logger logger = Logger.getLogger(LogStructuredStore.class.getName());
+    // Tên backend trong các sự kiện JFR
+    private static final String BACKEND_NAME = "log";
+
+    static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final int INDEX_INTERVAL = 64;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "messages-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final byte SESSION_CONNECT = 'C';
+    private static final byte SESSION_DISCONNECT = 'D';
+    private static final byte SESSION_REGISTER = 'R';
+    private static final byte RECORD_FILE = 'F';
+    private static final byte RECORD_PURGE = 'P';
+
+    private final File dir;
+    private final long segmentBytes;
+    private final boolean fsync;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private FileChannel activeChannel;
+    private long nextMessageId;
+    private final Map<Integer, Integer> messageCounts = new HashMap<>();
+    private final Map<Integer, Long> purgedUpTo = new HashMap<>();
+    private RecordLog purgeLog;
+
+    private RecordLog sessionLog;
+    private final Map<String, UserState> users = new HashMap<>();
+    private final Map<Integer, PortSessions> portSessions = new HashMap<>();
+
+    private RecordLog fileLog;
+    private final List<FileEntry> files = new ArrayList<>();
+    private long nextFileId;
+
+    // Buffer dùng lại cho mỗi lần ghi, chỉ truy cập khi giữ lock của store
+    private final Scratch scratch = new Scratch();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private boolean open;
+
+    public LogStructuredStore(File dir, long segmentBytes, boolean fsync) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes > 0 ? segmentBytes : DEFAULT_SEGMENT_BYTES;
+        this.fsync = fsync;
+    }
+
+    @Override
+    public synchronized boolean connect() {
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Không thể tạo thư mục " + dir.getAbsolutePath());
+            }
+            segments.clear();
+            messageCounts.clear();
+            purgedUpTo.clear();
+            users.clear();
+            portSessions.clear();
+            files.clear();
+            nextFileId = 1;
+
+            purgeLog = new RecordLog(new File(dir, "purges.log"), fsync);
+            purgeLog.replay((offset, body, length) -> {
+                ByteBuffer buf = ByteBuffer.wrap(body, 0, length);
+                purgedUpTo.merge(buf.getInt(), buf.getLong(), Math::max);
+            });
+
+            loadSegments();
+
+            sessionLog = new RecordLog(new File(dir, "sessions.log"), fsync);
+            sessionLog.replay((offset, body, length) -> applySessionRecord(ByteBuffer.wrap(body, 0, length)));
+
+            fileLog = new RecordLog(new File(dir, "files.log"), fsync);
+            fileLog.replay((offset, body, length) -> applyFileRecord(ByteBuffer.wrap(body, 0, length)));
+
+            open = true;
+            logger.info("Đã mở log store tại " + dir.getAbsolutePath() + " (" + segments.size()
+                    + " segment, id kế tiếp " + nextMessageId + ")");
+            return true;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Không thể mở log store", ex);
+            closeQuietly();
+            return false;
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        File[] found = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        List<Segment> loaded = new ArrayList<>();
+        if (found != null) {
+            for (File file : found) {
+                String name = file.getName();
+                try {
+                    long baseId = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    loaded.add(new Segment(baseId, file));
+                } catch (NumberFormatException ex) {
+                    logger.warning("Bỏ qua file segment không hợp lệ: " + name);
+                }
+            }
+        }
+        loaded.sort((a, b) -> Long.compare(a.baseId, b.baseId));
+
+        long lastId = 0;
+        for (Segment segment : loaded) {
+            long validBytes = scanFrames(segment.file, (offset, body, length) -> {
+                ByteBuffer buf = ByteBuffer.wrap(body, 0, length);
+                long id = buf.getLong();
+                int port = buf.getInt();
+                segment.onAppend(offset, id, HEADER_BYTES + length);
+                if (id > purgedUpTo.getOrDefault(port, 0L)) {
+                    messageCounts.merge(port, 1, Integer::sum);
+                }
+            });
+            truncateTornTail(segment.file, validBytes);
+            segment.size = validBytes;
+            lastId = Math.max(lastId, segment.lastId);
+            segments.add(segment);
+        }
+
+        for (long purged : purgedUpTo.values()) {
+            lastId = Math.max(lastId, purged);
+        }
+        nextMessageId = lastId + 1;
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(nextMessageId, segmentFile(nextMessageId)));
+        }
+        activeChannel = openForAppend(activeSegment().file);
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (!open) {
+            return;
+        }
+        closeQuietly();
+        logger.info("Đã đóng log store");
+    }
+
+    private void closeQuietly() {
+        open = false;
+        try {
+            if (activeChannel != null) {
+                activeChannel.force(true);
+                activeChannel.close();
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Lỗi khi đóng segment", ex);
+        }
+        activeChannel = null;
+        for (RecordLog log : new RecordLog[]{purgeLog, sessionLog, fileLog}) {
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    // ===== Tin nhắn =====
+
+    @Override
+    public synchronized long saveMessageWithEncryption(String hostname, String ipAddress, String username,
+                                                       String originalMessage, String encryptedMessage, int port) {
+        if (!open) {
+            return -1;
+        }
+        String originalContent = originalMessage.contains(": ") ? originalMessage.split(": ", 2)[1] : originalMessage;
+        String encryptedContent = encryptedMessage.contains(": ") ? encryptedMessage.split(": ", 2)[1] : encryptedMessage;
+        long id = nextMessageId;
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
+
+        Segment segment = activeSegment();
+        try {
+            if (segment.size >= segmentBytes && segment.records > 0) {
+                segment = roll();
+            }
+
+            scratch.reset();
+            scratchOut.writeLong(id);
+            scratchOut.writeInt(port);
+            scratchOut.writeLong(System.currentTimeMillis());
+            writeString(scratchOut, hostname);
+            writeString(scratchOut, ipAddress);
+            writeString(scratchOut, username);
+            writeString(scratchOut, originalMessage);
+            writeString(scratchOut, originalContent);
+            writeString(scratchOut, encryptedContent);
+
+            long offset = segment.size;
+            writeFrame(activeChannel, scratch.buffer(), scratch.size(), fsync);
+            segment.onAppend(offset, id, HEADER_BYTES + scratch.size());
+            nextMessageId++;
+            messageCounts.merge(port, 1, Integer::sum);
+            success = true;
+            return id;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi ghi tin nhắn vào log", ex);
+            try {
+                // Bỏ phần bản ghi ghi dở để lần ghi sau không nằm sau dữ liệu hỏng
+                activeChannel.truncate(segment.size);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Không thể khôi phục segment sau lỗi ghi", e);
+            }
+            return -1;
+        } finally {
+            event.finish(BACKEND_NAME, "message", port, success);
+        }
+    }
+
+    private Segment roll() throws IOException {
+        activeChannel.force(true);
+        activeChannel.close();
+        Segment segment = new Segment(nextMessageId, segmentFile(nextMessageId));
+        segments.add(segment);
+        activeChannel = openForAppend(segment.file);
+        logger.fine("Tạo segment mới " + segment.file.getName());
+        return segment;
+    }
+
+    @Override
+    public List<ChatMessage> getRecentMessages(int port, int limit) {
+        List<ChatMessage> result = readNewest(messageView(port), null, 0, limit);
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public List<ChatMessage> getMessagePage(int port, String searchText, int offset, int limit) {
+        return readNewest(messageView(port), searchText == null ? null : searchText.toLowerCase(), offset, limit);
+    }
+
+    /**
+     * Ảnh chụp phần log của port để đọc mà không giữ lock của store, nên tìm kiếm hay gửi lại
+     * tin nhắn dài không chặn ghi. Segment đã đóng không thay đổi nữa nên được dùng chung;
+     * segment đang ghi được sao chép, bản ghi thêm vào sau lúc chụp không được đọc.
+     * Null nếu store chưa mở.
+     */
+    private synchronized MessageView messageView(int port) {
+        if (!open) {
+            return null;
+        }
+        List<Segment> view = new ArrayList<>(segments);
+        view.set(view.size() - 1, activeSegment().copy());
+        return new MessageView(view, messageCounts.getOrDefault(port, 0), purgedUpTo.getOrDefault(port, 0L), port);
+    }
+
+    // Đọc ngược từng block chỉ mục, mới nhất trước; bỏ qua skip tin khớp đầu tiên
+    private static List<ChatMessage> readNewest(MessageView view, String needle, int skip, int limit) {
+        int total = view == null ? 0 : view.count;
+        int wanted = needle == null ? Math.min(limit, total - skip) : Math.min(limit, total);
+        List<ChatMessage> result = new ArrayList<>(Math.max(wanted, 0));
+        if (wanted <= 0) {
+            return result;
+        }
+        List<ChatMessage> block = new ArrayList<>(INDEX_INTERVAL);
+
+        try {
+            for (int s = view.segments.size() - 1; s >= 0 && result.size() < wanted; s--) {
+                Segment segment = view.segments.get(s);
+                if (segment.records == 0) {
+                    continue;
+                }
+                if (segment.lastId <= view.purged) {
+                    // Mọi tin nhắn cũ hơn của port này đã bị xóa
+                    break;
+                }
+                try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+                    for (int b = segment.indexSize - 1; b >= 0 && result.size() < wanted; b--) {
+                        long start = segment.index[b];
+                        long end = b + 1 < segment.indexSize ? segment.index[b + 1] : segment.size;
+                        block.clear();
+                        decodeBlock(readRange(channel, start, end), view.port, view.purged, block);
+                        for (int i = block.size() - 1; i >= 0 && result.size() < wanted; i--) {
+                            ChatMessage msg = block.get(i);
+                            if (needle != null && !matches(msg, needle)) {
+                                continue;
+                            }
+                            if (skip > 0) {
+                                skip--;
+                                continue;
+                            }
+                            result.add(msg);
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi đọc tin nhắn gần đây từ log", ex);
+        }
+        return result;
+    }
+
+    /**
+     * Duyệt các tin nhắn của port có id lớn hơn {@code afterId}, cũ nhất trước, tới khi
+     * visitor trả về false.
+     */
+    private static void readFrom(MessageView view, long afterId, Predicate<ChatMessage> visitor) throws IOException {
+        if (view == null || view.count == 0) {
+            return;
+        }
+        long from = Math.max(afterId, view.purged);
+        List<ChatMessage> block = new ArrayList<>(INDEX_INTERVAL);
+        for (Segment segment : view.segments) {
+            if (segment.records == 0 || segment.lastId <= from) {
+                continue;
+            }
+            // Id trong một segment liên tiếp từ baseId, nên tính được block chứa from + 1
+            int first = (int) Math.max(0, Math.min(segment.indexSize - 1, (from + 1 - segment.baseId) / INDEX_INTERVAL));
+            try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+                for (int b = first; b < segment.indexSize; b++) {
+                    long start = segment.index[b];
+                    long end = b + 1 < segment.indexSize ? segment.index[b + 1] : segment.size;
+                    block.clear();
+                    decodeBlock(readRange(channel, start, end), view.port, from, block);
+                    for (ChatMessage msg : block) {
+                        if (!visitor.test(msg)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<ChatMessage> getMessagesAfter(int port, long afterId, int limit) {
+        List<ChatMessage> result = new ArrayList<>();
+        if (limit <= 0) {
+            return result;
+        }
+        try {
+            readFrom(messageView(port), afterId, msg -> {
+                result.add(msg);
+                return result.size() < limit;
+            });
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi đọc tin nhắn sau id " + afterId + " từ log", ex);
+        }
+        return result;
+    }
+
+    @Override
+    public List<ChatMessage> searchMessages(String searchText, int port) {
+        List<ChatMessage> result = new ArrayList<>();
+        String needle = searchText.toLowerCase();
+        try {
+            readFrom(messageView(port), 0, msg -> {
+                if (matches(msg, needle)) {
+                    result.add(msg);
+                }
+                return true;
+            });
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi tìm kiếm tin nhắn trong log", ex);
+        }
+        return result;
+    }
+
+    private static boolean matches(ChatMessage msg, String lowerNeedle) {
+        return containsIgnoreCase(msg.getMessage(), lowerNeedle)
+                || containsIgnoreCase(msg.getUsername(), lowerNeedle)
+                || containsIgnoreCase(msg.getOriginalMessage(), lowerNeedle);
+    }
+
+    private static boolean containsIgnoreCase(String value, String lowerNeedle) {
+        return value != null && value.toLowerCase().contains(lowerNeedle);
+    }
+
+    @Override
+    public synchronized int countMessages(int port) {
+        return messageCounts.getOrDefault(port, 0);
+    }
+
+    @Override
+    public int countMessages(int port, String searchText) {
+        if (searchText == null) {
+            return countMessages(port);
+        }
+        // Log không có chỉ mục nội dung, đếm bằng một lần quét không giữ kết quả
+        String needle = searchText.toLowerCase();
+        int[] count = new int[1];
+        try {
+            readFrom(messageView(port), 0, msg -> {
+                if (matches(msg, needle)) {
+                    count[0]++;
+                }
+                return true;
+            });
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi đếm tin nhắn trong log", ex);
+        }
+        return count[0];
+    }
+
+    @Override
+    public synchronized int deleteMessages(int port) {
+        if (!open) {
+            return 0;
+        }
+        Integer count = messageCounts.get(port);
+        if (count == null) {
+            return 0;
+        }
+        long upTo = nextMessageId - 1;
+        try {
+            scratch.reset();
+            scratchOut.writeInt(port);
+            scratchOut.writeLong(upTo);
+            purgeLog.append(scratch.buffer(), scratch.size());
+            purgedUpTo.put(port, upTo);
+            messageCounts.remove(port);
+            logger.info("Đã xóa " + count + " tin nhắn từ port " + port);
+            return count;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi xóa tin nhắn theo port", ex);
+            return 0;
+        }
+    }
+
+    private Segment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private File segmentFile(long baseId) {
+        return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, baseId, SEGMENT_SUFFIX));
+    }
+
+    private static void decodeBlock(ByteBuffer block, int port, long purged, List<ChatMessage> out) {
+        while (block.remaining() >= HEADER_BYTES) {
+            int length = block.getInt();
+            block.getInt(); // crc đã được kiểm tra khi mở segment
+            int next = block.position() + length;
+            ByteBuffer body = block.duplicate();
+            body.limit(next);
+            ChatMessage msg = decodeMessage(body, port, purged);
+            if (msg != null) {
+                out.add(msg);
+            }
+            block.position(next);
+        }
+    }
+
+    // Trả về null nếu bản ghi không thuộc port hoặc đã bị xóa, tránh giải mã chuỗi không cần thiết
+    private static ChatMessage decodeMessage(ByteBuffer body, int port, long purged) {
+        long id = body.getLong();
+        int recordPort = body.getInt();
+        if (recordPort != port || id <= purged) {
+            return null;
+        }
+        long timestamp = body.getLong();
+        readString(body); // hostname
+        readString(body); // ip
+        String username = readString(body);
+        String message = readString(body);
+        String original = readString(body);
+        String encrypted = readString(body);
+        return new ChatMessage(id, username, message, original, encrypted, timestamp);
+    }
+
+    // ===== Phiên đăng nhập =====
+
+    @Override
+    public synchronized void logConnection(String username, String ipAddress, boolean isConnecting, int port) {
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
+        try {
+            scratch.reset();
+            scratchOut.writeByte(isConnecting ? SESSION_CONNECT : SESSION_DISCONNECT);
+            writeString(scratchOut, username);
+            writeString(scratchOut, ipAddress);
+            scratchOut.writeInt(port);
+            scratchOut.writeLong(System.currentTimeMillis());
+            appendSessionRecord();
+            success = true;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi ghi log kết nối", ex);
+        } finally {
+            event.finish(BACKEND_NAME, "session", port, success);
+        }
+    }
+
+    @Override
+    public synchronized List<UserRecord> getActiveUsers(int port) {
+        List<UserRecord> result = new ArrayList<>();
+        PortSessions sessions = portSessions.get(port);
+        if (sessions == null) {
+            return result;
+        }
+        for (String username : sessions.usernames) {
+            UserState state = users.get(username);
+            if (state != null) {
+                result.add(new UserRecord(username, state.lastLogin, state.connectionCount));
+            }
+        }
+        result.sort((a, b) -> Long.compare(b.getLastLogin(), a.getLastLogin()));
+        return result;
+    }
+
+    @Override
+    public synchronized List<UserRecord> getActiveUsers(int port, int offset, int limit) {
+        List<UserRecord> all = getActiveUsers(port);
+        int from = Math.min(offset, all.size());
+        int to = limit < 0 ? all.size() : (int) Math.min((long) from + limit, all.size());
+        return new ArrayList<>(all.subList(from, to));
+    }
+
+    @Override
+    public synchronized int countUsers(int port) {
+        PortSessions sessions = portSessions.get(port);
+        return sessions == null ? 0 : sessions.usernames.size();
+    }
+
+    @Override
+    public synchronized int countConnectionEvents(int port, boolean connecting) {
+        PortSessions sessions = portSessions.get(port);
+        if (sessions == null) {
+            return 0;
+        }
+        return connecting ? sessions.connects : sessions.disconnects;
+    }
+
+    @Override
+    public synchronized boolean checkLogin(String username, String password) {
+        UserState state = users.get(username);
+        return state != null && state.password != null && state.password.equals(password);
+    }
+
+    @Override
+    public synchronized boolean registerUser(String username, String password) {
+        if (users.containsKey(username)) {
+            return false;
+        }
+        try {
+            scratch.reset();
+            scratchOut.writeByte(SESSION_REGISTER);
+            writeString(scratchOut, username);
+            writeString(scratchOut, password);
+            scratchOut.writeLong(System.currentTimeMillis());
+            appendSessionRecord();
+            return true;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi đăng ký người dùng", ex);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized int deleteSessions(int port) {
+        PortSessions sessions = portSessions.get(port);
+        if (sessions == null) {
+            return 0;
+        }
+        int deleted = sessions.connects + sessions.disconnects;
+        try {
+            scratch.reset();
+            scratchOut.writeByte(RECORD_PURGE);
+            scratchOut.writeInt(port);
+            appendSessionRecord();
+            logger.info("Đã xóa " + deleted + " log kết nối từ port " + port);
+            return deleted;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi xóa log kết nối theo port", ex);
+            return 0;
+        }
+    }
+
+    // Ghi bản ghi trong scratch rồi áp dụng chính bản ghi đó, giống hệt lúc replay
+    private void appendSessionRecord() throws IOException {
+        sessionLog.append(scratch.buffer(), scratch.size());
+        applySessionRecord(ByteBuffer.wrap(scratch.buffer(), 0, scratch.size()));
+    }
+
+    private void applySessionRecord(ByteBuffer buf) {
+        byte type = buf.get();
+        if (type == RECORD_PURGE) {
+            portSessions.remove(buf.getInt());
+            return;
+        }
+        String username = readString(buf);
+        if (type == SESSION_REGISTER) {
+            String password = readString(buf);
+            UserState state = new UserState();
+            state.password = password;
+            state.lastLogin = buf.getLong();
+            state.connectionCount = 1;
+            users.put(username, state);
+            return;
+        }
+
+        String ipAddress = readString(buf);
+        int port = buf.getInt();
+        long timestamp = buf.getLong();
+        PortSessions sessions = portSessions.computeIfAbsent(port, p -> new PortSessions());
+        sessions.usernames.add(username);
+        if (type == SESSION_CONNECT) {
+            sessions.connects++;
+            UserState state = users.get(username);
+            if (state == null) {
+                state = new UserState();
+                state.connectionCount = 1;
+                users.put(username, state);
+            } else {
+                state.connectionCount++;
+            }
+            state.ipAddress = ipAddress;
+            state.lastLogin = timestamp;
+        } else {
+            sessions.disconnects++;
+        }
+    }
+
+    // ===== File =====
+
+    @Override
+    public synchronized void saveFileInfo(String username, String fileName, String fileType, long fileSize,
+                                          String filePath, int port) {
+        boolean success = false;
+        DbInsertEvent event = new DbInsertEvent();
+        event.begin();
+        try {
+            scratch.reset();
+            scratchOut.writeByte(RECORD_FILE);
+            scratchOut.writeLong(nextFileId);
+            scratchOut.writeInt(port);
+            scratchOut.writeLong(System.currentTimeMillis());
+            writeString(scratchOut, username);
+            writeString(scratchOut, fileName);
+            writeString(scratchOut, fileType);
+            scratchOut.writeLong(fileSize);
+            writeString(scratchOut, filePath);
+            appendFileRecord();
+            success = true;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi lưu thông tin file", ex);
+        } finally {
+            event.finish(BACKEND_NAME, "file", port, success);
+        }
+    }
+
+    @Override
+    public synchronized List<FileRecord> getFiles(int port) {
+        List<FileRecord> result = new ArrayList<>();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            FileEntry entry = files.get(i);
+            if (entry.port == port) {
+                result.add(entry.record);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int deleteFiles(int port) {
+        int before = files.size();
+        try {
+            scratch.reset();
+            scratchOut.writeByte(RECORD_PURGE);
+            scratchOut.writeInt(port);
+            appendFileRecord();
+            int deleted = before - files.size();
+            logger.info("Đã xóa " + deleted + " thông tin file từ port " + port);
+            return deleted;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Lỗi khi xóa thông tin file theo port", ex);
+            return 0;
+        }
+    }
+
+    private void appendFileRecord() throws IOException {
+        fileLog.append(scratch.buffer(), scratch.size());
+        applyFileRecord(ByteBuffer.wrap(scratch.buffer(), 0, scratch.size()));
+    }
+
+    private void applyFileRecord(ByteBuffer buf) {
+        byte type = buf.get();
+        if (type == RECORD_PURGE) {
+            int port = buf.getInt();
+            files.removeIf(entry -> entry.port == port);
+            return;
+        }
+        long id = buf.getLong();
+        int port = buf.getInt();
+        long timestamp = buf.getLong();
+        String sender = readString(buf);
+        String fileName = readString(buf);
+        String fileType = readString(buf);
+        long fileSize = buf.getLong();
+        String filePath = readString(buf);
+        files.add(new FileEntry(port, new FileRecord(id, sender, fileName, fileType, fileSize, filePath, timestamp)));
+        nextFileId = Math.max(nextFileId, id + 1);
+    }
+
+    // ===== Định dạng bản ghi =====
+
+    private interface FrameVisitor {
+        void visit(long offset, byte[] body, int length) throws IOException;
+    }
+
+    /**
+     * Đọc tuần tự các bản ghi hợp lệ của file.
+     * @return số byte hợp lệ tính từ đầu file; phần sau đó là bản ghi ghi dở hoặc hỏng
+     */
+    private static long scanFrames(File file, FrameVisitor visitor) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long position = 0;
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[1024];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+                try {
+                    in.readFully(body, 0, length);
+                } catch (EOFException eof) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                visitor.visit(position, body, length);
+                position += HEADER_BYTES + length;
+            }
+        }
+        return position;
+    }
+
+    private static void truncateTornTail(File file, long validBytes) throws IOException {
+        if (file.exists() && file.length() > validBytes) {
+            logger.warning("Cắt bỏ " + (file.length() - validBytes) + " byte hỏng ở cuối " + file.getName());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+    }
+
+    private static void writeFrame(FileChannel channel, byte[] body, int length, boolean sync) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(length).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] frame = {header, ByteBuffer.wrap(body, 0, length)};
+        while (frame[1].hasRemaining()) {
+            channel.write(frame);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    private static FileChannel openForAppend(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static ByteBuffer readRange(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        long position = start;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Segment bị cắt ngắn");
+            }
+            position += read;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return value;
+    }
+
+    /** Một file log nhỏ, được đọc lại toàn bộ khi khởi động. */
+    private static final class RecordLog {
+        private final File file;
+        private final boolean sync;
+        private FileChannel channel;
+
+        RecordLog(File file, boolean sync) {
+            this.file = file;
+            this.sync = sync;
+        }
+
+        void replay(FrameVisitor visitor) throws IOException {
+            truncateTornTail(file, scanFrames(file, visitor));
+            channel = openForAppend(file);
+        }
+
+        void append(byte[] body, int length) throws IOException {
+            writeFrame(channel, body, length, sync);
+        }
+
+        void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Lỗi khi đóng " + file.getName(), ex);
+            }
+            channel = null;
+        }
+    }
+
+    private static final class Segment {
+        final long baseId;
+        final File file;
+        long size;
+        long lastId;
+        int records;
+        // Vị trí của các bản ghi thứ 0, INDEX_INTERVAL, 2*INDEX_INTERVAL...
+        long[] index = new long[16];
+        int indexSize;
+
+        Segment(long baseId, File file) {
+            this.baseId = baseId;
+            this.file = file;
+        }
+
+        /**
+         * Bản sao để đọc ngoài lock. Mảng index được dùng chung: phần tử trước indexSize không
+         * bao giờ bị ghi lại, mảng lớn hơn là mảng mới.
+         */
+        Segment copy() {
+            Segment copy = new Segment(baseId, file);
+            copy.size = size;
+            copy.lastId = lastId;
+            copy.records = records;
+            copy.index = index;
+            copy.indexSize = indexSize;
+            return copy;
+        }
+
+        void onAppend(long offset, long id, int frameBytes) {
+            if (records % INDEX_INTERVAL == 0) {
+                if (indexSize == index.length) {
+                    index = Arrays.copyOf(index, indexSize * 2);
+                }
+                index[indexSize++] = offset;
+            }
+            records++;
+            lastId = id;
+            size = offset + frameBytes;
+        }
+    }
+
+    private static final class MessageView {
+        final List<Segment> segments;
+        final int count;
+        final long purged;
+        final int port;
+
+        MessageView(List<Segment> segments, int count, long purged, int port) {
+            this.segments = segments;
+            this.count = count;
+            this.purged = purged;
+            this.port = port;
+        }
+    }
+
+    private static final class UserState {
+        String password;
+        String ipAddress;
+        long lastLogin;
+        int connectionCount;
+    }
+
+    private static final class PortSessions {
+        final Set<String> usernames = new LinkedHashSet<>();
+        int connects;
+        int disconnects;
+    }
+
+    private static final class FileEntry {
+        final int port;
+        final FileRecord record;
+
+        FileEntry(int port, FileRecord record) {
+            this.port = port;
+            this.record = record;
+        }
+    }
+
+    private static final class Scratch extends ByteArrayOutputStream {
+        Scratch() {
+            super(512);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package chatserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sự kiện JFR cho mỗi lệnh client gửi lên; thời lượng là thời gian xử lý lệnh trong
+ * {@link ClientHandler#run()}.
+ */
+@Name("chatserver.MessageReceived")
+@Label("Message Received")
+@Category("Chat Server")
+@Description("Một dòng giao thức nhận từ client và thời gian xử lý")
+@StackTrace(false)
+class MessageReceivedEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+
+    @Label("User")
+    String username;
+
+    @Label("Length")
+    @Description("Số ký tự của dòng")
+    int length;
+}
@@ -0,0 +1,42 @@
+package chatserver;
+
+import java.util.List;
+
+/**
+ * Lưu trữ tin nhắn chat theo từng port.
+ * Các danh sách trả về luôn theo thứ tự thời gian (cũ -> mới).
+ */
+public interface MessageStore {
+
+    /**
+     * Lưu tin nhắn dạng "username: nội dung" cùng bản mã hóa.
+     * @return id của tin nhắn vừa lưu, hoặc -1 nếu lỗi
+     */
+    long saveMessageWithEncryption(String hostname, String ipAddress, String username,
+                                   String originalMessage, String encryptedMessage, int port);
+
+    /** Lấy tối đa {@code limit} tin nhắn mới nhất của port. */
+    List<ChatMessage> getRecentMessages(int port, int limit);
+
+    /**
+     * Tối đa {@code limit} tin nhắn có id lớn hơn {@code afterId}, cũ nhất trước. Dùng để gửi
+     * lại đúng những tin nhắn client bỏ lỡ khi kết nối lại.
+     */
+    List<ChatMessage> getMessagesAfter(int port, long afterId, int limit);
+
+    /** Tìm theo nội dung hoặc tên người gửi (không phân biệt hoa thường). */
+    List<ChatMessage> searchMessages(String searchText, int port);
+
+    /**
+     * Một trang tin nhắn, mới nhất trước, dùng cho bảng phân trang.
+     * @param searchText null để lấy mọi tin nhắn, ngược lại lọc như {@link #searchMessages}
+     */
+    List<ChatMessage> getMessagePage(int port, String searchText, int offset, int limit);
+
+    int countMessages(int port);
+
+    /** Số tin nhắn khớp {@code searchText}; null thì bằng {@link #countMessages(int)}. */
+    int countMessages(int port, String searchText);
+
+    int deleteMessages(int port);
+}
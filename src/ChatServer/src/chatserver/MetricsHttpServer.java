@@ -0,0 +1,199 @@
+package chatserver;
+
+import chatcommon.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Endpoint HTTP tùy chọn trả về số liệu của server ở định dạng văn bản của Prometheus,
+ * để giám sát server chạy không có giao diện. Bật bằng {@code metrics.http.enabled=true};
+ * mặc định chỉ nghe trên 127.0.0.1, thử bằng {@code curl http://127.0.0.1:9464/metrics}.
+ *
+ * Mọi series của chat có thêm nhãn port, nên nhiều server trên cùng máy phân biệt được.
+ */
+public class MetricsHttpServer {
+    private static final Logger logger = Logger.getLogger(MetricsHttpServer.class.getName());
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // Bucket xuất ra từ 2^10 ns (~1 µs) đến 2^36 ns (~69 s); ngoài khoảng này gộp vào hai đầu
+    private static final int FIRST_BUCKET = 10;
+    private static final int LAST_BUCKET = 36;
+
+    private final ChatServer server;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    private MetricsHttpServer(ChatServer server, HttpServer httpServer) {
+        this.server = server;
+        this.httpServer = httpServer;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.createContext("/metrics", this::handle);
+        httpServer.setExecutor(executor);
+    }
+
+    /**
+     * Khởi động endpoint nếu cấu hình cho phép.
+     * @return null nếu không bật hoặc không mở được cổng
+     */
+    public static MetricsHttpServer start(ChatServer server, ServerConfig config) {
+        if (!config.getBoolean("metrics.http.enabled", false)) {
+            return null;
+        }
+        String host = config.get("metrics.http.host", "127.0.0.1");
+        int port = config.getInt("metrics.http.port", 9464);
+        try {
+            MetricsHttpServer metricsServer = new MetricsHttpServer(server,
+                    HttpServer.create(new InetSocketAddress(host, port), 0));
+            metricsServer.httpServer.start();
+            logger.info("Metrics endpoint: http://" + host + ":" + port + "/metrics");
+            return metricsServer;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Không thể mở metrics endpoint trên " + host + ":" + port, ex);
+            return null;
+        }
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Lỗi khi xuất metrics", ex);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String render() {
+        StringBuilder sb = new StringBuilder(8192);
+        String portLabel = "port=\"" + server.getServerPort() + "\"";
+        Set<String> described = new HashSet<>();
+
+        server.getMetrics().visit(new ServerMetrics.Visitor() {
+            @Override
+            public void counter(String name, String help, long value) {
+                header(sb, described, name, help, "counter");
+                sample(sb, name, portLabel, value);
+            }
+
+            @Override
+            public void gauge(String name, String help, long value) {
+                header(sb, described, name, help, "gauge");
+                sample(sb, name, portLabel, value);
+            }
+
+            @Override
+            public void histogram(String name, String help, String labels, LatencyHistogram histogram) {
+                header(sb, described, name, help, "histogram");
+                String base = labels == null ? portLabel : portLabel + "," + labels;
+                long[] counts = histogram.bucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    if (i >= FIRST_BUCKET && i <= LAST_BUCKET) {
+                        String le = formatDouble(LatencyHistogram.upperBound(i) / 1e9);
+                        sample(sb, name + "_bucket", base + ",le=\"" + le + "\"", cumulative);
+                    }
+                }
+                sample(sb, name + "_bucket", base + ",le=\"+Inf\"", cumulative);
+                sb.append(name).append("_sum{").append(base).append("} ")
+                        .append(formatDouble(histogram.getSumNanos() / 1e9)).append('\n');
+                sample(sb, name + "_count", base, cumulative);
+            }
+        });
+
+        // Số liệu đã lưu; chỉ truy vấn khi kho lưu trữ còn mở
+        if (server.isRunning()) {
+            int port = server.getServerPort();
+            header(sb, described, "chat_stored_messages", "Số tin nhắn đã lưu trên port", "gauge");
+            sample(sb, "chat_stored_messages", portLabel, server.getStorage().countMessages(port));
+            header(sb, described, "chat_stored_users", "Số người dùng đã từng kết nối port", "gauge");
+            sample(sb, "chat_stored_users", portLabel, server.getStorage().countUsers(port));
+        }
+
+        renderJvm(sb, described);
+        return sb.toString();
+    }
+
+    private static void renderJvm(StringBuilder sb, Set<String> described) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(sb, described, "jvm_memory_heap_bytes", "Bộ nhớ heap của JVM", "gauge");
+        sample(sb, "jvm_memory_heap_bytes", "area=\"used\"", heap.getUsed());
+        sample(sb, "jvm_memory_heap_bytes", "area=\"committed\"", heap.getCommitted());
+        sample(sb, "jvm_memory_heap_bytes", "area=\"max\"", heap.getMax());
+
+        header(sb, described, "jvm_threads", "Số thread đang chạy", "gauge");
+        sample(sb, "jvm_threads", null, ManagementFactory.getThreadMXBean().getThreadCount());
+
+        header(sb, described, "jvm_uptime_seconds", "Thời gian JVM đã chạy", "gauge");
+        sb.append("jvm_uptime_seconds ")
+                .append(formatDouble(ManagementFactory.getRuntimeMXBean().getUptime() / 1e3)).append('\n');
+
+        header(sb, described, "jvm_gc_collections_total", "Số lần GC theo collector", "counter");
+        header(sb, described, "jvm_gc_collection_seconds_total", "Tổng thời gian GC theo collector", "counter");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String label = "gc=\"" + escape(gc.getName()) + "\"";
+            sample(sb, "jvm_gc_collections_total", label, Math.max(0, gc.getCollectionCount()));
+            sb.append("jvm_gc_collection_seconds_total{").append(label).append("} ")
+                    .append(formatDouble(Math.max(0, gc.getCollectionTime()) / 1e3)).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder sb, Set<String> described, String name, String help, String type) {
+        // Histogram theo lệnh dùng chung một tên, chỉ ghi HELP/TYPE một lần
+        if (described.add(name)) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String formatDouble(double value) {
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
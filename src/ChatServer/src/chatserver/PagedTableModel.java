@@ -0,0 +1,152 @@
+package chatserver;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model chỉ tải những trang đang được JTable vẽ. Số dòng và từng trang được đọc từ
+ * kho lưu trữ trên một thread nền; ô thuộc trang chưa tải hiện tạm {@link #LOADING} và được
+ * vẽ lại khi trang về. Chỉ giữ {@link #MAX_CACHED_PAGES} trang gần nhất trong bộ nhớ.
+ *
+ * Mọi trạng thái chỉ được đọc và sửa trên EDT.
+ */
+abstract class PagedTableModel<T> extends AbstractTableModel {
+    private static final Logger logger = Logger.getLogger(PagedTableModel.class.getName());
+    static final String LOADING = "…";
+    private static final int MAX_CACHED_PAGES = 32;
+
+    // Một thread dùng chung: các kho lưu trữ đều tuần tự hóa truy cập nên nhiều thread không nhanh hơn
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "table-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String[] columns;
+    private final int pageSize;
+    private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    // Tăng mỗi lần refresh để bỏ kết quả của các lần tải cũ còn đang chạy
+    private volatile int generation;
+
+    PagedTableModel(String[] columns, int pageSize) {
+        this.columns = columns;
+        this.pageSize = pageSize;
+    }
+
+    /** Đếm tổng số dòng; chạy trên thread nền. */
+    protected abstract int count();
+
+    /** Đọc một trang; chạy trên thread nền. */
+    protected abstract List<T> fetch(int offset, int limit);
+
+    protected abstract Object valueAt(T item, int row, int column);
+
+    /**
+     * Bỏ dữ liệu đã tải và đếm lại số dòng.
+     * @param onCount gọi trên EDT với số dòng mới, có thể null
+     */
+    void refresh(IntConsumer onCount) {
+        int current = ++generation;
+        pages.clear();
+        loading.clear();
+        rowCount = 0;
+        fireTableDataChanged();
+
+        LOADER.execute(() -> {
+            int total = count();
+            SwingUtilities.invokeLater(() -> {
+                if (current != generation) {
+                    return;
+                }
+                rowCount = total;
+                fireTableDataChanged();
+                if (onCount != null) {
+                    onCount.accept(total);
+                }
+            });
+        });
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int page = row / pageSize;
+        List<T> items = pages.get(page);
+        if (items == null) {
+            requestPage(page);
+            return column == 0 ? row + 1 : LOADING;
+        }
+        int offset = row % pageSize;
+        // Dữ liệu có thể ít đi giữa lúc đếm và lúc đọc trang
+        return offset < items.size() ? valueAt(items.get(offset), row, column) : "";
+    }
+
+    private void requestPage(int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int current = generation;
+        LOADER.execute(() -> {
+            if (current != generation) {
+                // Đã refresh trong lúc chờ, không cần đọc nữa
+                return;
+            }
+            List<T> items;
+            try {
+                items = fetch(page * pageSize, pageSize);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Lỗi khi tải trang " + page, ex);
+                SwingUtilities.invokeLater(() -> loading.remove(page));
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (current != generation) {
+                    return;
+                }
+                loading.remove(page);
+                pages.put(page, items);
+                int first = page * pageSize;
+                int last = Math.min(first + pageSize, rowCount) - 1;
+                if (last >= first) {
+                    fireTableRowsUpdated(first, last);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,146 @@
+package chatserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Danh sách người dùng online có đánh số phiên bản, để client chỉ nhận phần thay đổi.
+ *
+ * Thay đổi được giữ lại tới khi {@link #flush()}: người dùng rời đi rồi vào lại trước đó thì
+ * không sinh ra gì. Mỗi lần flush có thay đổi tăng phiên bản một và tạo một dòng
+ * PRESENCE_DELTA:epoch:từ:đến:+a,-b. Các delta gần đây được giữ lại để client kết nối lại chỉ
+ * nhận phần còn thiếu; client có phiên bản quá cũ hoặc của lần chạy server khác (epoch khác)
+ * nhận PRESENCE_SNAPSHOT:epoch:phiên bản:a,b,c.
+ *
+ * Không thread-safe: {@link ChatServer} chỉ dùng trong khóa {@code clients}, để thứ tự client
+ * nhận snapshot và delta khớp với phiên bản.
+ */
+final class PresenceTracker {
+    static final String DELTA_PREFIX = "PRESENCE_DELTA:";
+    static final String SNAPSHOT_PREFIX = "PRESENCE_SNAPSHOT:";
+
+    /** Kết quả một lần flush: dòng gửi cho client hỗ trợ delta và danh sách cho client cũ. */
+    static final class Delta {
+        final String line;
+        final List<String> joined;
+        final List<String> left;
+
+        Delta(String line, List<String> joined, List<String> left) {
+            this.line = line;
+            this.joined = joined;
+            this.left = left;
+        }
+    }
+
+    private final String epoch;
+    private final int maxLog;
+    private long version;
+    // Danh sách ứng với version, theo thứ tự vào phòng
+    private final Set<String> published = new LinkedHashSet<>();
+    // Thay đổi chưa flush so với published: true = online
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    // Các delta gần nhất, cũ trước; phần tử thứ i đưa phiên bản logStart + i lên logStart + i + 1
+    private final ArrayDeque<String> log = new ArrayDeque<>();
+    private long logStart;
+
+    PresenceTracker(String epoch, int maxLog) {
+        this.epoch = epoch;
+        this.maxLog = maxLog;
+    }
+
+    /** Ghi nhận người dùng vào hoặc rời phòng; có hiệu lực ở lần flush sau. */
+    void set(String user, boolean online) {
+        if (published.contains(user) == online) {
+            pending.remove(user);
+        } else {
+            pending.put(user, online);
+        }
+    }
+
+    /** Áp các thay đổi đang chờ thành một phiên bản mới; null nếu không có gì thay đổi. */
+    Delta flush() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        StringBuilder line = new StringBuilder(DELTA_PREFIX).append(epoch).append(':')
+                .append(version).append(':').append(version + 1).append(':');
+        for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+            String user = change.getKey();
+            if (change.getValue()) {
+                published.add(user);
+                joined.add(user);
+                line.append('+');
+            } else {
+                published.remove(user);
+                left.add(user);
+                line.append('-');
+            }
+            line.append(user).append(',');
+        }
+        pending.clear();
+        line.setLength(line.length() - 1);
+
+        version++;
+        String deltaLine = line.toString();
+        log.addLast(deltaLine);
+        if (log.size() > maxLog) {
+            log.removeFirst();
+            logStart++;
+        }
+        return new Delta(deltaLine, joined, left);
+    }
+
+    /**
+     * Các dòng đưa client đang ở phiên bản {@code clientVersion} của {@code clientEpoch} lên
+     * phiên bản hiện tại: không gì nếu đã mới nhất, các delta còn thiếu nếu còn giữ và không
+     * dài hơn snapshot, ngược lại là một snapshot.
+     */
+    List<String> sync(String clientEpoch, long clientVersion) {
+        if (epoch.equals(clientEpoch) && clientVersion == version) {
+            return Collections.emptyList();
+        }
+        String snapshot = snapshot();
+        if (!epoch.equals(clientEpoch) || clientVersion < logStart || clientVersion > version) {
+            return Collections.singletonList(snapshot);
+        }
+        List<String> lines = new ArrayList<>();
+        long length = 0;
+        Iterator<String> it = log.iterator();
+        for (long v = logStart; it.hasNext(); v++) {
+            String line = it.next();
+            if (v >= clientVersion) {
+                lines.add(line);
+                length += line.length();
+            }
+        }
+        return length <= snapshot.length() ? lines : Collections.singletonList(snapshot);
+    }
+
+    String snapshot() {
+        StringBuilder line = new StringBuilder(SNAPSHOT_PREFIX).append(epoch).append(':').append(version).append(':');
+        line.append(String.join(",", published));
+        return line.toString();
+    }
+
+    /** Người dùng đang online, kể cả thay đổi chưa flush. */
+    List<String> users() {
+        List<String> users = new ArrayList<>(published);
+        for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+            if (change.getValue()) {
+                users.add(change.getKey());
+            } else {
+                users.remove(change.getKey());
+            }
+        }
+        return users;
+    }
+}
@@ -0,0 +1,124 @@
+package chatserver;
+
+import chatcommon.ImageThumbnails;
+import chatcommon.StructuredLog;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ảnh xem trước của các file ảnh đã nhận, để client vẽ phần xem trước mà không phải tải cả
+ * file gốc. Ảnh được tạo một lần trên một thread riêng ngay khi nhận xong file và lưu trong
+ * thư mục .previews cạnh các file; file nhận trước đó được tạo khi có người xin lần đầu.
+ *
+ * Video và âm thanh không có ảnh xem trước: JDK không có bộ giải mã để lấy khung hình.
+ */
+final class PreviewStore {
+    static final int MAX_WIDTH = 320;
+    static final int MAX_HEIGHT = 220;
+    private static final Logger logger = Logger.getLogger(PreviewStore.class.getName());
+
+    private final File filesDir;
+    private final File dir;
+    private final Map<String, CompletableFuture<File>> pending = new ConcurrentHashMap<>();
+    // File không tạo được ảnh xem trước (không phải ảnh, định dạng không hỗ trợ), không thử lại
+    private final Set<String> unavailable = ConcurrentHashMap.newKeySet();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chatserver-previews");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    PreviewStore(File filesDir) {
+        this.filesDir = filesDir;
+        this.dir = new File(filesDir, ".previews");
+    }
+
+    /** Bắt đầu tạo ảnh xem trước cho file vừa nhận nếu là ảnh; không chờ. */
+    void generate(String fileName, String fileType) {
+        if ("image".equals(fileType)) {
+            submit(fileName);
+        }
+    }
+
+    /**
+     * Ảnh xem trước của {@code fileName}, chờ nếu đang tạo. Null nếu file không có hoặc không
+     * tạo được ảnh xem trước.
+     */
+    File get(String fileName) {
+        String name = new File(fileName).getName();
+        File preview = previewFile(name);
+        if (preview.isFile()) {
+            return preview;
+        }
+        if (unavailable.contains(name)) {
+            return null;
+        }
+        try {
+            return submit(name).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Lỗi khi tạo ảnh xem trước cho " + name, e.getCause());
+            return null;
+        }
+    }
+
+    private CompletableFuture<File> submit(String name) {
+        CompletableFuture<File> future = pending.computeIfAbsent(name,
+                k -> CompletableFuture.supplyAsync(() -> create(k), worker));
+        future.whenComplete((file, error) -> pending.remove(name, future));
+        return future;
+    }
+
+    private File create(String name) {
+        File preview = previewFile(name);
+        File source = new File(filesDir, name);
+        if (preview.isFile() || !source.isFile()) {
+            return preview.isFile() ? preview : null;
+        }
+        long start = System.nanoTime();
+        BufferedImage image;
+        try {
+            image = ImageThumbnails.read(source, MAX_WIDTH, MAX_HEIGHT);
+        } catch (IOException | RuntimeException e) {
+            unavailable.add(name);
+            logger.log(Level.FINE, "Không tạo được ảnh xem trước cho " + name, e);
+            return null;
+        }
+        // Ghi ra file tạm rồi đổi tên để client khác không nhận phải file ghi dở
+        File tmp = null;
+        try {
+            Files.createDirectories(dir.toPath());
+            tmp = File.createTempFile("preview", ".tmp", dir);
+            ImageThumbnails.write(image, tmp);
+            Files.move(tmp.toPath(), preview.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Không lưu được ảnh xem trước cho " + name, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return null;
+        }
+        StructuredLog.fine(logger, "preview created", "file", name, "bytes", preview.length(),
+                "source", source.length(), "ms", (System.nanoTime() - start) / 1_000_000);
+        return preview;
+    }
+
+    private File previewFile(String name) {
+        return new File(dir, name + ".thumb");
+    }
+}
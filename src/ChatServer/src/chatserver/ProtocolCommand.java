@@ -0,0 +1,49 @@
+package chatserver;
+
+/**
+ * Các lệnh client gửi lên sau khi đăng nhập, dùng để phân nhánh trong
+ * {@link ClientHandler#run()} và để đo thời gian xử lý theo từng lệnh.
+ */
+enum ProtocolCommand {
+    LOGOUT("LOGOUT", true),
+    REQUEST_CHAT_HISTORY("REQUEST_CHAT_HISTORY", true),
+    GET_ONLINE_USERS("GET_ONLINE_USERS", true),
+    PRESENCE_SYNC("PRESENCE_SYNC:", false),
+    FORCE_LOGIN("FORCE_LOGIN", true),
+    FILE_HEADER("FILE_HEADER:", false),
+    UPLOAD_START("UPLOAD_START:", false),
+    FILE_CHUNK("FILE_CHUNK:", false),
+    REQUEST_FILE("REQUEST_FILE:", false),
+    REQUEST_PREVIEW("REQUEST_PREVIEW:", false),
+    READY_TO_RECEIVE("READY_TO_RECEIVE:", false),
+    FILE_RECEIVED("FILE_RECEIVED:", false),
+    ACCEPT_FILE("ACCEPT_FILE:", false),
+    MSG("MSG:", false),
+    // Client cũ gửi tin nhắn chat không có tiền tố MSG:
+    LEGACY_CHAT(null, false);
+
+    private static final ProtocolCommand[] VALUES = values();
+
+    private final String token;
+    private final boolean exact;
+
+    ProtocolCommand(String token, boolean exact) {
+        this.token = token;
+        this.exact = exact;
+    }
+
+    /** Phần tham số sau tiền tố của lệnh. */
+    String argument(String line) {
+        return token == null ? line : line.substring(token.length());
+    }
+
+    static ProtocolCommand of(String line) {
+        for (ProtocolCommand command : VALUES) {
+            if (command.token != null
+                    && (command.exact ? line.equals(command.token) : line.startsWith(command.token))) {
+                return command;
+            }
+        }
+        return LEGACY_CHAT;
+    }
+}
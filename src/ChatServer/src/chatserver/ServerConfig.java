@@ -0,0 +1,68 @@
+package chatserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cấu hình server đọc từ file server.properties trong thư mục làm việc.
+ * Mỗi khóa có thể ghi đè bằng system property "chatserver.&lt;khóa&gt;".
+ */
+public class ServerConfig {
+    private static final Logger logger = Logger.getLogger(ServerConfig.class.getName());
+    private static final String CONFIG_FILE = "server.properties";
+    private static final String OVERRIDE_PREFIX = "chatserver.";
+
+    private final Properties properties;
+
+    public ServerConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static ServerConfig load() {
+        Properties props = new Properties();
+        File file = new File(CONFIG_FILE);
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Không thể đọc " + CONFIG_FILE + ", dùng cấu hình mặc định", ex);
+            }
+        }
+        return new ServerConfig(props);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = System.getProperty(OVERRIDE_PREFIX + key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            logger.warning("Giá trị không hợp lệ cho " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,148 @@
+package chatserver;
+
+import chatcommon.LatencyHistogram;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Số liệu vận hành của server: counter, gauge và histogram độ trễ.
+ *
+ * Counter là {@link LongAdder} (chia cell theo thread) và histogram là
+ * {@link LatencyHistogram}, nên các điểm đo trên đường nóng không khóa và không cấp
+ * phát, có thể bật thường trực. Gauge chỉ được tính khi đọc. Metric được đăng ký lúc
+ * khởi tạo; đọc bằng {@link #visit(Visitor)} hoặc {@link #summary()}.
+ */
+public final class ServerMetrics {
+
+    /** Duyệt toàn bộ metric theo thứ tự đăng ký. */
+    public interface Visitor {
+        void counter(String name, String help, long value);
+
+        void gauge(String name, String help, long value);
+
+        /** @param labels dạng {@code key="value"}, hoặc null nếu không có */
+        void histogram(String name, String help, String labels, LatencyHistogram histogram);
+    }
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    final LongAdder connectionsAccepted = counter("chat_connections_accepted_total", "Số kết nối đã chấp nhận");
+    final LongAdder messagesIn = counter("chat_messages_in_total", "Số dòng giao thức nhận từ client");
+    final LongAdder messagesOut = counter("chat_messages_out_total", "Số dòng giao thức gửi cho client");
+    final LongAdder bytesIn = counter("chat_bytes_in_total", "Số byte đọc từ socket");
+    final LongAdder bytesOut = counter("chat_bytes_out_total", "Số byte ghi ra socket");
+    final LongAdder codecErrors = counter("chat_codec_errors_total", "Số tin nhắn không giải mã được");
+    final LongAdder broadcastRecipients = counter("chat_broadcast_recipients_total", "Tổng số người nhận của các lần broadcast");
+    final LongAdder fileBytesReceived = counter("chat_file_bytes_received_total", "Số byte file gốc nhận từ client");
+    final LongAdder fileBytesSent = counter("chat_file_bytes_sent_total", "Số byte file gốc gửi cho client");
+    final LongAdder previewBytesSent = counter("chat_preview_bytes_sent_total", "Số byte ảnh xem trước gửi cho client");
+    final LongAdder presenceBytes = counter("chat_presence_bytes_total", "Số byte dòng danh sách người dùng gửi cho client");
+    final LongAdder presenceSnapshots = counter("chat_presence_snapshots_total", "Số lần gửi cả danh sách người dùng");
+
+    final LatencyHistogram broadcastLatency = histogram("chat_broadcast_seconds", "Thời gian gửi một tin cho mọi người nhận", null);
+    final LatencyHistogram dbWriteLatency = histogram("chat_db_write_seconds", "Thời gian ghi vào kho lưu trữ", null);
+    final LatencyHistogram fileTransferLatency = histogram("chat_file_transfer_seconds", "Thời gian truyền một file", null);
+
+    private final Map<ProtocolCommand, LatencyHistogram> commandLatency = new EnumMap<>(ProtocolCommand.class);
+
+    public ServerMetrics() {
+        for (ProtocolCommand command : ProtocolCommand.values()) {
+            commandLatency.put(command, histogram("chat_command_seconds", "Thời gian xử lý một lệnh của client",
+                    "command=\"" + command.name() + "\""));
+        }
+    }
+
+    /** Histogram thời gian xử lý của một lệnh trong {@link ClientHandler#run()}. */
+    LatencyHistogram commandLatency(ProtocolCommand command) {
+        return commandLatency.get(command);
+    }
+
+    public LongAdder counter(String name, String help) {
+        LongAdder counter = new LongAdder();
+        metrics.add(new Metric(name, help, null, counter, null, null, false));
+        return counter;
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, help, null, null, value, null, false));
+    }
+
+    /** Counter do nơi khác đếm, ví dụ số bản ghi log bị bỏ; chỉ đọc khi xuất như gauge. */
+    public void counter(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, help, null, null, value, null, true));
+    }
+
+    public LatencyHistogram histogram(String name, String help, String labels) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        metrics.add(new Metric(name, help, labels, null, null, histogram, false));
+        return histogram;
+    }
+
+    public void visit(Visitor visitor) {
+        for (Metric metric : metrics) {
+            if (metric.counter != null) {
+                visitor.counter(metric.name, metric.help, metric.counter.sum());
+            } else if (metric.gauge != null && metric.cumulative) {
+                visitor.counter(metric.name, metric.help, metric.gauge.getAsLong());
+            } else if (metric.gauge != null) {
+                visitor.gauge(metric.name, metric.help, metric.gauge.getAsLong());
+            } else {
+                visitor.histogram(metric.name, metric.help, metric.labels, metric.histogram);
+            }
+        }
+    }
+
+    /** Bảng tóm tắt nhiều dòng để ghi log; bỏ qua histogram chưa có dữ liệu. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        visit(new Visitor() {
+            @Override
+            public void counter(String name, String help, long value) {
+                sb.append(name).append(' ').append(value).append('\n');
+            }
+
+            @Override
+            public void gauge(String name, String help, long value) {
+                sb.append(name).append(' ').append(value).append('\n');
+            }
+
+            @Override
+            public void histogram(String name, String help, String labels, LatencyHistogram histogram) {
+                if (histogram.getCount() > 0) {
+                    sb.append(name);
+                    if (labels != null) {
+                        sb.append('{').append(labels).append('}');
+                    }
+                    sb.append(' ').append(histogram.summary()).append('\n');
+                }
+            }
+        });
+        return sb.toString();
+    }
+
+    private static final class Metric {
+        final String name;
+        final String help;
+        final String labels;
+        final LongAdder counter;
+        final LongSupplier gauge;
+        final LatencyHistogram histogram;
+        // Giá trị của gauge chỉ tăng, xuất như counter
+        final boolean cumulative;
+
+        Metric(String name, String help, String labels, LongAdder counter, LongSupplier gauge,
+                LatencyHistogram histogram, boolean cumulative) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.counter = counter;
+            this.gauge = gauge;
+            this.histogram = histogram;
+            this.cumulative = cumulative;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package chatserver;
+
+/**
+ * Nơi server báo trạng thái để hiển thị. {@link ChatServerGUI} là implementation chính;
+ * benchmark và các bản chạy không giao diện có thể truyền implementation rỗng.
+ */
+public interface ServerView {
+
+    void logMessage(String message);
+
+    void logCompareMessage(String username, String encryptedContent, String originalContent);
+
+    void updateClientCount(int count);
+}
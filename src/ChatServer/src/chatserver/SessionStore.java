@@ -0,0 +1,28 @@
+package chatserver;
+
+import java.util.List;
+
+/**
+ * Tài khoản người dùng và nhật ký kết nối.
+ */
+public interface SessionStore {
+
+    void logConnection(String username, String ipAddress, boolean isConnecting, int port);
+
+    /** Người dùng đã từng kết nối tới port, đăng nhập gần nhất trước. */
+    List<UserRecord> getActiveUsers(int port);
+
+    /** Một trang của {@link #getActiveUsers(int)}, cùng thứ tự. */
+    List<UserRecord> getActiveUsers(int port, int offset, int limit);
+
+    int countUsers(int port);
+
+    /** Số lần connect (hoặc disconnect) đã ghi nhận trên port. */
+    int countConnectionEvents(int port, boolean connecting);
+
+    boolean checkLogin(String username, String password);
+
+    boolean registerUser(String username, String password);
+
+    int deleteSessions(int port);
+}
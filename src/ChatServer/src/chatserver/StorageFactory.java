@@ -0,0 +1,31 @@
+package chatserver;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Tạo backend lưu trữ theo khóa cấu hình "storage.backend":
+ * "sqlite" (mặc định) hoặc "log" (append-only log phân đoạn).
+ */
+public final class StorageFactory {
+    private static final Logger logger = Logger.getLogger(StorageFactory.class.getName());
+
+    private StorageFactory() {
+    }
+
+    public static ChatStorage create(ServerConfig config) {
+        String backend = config.get("storage.backend", "sqlite");
+        switch (backend.toLowerCase()) {
+            case "log":
+                return new LogStructuredStore(
+                        new File(config.get("storage.log.dir", "database/log")),
+                        config.getLong("storage.log.segment.bytes", LogStructuredStore.DEFAULT_SEGMENT_BYTES),
+                        config.getBoolean("storage.log.fsync", false));
+            case "sqlite":
+                return new DatabaseManager();
+            default:
+                logger.warning("Backend lưu trữ không hợp lệ: " + backend + ", dùng sqlite");
+                return new DatabaseManager();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package chatserver;
+
+public class UserRecord {
+    private final String username;
+    private final long lastLogin;
+    private final int connectionCount;
+
+    public UserRecord(String username, long lastLogin, int connectionCount) {
+        this.username = username;
+        this.lastLogin = lastLogin;
+        this.connectionCount = connectionCount;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getLastLogin() {
+        return lastLogin;
+    }
+
+    public String getFormattedLastLogin() {
+        return ChatMessage.formatTimestamp(lastLogin);
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+}
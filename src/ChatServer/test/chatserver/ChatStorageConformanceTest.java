@@ -0,0 +1,323 @@
+package chatserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cùng một bộ kiểm tra cho mọi backend {@link ChatStorage}: SQLite và append-only log phải
+ * trả về cùng kết quả để đổi "storage.backend" không làm thay đổi hành vi của server.
+ */
+@RunWith(Parameterized.class)
+public class ChatStorageConformanceTest {
+    private static final int PORT = 5000;
+    private static final int OTHER_PORT = 5001;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        Function<File, ChatStorage> sqlite = dir -> new DatabaseManager(new File(dir, "chatapp.db"));
+        // Segment nhỏ để các bài kiểm tra đi qua nhiều segment
+        Function<File, ChatStorage> log = dir -> new LogStructuredStore(new File(dir, "log"), 4096, false);
+        return Arrays.asList(new Object[]{"sqlite", sqlite}, new Object[]{"log", log});
+    }
+
+    private final Function<File, ChatStorage> factory;
+    private File dir;
+    private ChatStorage storage;
+
+    public ChatStorageConformanceTest(String name, Function<File, ChatStorage> factory) {
+        this.factory = factory;
+    }
+
+    @Before
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("chatstorage").toFile();
+        storage = factory.apply(dir);
+        assertTrue(storage.connect());
+    }
+
+    @After
+    public void close() {
+        storage.disconnect();
+        deleteRecursively(dir);
+    }
+
+    private long save(String username, String text, int port) {
+        return storage.saveMessageWithEncryption("host", "127.0.0.1", username,
+                username + ": " + text, username + ": enc(" + text + ")", port);
+    }
+
+    private static List<String> texts(List<ChatMessage> messages) {
+        List<String> result = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            result.add(message.getOriginalMessage());
+        }
+        return result;
+    }
+
+    @Test
+    public void savedMessagesGetIncreasingIds() {
+        long previous = 0;
+        for (int i = 0; i < 200; i++) {
+            long id = save("alice", "m" + i, PORT);
+            assertTrue("id " + id + " sau " + previous, id > previous);
+            previous = id;
+        }
+        assertEquals(200, storage.countMessages(PORT));
+    }
+
+    @Test
+    public void recentMessagesAreOldestFirst() {
+        for (int i = 0; i < 300; i++) {
+            save("alice", "m" + i, PORT);
+        }
+        List<ChatMessage> recent = storage.getRecentMessages(PORT, 3);
+        assertEquals(Arrays.asList("m297", "m298", "m299"), texts(recent));
+        ChatMessage last = recent.get(2);
+        assertEquals("alice", last.getUsername());
+        assertEquals("alice: m299", last.getMessage());
+        assertEquals(300, storage.getRecentMessages(PORT, 1000).size());
+    }
+
+    @Test
+    public void messagesAfterIdAreOldestFirstAndLimited() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ids.add(save("alice", "m" + i, PORT));
+        }
+        List<ChatMessage> after = storage.getMessagesAfter(PORT, ids.get(99), 5);
+        assertEquals(Arrays.asList("m100", "m101", "m102", "m103", "m104"), texts(after));
+        assertEquals((long) ids.get(100), after.get(0).getId());
+        assertEquals(200, storage.getMessagesAfter(PORT, ids.get(99), 1000).size());
+        assertTrue(storage.getMessagesAfter(PORT, ids.get(299), 10).isEmpty());
+        assertEquals(300, storage.getMessagesAfter(PORT, 0, 1000).size());
+    }
+
+    @Test
+    public void portsAreIsolated() {
+        save("alice", "here", PORT);
+        save("bob", "there", OTHER_PORT);
+        save("alice", "here again", PORT);
+        assertEquals(2, storage.countMessages(PORT));
+        assertEquals(1, storage.countMessages(OTHER_PORT));
+        assertEquals(Arrays.asList("there"), texts(storage.getRecentMessages(OTHER_PORT, 10)));
+        assertEquals(Arrays.asList("there"), texts(storage.getMessagesAfter(OTHER_PORT, 0, 10)));
+        assertTrue(storage.searchMessages("again", OTHER_PORT).isEmpty());
+    }
+
+    @Test
+    public void searchMatchesContentAndSenderIgnoringCase() {
+        save("alice", "Hello World", PORT);
+        save("bob", "nothing", PORT);
+        save("Carol", "hello again", PORT);
+        save("dave", "bye", OTHER_PORT);
+        assertEquals(Arrays.asList("Hello World", "hello again"), texts(storage.searchMessages("HELLO", PORT)));
+        assertEquals(Arrays.asList("hello again"), texts(storage.searchMessages("carol", PORT)));
+        assertEquals(2, storage.countMessages(PORT, "hello"));
+        assertEquals(0, storage.countMessages(PORT, "bye"));
+        assertEquals(3, storage.countMessages(PORT, null));
+    }
+
+    @Test
+    public void messagePagesAreNewestFirst() {
+        for (int i = 0; i < 250; i++) {
+            save(i % 2 == 0 ? "even" : "odd", "m" + i, PORT);
+        }
+        assertEquals(Arrays.asList("m249", "m248", "m247"), texts(storage.getMessagePage(PORT, null, 0, 3)));
+        assertEquals(Arrays.asList("m149", "m148"), texts(storage.getMessagePage(PORT, null, 100, 2)));
+        assertTrue(storage.getMessagePage(PORT, null, 250, 10).isEmpty());
+        assertEquals(Arrays.asList("m248", "m246"), texts(storage.getMessagePage(PORT, "EVEN", 0, 2)));
+        assertEquals(Arrays.asList("m48", "m46"), texts(storage.getMessagePage(PORT, "even", 100, 2)));
+        assertEquals(125, storage.countMessages(PORT, "even"));
+    }
+
+    @Test
+    public void deleteMessagesOnlyAffectsPort() {
+        for (int i = 0; i < 10; i++) {
+            save("alice", "m" + i, PORT);
+        }
+        save("bob", "kept", OTHER_PORT);
+        assertEquals(10, storage.deleteMessages(PORT));
+        assertEquals(0, storage.countMessages(PORT));
+        assertTrue(storage.getRecentMessages(PORT, 10).isEmpty());
+        assertTrue(storage.getMessagesAfter(PORT, 0, 10).isEmpty());
+        assertTrue(storage.searchMessages("m", PORT).isEmpty());
+        assertEquals(1, storage.countMessages(OTHER_PORT));
+
+        save("alice", "after delete", PORT);
+        assertEquals(Arrays.asList("after delete"), texts(storage.getRecentMessages(PORT, 10)));
+        assertEquals(1, storage.countMessages(PORT, "after"));
+    }
+
+    @Test
+    public void messagesSurviveReopen() {
+        for (int i = 0; i < 100; i++) {
+            save("alice", "m" + i, PORT);
+        }
+        storage.disconnect();
+        storage = factory.apply(dir);
+        assertTrue(storage.connect());
+        assertEquals(100, storage.countMessages(PORT));
+        assertEquals(Arrays.asList("m98", "m99"), texts(storage.getRecentMessages(PORT, 2)));
+        long last = storage.getRecentMessages(PORT, 1).get(0).getId();
+        assertTrue(save("alice", "next", PORT) > last);
+    }
+
+    @Test
+    public void purgeSurvivesReopen() {
+        long last = 0;
+        for (int i = 0; i < 100; i++) {
+            last = save("alice", "m" + i, PORT);
+        }
+        save("bob", "kept", OTHER_PORT);
+        assertEquals(100, storage.deleteMessages(PORT));
+        reopen();
+        assertEquals(0, storage.countMessages(PORT));
+        assertTrue(storage.getMessagesAfter(PORT, 0, 1000).isEmpty());
+        assertEquals(1, storage.countMessages(OTHER_PORT));
+        // Id không được dùng lại sau khi xóa, kể cả khi mở lại
+        long next = save("alice", "after delete", PORT);
+        assertTrue("id " + next + " sau " + last, next > last);
+        reopen();
+        assertEquals(Arrays.asList("after delete"), texts(storage.getMessagesAfter(PORT, 0, 10)));
+    }
+
+    @Test
+    public void tornLastRecordIsDroppedOnReopen() throws IOException {
+        // Chỉ backend log tự ghi file; SQLite tự khôi phục bằng journal
+        if (!(storage instanceof LogStructuredStore)) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(save("alice", "m" + i, PORT));
+        }
+        storage.disconnect();
+        // Như server chết giữa lúc ghi: bản ghi cuối của segment cuối chỉ còn một phần
+        File[] segmentFiles = new File(dir, "log").listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(segmentFiles);
+        File tail = segmentFiles[segmentFiles.length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(tail, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        storage = factory.apply(dir);
+        assertTrue(storage.connect());
+        assertEquals(49, storage.countMessages(PORT));
+        assertEquals(Arrays.asList("m47", "m48"), texts(storage.getRecentMessages(PORT, 2)));
+        assertEquals((long) ids.get(48), storage.getRecentMessages(PORT, 1).get(0).getId());
+
+        // Ghi tiếp sau phần đã cắt, đọc lại được sau lần mở kế tiếp
+        long next = save("alice", "after crash", PORT);
+        assertTrue(next > ids.get(48));
+        reopen();
+        assertEquals(50, storage.countMessages(PORT));
+        assertEquals(Arrays.asList("m48", "after crash"), texts(storage.getRecentMessages(PORT, 2)));
+        assertEquals(Arrays.asList("after crash"), texts(storage.getMessagesAfter(PORT, ids.get(48), 10)));
+    }
+
+    private void reopen() {
+        storage.disconnect();
+        storage = factory.apply(dir);
+        assertTrue(storage.connect());
+    }
+
+    @Test
+    public void readsSeeConcurrentWritesConsistently() throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 500; i++) {
+                save("alice", "m" + i, PORT);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            // Mỗi lần đọc thấy một tiền tố liên tục của các tin đã ghi
+            List<ChatMessage> all = storage.getMessagesAfter(PORT, 0, 1000);
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals("m" + i, all.get(i).getOriginalMessage());
+            }
+        }
+        writer.join();
+        assertEquals(500, storage.getMessagesAfter(PORT, 0, 1000).size());
+    }
+
+    @Test
+    public void registerAndCheckLogin() {
+        assertTrue(storage.registerUser("alice", "secret"));
+        assertFalse(storage.registerUser("alice", "other"));
+        assertTrue(storage.checkLogin("alice", "secret"));
+        assertFalse(storage.checkLogin("alice", "wrong"));
+        assertFalse(storage.checkLogin("nobody", "secret"));
+    }
+
+    // SQLite lưu thời điểm đăng nhập và gửi file theo giây, nên không kiểm tra thứ tự giữa
+    // các bản ghi trong cùng một giây
+    @Test
+    public void connectionLogCountsPerPort() {
+        storage.logConnection("alice", "10.0.0.1", true, PORT);
+        storage.logConnection("bob", "10.0.0.2", true, PORT);
+        storage.logConnection("alice", "10.0.0.1", false, PORT);
+        storage.logConnection("carol", "10.0.0.3", true, OTHER_PORT);
+
+        assertEquals(2, storage.countUsers(PORT));
+        assertEquals(2, storage.countConnectionEvents(PORT, true));
+        assertEquals(1, storage.countConnectionEvents(PORT, false));
+        List<String> users = new ArrayList<>();
+        for (UserRecord user : storage.getActiveUsers(PORT)) {
+            users.add(user.getUsername());
+        }
+        Collections.sort(users);
+        assertEquals(Arrays.asList("alice", "bob"), users);
+        assertEquals(1, storage.getActiveUsers(PORT, 1, 5).size());
+
+        assertEquals(3, storage.deleteSessions(PORT));
+        assertEquals(0, storage.countUsers(PORT));
+        assertEquals(1, storage.countUsers(OTHER_PORT));
+    }
+
+    @Test
+    public void filesArePerPort() {
+        storage.saveFileInfo("alice", "a.txt", "file", 10, "files/a.txt", PORT);
+        storage.saveFileInfo("bob", "b.png", "image", 20, "files/b.png", PORT);
+        storage.saveFileInfo("carol", "c.txt", "file", 30, "files/c.txt", OTHER_PORT);
+
+        List<FileRecord> files = new ArrayList<>(storage.getFiles(PORT));
+        files.sort((a, b) -> a.getFileName().compareTo(b.getFileName()));
+        assertEquals(2, files.size());
+        assertEquals("alice", files.get(0).getSenderUsername());
+        assertEquals("b.png", files.get(1).getFileName());
+        assertEquals("image", files.get(1).getFileType());
+        assertEquals(20, files.get(1).getFileSize());
+        assertEquals("files/b.png", files.get(1).getFilePath());
+
+        assertEquals(2, storage.deleteFiles(PORT));
+        assertTrue(storage.getFiles(PORT).isEmpty());
+        assertEquals(1, storage.getFiles(OTHER_PORT).size());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}